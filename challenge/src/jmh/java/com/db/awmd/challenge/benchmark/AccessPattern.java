@@ -0,0 +1,68 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * How transfers pick their accounts. Draws are precomputed into a table that
+ * benchmark threads index at random, so sampling costs the same for every
+ * pattern.
+ */
+public enum AccessPattern {
+
+	/** Every account equally likely. */
+	UNIFORM {
+		@Override
+		int[] draws(int accounts, int count, Random random) {
+			int[] draws = new int[count];
+			for (int i = 0; i < count; i++) {
+				draws[i] = random.nextInt(accounts);
+			}
+			return draws;
+		}
+	},
+
+	/** Zipfian with exponent 0.99, as in YCSB: a few hot accounts take most transfers. */
+	ZIPFIAN {
+		@Override
+		int[] draws(int accounts, int count, Random random) {
+			double[] cumulative = new double[accounts];
+			double sum = 0;
+			for (int rank = 0; rank < accounts; rank++) {
+				sum += 1.0 / Math.pow(rank + 1, 0.99);
+				cumulative[rank] = sum;
+			}
+			// Ranks are scattered over the ids so the hot accounts do not share lock stripes.
+			int[] accountOfRank = new int[accounts];
+			for (int i = 0; i < accounts; i++) {
+				accountOfRank[i] = i;
+			}
+			for (int i = accounts - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int swap = accountOfRank[i];
+				accountOfRank[i] = accountOfRank[j];
+				accountOfRank[j] = swap;
+			}
+			int[] draws = new int[count];
+			for (int i = 0; i < count; i++) {
+				int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+				draws[i] = accountOfRank[rank >= 0 ? rank : -rank - 1];
+			}
+			return draws;
+		}
+	},
+
+	/** Every transfer moves money between the same two accounts. */
+	CONTENDED {
+		@Override
+		int[] draws(int accounts, int count, Random random) {
+			int[] draws = new int[count];
+			for (int i = 0; i < count; i++) {
+				draws[i] = random.nextInt(2);
+			}
+			return draws;
+		}
+	};
+
+	abstract int[] draws(int accounts, int count, Random random);
+}
@@ -0,0 +1,124 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.AccountsRepositoryOffHeap;
+
+/**
+ * Lookup, creation and lookup-and-update cost of the heap and off-heap
+ * repositories at several map sizes. The live heap taken by the loaded
+ * accounts is reported as the {@code liveHeapMegabytes} secondary result; run
+ * with {@code -prof gc} to compare allocation and collection counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Threads(4)
+public class AccountsRepositoryBenchmark {
+
+	private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+	@Param({ "HEAP", "OFF_HEAP" })
+	public String storage;
+
+	@Param({ "10000", "1000000", "10000000" })
+	public int accounts;
+
+	private AccountsRepositoryInMemory repository;
+
+	private String[] ids;
+
+	private final AtomicLong created = new AtomicLong();
+
+	private final AtomicBoolean footprintReported = new AtomicBoolean();
+
+	private long liveHeapMegabytes;
+
+	@Setup(Level.Trial)
+	public void load() {
+		long before = usedHeap();
+		repository = "HEAP".equals(storage) ? new AccountsRepositoryInMemory()
+				: new AccountsRepositoryOffHeap(accounts);
+		ids = new String[accounts];
+		for (int i = 0; i < accounts; i++) {
+			ids[i] = "Id-" + i;
+			repository.createAccount(new Account(ids[i], new BigDecimal("1000000.00")));
+		}
+		liveHeapMegabytes = Math.max(0L, usedHeap() - before) >> 20;
+	}
+
+	@Benchmark
+	public Account getAccount(Footprint footprint) {
+		return repository.getAccount(ids[ThreadLocalRandom.current().nextInt(accounts)]);
+	}
+
+	@Benchmark
+	public void createAccount(Footprint footprint) {
+		repository.createAccount(new Account("New-" + created.incrementAndGet(), BigDecimal.ZERO));
+	}
+
+	@Benchmark
+	public boolean lookupAndAdjust(Footprint footprint) {
+		Account account = repository.getAccount(ids[ThreadLocalRandom.current().nextInt(accounts)]);
+		return account.adjustBalance(AMOUNT);
+	}
+
+	/**
+	 * Carries the live heap into the results. Counters add up over threads and
+	 * iterations, so one thread reports it, in the first measured iteration.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+
+		public long liveHeapMegabytes;
+
+		private boolean measured;
+
+		@TearDown(Level.Iteration)
+		public void report(AccountsRepositoryBenchmark benchmark, IterationParams iteration) {
+			if (iteration.getType() != IterationType.MEASUREMENT || measured) {
+				return;
+			}
+			measured = true;
+			if (benchmark.footprintReported.compareAndSet(false, true)) {
+				liveHeapMegabytes = benchmark.liveHeapMegabytes;
+			}
+		}
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+}
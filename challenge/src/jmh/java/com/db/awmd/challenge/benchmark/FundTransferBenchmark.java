@@ -0,0 +1,116 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.db.awmd.challenge.DevChallengeApplication;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.AccountsService;
+
+/**
+ * End-to-end {@link AccountsService#fundTransfer} in a full application
+ * context, by access pattern and concurrency mode, at one, four and as many
+ * threads as there are cores. Run sharded mode with {@code -p shards=1,2,4,8}
+ * to see how throughput scales with the shard count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FundTransferBenchmark {
+
+	private static final int DRAWS = 1 << 20;
+
+	private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+	@Param({ "UNIFORM", "ZIPFIAN", "CONTENDED" })
+	public AccessPattern pattern;
+
+	@Param({ "PESSIMISTIC", "OPTIMISTIC", "SHARDED" })
+	public String mode;
+
+	/** Only used in sharded mode. */
+	@Param({ "4" })
+	public int shards;
+
+	@Param({ "100000" })
+	public int accounts;
+
+	private ConfigurableApplicationContext context;
+
+	private AccountsService accountsService;
+
+	private String[] ids;
+
+	private int[] draws;
+
+	@Setup(Level.Trial)
+	public void startApplication() {
+		context = new SpringApplicationBuilder(DevChallengeApplication.class)
+				.web(false)
+				.properties("transfer.concurrency.mode=" + mode, "transfer.sharded.shards=" + shards,
+						"logging.level.com.db.awmd.challenge=WARN")
+				.run();
+		accountsService = context.getBean(AccountsService.class);
+		ids = new String[accounts];
+		for (int i = 0; i < accounts; i++) {
+			ids[i] = "Id-" + i;
+			accountsService.createAccount(new Account(ids[i], new BigDecimal("1000000000000.00")));
+		}
+		draws = pattern.draws(accounts, DRAWS, new Random(42));
+	}
+
+	@TearDown(Level.Trial)
+	public void stopApplication() {
+		context.close();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void oneThread() {
+		transfer();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void fourThreads() {
+		transfer();
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public void allCores() {
+		transfer();
+	}
+
+	private void transfer() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int from = draws[random.nextInt(DRAWS)];
+		int to = draws[random.nextInt(DRAWS)];
+		if (from == to) {
+			to = pattern == AccessPattern.CONTENDED ? 1 - from : (from + 1) % accounts;
+		}
+		accountsService.fundTransfer(ids[from], ids[to], AMOUNT);
+	}
+}
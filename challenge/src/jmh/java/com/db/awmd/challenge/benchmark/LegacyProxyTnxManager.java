@@ -0,0 +1,65 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepository;
+
+/**
+ * The reflection proxy transaction manager that AccountTransferTnxManager
+ * replaced, kept here only as the baseline for TransactionManagerBenchmark.
+ */
+public class LegacyProxyTnxManager {
+
+	private final ThreadLocal<Map<Account, Account>> localContext = new ThreadLocal<>();
+
+	private final AccountsRepository accountsRepo;
+
+	public LegacyProxyTnxManager(AccountsRepository accountsRepository) {
+		InvocationHandler handler = new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().startsWith("get")) {
+					Account account = accountsRepository.getAccount((String) args[0]);
+					Account proxyAccount = new Account(account.getAccountId(), BigDecimal.ZERO.add(account.getBalance()));
+					Map<Account, Account> context = localContext.get();
+					if (context != null) {
+						context.put(proxyAccount, account);
+						return proxyAccount;
+					}
+					return account;
+				}
+				return null;
+			}
+		};
+		this.accountsRepo = (AccountsRepository) Proxy.newProxyInstance(AccountsRepository.class.getClassLoader(),
+				new Class<?>[] { AccountsRepository.class }, handler);
+	}
+
+	public AccountsRepository getAccountsRepo() {
+		return accountsRepo;
+	}
+
+	public void doInTransaction(Runnable callback) {
+		localContext.set(new HashMap<>());
+		try {
+			callback.run();
+		} catch (RuntimeException e) {
+			rollBackTransaction();
+			throw e;
+		}
+	}
+
+	public void commitTransaction() {
+		localContext.get().forEach((shadow, account) -> account.setBalance(shadow.getBalance()));
+	}
+
+	public void rollBackTransaction() {
+		localContext.get().clear();
+	}
+}
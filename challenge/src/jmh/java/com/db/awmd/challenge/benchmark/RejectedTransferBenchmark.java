@@ -0,0 +1,118 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.db.awmd.challenge.DevChallengeApplication;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferOutcome;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.service.AccountsService;
+
+/**
+ * Transfers of which {@code rejectionRate} are drawn from empty accounts and
+ * so rejected for insufficient balance, through the throwing
+ * {@link AccountsService#fundTransfer} and the outcome returning
+ * {@link AccountsService#tryFundTransfer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RejectedTransferBenchmark {
+
+	private static final int DRAWS = 1 << 16;
+
+	private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+	@Param({ "0.5", "0.9", "0.99" })
+	public double rejectionRate;
+
+	@Param({ "PESSIMISTIC", "OPTIMISTIC" })
+	public String mode;
+
+	@Param({ "10000" })
+	public int accounts;
+
+	private ConfigurableApplicationContext context;
+
+	private AccountsService accountsService;
+
+	private String[] funded;
+
+	private String[] empty;
+
+	private String[] fromDraws;
+
+	private String[] toDraws;
+
+	@Setup(Level.Trial)
+	public void startApplication() {
+		context = new SpringApplicationBuilder(DevChallengeApplication.class)
+				.web(false)
+				.properties("transfer.concurrency.mode=" + mode, "logging.level.com.db.awmd.challenge=WARN")
+				.run();
+		accountsService = context.getBean(AccountsService.class);
+		funded = new String[accounts];
+		empty = new String[accounts];
+		for (int i = 0; i < accounts; i++) {
+			funded[i] = "Funded-" + i;
+			empty[i] = "Empty-" + i;
+			accountsService.createAccount(new Account(funded[i], new BigDecimal("1000000000000.00")));
+			accountsService.createAccount(new Account(empty[i], BigDecimal.ZERO));
+		}
+		Random random = new Random(42);
+		fromDraws = new String[DRAWS];
+		toDraws = new String[DRAWS];
+		for (int i = 0; i < DRAWS; i++) {
+			int from = random.nextInt(accounts);
+			fromDraws[i] = random.nextDouble() < rejectionRate ? empty[from] : funded[from];
+			toDraws[i] = funded[(from + 1 + random.nextInt(accounts - 1)) % accounts];
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void stopApplication() {
+		context.close();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void throwing(Blackhole blackhole) {
+		int draw = ThreadLocalRandom.current().nextInt(DRAWS);
+		try {
+			accountsService.fundTransfer(fromDraws[draw], toDraws[draw], AMOUNT);
+		} catch (InsufficientBalanceException e) {
+			blackhole.consume(e);
+		}
+	}
+
+	@Benchmark
+	@Threads(4)
+	public TransferOutcome outcome() {
+		int draw = ThreadLocalRandom.current().nextInt(DRAWS);
+		return accountsService.tryFundTransfer(fromDraws[draw], toDraws[draw], AMOUNT);
+	}
+}
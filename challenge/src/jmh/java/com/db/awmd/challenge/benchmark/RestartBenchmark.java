@@ -0,0 +1,158 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransactionPhase;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.journal.AccountJournal;
+import com.db.awmd.challenge.repository.journal.AccountSnapshotStore;
+import com.db.awmd.challenge.repository.journal.JournalReplayHandler;
+
+/**
+ * Restart time of the in-memory repository, from a snapshot plus a short
+ * journal tail against replaying the whole journal. The 50M case needs a heap
+ * of roughly 24 GB; run smaller sizes with {@code -p accounts=...}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx40g", "-XX:+UseParallelGC" })
+public class RestartBenchmark {
+
+	private static final int SEGMENT_SIZE = 64 << 20;
+
+	private static final int TAIL_TRANSACTIONS = 10_000;
+
+	private static final int CHUNK_ACCOUNTS = 65_536;
+
+	private static final BigDecimal OPENING_BALANCE = new BigDecimal("1000.00");
+
+	private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+	@Param({ "1000000", "10000000", "50000000" })
+	public int accounts;
+
+	private Path root;
+
+	private Path snapshotJournal;
+
+	private Path fullJournal;
+
+	private Path snapshots;
+
+	private AccountJournal journal;
+
+	@Setup(Level.Trial)
+	public void writeData() throws IOException {
+		root = Files.createTempDirectory("restart-benchmark");
+		snapshotJournal = root.resolve("journal-with-snapshot");
+		fullJournal = root.resolve("journal");
+		snapshots = root.resolve("snapshots");
+
+		long cut = writeJournal(fullJournal, true);
+		writeJournal(snapshotJournal, false);
+		new AccountSnapshotStore(snapshots, CHUNK_ACCOUNTS).write(cut, sink -> {
+			for (int i = 0; i < accounts; i++) {
+				sink.accept(accountId(i), OPENING_BALANCE);
+			}
+		});
+	}
+
+	@TearDown(Level.Invocation)
+	public void closeJournal() throws IOException {
+		journal.close();
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteData() throws IOException {
+		try (Stream<Path> paths = Files.walk(root)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public AccountsRepositoryInMemory snapshotAndTail() throws IOException {
+		journal = new AccountJournal(snapshotJournal, SEGMENT_SIZE, 2000, 1 << 20);
+		return new AccountsRepositoryInMemory(journal, new AccountSnapshotStore(snapshots, CHUNK_ACCOUNTS));
+	}
+
+	@Benchmark
+	public AccountsRepositoryInMemory fullReplay() throws IOException {
+		journal = new AccountJournal(fullJournal, SEGMENT_SIZE, 2000, 1 << 20);
+		return new AccountsRepositoryInMemory(journal);
+	}
+
+	/*
+	 * Both journals continue at the same sequence after the creations; the one
+	 * backed by a snapshot starts its first segment there, as it would once the
+	 * older segments have been dropped.
+	 */
+	private long writeJournal(Path directory, boolean withCreations) throws IOException {
+		AccountJournal writer = new AccountJournal(directory, SEGMENT_SIZE, 2000, 1 << 20);
+		writer.open(new NoReplay(), withCreations ? 0L : accounts);
+		if (withCreations) {
+			for (int i = 0; i < accounts; i++) {
+				writer.appendCreate(accountId(i), OPENING_BALANCE);
+			}
+		}
+		long cut = writer.getLastSequence();
+		Account[] pair = new Account[2];
+		BigDecimal[] deltas = { AMOUNT.negate(), AMOUNT };
+		long ticket = 0L;
+		for (int i = 0; i < TAIL_TRANSACTIONS; i++) {
+			pair[0] = new Account(accountId((i * 7919) % accounts));
+			pair[1] = new Account(accountId((i * 104729 + 1) % accounts));
+			ticket = writer.appendTransaction(pair, deltas, 2);
+		}
+		writer.awaitDurable(ticket);
+		writer.close();
+		return cut;
+	}
+
+	private static String accountId(int index) {
+		return "Id-" + index;
+	}
+
+	private static final class NoReplay implements JournalReplayHandler {
+
+		@Override
+		public void onCreate(long sequence, String accountId, BigDecimal balance) {
+		}
+
+		@Override
+		public void onTransaction(long sequence, String[] accountIds, BigDecimal[] deltas) {
+		}
+
+		@Override
+		public void onClear(long sequence) {
+		}
+
+		@Override
+		public void onPhase(long sequence, TransactionPhase phase, String txId, String participant,
+				String[] accountIds, BigDecimal[] amounts) {
+		}
+	}
+}
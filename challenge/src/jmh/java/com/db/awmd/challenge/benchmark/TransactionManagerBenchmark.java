@@ -0,0 +1,92 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.transfer.transaction.AccountTransferTnxManager;
+import com.db.awmd.challenge.transfer.transaction.AccountTransferTransaction;
+
+/**
+ * Commit and rollback cost of the undo-log transaction engine against the
+ * reflection proxy manager it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionManagerBenchmark {
+
+	private static final BigDecimal AMOUNT = BigDecimal.ONE;
+
+	private AccountTransferTnxManager transactionManager;
+
+	private LegacyProxyTnxManager legacyManager;
+
+	private Account from;
+
+	private Account to;
+
+	@Setup
+	public void setUp() {
+		AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory();
+		from = new Account("from", new BigDecimal("1000000000000"));
+		to = new Account("to", new BigDecimal("1000000000000"));
+		repository.createAccount(from);
+		repository.createAccount(to);
+		transactionManager = new AccountTransferTnxManager(repository);
+		legacyManager = new LegacyProxyTnxManager(repository);
+	}
+
+	@Benchmark
+	public void undoLogCommit() {
+		transactionManager.doInTransaction(transaction -> {
+			transaction.debit(from, AMOUNT);
+			transaction.credit(to, AMOUNT);
+		});
+	}
+
+	@Benchmark
+	public void undoLogRollback() {
+		AccountTransferTransaction transaction = transactionManager.begin();
+		transaction.debit(from, AMOUNT);
+		transaction.credit(to, AMOUNT);
+		transaction.rollback();
+	}
+
+	@Benchmark
+	public void legacyProxyCommit() {
+		legacyManager.doInTransaction(() -> {
+			Account shadowFrom = legacyManager.getAccountsRepo().getAccount("from");
+			shadowFrom.setBalance(shadowFrom.getBalance().subtract(AMOUNT));
+			Account shadowTo = legacyManager.getAccountsRepo().getAccount("to");
+			shadowTo.setBalance(shadowTo.getBalance().add(AMOUNT));
+		});
+		legacyManager.commitTransaction();
+	}
+
+	@Benchmark
+	public void legacyProxyRollback() {
+		legacyManager.doInTransaction(() -> {
+			Account shadowFrom = legacyManager.getAccountsRepo().getAccount("from");
+			shadowFrom.setBalance(shadowFrom.getBalance().subtract(AMOUNT));
+			Account shadowTo = legacyManager.getAccountsRepo().getAccount("to");
+			shadowTo.setBalance(shadowTo.getBalance().add(AMOUNT));
+		});
+		legacyManager.rollBackTransaction();
+	}
+}
@@ -0,0 +1,62 @@
+package com.db.awmd.challenge.loadtest;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Picks account indexes with Zipfian skew: the account of rank {@code k} is
+ * chosen with weight {@code 1 / k^skew}, so a skew of 0 is uniform and 0.99
+ * is the YCSB default. Ranks are shuffled over the indexes so that the hot
+ * accounts are not neighbours.
+ */
+final class AccountPicker {
+
+	private final double[] cumulative;
+
+	private final int[] accountOfRank;
+
+	private final int accounts;
+
+	AccountPicker(int accounts, double skew, Random random) {
+		this.accounts = accounts;
+		if (skew == 0.0) {
+			this.cumulative = null;
+			this.accountOfRank = null;
+			return;
+		}
+		this.cumulative = new double[accounts];
+		double sum = 0.0;
+		for (int rank = 0; rank < accounts; rank++) {
+			sum += 1.0 / Math.pow(rank + 1, skew);
+			cumulative[rank] = sum;
+		}
+		this.accountOfRank = new int[accounts];
+		for (int i = 0; i < accounts; i++) {
+			accountOfRank[i] = i;
+		}
+		for (int i = accounts - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = accountOfRank[i];
+			accountOfRank[i] = accountOfRank[j];
+			accountOfRank[j] = swap;
+		}
+	}
+
+	int pick(Random random) {
+		if (cumulative == null) {
+			return random.nextInt(accounts);
+		}
+		int rank = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[accounts - 1]);
+		return accountOfRank[rank >= 0 ? rank : -rank - 1];
+	}
+
+	/** Two distinct accounts, the first drawn by skew and the second redrawn until it differs. */
+	int[] pickPair(Random random) {
+		int from = pick(random);
+		int to;
+		do {
+			to = pick(random);
+		} while (to == from);
+		return new int[] { from, to };
+	}
+}
@@ -0,0 +1,90 @@
+package com.db.awmd.challenge.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Totals of the accounts of one load run, read from an export of the
+ * service. The export is taken at one cut, so the total is exact even while
+ * transfers are still running.
+ */
+final class BalanceAudit {
+
+	private long accounts;
+
+	private BigDecimal total = BigDecimal.ZERO;
+
+	private long negative;
+
+	private String firstNegative;
+
+	/** Reads an NDJSON export, counting only the accounts whose id starts with {@code prefix}. */
+	static BalanceAudit read(InputStream export, String prefix, JsonFactory jsonFactory) throws IOException {
+		BalanceAudit audit = new BalanceAudit();
+		try (JsonParser parser = jsonFactory.createParser(export)) {
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				String accountId = null;
+				BigDecimal balance = null;
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String field = parser.getCurrentName();
+					parser.nextToken();
+					if ("accountId".equals(field)) {
+						accountId = parser.getText();
+					} else if ("balance".equals(field)) {
+						balance = parser.getDecimalValue();
+					} else {
+						parser.skipChildren();
+					}
+				}
+				if (accountId != null && accountId.startsWith(prefix)) {
+					audit.add(accountId, balance);
+				}
+			}
+		}
+		return audit;
+	}
+
+	private void add(String accountId, BigDecimal balance) {
+		accounts++;
+		total = total.add(balance);
+		if (balance.signum() < 0) {
+			if (negative++ == 0L) {
+				firstNegative = accountId + " = " + balance.toPlainString();
+			}
+		}
+	}
+
+	long getAccounts() {
+		return accounts;
+	}
+
+	BigDecimal getTotal() {
+		return total;
+	}
+
+	long getNegative() {
+		return negative;
+	}
+
+	/** Every violation found, or null if the audit holds against the expected count and total. */
+	String violations(long expectedAccounts, BigDecimal expectedTotal) {
+		StringBuilder violations = new StringBuilder();
+		if (accounts != expectedAccounts) {
+			violations.append("found ").append(accounts).append(" accounts, expected ").append(expectedAccounts)
+					.append("; ");
+		}
+		if (total.compareTo(expectedTotal) != 0) {
+			violations.append("total is ").append(total.toPlainString()).append(", expected ")
+					.append(expectedTotal.toPlainString()).append("; ");
+		}
+		if (negative > 0L) {
+			violations.append(negative).append(" negative balances, first ").append(firstNegative).append("; ");
+		}
+		return violations.length() == 0 ? null : violations.substring(0, violations.length() - 2);
+	}
+}
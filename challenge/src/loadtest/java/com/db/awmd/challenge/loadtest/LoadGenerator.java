@@ -0,0 +1,295 @@
+package com.db.awmd.challenge.loadtest;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import com.db.awmd.challenge.transfer.metrics.LatencyHistogram;
+import com.fasterxml.jackson.core.JsonFactory;
+
+/**
+ * Drives a running {@code DevChallengeApplication} with transfer traffic and
+ * checks that no money was created or lost. It imports {@code --accounts}
+ * accounts of {@code --balance} each under a prefix unique to the run, then
+ * offers {@code --rate} transfers a second for {@code --warmup} plus
+ * {@code --duration} seconds between accounts picked with Zipfian
+ * {@code --skew}, and finally audits an export of the service.
+ *
+ * <p>The load is open: transfer {@code i} is due at {@code i / rate} seconds
+ * whether or not earlier ones have been answered, and its latency is measured
+ * from when it was due, so time spent queued behind a slow service is counted
+ * rather than omitted. Latency from the actual send is reported next to it.
+ * Exits with status 1 if an audit finds the total changed, an account
+ * missing or a balance negative.
+ *
+ * <pre>
+ * gradle loadTest -PloadArgs="--url=http://localhost:18080 --accounts=100000 --rate=5000 --skew=0.99"
+ * </pre>
+ */
+public final class LoadGenerator {
+
+	private static final double[] PERCENTILES = { 50.0, 90.0, 99.0, 99.9, 99.99 };
+
+	private static final int IMPORT_CHUNK = 10000;
+
+	private final String url;
+
+	private final int accounts;
+
+	private final BigDecimal balance;
+
+	private final double rate;
+
+	private final long warmupSeconds;
+
+	private final long durationSeconds;
+
+	private final double skew;
+
+	private final int maxAmount;
+
+	private final int connections;
+
+	private final long auditSeconds;
+
+	private final long seed;
+
+	private final String prefix;
+
+	private final RestTemplate restTemplate;
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	private final LatencyHistogram correctedLatency = new LatencyHistogram();
+
+	private final LatencyHistogram serviceLatency = new LatencyHistogram();
+
+	private final Map<String, LongAdder> responses = new ConcurrentHashMap<>();
+
+	private final Map<String, String> violations = new ConcurrentHashMap<>();
+
+	private volatile long measureFrom;
+
+	private LoadGenerator(Map<String, String> options) {
+		this.url = option(options, "url", "http://localhost:18080").replaceAll("/+$", "");
+		this.accounts = Integer.parseInt(option(options, "accounts", "10000"));
+		this.balance = new BigDecimal(option(options, "balance", "1000"));
+		this.rate = Double.parseDouble(option(options, "rate", "1000"));
+		this.warmupSeconds = Long.parseLong(option(options, "warmup", "10"));
+		this.durationSeconds = Long.parseLong(option(options, "duration", "60"));
+		this.skew = Double.parseDouble(option(options, "skew", "0.99"));
+		this.maxAmount = Integer.parseInt(option(options, "max-amount", "10"));
+		this.connections = Integer.parseInt(option(options, "connections", "64"));
+		this.auditSeconds = Long.parseLong(option(options, "audit-interval", "10"));
+		this.seed = Long.parseLong(option(options, "seed", Long.toString(System.nanoTime())));
+		this.prefix = option(options, "prefix", "load-" + Long.toString(System.currentTimeMillis(), 36) + "-");
+		int connectTimeoutMs = Integer.parseInt(option(options, "connect-timeout-ms", "1000"));
+		int readTimeoutMs = Integer.parseInt(option(options, "timeout-ms", "30000"));
+		if (!options.isEmpty()) {
+			throw new IllegalArgumentException("Unknown options " + options.keySet());
+		}
+		if (accounts < 2 || rate <= 0.0 || maxAmount < 1 || connections < 1) {
+			throw new IllegalArgumentException("Need at least 2 accounts and a positive rate, amount and connections");
+		}
+		// HttpURLConnection keeps only 5 idle connections per host by default.
+		System.setProperty("http.maxConnections", Integer.toString(connections));
+		SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+		requestFactory.setConnectTimeout(connectTimeoutMs);
+		requestFactory.setReadTimeout(readTimeoutMs);
+		this.restTemplate = new RestTemplate(requestFactory);
+		this.restTemplate.setErrorHandler(new DefaultResponseErrorHandler() {
+			@Override
+			public boolean hasError(ClientHttpResponse response) {
+				return false;
+			}
+		});
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new TreeMap<>();
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (!arg.startsWith("--") || equals < 0) {
+				throw new IllegalArgumentException("Expected --name=value, got " + arg);
+			}
+			options.put(arg.substring(2, equals), arg.substring(equals + 1));
+		}
+		System.exit(new LoadGenerator(options).run() ? 0 : 1);
+	}
+
+	private static String option(Map<String, String> options, String name, String defaultValue) {
+		String value = options.remove(name);
+		return value == null ? defaultValue : value;
+	}
+
+	private boolean run() throws Exception {
+		BigDecimal expectedTotal = balance.multiply(BigDecimal.valueOf(accounts));
+		System.out.printf("Importing %d accounts of %s under %s into %s%n", accounts, balance.toPlainString(), prefix,
+				url);
+		importAccounts();
+		audit("before the run", expectedTotal);
+
+		Random random = new Random(seed);
+		AccountPicker picker = new AccountPicker(accounts, skew, random);
+		ThreadPoolExecutor senders = new ThreadPoolExecutor(connections, connections, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(), daemonThreads("load-sender"));
+		ScheduledExecutorService auditor = Executors.newSingleThreadScheduledExecutor(daemonThreads("load-audit"));
+		if (auditSeconds > 0L) {
+			auditor.scheduleWithFixedDelay(() -> audit("during the run", expectedTotal), auditSeconds, auditSeconds,
+					TimeUnit.SECONDS);
+		}
+		System.out.printf("Offering %.0f transfers/s for %d s after %d s of warmup, skew %.2f, %d connections%n", rate,
+				durationSeconds, warmupSeconds, skew, connections);
+
+		double interval = TimeUnit.SECONDS.toNanos(1) / rate;
+		long start = System.nanoTime();
+		measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+		long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+		long offered = 0L;
+		int maxBacklog = 0;
+		for (long i = 0L;; i++) {
+			long due = start + (long) (i * interval);
+			if (due - end >= 0L) {
+				break;
+			}
+			for (long wait; (wait = due - System.nanoTime()) > 0L;) {
+				LockSupport.parkNanos(wait);
+			}
+			int[] pair = picker.pickPair(random);
+			int amount = 1 + random.nextInt(maxAmount);
+			senders.execute(() -> transfer(pair[0], pair[1], amount, due));
+			if (due - measureFrom >= 0L) {
+				offered++;
+				maxBacklog = Math.max(maxBacklog, senders.getQueue().size());
+			}
+		}
+		senders.shutdown();
+		if (!senders.awaitTermination(5, TimeUnit.MINUTES)) {
+			System.out.printf("%d transfers still queued, abandoning them%n", senders.shutdownNow().size());
+		}
+		long elapsed = System.nanoTime() - measureFrom;
+		auditor.shutdown();
+		auditor.awaitTermination(1, TimeUnit.MINUTES);
+		audit("after the run", expectedTotal);
+
+		report(offered, elapsed, maxBacklog);
+		if (!violations.isEmpty()) {
+			System.out.println("FAILED money conservation:");
+			violations.forEach((when, violation) -> System.out.printf("  %s: %s%n", when, violation));
+			return false;
+		}
+		System.out.println("PASSED money conservation: total unchanged, no negative balances");
+		return true;
+	}
+
+	private void importAccounts() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.valueOf("application/x-ndjson"));
+		for (int from = 0; from < accounts; from += IMPORT_CHUNK) {
+			StringBuilder body = new StringBuilder();
+			for (int i = from; i < Math.min(accounts, from + IMPORT_CHUNK); i++) {
+				body.append("{\"accountId\":\"").append(prefix).append(i).append("\",\"balance\":")
+						.append(balance.toPlainString()).append("}\n");
+			}
+			ResponseEntity<String> response = restTemplate.exchange(url + "/v1/accounts/bulk", HttpMethod.POST,
+					new HttpEntity<>(body.toString(), headers), String.class);
+			if (!response.getStatusCode().is2xxSuccessful()) {
+				throw new IllegalStateException("Import failed with " + response.getStatusCode() + ": "
+						+ response.getBody());
+			}
+		}
+	}
+
+	private void transfer(int from, int to, int amount, long due) {
+		String body = "{\"accountFrom\":\"" + prefix + from + "\",\"accountTo\":\"" + prefix + to
+				+ "\",\"transferAmount\":" + amount + "}";
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		long sent = System.nanoTime();
+		String response;
+		try {
+			response = Integer.toString(restTemplate.exchange(url + "/v1/accounts/transfer", HttpMethod.POST,
+					new HttpEntity<>(body, headers), String.class).getStatusCodeValue());
+		} catch (RestClientException e) {
+			response = e.getMostSpecificCause().getClass().getSimpleName();
+		}
+		long done = System.nanoTime();
+		if (due - measureFrom >= 0L) {
+			correctedLatency.record(done - due);
+			serviceLatency.record(done - sent);
+			responses.computeIfAbsent(response, key -> new LongAdder()).increment();
+		}
+	}
+
+	private void audit(String when, BigDecimal expectedTotal) {
+		try {
+			BalanceAudit audit = restTemplate.execute(url + "/v1/accounts/export", HttpMethod.GET, null,
+					response -> BalanceAudit.read(response.getBody(), prefix, jsonFactory));
+			String violation = audit.violations(accounts, expectedTotal);
+			System.out.printf("Audit %s: %d accounts, total %s, %d negative%s%n", when, audit.getAccounts(),
+					audit.getTotal().toPlainString(), audit.getNegative(), violation == null ? "" : " - " + violation);
+			if (violation != null) {
+				violations.putIfAbsent(when, violation);
+			}
+		} catch (RestClientException e) {
+			System.out.printf("Audit %s could not read the export: %s%n", when, e);
+			if (!"during the run".equals(when)) {
+				violations.putIfAbsent(when, "export failed: " + e);
+			}
+		}
+	}
+
+	private void report(long offered, long elapsedNanos, int maxBacklog) {
+		double seconds = elapsedNanos / 1e9;
+		System.out.printf("%nOffered %d transfers at %.0f/s; completed %d at %.0f/s; largest send backlog %d%n", offered,
+				offered / (double) durationSeconds, correctedLatency.getCount(), correctedLatency.getCount() / seconds,
+				maxBacklog);
+		System.out.print("Responses:");
+		new TreeMap<>(responses).forEach((response, count) -> System.out.printf(" %s=%d", response, count.sum()));
+		System.out.println();
+		System.out.printf("%-10s %14s %14s%n", "latency ms", "from due", "from send");
+		for (double percentile : PERCENTILES) {
+			System.out.printf("%-10s %14.3f %14.3f%n", "p" + percentile, millis(correctedLatency.getValueAtPercentile(
+					percentile)), millis(serviceLatency.getValueAtPercentile(percentile)));
+		}
+		System.out.printf("%-10s %14.3f %14.3f%n", "max", millis(correctedLatency.getMax()),
+				millis(serviceLatency.getMax()));
+		System.out.printf("%-10s %14.3f %14.3f%n", "mean", correctedLatency.getMean() / 1e6,
+				serviceLatency.getMean() / 1e6);
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	private static ThreadFactory daemonThreads(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
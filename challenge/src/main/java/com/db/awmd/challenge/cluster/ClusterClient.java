@@ -0,0 +1,174 @@
+package com.db.awmd.challenge.cluster;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import com.db.awmd.challenge.domain.TransferLeg;
+import com.db.awmd.challenge.domain.TransferOutcome;
+
+/**
+ * HTTP calls to the other nodes of the cluster: requests forwarded to the
+ * owner of an account and the two-phase commit calls of cross-node transfers.
+ * Answers of any status are returned as they are; only a node that cannot be
+ * reached throws a {@link RestClientException}. Every call carries
+ * {@code accounts.cluster.secret}, without which nodes refuse two-phase
+ * commit calls and route forwarded requests as their own.
+ */
+@Component
+@ConditionalOnProperty(name = "accounts.cluster.enabled", havingValue = "true")
+public class ClusterClient {
+
+	static final String TRANSACTIONS_PATH = "/internal/v1/transactions/";
+
+	public static final String SECRET_HEADER = "X-Cluster-Secret";
+
+	private final ClusterTopology topology;
+
+	private final RestTemplate restTemplate;
+
+	private final String secret;
+
+	@Autowired(required = false)
+	@Qualifier("requestExecutor")
+	private Executor requestExecutor;
+
+	@Autowired
+	public ClusterClient(ClusterTopology topology,
+			@Value("${accounts.cluster.connect-timeout-ms:1000}") int connectTimeoutMs,
+			@Value("${accounts.cluster.read-timeout-ms:10000}") int readTimeoutMs,
+			@Value("${accounts.cluster.secret:}") String secret) {
+		if (secret.trim().isEmpty()) {
+			throw new IllegalArgumentException("accounts.cluster.secret must be set on every node of a cluster");
+		}
+		this.topology = topology;
+		this.secret = secret;
+		SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+		requestFactory.setConnectTimeout(connectTimeoutMs);
+		requestFactory.setReadTimeout(readTimeoutMs);
+		this.restTemplate = new RestTemplate(requestFactory);
+		this.restTemplate.setErrorHandler(new DefaultResponseErrorHandler() {
+			@Override
+			public boolean hasError(ClientHttpResponse response) throws IOException {
+				return false;
+			}
+		});
+	}
+
+	/** Whether {@code presented}, a {@value #SECRET_HEADER} value, is the cluster secret. */
+	public boolean isClusterSecret(String presented) {
+		// Compared in constant time, so the secret cannot be guessed byte by byte.
+		return presented != null && MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8),
+				presented.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Sends the request to the node owning {@code accountId}, with the cluster
+	 * secret, and returns its answer with the {@code Content-Type} and
+	 * {@code ETag} it carried.
+	 */
+	public ResponseEntity<byte[]> forward(String accountId, HttpMethod method, String path, HttpHeaders headers,
+			byte[] body) {
+		String url = topology.baseUrlOf(topology.ownerOf(accountId)) + path;
+		HttpHeaders sent = new HttpHeaders();
+		sent.putAll(headers);
+		sent.set(SECRET_HEADER, secret);
+		ResponseEntity<byte[]> answer = restTemplate.exchange(url, method, new HttpEntity<>(body, sent), byte[].class);
+		HttpHeaders kept = new HttpHeaders();
+		if (answer.getHeaders().getContentType() != null) {
+			kept.setContentType(answer.getHeaders().getContentType());
+		}
+		if (answer.getHeaders().getETag() != null) {
+			kept.setETag(answer.getHeaders().getETag());
+		}
+		return new ResponseEntity<>(answer.getBody(), kept, answer.getStatusCode());
+	}
+
+	/** Runs {@link #forward} on the request executor, if there is one. */
+	public CompletableFuture<ResponseEntity<byte[]>> forwardAsync(String accountId, HttpMethod method, String path,
+			HttpHeaders headers, byte[] body) {
+		if (requestExecutor == null) {
+			return CompletableFuture.completedFuture(forward(accountId, method, path, headers, body));
+		}
+		try {
+			return CompletableFuture.supplyAsync(() -> forward(accountId, method, path, headers, body), requestExecutor);
+		} catch (RejectedExecutionException e) {
+			CompletableFuture<ResponseEntity<byte[]>> rejected = new CompletableFuture<>();
+			rejected.completeExceptionally(e);
+			return rejected;
+		}
+	}
+
+	/** Asks {@code nodeId} to prepare its legs of {@code txId}; returns how it voted. */
+	public TransferOutcome prepare(String nodeId, String txId, List<TransferLeg> legs) {
+		HttpHeaders headers = transactionHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON_UTF8);
+		ResponseEntity<String> answer = restTemplate.exchange(url(nodeId, txId, "prepare"), HttpMethod.POST,
+				new HttpEntity<>(legs, headers), String.class);
+		if (answer.getStatusCode() == HttpStatus.OK) {
+			return TransferOutcome.ACCEPTED;
+		}
+		try {
+			return TransferOutcome.valueOf(String.valueOf(answer.getBody()).trim());
+		} catch (IllegalArgumentException e) {
+			throw new RestClientException("Node " + nodeId + " answered prepare of " + txId + " with "
+					+ answer.getStatusCode());
+		}
+	}
+
+	/**
+	 * Tells {@code nodeId} to commit {@code txId} and returns its answer. A
+	 * node answers a commit it has done already with 2xx again, and 404 only
+	 * for a transaction it does not know.
+	 */
+	public HttpStatus commit(String nodeId, String txId) {
+		return restTemplate.exchange(url(nodeId, txId, "commit"), HttpMethod.POST,
+				new HttpEntity<>(transactionHeaders()), String.class).getStatusCode();
+	}
+
+	/** Tells {@code nodeId} to abort {@code txId}; returns whether it has. */
+	public boolean abort(String nodeId, String txId) {
+		return restTemplate.exchange(url(nodeId, txId, "abort"), HttpMethod.POST,
+				new HttpEntity<>(transactionHeaders()), String.class).getStatusCode().is2xxSuccessful();
+	}
+
+	/**
+	 * Tells {@code nodeId} it will not be asked about {@code txId} again;
+	 * returns whether it has forgotten the transaction.
+	 */
+	public boolean forget(String nodeId, String txId) {
+		return restTemplate.exchange(url(nodeId, txId, "forget"), HttpMethod.POST,
+				new HttpEntity<>(transactionHeaders()), String.class).getStatusCode().is2xxSuccessful();
+	}
+
+	private HttpHeaders transactionHeaders() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(SECRET_HEADER, secret);
+		return headers;
+	}
+
+	private String url(String nodeId, String txId, String phase) {
+		return topology.baseUrlOf(nodeId) + TRANSACTIONS_PATH + txId + "/" + phase;
+	}
+}
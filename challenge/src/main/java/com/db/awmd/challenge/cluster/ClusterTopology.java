@@ -0,0 +1,112 @@
+package com.db.awmd.challenge.cluster;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import lombok.Getter;
+
+/**
+ * Which node owns which account. {@code accounts.cluster.nodes} lists every
+ * node as {@code id=baseUrl}, the same on all nodes; each node is placed on a
+ * hash ring at {@code accounts.cluster.virtual-nodes} points and an account
+ * belongs to the first point at or after the hash of its id. Adding a node
+ * therefore moves only the accounts that land on its points. Accounts are not
+ * migrated: the list is fixed for the life of a cluster.
+ */
+@Component
+@ConditionalOnProperty(name = "accounts.cluster.enabled", havingValue = "true")
+public class ClusterTopology {
+
+	@Getter
+	private final String localNodeId;
+
+	private final Map<String, String> baseUrls;
+
+	/** Ring points in ascending order, with the node owning each in {@link #owners}. */
+	private final long[] points;
+
+	private final String[] owners;
+
+	@Autowired
+	public ClusterTopology(@Value("${accounts.cluster.node-id}") String localNodeId,
+			@Value("${accounts.cluster.nodes}") String[] nodes,
+			@Value("${accounts.cluster.virtual-nodes:128}") int virtualNodes) {
+		Map<String, String> urls = new LinkedHashMap<>();
+		for (String node : nodes) {
+			int separator = node.indexOf('=');
+			if (separator <= 0 || separator == node.length() - 1) {
+				throw new IllegalArgumentException("Cluster node " + node + " is not of the form id=baseUrl");
+			}
+			String url = node.substring(separator + 1).trim();
+			urls.put(node.substring(0, separator).trim(), url.endsWith("/") ? url.substring(0, url.length() - 1) : url);
+		}
+		if (!urls.containsKey(localNodeId)) {
+			throw new IllegalArgumentException("Local node " + localNodeId + " is not one of the cluster nodes");
+		}
+		this.localNodeId = localNodeId;
+		this.baseUrls = Collections.unmodifiableMap(urls);
+
+		int perNode = Math.max(1, virtualNodes);
+		long[][] ring = new long[urls.size() * perNode][];
+		String[] ids = urls.keySet().toArray(new String[0]);
+		for (int node = 0; node < ids.length; node++) {
+			for (int i = 0; i < perNode; i++) {
+				ring[node * perNode + i] = new long[] { hash(ids[node] + "#" + i), node };
+			}
+		}
+		// Ties, however unlikely, go to the node listed first on every node alike.
+		Arrays.sort(ring, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+		this.points = new long[ring.length];
+		this.owners = new String[ring.length];
+		for (int i = 0; i < ring.length; i++) {
+			points[i] = ring[i][0];
+			owners[i] = ids[(int) ring[i][1]];
+		}
+	}
+
+	public String ownerOf(String accountId) {
+		int index = Arrays.binarySearch(points, hash(accountId));
+		if (index < 0) {
+			index = -index - 1;
+		}
+		return owners[index == points.length ? 0 : index];
+	}
+
+	public boolean isLocal(String accountId) {
+		return localNodeId.equals(ownerOf(accountId));
+	}
+
+	public String baseUrlOf(String nodeId) {
+		String url = baseUrls.get(nodeId);
+		if (url == null) {
+			throw new IllegalArgumentException("Unknown cluster node " + nodeId);
+		}
+		return url;
+	}
+
+	public Map<String, String> getNodes() {
+		return baseUrls;
+	}
+
+	/* FNV-1a over the UTF-16 units, then a finalizer so that close ids spread over the whole ring. */
+	static long hash(String key) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
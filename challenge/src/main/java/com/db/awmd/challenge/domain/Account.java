@@ -1,34 +1,267 @@
 package com.db.awmd.challenge.domain;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.math.BigDecimal;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
-import lombok.Data;
-import org.hibernate.validator.constraints.NotBlank;
+import lombok.Getter;
 import org.hibernate.validator.constraints.NotEmpty;
 
-@Data
+/**
+ * The balance lives in an immutable {@link AccountState} behind an
+ * {@link AtomicReference}, so it can be updated either under the account locks
+ * or lock-free with {@link #compareAndSetState(AccountState, AccountState)}.
+ * Repositories that keep the state elsewhere subclass this as a view and
+ * override {@link #getState()} and {@link #compareAndSetState}.
+ *
+ * <p>A hot account, see {@link #markHot(int)}, takes credits into striped
+ * cells instead of its state; its balance is the state plus the cells, and the
+ * cells are folded into the state when a debit needs them or the repository
+ * cuts an epoch.
+ */
 public class Account {
 
+  /** Handle of an account that has not been published by a repository. */
+  public static final int NO_HANDLE = -1;
+
+  @Getter
   @NotNull
   @NotEmpty
   private final String accountId;
 
-  @NotNull
-  @Min(value = 0, message = "Initial balance must be positive.")
-  private BigDecimal balance;
+  private final AtomicReference<AccountState> state;
+
+  private EpochClock epochClock;
+
+  private int handle = NO_HANDLE;
+
+  private volatile StripedCredits credits;
 
   public Account(String accountId) {
-    this.accountId = accountId;
-    this.balance = BigDecimal.ZERO;
+    this(accountId, BigDecimal.ZERO);
   }
 
   @JsonCreator
   public Account(@JsonProperty("accountId") String accountId,
     @JsonProperty("balance") BigDecimal balance) {
     this.accountId = accountId;
-    this.balance = balance;
+    this.state = new AtomicReference<>(new AccountState(balance, 0L));
+  }
+
+  /** For views whose state is stored outside the object. */
+  protected Account(String accountId, int handle, EpochClock epochClock) {
+    this.accountId = accountId;
+    this.state = null;
+    this.handle = handle;
+    this.epochClock = epochClock;
+  }
+
+  @NotNull
+  @Min(value = 0, message = "Initial balance must be positive.")
+  public BigDecimal getBalance() {
+    StripedCredits striped = credits;
+    if (striped == null) {
+      return getState().getBalance();
+    }
+    while (true) {
+      long sequence = striped.foldSequence;
+      if ((sequence & 1L) == 0L) {
+        BigDecimal balance = getState().getBalance().add(striped.sum());
+        if (striped.foldSequence == sequence) {
+          return balance;
+        }
+      }
+      Thread.yield();
+    }
+  }
+
+  public void setBalance(BigDecimal balance) {
+    StripedCredits striped = credits;
+    if (striped == null) {
+      replaceBalance(balance);
+      return;
+    }
+    synchronized (striped) {
+      striped.foldSequence++;
+      striped.drain();
+      replaceBalance(balance);
+      striped.foldSequence++;
+    }
+  }
+
+  private void replaceBalance(BigDecimal balance) {
+    AccountState current;
+    do {
+      current = getState();
+    } while (!compareAndSetState(current, nextState(current, balance)));
+  }
+
+  /**
+   * Splits credits to this account over {@code stripes} cells from now on, for
+   * accounts that receive many concurrent credits. Returns false if the account
+   * was hot already.
+   */
+  public synchronized boolean markHot(int stripes) {
+    if (credits != null) {
+      return false;
+    }
+    credits = new StripedCredits(stripes);
+    return true;
+  }
+
+  @JsonIgnore
+  public boolean isHot() {
+    return credits != null;
+  }
+
+  /**
+   * Moves the credits held in the cells of a hot account into its state.
+   * Returns whether there was anything to move.
+   */
+  public boolean foldCredits() {
+    StripedCredits striped = credits;
+    if (striped == null) {
+      return false;
+    }
+    synchronized (striped) {
+      striped.foldSequence++;
+      try {
+        BigDecimal drained = striped.drain();
+        if (drained.signum() == 0) {
+          return false;
+        }
+        AccountState current;
+        do {
+          current = getState();
+        } while (!compareAndSetState(current, nextState(current, current.getBalance().add(drained))));
+        return true;
+      } finally {
+        striped.foldSequence++;
+      }
+    }
+  }
+
+  @JsonIgnore
+  public AccountState getState() {
+    return state.get();
+  }
+
+  /**
+   * Dense integer assigned by the repository that published the account, used
+   * in place of the id on the transfer path; {@link #NO_HANDLE} before that.
+   */
+  @JsonIgnore
+  public int getHandle() {
+    return handle;
+  }
+
+  /** Called by the owning repository before the account is published. */
+  public void assignHandle(int handle) {
+    this.handle = handle;
+  }
+
+  /** Whether both objects stand for the same account, by handle once published. */
+  public boolean isSameAccount(Account other) {
+    if (this == other) {
+      return true;
+    }
+    if (handle != NO_HANDLE && other.handle != NO_HANDLE) {
+      return handle == other.handle;
+    }
+    return accountId.equals(other.accountId);
+  }
+
+  @JsonIgnore
+  public long getVersion() {
+    return getState().getVersion();
+  }
+
+  public boolean compareAndSetState(AccountState expected, AccountState update) {
+    return state.compareAndSet(expected, update);
+  }
+
+  /**
+   * Whether the account can take {@code balance}; only stores that keep
+   * balances in a fixed width, see {@code OffHeapAccountStore}, refuse any.
+   */
+  public boolean canHold(BigDecimal balance) {
+    return true;
+  }
+
+  /** Builds the state that replaces {@code current}, stamped with the current commit epoch. */
+  public AccountState nextState(AccountState current, BigDecimal balance) {
+    EpochClock clock = epochClock;
+    if (clock == null) {
+      return new AccountState(balance, current.getVersion() + 1, current.getEpoch(), null);
+    }
+    long epoch = clock.current();
+    AccountState previous = null;
+    if (clock.isRetaining()) {
+      previous = current.getEpoch() == epoch ? current.getPrevious() : current.detached();
+    }
+    return new AccountState(balance, current.getVersion() + 1, epoch, previous);
+  }
+
+  /**
+   * Called by the owning repository before the account is published; the
+   * initial state is stamped with the current epoch, so cuts taken earlier do
+   * not see the account.
+   */
+  public void bindEpochClock(EpochClock epochClock) {
+    this.epochClock = epochClock;
+    AccountState initial = state.get();
+    state.set(new AccountState(initial.getBalance(), initial.getVersion(), epochClock.current(), null));
+  }
+
+  /**
+   * Atomically adds {@code delta} to the balance unless that would make it
+   * negative, in which case the balance is left untouched and false returned.
+   * Credits to a hot account go to its cells; a debit the state cannot cover
+   * borrows from the cells by folding them in first.
+   */
+  public boolean adjustBalance(BigDecimal delta) {
+    StripedCredits striped = credits;
+    if (striped != null && delta.signum() > 0) {
+      striped.add(delta);
+      return true;
+    }
+    while (true) {
+      AccountState current = getState();
+      BigDecimal updated = current.getBalance().add(delta);
+      if (updated.signum() < 0) {
+        if (!foldCredits()) {
+          return false;
+        }
+      } else if (compareAndSetState(current, nextState(current, updated))) {
+        return true;
+      }
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Account)) {
+      return false;
+    }
+    Account other = (Account) o;
+    return Objects.equals(accountId, other.accountId)
+      && Objects.equals(getBalance(), other.getBalance());
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(accountId, getBalance());
+  }
+
+  @Override
+  public String toString() {
+    return "Account(accountId=" + accountId + ", balance=" + getBalance() + ")";
   }
 }
@@ -0,0 +1,37 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * Immutable balance of an account. {@code epoch} is the commit epoch that
+ * produced it; while a point-in-time read is in progress the state it replaced
+ * is kept as {@code previous}, so readers of the older epoch can still see it.
+ */
+@Value
+@AllArgsConstructor
+public class AccountState {
+
+  private final BigDecimal balance;
+
+  private final long version;
+
+  private final long epoch;
+
+  private final AccountState previous;
+
+  public AccountState(BigDecimal balance, long version) {
+    this(balance, version, 0L, null);
+  }
+
+  /** The state as of the end of {@code cutEpoch}, or null if the account had no state then. */
+  public AccountState visibleAt(long cutEpoch) {
+    return epoch <= cutEpoch ? this : previous;
+  }
+
+  AccountState detached() {
+    return previous == null ? this : new AccountState(balance, version, epoch, null);
+  }
+}
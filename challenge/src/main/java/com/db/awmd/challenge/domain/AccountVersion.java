@@ -0,0 +1,63 @@
+package com.db.awmd.challenge.domain;
+
+import lombok.Value;
+
+/**
+ * Identifies one committed state of one account: the incarnation of the
+ * repository holding it, the account's handle, which is never reused within
+ * an incarnation, and the version of its {@link AccountState}, which every
+ * commit bumps. Handles and versions start over whenever a repository does,
+ * so only the incarnation keeps a tag from before a restart from naming a
+ * state of the new one. Rendered as an HTTP entity tag.
+ */
+@Value
+public class AccountVersion {
+
+	private final long incarnation;
+
+	private final int handle;
+
+	private final long version;
+
+	public static AccountVersion of(long incarnation, Account account, AccountState state) {
+		return new AccountVersion(incarnation, account.getHandle(), state.getVersion());
+	}
+
+	/**
+	 * Parses a tag written by {@link #toETag()}, weak or not; returns null for
+	 * anything else.
+	 */
+	public static AccountVersion parseETag(String tag) {
+		String value = tag.trim();
+		if (value.startsWith("W/")) {
+			value = value.substring(2);
+		}
+		if (value.length() < 7 || value.charAt(0) != '"' || value.charAt(value.length() - 1) != '"') {
+			return null;
+		}
+		String[] parts = value.substring(1, value.length() - 1).split("-", -1);
+		if (parts.length != 3) {
+			return null;
+		}
+		try {
+			return new AccountVersion(Long.parseUnsignedLong(parts[0], 16), Integer.parseInt(parts[1]),
+					Long.parseLong(parts[2]));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Whether {@code state} of {@code account}, held by a repository of
+	 * {@code currentIncarnation}, is this version. Credits to a hot account do
+	 * not bump its version, so a hot account never matches.
+	 */
+	public boolean matches(long currentIncarnation, Account account, AccountState state) {
+		return incarnation == currentIncarnation && handle == account.getHandle() && version == state.getVersion()
+				&& !account.isHot();
+	}
+
+	public String toETag() {
+		return "\"" + Long.toHexString(incarnation) + "-" + handle + "-" + version + "\"";
+	}
+}
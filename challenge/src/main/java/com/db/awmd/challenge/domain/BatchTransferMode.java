@@ -0,0 +1,10 @@
+package com.db.awmd.challenge.domain;
+
+public enum BatchTransferMode {
+
+	/** Either every transfer of the batch is applied or none is. */
+	ALL_OR_NOTHING,
+
+	/** Transfers that cannot be applied are rejected, the rest are applied. */
+	BEST_EFFORT
+}
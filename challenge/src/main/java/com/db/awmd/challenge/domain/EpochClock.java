@@ -0,0 +1,50 @@
+package com.db.awmd.challenge.domain;
+
+/**
+ * Commit epoch shared by the accounts of one repository. The repository
+ * advances it, while no commit is in flight, to cut a consistent point in
+ * time; accounts stamp every new state with the current epoch and, while
+ * {@link #isRetaining()}, keep the state they replaced.
+ *
+ * <p>States keep a single older version, so at most one cut can be open. A
+ * reader asking for a cut while one is open joins it, and older states are
+ * retained until the last reader has released it.
+ */
+public final class EpochClock {
+
+  private volatile long current = 1L;
+
+  private volatile boolean retaining;
+
+  private long openCut;
+
+  private int readers;
+
+  public long current() {
+    return current;
+  }
+
+  public boolean isRetaining() {
+    return retaining;
+  }
+
+  /**
+   * Closes the current epoch and starts retaining older states, or joins the
+   * cut already open; returns the cut epoch. Every call needs a
+   * {@link #release()}.
+   */
+  public synchronized long cut() {
+    if (readers++ == 0) {
+      openCut = current;
+      retaining = true;
+      current = openCut + 1;
+    }
+    return openCut;
+  }
+
+  public synchronized void release() {
+    if (readers > 0 && --readers == 0) {
+      retaining = false;
+    }
+  }
+}
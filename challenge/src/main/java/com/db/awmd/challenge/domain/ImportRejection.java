@@ -0,0 +1,14 @@
+package com.db.awmd.challenge.domain;
+
+import lombok.Value;
+
+/** A row of a bulk import that did not create an account; rows count from 1. */
+@Value
+public class ImportRejection {
+
+	private final long row;
+
+	private final String accountId;
+
+	private final String reason;
+}
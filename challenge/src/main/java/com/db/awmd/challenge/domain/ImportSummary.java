@@ -0,0 +1,23 @@
+package com.db.awmd.challenge.domain;
+
+import java.util.List;
+
+import lombok.Value;
+
+/**
+ * Outcome of a bulk import. {@code rejections} lists the lowest rejected
+ * rows, at most a configured number of them, in row order; {@code rejected}
+ * counts all of them. {@code error} is set when the upload could not be read to the end,
+ * in which case the rows before the error were still imported.
+ */
+@Value
+public class ImportSummary {
+
+	private final long accepted;
+
+	private final long rejected;
+
+	private final List<ImportRejection> rejections;
+
+	private final String error;
+}
@@ -0,0 +1,22 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+import lombok.Value;
+
+/**
+ * One transfer as seen from one account: {@code amount} is negative for money
+ * that left the account. {@code sequence} numbers the entries of each account
+ * from zero in the order they were recorded.
+ */
+@Value
+public class LedgerEntry {
+
+	private final long sequence;
+
+	private final String counterparty;
+
+	private final BigDecimal amount;
+
+	private final long timestamp;
+}
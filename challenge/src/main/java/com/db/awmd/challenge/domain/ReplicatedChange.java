@@ -0,0 +1,39 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Value;
+
+/**
+ * A committed change as a primary sends it to its followers. A creation has
+ * the new account and its balance, a transaction each changed account and
+ * the amount added to it, and a clear neither.
+ */
+@Value
+public class ReplicatedChange {
+
+	public enum Type {
+		CREATE, TRANSACTION, CLEAR
+	}
+
+	private final long sequence;
+
+	private final Type type;
+
+	private final List<String> accountIds;
+
+	private final List<BigDecimal> amounts;
+
+	@JsonCreator
+	public ReplicatedChange(@JsonProperty("sequence") long sequence, @JsonProperty("type") Type type,
+			@JsonProperty("accountIds") List<String> accountIds, @JsonProperty("amounts") List<BigDecimal> amounts) {
+		this.sequence = sequence;
+		this.type = type;
+		this.accountIds = accountIds;
+		this.amounts = amounts;
+	}
+}
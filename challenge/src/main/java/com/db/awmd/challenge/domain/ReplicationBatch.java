@@ -0,0 +1,30 @@
+package com.db.awmd.challenge.domain;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Value;
+
+/**
+ * Changes of the replication log {@code log}, in sequence order, with the
+ * last sequence the primary had committed when the batch was read.
+ */
+@Value
+public class ReplicationBatch {
+
+	private final String log;
+
+	private final long last;
+
+	private final List<ReplicatedChange> changes;
+
+	@JsonCreator
+	public ReplicationBatch(@JsonProperty("log") String log, @JsonProperty("last") long last,
+			@JsonProperty("changes") List<ReplicatedChange> changes) {
+		this.log = log;
+		this.last = last;
+		this.changes = changes;
+	}
+}
@@ -0,0 +1,62 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Credits of a hot account not yet folded into its {@link AccountState}, kept
+ * in {@code LongAdder} style: a credit lands on one of several cells, each on
+ * its own cache line, so concurrent credits rarely contend. {@code foldSequence}
+ * is odd while a fold moves the cells into the state, which lets readers take a
+ * consistent total without locking.
+ */
+final class StripedCredits {
+
+  /** References per cell, so neighbouring cells do not share a cache line. */
+  private static final int PAD = 16;
+
+  private final AtomicReferenceArray<BigDecimal> cells;
+
+  private final int mask;
+
+  volatile long foldSequence;
+
+  StripedCredits(int stripes) {
+    int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+    this.mask = size - 1;
+    this.cells = new AtomicReferenceArray<>(size * PAD);
+    for (int i = 0; i < size; i++) {
+      cells.set(i * PAD, BigDecimal.ZERO);
+    }
+  }
+
+  void add(BigDecimal amount) {
+    int stripe = (int) Thread.currentThread().getId() & mask;
+    while (true) {
+      int index = stripe * PAD;
+      BigDecimal current = cells.get(index);
+      if (cells.compareAndSet(index, current, current.add(amount))) {
+        return;
+      }
+      stripe = ThreadLocalRandom.current().nextInt(mask + 1);
+    }
+  }
+
+  BigDecimal sum() {
+    BigDecimal sum = BigDecimal.ZERO;
+    for (int i = 0; i <= mask; i++) {
+      sum = sum.add(cells.get(i * PAD));
+    }
+    return sum;
+  }
+
+  /** Empties every cell and returns what they held; credits racing in stay for the next fold. */
+  BigDecimal drain() {
+    BigDecimal drained = BigDecimal.ZERO;
+    for (int i = 0; i <= mask; i++) {
+      drained = drained.add(cells.getAndSet(i * PAD, BigDecimal.ZERO));
+    }
+    return drained;
+  }
+}
@@ -0,0 +1,40 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+/**
+ * The steps of a two-phase commit transaction as its node records them. Each
+ * record carries every leg of the transaction, negative for a debit and
+ * positive for a credit, and moves balances by {@link #effect(BigDecimal)}:
+ * a prepare takes the debits, a commit adds the credits and an abort gives
+ * the debits back.
+ */
+public enum TransactionPhase {
+
+	PREPARE,
+
+	COMMIT,
+
+	ABORT,
+
+	/**
+	 * Nothing is left to do: on the coordinator its participant acknowledged
+	 * and forgot the outcome, on the participant the coordinator told it to
+	 * forget.
+	 */
+	COMPLETE;
+
+	/** What a leg of {@code amount} adds to its balance in this phase. */
+	public BigDecimal effect(BigDecimal amount) {
+		switch (this) {
+		case PREPARE:
+			return amount.signum() < 0 ? amount : BigDecimal.ZERO;
+		case COMMIT:
+			return amount.signum() > 0 ? amount : BigDecimal.ZERO;
+		case ABORT:
+			return amount.signum() < 0 ? amount.negate() : BigDecimal.ZERO;
+		default:
+			return BigDecimal.ZERO;
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Value;
+
+/**
+ * The part of a transfer that touches one account: {@code amount} is negative
+ * for a debit and positive for a credit.
+ */
+@Value
+public class TransferLeg {
+
+	private final String accountId;
+
+	private final BigDecimal amount;
+
+	@JsonCreator
+	public TransferLeg(@JsonProperty("accountId") String accountId, @JsonProperty("amount") BigDecimal amount) {
+		this.accountId = accountId;
+		this.amount = amount;
+	}
+}
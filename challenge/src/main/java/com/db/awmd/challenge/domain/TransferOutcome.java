@@ -0,0 +1,84 @@
+package com.db.awmd.challenge.domain;
+
+import com.db.awmd.challenge.exception.AccountVersionMismatchException;
+import com.db.awmd.challenge.exception.FundTransferException;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.exception.SameAccountTransferException;
+import com.db.awmd.challenge.exception.TransferAccountNotFoundException;
+import com.db.awmd.challenge.exception.UnbalancedLegsException;
+
+import lombok.Getter;
+
+/**
+ * How a transfer request ended, with the HTTP status and message it is
+ * answered with. Rejections are reported as these constants rather than
+ * thrown; {@link #toException()} gives the exception the throwing API uses,
+ * which is created without a stack trace.
+ */
+@Getter
+public enum TransferOutcome {
+
+	ACCEPTED(202, "Transfer Completed", null),
+
+	ACCOUNT_NOT_FOUND(404, "Account not found", TransferAccountNotFoundException.class),
+
+	SAME_ACCOUNT(400, "Same Account Transfer not allowed", SameAccountTransferException.class),
+
+	INVALID_AMOUNT(400, "Please try with valid amount", FundTransferException.class),
+
+	/** The legs of a multi-leg transaction do not add up to zero. */
+	UNBALANCED_LEGS(400, "Debits and credits of the legs must add up to zero", UnbalancedLegsException.class),
+
+	INSUFFICIENT_BALANCE(422, "Insufficient balance in fromAccount", InsufficientBalanceException.class),
+
+	VERSION_MISMATCH(412, "Account version does not match If-Match", AccountVersionMismatchException.class);
+
+	private final int httpStatus;
+
+	private final String message;
+
+	private final Class<? extends RuntimeException> exceptionType;
+
+	TransferOutcome(int httpStatus, String message, Class<? extends RuntimeException> exceptionType) {
+		this.httpStatus = httpStatus;
+		this.message = message;
+		this.exceptionType = exceptionType;
+	}
+
+	public RuntimeException toException() {
+		switch (this) {
+		case ACCOUNT_NOT_FOUND:
+			return new TransferAccountNotFoundException(message);
+		case SAME_ACCOUNT:
+			return new SameAccountTransferException(message);
+		case INVALID_AMOUNT:
+			return new FundTransferException(message);
+		case UNBALANCED_LEGS:
+			return new UnbalancedLegsException(message);
+		case INSUFFICIENT_BALANCE:
+			return new InsufficientBalanceException(message);
+		case VERSION_MISMATCH:
+			return new AccountVersionMismatchException(message);
+		default:
+			throw new IllegalStateException("Transfer was not rejected");
+		}
+	}
+
+	/** The rejection a thrown transfer exception stands for, or null if it is not one. */
+	public static TransferOutcome of(Throwable exception) {
+		if (exception instanceof InsufficientBalanceException) {
+			return INSUFFICIENT_BALANCE;
+		} else if (exception instanceof UnbalancedLegsException) {
+			return UNBALANCED_LEGS;
+		} else if (exception instanceof FundTransferException) {
+			return INVALID_AMOUNT;
+		} else if (exception instanceof TransferAccountNotFoundException) {
+			return ACCOUNT_NOT_FOUND;
+		} else if (exception instanceof SameAccountTransferException) {
+			return SAME_ACCOUNT;
+		} else if (exception instanceof AccountVersionMismatchException) {
+			return VERSION_MISMATCH;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,36 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.Value;
+
+@Value
+public class TransferResult {
+
+	public enum Status {
+		COMPLETED, REJECTED, ABORTED
+	}
+
+	private final int index;
+
+	private final Status status;
+
+	private final String message;
+
+	public static TransferResult completed(int index) {
+		return new TransferResult(index, Status.COMPLETED, "Transfer Completed");
+	}
+
+	public static TransferResult rejected(int index, String message) {
+		return new TransferResult(index, Status.REJECTED, message);
+	}
+
+	public static TransferResult aborted(int index) {
+		return new TransferResult(index, Status.ABORTED, "Batch rejected");
+	}
+
+	@JsonIgnore
+	public boolean isCompleted() {
+		return status == Status.COMPLETED;
+	}
+}
@@ -0,0 +1,8 @@
+package com.db.awmd.challenge.exception;
+
+public class AccountVersionMismatchException extends RuntimeException {
+
+	public AccountVersionMismatchException(String message) {
+		super(message, null, false, false);
+	}
+}
@@ -0,0 +1,9 @@
+package com.db.awmd.challenge.exception;
+
+/** A balance the repository cannot store, refused before anything is written. */
+public class BalanceOutOfRangeException extends RuntimeException {
+
+  public BalanceOutOfRangeException(String message) {
+    super(message);
+  }
+}
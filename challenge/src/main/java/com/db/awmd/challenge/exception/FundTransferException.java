@@ -3,6 +3,6 @@ package com.db.awmd.challenge.exception;
 public class FundTransferException  extends RuntimeException {
 	
  public FundTransferException(String message) {
-	   super(message);
+	   super(message, null, false, false);
 	}
 }
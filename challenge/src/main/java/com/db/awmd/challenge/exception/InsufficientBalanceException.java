@@ -3,7 +3,7 @@ package com.db.awmd.challenge.exception;
 public class InsufficientBalanceException extends RuntimeException{
 	 
 	public InsufficientBalanceException(String message){
-	        super(message);
+	        super(message, null, false, false);
 	    }
 }
  
\ No newline at end of file
@@ -5,7 +5,7 @@ public class SameAccountTransferException extends RuntimeException {
 	
 
 	public SameAccountTransferException(String message){
-        super(message);
+        super(message, null, false, false);
     }
 }
  
\ No newline at end of file
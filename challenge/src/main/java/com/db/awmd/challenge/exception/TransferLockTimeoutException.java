@@ -0,0 +1,8 @@
+package com.db.awmd.challenge.exception;
+
+public class TransferLockTimeoutException extends RuntimeException {
+
+	public TransferLockTimeoutException(String message) {
+		super(message);
+	}
+}
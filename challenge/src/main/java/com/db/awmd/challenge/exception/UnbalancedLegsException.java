@@ -0,0 +1,9 @@
+package com.db.awmd.challenge.exception;
+
+/** The legs of a multi-leg transaction do not add up to zero. */
+public class UnbalancedLegsException extends FundTransferException {
+
+	public UnbalancedLegsException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,305 @@
+package com.db.awmd.challenge.replication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.ReplicatedChange;
+import com.db.awmd.challenge.domain.ReplicationBatch;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps this node a read-only copy of {@code accounts.replication.primary-url}.
+ * A single thread loads a snapshot of the primary, then polls for the changes
+ * after the last one it applied and applies them in sequence order. After a
+ * disconnect it carries on from that change; only a primary that no longer
+ * holds it, or restarted, makes it load a snapshot again.
+ *
+ * <p>The staleness bound is the time since the poll, or snapshot, after which
+ * the follower had applied everything the primary had committed when it was
+ * sent. Followers keep nothing across restarts and need no journal. Every
+ * call carries {@code accounts.replication.secret} in {@value #SECRET_HEADER},
+ * without which the primary refuses it.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "accounts.replication.role", havingValue = "FOLLOWER")
+public class ReplicationFollower {
+
+	private static final String REPLICATION_PATH = "/internal/v1/replication/";
+
+	public static final String SECRET_HEADER = "X-Replication-Secret";
+
+	private final AccountsRepository accountsRepository;
+
+	private final String primaryUrl;
+
+	private final RestTemplate restTemplate;
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	private final Object appliedMonitor = new Object();
+
+	private final LongAdder snapshotsLoaded = new LongAdder();
+
+	@Value("${accounts.replication.batch-size:1024}")
+	private int batchSize;
+
+	@Value("${accounts.replication.poll-wait-ms:1000}")
+	private long pollWaitMs;
+
+	@Value("${accounts.replication.retry-backoff-ms:500}")
+	private long retryBackoffMs;
+
+	private volatile String logId;
+
+	private volatile long appliedSequence;
+
+	private volatile long caughtUpAt;
+
+	private volatile boolean ready;
+
+	private volatile boolean running;
+
+	private Thread applier;
+
+	@Autowired
+	public ReplicationFollower(AccountsRepository accountsRepository,
+			@Value("${accounts.replication.primary-url}") String primaryUrl,
+			@Value("${accounts.replication.connect-timeout-ms:1000}") int connectTimeoutMs,
+			@Value("${accounts.replication.read-timeout-ms:30000}") int readTimeoutMs,
+			@Value("${accounts.replication.secret:}") String secret) {
+		if (secret.trim().isEmpty()) {
+			throw new IllegalArgumentException("accounts.replication.secret must be set on a follower");
+		}
+		this.accountsRepository = accountsRepository;
+		this.primaryUrl = primaryUrl.endsWith("/") ? primaryUrl.substring(0, primaryUrl.length() - 1) : primaryUrl;
+		SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+		requestFactory.setConnectTimeout(connectTimeoutMs);
+		requestFactory.setReadTimeout(readTimeoutMs);
+		this.restTemplate = new RestTemplate(requestFactory);
+		this.restTemplate.getInterceptors().add((request, body, execution) -> {
+			request.getHeaders().set(SECRET_HEADER, secret);
+			return execution.execute(request, body);
+		});
+	}
+
+	@PostConstruct
+	public void start() {
+		running = true;
+		applier = new Thread(this::followLoop, "replication-follower");
+		applier.setDaemon(true);
+		applier.start();
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		running = false;
+		applier.interrupt();
+		applier.join(5000L);
+	}
+
+	public String getPrimaryUrl() {
+		return primaryUrl;
+	}
+
+	/** Whether a snapshot has been loaded, so reads can be served. */
+	public boolean isReady() {
+		return ready;
+	}
+
+	public long getSnapshotsLoaded() {
+		return snapshotsLoaded.sum();
+	}
+
+	public long getAppliedSequence() {
+		return appliedSequence;
+	}
+
+	/** How far behind the primary the accounts may be, in milliseconds. */
+	public long getStalenessMillis() {
+		return Math.max(0L, System.currentTimeMillis() - caughtUpAt);
+	}
+
+	/** Waits up to {@code timeoutMillis} for the change {@code sequence} to be applied; returns whether it was. */
+	public boolean awaitApplied(long sequence, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (appliedMonitor) {
+			for (long left = timeoutMillis; appliedSequence < sequence && left > 0; left = deadline - System.currentTimeMillis()) {
+				appliedMonitor.wait(left);
+			}
+			return appliedSequence >= sequence;
+		}
+	}
+
+	private void followLoop() {
+		while (running) {
+			try {
+				if (logId == null) {
+					loadSnapshot();
+				} else {
+					poll();
+				}
+			} catch (RestClientException e) {
+				log.warn("Replication from {} failed, retrying in {} ms: {}", primaryUrl, retryBackoffMs, e.toString());
+				if (!backOff()) {
+					return;
+				}
+			} catch (RuntimeException e) {
+				if (!running) {
+					return;
+				}
+				log.error("Replication from {} failed, loading a snapshot again", primaryUrl, e);
+				logId = null;
+				if (!backOff()) {
+					return;
+				}
+			}
+		}
+	}
+
+	private boolean backOff() {
+		try {
+			Thread.sleep(retryBackoffMs);
+			return true;
+		} catch (InterruptedException e) {
+			return false;
+		}
+	}
+
+	private void poll() {
+		long sentAt = System.currentTimeMillis();
+		ResponseEntity<ReplicationBatch> response;
+		try {
+			response = restTemplate.getForEntity(primaryUrl + REPLICATION_PATH
+					+ "changes?log={log}&after={after}&max={max}&waitMs={waitMs}", ReplicationBatch.class, logId,
+					appliedSequence, batchSize, pollWaitMs);
+		} catch (HttpStatusCodeException e) {
+			if (e.getStatusCode() == HttpStatus.GONE) {
+				log.info("Primary {} no longer holds change {}, loading a snapshot", primaryUrl, appliedSequence + 1);
+				logId = null;
+				return;
+			}
+			throw e;
+		}
+		ReplicationBatch batch = response.getBody();
+		for (ReplicatedChange change : batch.getChanges()) {
+			apply(change);
+			applied(change.getSequence());
+		}
+		if (appliedSequence >= batch.getLast()) {
+			caughtUpAt = sentAt;
+		}
+	}
+
+	/* Reads are refused while the snapshot replaces the accounts. */
+	private void loadSnapshot() {
+		ready = false;
+		long sentAt = System.currentTimeMillis();
+		restTemplate.execute(primaryUrl + REPLICATION_PATH + "snapshot", HttpMethod.GET, null, response -> {
+			try (InputStream body = response.getBody(); JsonParser parser = jsonFactory.createParser(body)) {
+				if (parser.nextToken() != JsonToken.START_OBJECT) {
+					throw new IOException("Snapshot of " + primaryUrl + " has no header");
+				}
+				String snapshotLogId = null;
+				long sequence = 0L;
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String field = parser.getCurrentName();
+					parser.nextToken();
+					if ("log".equals(field)) {
+						snapshotLogId = parser.getText();
+					} else if ("sequence".equals(field)) {
+						sequence = parser.getLongValue();
+					}
+				}
+				accountsRepository.clearAccounts();
+				while (parser.nextToken() == JsonToken.START_OBJECT) {
+					String accountId = null;
+					BigDecimal balance = null;
+					while (parser.nextToken() == JsonToken.FIELD_NAME) {
+						String field = parser.getCurrentName();
+						parser.nextToken();
+						if ("accountId".equals(field)) {
+							accountId = parser.getText();
+						} else if ("balance".equals(field)) {
+							balance = parser.getDecimalValue();
+						}
+					}
+					accountsRepository.createAccount(new Account(accountId, balance));
+				}
+				logId = snapshotLogId;
+				// Counted before the sequence is published, so a caller woken by awaitApplied sees it.
+				caughtUpAt = sentAt;
+				ready = true;
+				snapshotsLoaded.increment();
+				applied(sequence);
+			}
+			return null;
+		});
+		log.info("Loaded snapshot of {} at change {}", primaryUrl, appliedSequence);
+	}
+
+	private void apply(ReplicatedChange change) {
+		List<String> accountIds = change.getAccountIds();
+		List<BigDecimal> amounts = change.getAmounts();
+		switch (change.getType()) {
+		case CREATE:
+			try {
+				accountsRepository.createAccount(new Account(accountIds.get(0), amounts.get(0)));
+			} catch (DuplicateAccountIdException e) {
+				log.warn("Replicated account {} exists already", accountIds.get(0));
+			}
+			break;
+		case TRANSACTION:
+			// The primary logs concurrent transactions in any order, so deltas are added as they come.
+			long stamp = accountsRepository.beginCommit();
+			try {
+				for (int i = 0; i < accountIds.size(); i++) {
+					Account account = accountsRepository.getAccount(accountIds.get(i));
+					if (account != null) {
+						account.setBalance(account.getBalance().add(amounts.get(i)));
+					}
+				}
+			} finally {
+				accountsRepository.endCommit(stamp);
+			}
+			break;
+		case CLEAR:
+			accountsRepository.clearAccounts();
+			break;
+		default:
+			throw new IllegalStateException("Unknown replicated change " + change.getType());
+		}
+	}
+
+	private void applied(long sequence) {
+		synchronized (appliedMonitor) {
+			appliedSequence = sequence;
+			appliedMonitor.notifyAll();
+		}
+	}
+}
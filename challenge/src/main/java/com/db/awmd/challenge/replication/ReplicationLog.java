@@ -0,0 +1,161 @@
+package com.db.awmd.challenge.replication;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.ReplicatedChange;
+import com.db.awmd.challenge.domain.ReplicatedChange.Type;
+
+/**
+ * The committed changes of a primary that its followers have yet to read:
+ * the newest {@code accounts.replication.log-capacity} of them in a ring,
+ * numbered from 1 in the order they were logged. The repository appends at
+ * the same points it journals, inside its commit window, so an export cut
+ * names the last change it includes.
+ *
+ * <p>Appends take no lock: each claims its sequence with a CAS, fills its
+ * slot and then publishes every filled slot in order, so
+ * {@link #getLastSequence()} only ever covers complete changes. An append
+ * returns once its own change is published, which only waits for appends
+ * that claimed earlier sequences and are filling their slots. Readers wait
+ * for new changes on a monitor of their own that appends only touch while
+ * someone waits.
+ *
+ * <p>The log lives in memory only and is named by a random id; a follower
+ * that asks for a log id other than this one, or for changes older than the
+ * ring holds, has to start over from a full copy.
+ */
+@Component
+@ConditionalOnProperty(name = "accounts.replication.role", havingValue = "PRIMARY")
+public class ReplicationLog {
+
+	private final String logId = UUID.randomUUID().toString();
+
+	private final AtomicReferenceArray<ReplicatedChange> ring;
+
+	private final int mask;
+
+	/** The newest sequence an append has claimed. */
+	private final AtomicLong claimed = new AtomicLong();
+
+	/** The newest sequence up to which every slot is filled. */
+	private final AtomicLong published = new AtomicLong();
+
+	private final Object arrival = new Object();
+
+	/** Followers waiting in {@link #read} for a change; changed under {@link #arrival}. */
+	private volatile int waiting;
+
+	@Autowired
+	public ReplicationLog(@Value("${accounts.replication.log-capacity:262144}") int capacity) {
+		int slots = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		this.ring = new AtomicReferenceArray<>(slots);
+		this.mask = slots - 1;
+	}
+
+	public String getLogId() {
+		return logId;
+	}
+
+	/** The sequence of the newest change, 0 before the first. */
+	public long getLastSequence() {
+		return published.get();
+	}
+
+	public void appendCreate(String accountId, BigDecimal balance) {
+		append(Type.CREATE, Collections.singletonList(accountId), Collections.singletonList(balance));
+	}
+
+	public void appendTransaction(Account[] accounts, BigDecimal[] deltas, int count) {
+		String[] accountIds = new String[count];
+		for (int i = 0; i < count; i++) {
+			accountIds[i] = accounts[i].getAccountId();
+		}
+		append(Type.TRANSACTION, Arrays.asList(accountIds), Arrays.asList(Arrays.copyOf(deltas, count)));
+	}
+
+	public void appendClear() {
+		append(Type.CLEAR, Collections.emptyList(), Collections.emptyList());
+	}
+
+	/**
+	 * Up to {@code max} changes after {@code after}, waiting up to
+	 * {@code waitMillis} for one if there is none yet. Returns null if changes
+	 * right after {@code after} are no longer held, or never were.
+	 */
+	public List<ReplicatedChange> read(long after, int max, long waitMillis) throws InterruptedException {
+		long last = published.get();
+		if (after < 0 || after > last || after < last - ring.length()) {
+			return null;
+		}
+		if (after == last && waitMillis > 0) {
+			long deadline = System.currentTimeMillis() + waitMillis;
+			synchronized (arrival) {
+				waiting++;
+				try {
+					for (long left = waitMillis; after == published.get() && left > 0;
+							left = deadline - System.currentTimeMillis()) {
+						arrival.wait(left);
+					}
+				} finally {
+					waiting--;
+				}
+			}
+			last = published.get();
+		}
+		int count = (int) Math.min(max, last - after);
+		List<ReplicatedChange> changes = new ArrayList<>(count);
+		for (long sequence = after + 1; sequence <= after + count; sequence++) {
+			ReplicatedChange change = ring.get((int) sequence & mask);
+			if (change.getSequence() != sequence) {
+				// Overwritten by a newer change while being read.
+				return null;
+			}
+			changes.add(change);
+		}
+		return changes;
+	}
+
+	private void append(Type type, List<String> accountIds, List<BigDecimal> amounts) {
+		long sequence = claimed.incrementAndGet();
+		// The slot is free once the change ring.length older than this one is published; only appends
+		// lapping the whole ring at once ever wait here.
+		while (published.get() < sequence - ring.length()) {
+			Thread.yield();
+		}
+		ring.set((int) sequence & mask, new ReplicatedChange(sequence, type, accountIds, amounts));
+		publish();
+		while (published.get() < sequence) {
+			Thread.yield();
+			publish();
+		}
+		if (waiting > 0) {
+			synchronized (arrival) {
+				arrival.notifyAll();
+			}
+		}
+	}
+
+	/* Publishes the filled slots after the last published one, in order. */
+	private void publish() {
+		for (long last = published.get();; last = published.get()) {
+			ReplicatedChange next = ring.get((int) (last + 1) & mask);
+			if (next == null || next.getSequence() != last + 1) {
+				return;
+			}
+			published.compareAndSet(last, last + 1);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import java.util.function.Consumer;
+
+/**
+ * Where {@link AccountsRepositoryInMemory} keeps its accounts. Stores bind
+ * every account they publish to the repository's epoch clock and give it a
+ * dense handle; handles are not reused, not even after {@link #clear()}.
+ */
+public interface AccountStore {
+
+  Account get(String accountId);
+
+  /** The account with {@code handle}, or null if it was cleared or never existed. */
+  Account get(int handle);
+
+  /**
+   * Publishes {@code account} unless its id is taken, running
+   * {@code beforePublish} just before it becomes visible. Returns false if the
+   * id was taken.
+   */
+  boolean insertIfAbsent(Account account, Runnable beforePublish);
+
+  void forEach(Consumer<Account> action);
+
+  void clear();
+}
@@ -1,13 +1,139 @@
 package com.db.awmd.challenge.repository;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransactionPhase;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
 
 public interface AccountsRepository {
 
   void createAccount(Account account) throws DuplicateAccountIdException;
 
+  /**
+   * Creates the account like {@link #createAccount(Account)} but returns the
+   * ticket of its journal record for {@link #whenDurable(long, Runnable)}
+   * instead of waiting for it to become durable.
+   */
+  default long createAccountAndLog(Account account) throws DuplicateAccountIdException {
+    createAccount(account);
+    return 0L;
+  }
+
   Account getAccount(String accountId);
 
+  /**
+   * A random id of this repository instance. Account handles and versions
+   * start over with every instance, so they only identify a state together
+   * with it.
+   */
+  long getIncarnation();
+
+  /**
+   * Looks an account up by the handle it was given when created, see
+   * {@link Account#getHandle()}. Returns null for unknown or cleared handles.
+   */
+  Account getAccount(int handle);
+
   void clearAccounts();
+
+  /**
+   * Hands every account with its balance as of one point in time to
+   * {@code visitor}, so the balances add up exactly even while transfers go
+   * on. Transfers are not blocked for the length of the export.
+   */
+  default void exportAccounts(AccountVisitor visitor) throws IOException {
+    throw new UnsupportedOperationException("This repository cannot export its accounts");
+  }
+
+  /**
+   * Exports like {@link #exportAccounts(AccountVisitor)}, first handing
+   * {@code cutVisitor} the sequence of the last replication log change the
+   * export includes, or 0 without a replication log.
+   */
+  default void exportAccounts(CutVisitor cutVisitor, AccountVisitor visitor) throws IOException {
+    throw new UnsupportedOperationException("This repository cannot export its accounts");
+  }
+
+  /**
+   * Makes {@code account} take its credits into {@code stripes} cells, see
+   * {@link Account#markHot(int)}. Returns false if the account was hot already
+   * or the repository does not support hot accounts.
+   */
+  default boolean markHot(Account account, int stripes) {
+    return false;
+  }
+
+  /**
+   * Opens the window in which a committed change is applied to the accounts
+   * and logged, so that a point-in-time cut sees either all of it or none of
+   * it. Must be taken after any account locks and closed with
+   * {@link #endCommit(long)} without blocking on other locks in between.
+   */
+  default long beginCommit() {
+    return 0L;
+  }
+
+  default void endCommit(long stamp) {
+  }
+
+  /**
+   * Records a committed change of {@code count} account balances and returns a
+   * ticket for {@link #awaitDurable(long)}. Repositories without durability
+   * return 0.
+   */
+  default long logTransaction(Account[] accounts, BigDecimal[] deltas, int count) {
+    return 0L;
+  }
+
+  /**
+   * Records {@code phase} of the two-phase commit transaction {@code txId},
+   * whose legs are the first {@code count} accounts and amounts, and returns a
+   * ticket like {@link #logTransaction}. The balance changes of the phase, see
+   * {@link TransactionPhase#effect(BigDecimal)}, are logged as a committed
+   * change, so they are applied in the same commit window. {@code participant}
+   * is the node a coordinator commits the transaction on, null on the
+   * participant.
+   */
+  default long logPhase(TransactionPhase phase, String txId, String participant, Account[] accounts,
+    BigDecimal[] amounts, int count) {
+    return 0L;
+  }
+
+  /**
+   * The two-phase commit transactions found in the journal at startup, in the
+   * order they were prepared. Repositories without durability recover none.
+   */
+  default List<RecoveredTransaction> getRecoveredTransactions() {
+    return Collections.emptyList();
+  }
+
+  /** Blocks until the change identified by {@code ticket} is durable. */
+  default void awaitDurable(long ticket) {
+  }
+
+  /**
+   * Runs {@code action} once the change identified by {@code ticket} is
+   * durable, without blocking the caller. The action may run on the caller or
+   * on the journal's flusher thread.
+   */
+  default void whenDurable(long ticket, Runnable action) {
+    action.run();
+  }
+
+  /** Receives the accounts of an export. */
+  @FunctionalInterface
+  interface AccountVisitor {
+
+    void visit(String accountId, BigDecimal balance) throws IOException;
+  }
+
+  /** Receives the replication sequence of an export before its accounts. */
+  @FunctionalInterface
+  interface CutVisitor {
+
+    void visit(long replicationSequence) throws IOException;
+  }
 }
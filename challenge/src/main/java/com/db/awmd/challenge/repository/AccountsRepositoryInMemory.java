@@ -1,23 +1,248 @@
 package com.db.awmd.challenge.repository;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountState;
+import com.db.awmd.challenge.domain.EpochClock;
+import com.db.awmd.challenge.domain.TransactionPhase;
+import com.db.awmd.challenge.domain.TransferLeg;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.replication.ReplicationLog;
+import com.db.awmd.challenge.repository.journal.AccountJournal;
+import com.db.awmd.challenge.repository.journal.AccountSnapshotStore;
+import com.db.awmd.challenge.repository.journal.JournalReplayHandler;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 
+/**
+ * Accounts live in an {@link AccountStore}, on the heap by default. Every
+ * change is applied, and logged to the journal and the {@link ReplicationLog}
+ * if there are any, inside the {@link CommitGate}. A snapshot or an export
+ * briefly closes the gate to note the last logged sequences and close the
+ * current {@link EpochClock}
+ * epoch, then reads every account as of that epoch while transfers carry on. Hot accounts have
+ * their striped credits folded into their state before the cut, so the epoch
+ * sees their full balance.
+ *
+ * <p>The phases of two-phase commit transactions are journaled with their
+ * legs, and the segments holding the prepare of a transaction still open are
+ * kept past snapshots, so that a restart can tell {@link #getRecoveredTransactions()}.
+ */
 @Repository
+@ConditionalOnProperty(name = "accounts.repository.storage", havingValue = "HEAP", matchIfMissing = true)
 public class AccountsRepositoryInMemory implements AccountsRepository {
 
-  private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+  private final CommitGate commitGate = new CommitGate();
+
+  private final EpochClock epochClock = new EpochClock();
+
+  private final AccountStore accounts;
+
+  private final ReentrantLock snapshotLock = new ReentrantLock();
+
+  private final List<Account> hotAccounts = new CopyOnWriteArrayList<>();
+
+  private final long incarnation = new SecureRandom().nextLong();
+
+  /** Journal sequence of the prepare of every two-phase commit transaction not finished yet. */
+  private final Map<String, Long> openTransactions = new ConcurrentHashMap<>();
+
+  /** Filled while the journal is replayed, read-only afterwards. */
+  private final Map<String, RecoveredTransaction> recovered = new LinkedHashMap<>();
+
+  /** Epoch and log sequences of the open cut; written while {@code commitGate} is closed. */
+  private long cutEpoch;
+
+  private long cutSequence;
+
+  private long cutReplicationSequence;
+
+  @Autowired(required = false)
+  private AccountJournal journal;
+
+  @Autowired(required = false)
+  private AccountSnapshotStore snapshotStore;
+
+  @Autowired(required = false)
+  private ReplicationLog replicationLog;
+
+  public AccountsRepositoryInMemory() {
+    this(HeapAccountStore::new);
+  }
+
+  public AccountsRepositoryInMemory(AccountJournal journal) throws IOException {
+    this(journal, null);
+  }
+
+  public AccountsRepositoryInMemory(AccountJournal journal, AccountSnapshotStore snapshotStore)
+    throws IOException {
+    this(HeapAccountStore::new, journal, snapshotStore);
+  }
+
+  protected AccountsRepositoryInMemory(Function<EpochClock, AccountStore> storeFactory) {
+    this.accounts = storeFactory.apply(epochClock);
+  }
+
+  protected AccountsRepositoryInMemory(Function<EpochClock, AccountStore> storeFactory,
+    AccountJournal journal, AccountSnapshotStore snapshotStore) throws IOException {
+    this(storeFactory);
+    this.journal = journal;
+    this.snapshotStore = snapshotStore;
+    recover();
+  }
+
+  @PostConstruct
+  public void recover() throws IOException {
+    if (journal == null || journal.isOpen()) {
+      return;
+    }
+    long snapshotSequence = 0L;
+    if (snapshotStore != null) {
+      snapshotSequence = snapshotStore.load((accountId, balance) -> publish(new Account(accountId, balance)));
+    }
+    journal.open(new Replay(snapshotSequence), snapshotSequence);
+  }
+
+  /**
+   * Writes a snapshot of all accounts as of one point in time and drops the
+   * journal segments no retained snapshot and no open two-phase commit
+   * transaction needs any more. Returns the journal
+   * sequence the snapshot was cut at.
+   */
+  public long snapshot() throws IOException {
+    if (journal == null || snapshotStore == null) {
+      throw new IllegalStateException("Snapshots need both a journal and a snapshot store");
+    }
+    snapshotLock.lock();
+    try {
+      Cut cut = openCut();
+      long releasable;
+      try {
+        // The snapshot stands in for records up to the cut only once they are on disk.
+        journal.awaitDurable(cut.sequence);
+        releasable = snapshotStore.write(cut.sequence, sink -> forEachVisibleAt(cut.epoch, sink));
+      } finally {
+        epochClock.release();
+      }
+      long oldestOpen = openTransactions.values().stream().mapToLong(Long::longValue).min()
+        .orElse(Long.MAX_VALUE);
+      journal.deleteSegmentsThrough(Math.min(releasable, oldestOpen - 1));
+      return cut.sequence;
+    } finally {
+      snapshotLock.unlock();
+    }
+  }
+
+  /**
+   * Reads every account as of a cut, like {@link #snapshot()}, once the cut is
+   * durable. Runs alongside snapshots and other exports by sharing their cut.
+   */
+  @Override
+  public void exportAccounts(AccountVisitor visitor) throws IOException {
+    exportAccounts(replicationSequence -> { }, visitor);
+  }
+
+  @Override
+  public void exportAccounts(CutVisitor cutVisitor, AccountVisitor visitor) throws IOException {
+    Cut cut = openCut();
+    try {
+      awaitDurable(cut.sequence);
+      cutVisitor.visit(cut.replicationSequence);
+      forEachVisibleAt(cut.epoch, (accountId, balance) -> {
+        try {
+          visitor.visit(accountId, balance);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      epochClock.release();
+    }
+  }
+
+  /**
+   * Cuts the epoch, or joins the cut already open, with no commit in flight.
+   * Hot accounts have their credits folded first, so the cut sees them.
+   */
+  private Cut openCut() {
+    commitGate.close();
+    try {
+      hotAccounts.forEach(Account::foldCredits);
+      long epoch = epochClock.cut();
+      if (epoch != cutEpoch) {
+        cutEpoch = epoch;
+        cutSequence = journal == null ? 0L : journal.getLastSequence();
+        cutReplicationSequence = replicationLog == null ? 0L : replicationLog.getLastSequence();
+      }
+      return new Cut(epoch, cutSequence, cutReplicationSequence);
+    } finally {
+      commitGate.open();
+    }
+  }
+
+  private void forEachVisibleAt(long epoch, BiConsumer<String, BigDecimal> sink) {
+    accounts.forEach(account -> {
+      AccountState state = account.getState().visibleAt(epoch);
+      if (state != null) {
+        sink.accept(account.getAccountId(), state.getBalance());
+      }
+    });
+  }
 
   @Override
   public void createAccount(Account account) throws DuplicateAccountIdException {
-    Account previousAccount = accounts.putIfAbsent(account.getAccountId(), account);
-    if (previousAccount != null) {
+    awaitDurable(createAccountAndLog(account));
+  }
+
+  @Override
+  public long createAccountAndLog(Account account) throws DuplicateAccountIdException {
+    if (journal == null && replicationLog == null) {
+      if (!accounts.insertIfAbsent(account, () -> { })) {
+        throw new DuplicateAccountIdException(
+          "Account id " + account.getAccountId() + " already exists!");
+      }
+      return 0L;
+    }
+
+    // The record is appended before the account becomes visible, so no transfer
+    // touching it can reach the logs ahead of its creation.
+    final long[] ticket = new long[1];
+    boolean inserted;
+    long stripe = commitGate.enter();
+    try {
+      inserted = accounts.insertIfAbsent(account, () -> {
+        if (replicationLog != null) {
+          replicationLog.appendCreate(account.getAccountId(), account.getBalance());
+        }
+        if (journal != null) {
+          ticket[0] = journal.appendCreate(account.getAccountId(), account.getBalance());
+        }
+      });
+    } finally {
+      commitGate.leave(stripe);
+    }
+    if (!inserted) {
       throw new DuplicateAccountIdException(
         "Account id " + account.getAccountId() + " already exists!");
     }
+    return ticket[0];
   }
 
   @Override
@@ -25,9 +250,190 @@ public class AccountsRepositoryInMemory implements AccountsRepository {
     return accounts.get(accountId);
   }
 
+  @Override
+  public long getIncarnation() {
+    return incarnation;
+  }
+
+  @Override
+  public Account getAccount(int handle) {
+    return accounts.get(handle);
+  }
+
+  @Override
+  public boolean markHot(Account account, int stripes) {
+    if (!account.markHot(stripes)) {
+      return false;
+    }
+    hotAccounts.add(account);
+    return true;
+  }
+
   @Override
   public void clearAccounts() {
-    accounts.clear();
+    hotAccounts.clear();
+    if (journal == null && replicationLog == null) {
+      accounts.clear();
+      return;
+    }
+    long ticket = 0L;
+    commitGate.close();
+    try {
+      if (replicationLog != null) {
+        replicationLog.appendClear();
+      }
+      if (journal != null) {
+        ticket = journal.appendClear();
+      }
+      accounts.clear();
+    } finally {
+      commitGate.open();
+    }
+    awaitDurable(ticket);
+  }
+
+  @Override
+  public long beginCommit() {
+    return commitGate.enter();
+  }
+
+  @Override
+  public void endCommit(long stamp) {
+    commitGate.leave(stamp);
+  }
+
+  @Override
+  public long logTransaction(Account[] changed, BigDecimal[] deltas, int count) {
+    // Journaled first: an append the journal refuses must not reach the followers either.
+    long ticket = journal == null ? 0L : journal.appendTransaction(changed, deltas, count);
+    if (replicationLog != null) {
+      replicationLog.appendTransaction(changed, deltas, count);
+    }
+    return ticket;
+  }
+
+  @Override
+  public long logPhase(TransactionPhase phase, String txId, String participant, Account[] legAccounts,
+    BigDecimal[] amounts, int count) {
+    long ticket = 0L;
+    if (journal != null) {
+      ticket = journal.appendPhase(phase, txId, participant, legAccounts, amounts, count);
+      track(phase, txId, participant, ticket);
+    }
+    if (replicationLog != null) {
+      // Followers only see balances move, as for any other committed change.
+      Account[] changed = new Account[count];
+      BigDecimal[] deltas = new BigDecimal[count];
+      int size = 0;
+      for (int i = 0; i < count; i++) {
+        BigDecimal effect = phase.effect(amounts[i]);
+        if (effect.signum() != 0) {
+          changed[size] = legAccounts[i];
+          deltas[size++] = effect;
+        }
+      }
+      if (size > 0) {
+        replicationLog.appendTransaction(changed, deltas, size);
+      }
+    }
+    return ticket;
+  }
+
+  @Override
+  public List<RecoveredTransaction> getRecoveredTransactions() {
+    return Collections.unmodifiableList(new ArrayList<>(recovered.values()));
   }
 
+  /* A transaction is open from its prepare until complete, as its outcome is kept until then. */
+  private void track(TransactionPhase phase, String txId, String participant, long sequence) {
+    if (phase == TransactionPhase.PREPARE) {
+      openTransactions.put(txId, sequence);
+    } else if (phase == TransactionPhase.COMPLETE) {
+      openTransactions.remove(txId);
+    }
+  }
+
+  @Override
+  public void awaitDurable(long ticket) {
+    if (journal != null && ticket != 0L) {
+      journal.awaitDurable(ticket);
+    }
+  }
+
+  @Override
+  public void whenDurable(long ticket, Runnable action) {
+    if (journal != null && ticket != 0L) {
+      journal.whenDurable(ticket, action);
+    } else {
+      action.run();
+    }
+  }
+
+  private static final class Cut {
+
+    private final long epoch;
+
+    private final long sequence;
+
+    private final long replicationSequence;
+
+    private Cut(long epoch, long sequence, long replicationSequence) {
+      this.epoch = epoch;
+      this.sequence = sequence;
+      this.replicationSequence = replicationSequence;
+    }
+  }
+
+  private void publish(Account account) {
+    accounts.insertIfAbsent(account, () -> { });
+  }
+
+  private final class Replay implements JournalReplayHandler {
+
+    private final long snapshotSequence;
+
+    private Replay(long snapshotSequence) {
+      this.snapshotSequence = snapshotSequence;
+    }
+
+    @Override
+    public void onCreate(long sequence, String accountId, BigDecimal balance) {
+      publish(new Account(accountId, balance));
+    }
+
+    @Override
+    public void onTransaction(long sequence, String[] accountIds, BigDecimal[] deltas) {
+      for (int i = 0; i < accountIds.length; i++) {
+        Account account = accounts.get(accountIds[i]);
+        if (account != null) {
+          account.setBalance(account.getBalance().add(deltas[i]));
+        }
+      }
+    }
+
+    @Override
+    public void onClear(long sequence) {
+      accounts.clear();
+    }
+
+    @Override
+    public void onPhase(long sequence, TransactionPhase phase, String txId, String participant,
+      String[] accountIds, BigDecimal[] amounts) {
+      List<TransferLeg> legs = new ArrayList<>(accountIds.length);
+      for (int i = 0; i < accountIds.length; i++) {
+        legs.add(new TransferLeg(accountIds[i], amounts[i]));
+        Account account = sequence > snapshotSequence ? accounts.get(accountIds[i]) : null;
+        BigDecimal effect = phase.effect(amounts[i]);
+        if (account != null && effect.signum() != 0) {
+          account.setBalance(account.getBalance().add(effect));
+        }
+      }
+      track(phase, txId, participant, sequence);
+      if (phase == TransactionPhase.COMPLETE) {
+        recovered.remove(txId);
+      } else {
+        recovered.put(txId, new RecoveredTransaction(txId, participant, phase, legs));
+      }
+    }
+  }
 }
@@ -0,0 +1,39 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.journal.AccountJournal;
+import com.db.awmd.challenge.repository.journal.AccountSnapshotStore;
+import com.db.awmd.challenge.repository.offheap.OffHeapAccountStore;
+import java.io.IOException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Keeps balances, versions and ids in direct memory through an
+ * {@link OffHeapAccountStore}; {@code Account} objects only exist as views
+ * handed out by {@link #getAccount(String)}. Durability and snapshots work as
+ * for the heap repository; hot accounts are not supported, as views have
+ * nowhere to keep striped credits.
+ */
+@Repository
+@ConditionalOnProperty(name = "accounts.repository.storage", havingValue = "OFF_HEAP")
+public class AccountsRepositoryOffHeap extends AccountsRepositoryInMemory {
+
+  @Autowired
+  public AccountsRepositoryOffHeap(
+    @Value("${accounts.repository.off-heap.initial-capacity:1048576}") int initialCapacity) {
+    super(epochClock -> new OffHeapAccountStore(epochClock, initialCapacity));
+  }
+
+  public AccountsRepositoryOffHeap(int initialCapacity, AccountJournal journal,
+    AccountSnapshotStore snapshotStore) throws IOException {
+    super(epochClock -> new OffHeapAccountStore(epochClock, initialCapacity), journal, snapshotStore);
+  }
+
+  @Override
+  public boolean markHot(Account account, int stripes) {
+    return false;
+  }
+}
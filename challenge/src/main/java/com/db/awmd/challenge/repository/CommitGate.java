@@ -0,0 +1,66 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets commits run concurrently and a cut wait until none is in flight.
+ * Commits count themselves in one of several padded counters picked by
+ * thread, so they do not all contend on one word the way the read side of a
+ * single lock would. A cut closes the gate, waits for every counter to drain
+ * and opens it again; commits arriving meanwhile back out and wait for it.
+ */
+final class CommitGate {
+
+  /* Counters sit this many longs apart, two cache lines, so stripes do not share a line. */
+  private static final int SPACING = 16;
+
+  private final AtomicLongArray active;
+
+  private final int mask;
+
+  private final ReentrantLock cutLock = new ReentrantLock();
+
+  private volatile boolean closed;
+
+  CommitGate() {
+    int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4) - 1) << 1;
+    this.active = new AtomicLongArray(stripes * SPACING);
+    this.mask = stripes - 1;
+  }
+
+  /** Counts a commit in and returns the stripe to hand to {@link #leave(long)}. */
+  long enter() {
+    int index = ((int) Thread.currentThread().getId() & mask) * SPACING;
+    while (true) {
+      active.incrementAndGet(index);
+      if (!closed) {
+        return index;
+      }
+      active.decrementAndGet(index);
+      // Parks behind the cut instead of spinning against it.
+      cutLock.lock();
+      cutLock.unlock();
+    }
+  }
+
+  void leave(long stripe) {
+    active.decrementAndGet((int) stripe);
+  }
+
+  /** Closes the gate and waits until no commit is in flight; undone by {@link #open()}. */
+  void close() {
+    cutLock.lock();
+    closed = true;
+    for (int index = 0; index < active.length(); index += SPACING) {
+      while (active.get(index) != 0) {
+        Thread.yield();
+      }
+    }
+  }
+
+  void open() {
+    closed = false;
+    cutLock.unlock();
+  }
+}
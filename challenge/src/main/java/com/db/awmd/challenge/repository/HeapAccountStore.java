@@ -0,0 +1,105 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.EpochClock;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the published {@link Account} objects themselves, in a map by id and
+ * in chunked arrays by handle.
+ */
+public class HeapAccountStore implements AccountStore {
+
+  private static final int CHUNK_SHIFT = 12;
+
+  private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+  private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+  private final AtomicInteger nextHandle = new AtomicInteger();
+
+  private final EpochClock epochClock;
+
+  /** Inserts share it, {@link #clear()} takes it exclusively. */
+  private final ReadWriteLock clearLock = new ReentrantReadWriteLock();
+
+  /*
+   * An account is stored in its chunk before the map publishes it, so whoever
+   * learns a handle from the map also sees the chunk entry.
+   */
+  private volatile Account[][] chunks = new Account[16][];
+
+  public HeapAccountStore(EpochClock epochClock) {
+    this.epochClock = epochClock;
+  }
+
+  @Override
+  public Account get(String accountId) {
+    return accounts.get(accountId);
+  }
+
+  @Override
+  public Account get(int handle) {
+    Account[][] current = chunks;
+    int chunk = handle >>> CHUNK_SHIFT;
+    if (handle < 0 || chunk >= current.length || current[chunk] == null) {
+      return null;
+    }
+    return current[chunk][handle & CHUNK_MASK];
+  }
+
+  @Override
+  public boolean insertIfAbsent(Account account, Runnable beforePublish) {
+    final boolean[] inserted = new boolean[1];
+    clearLock.readLock().lock();
+    try {
+      accounts.computeIfAbsent(account.getAccountId(), accountId -> {
+        beforePublish.run();
+        int handle = nextHandle.getAndIncrement();
+        account.bindEpochClock(epochClock);
+        account.assignHandle(handle);
+        chunkFor(handle)[handle & CHUNK_MASK] = account;
+        inserted[0] = true;
+        return account;
+      });
+    } finally {
+      clearLock.readLock().unlock();
+    }
+    return inserted[0];
+  }
+
+  @Override
+  public void forEach(Consumer<Account> action) {
+    accounts.values().forEach(action);
+  }
+
+  @Override
+  public void clear() {
+    clearLock.writeLock().lock();
+    try {
+      accounts.clear();
+      chunks = new Account[chunks.length][];
+    } finally {
+      clearLock.writeLock().unlock();
+    }
+  }
+
+  private synchronized Account[] chunkFor(int handle) {
+    int chunk = handle >>> CHUNK_SHIFT;
+    Account[][] current = chunks;
+    if (chunk >= current.length) {
+      current = Arrays.copyOf(current, Math.max(chunk + 1, current.length << 1));
+    }
+    if (current[chunk] == null) {
+      current[chunk] = new Account[1 << CHUNK_SHIFT];
+    }
+    chunks = current;
+    return current[chunk];
+  }
+}
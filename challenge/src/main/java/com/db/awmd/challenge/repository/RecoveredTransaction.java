@@ -0,0 +1,23 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.TransactionPhase;
+import com.db.awmd.challenge.domain.TransferLeg;
+import java.util.List;
+import lombok.Value;
+
+/**
+ * A two-phase commit transaction as the journal left it at startup:
+ * {@code phase} is the last one recorded and {@code participant} the node a
+ * coordinator commits it on, null where this node was the participant.
+ */
+@Value
+public class RecoveredTransaction {
+
+  private final String txId;
+
+  private final String participant;
+
+  private final TransactionPhase phase;
+
+  private final List<TransferLeg> legs;
+}
@@ -0,0 +1,556 @@
+package com.db.awmd.challenge.repository.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransactionPhase;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only, memory-mapped write-ahead journal of account creations,
+ * committed balance changes and the phases of two-phase commit transactions.
+ *
+ * <p>The journal is a sequence of fixed-size segment files named after the
+ * sequence of their first record. A record is {@code [int length][int crc32]}
+ * followed by a body of {@code [long sequence][byte type][payload]}; the CRC
+ * covers the body, so a torn write at the tail is detected on replay and cut
+ * off. Appends only copy into the mapping; a flusher thread forces the mapping
+ * once per group-commit window (time or size bound, whichever comes first) and
+ * then releases every caller waiting in {@link #awaitDurable(long)} and runs
+ * the actions registered with {@link #whenDurable(long, Runnable)}.
+ */
+@Slf4j
+public class AccountJournal implements Closeable {
+
+	static final byte CREATE = 1;
+
+	static final byte TRANSACTION = 2;
+
+	static final byte CLEAR = 3;
+
+	static final byte PHASE = 4;
+
+	private static final int HEADER_BYTES = 8;
+
+	private static final int MIN_BODY_BYTES = 9;
+
+	private static final String SEGMENT_PREFIX = "segment-";
+
+	private static final String SEGMENT_SUFFIX = ".journal";
+
+	private final Path directory;
+
+	private final int segmentSize;
+
+	private final long maxDelayNanos;
+
+	private final int maxBatchBytes;
+
+	private final ReentrantLock appendLock = new ReentrantLock();
+
+	private final Condition flushWanted = appendLock.newCondition();
+
+	private final Object durableMonitor = new Object();
+
+	private final PriorityQueue<DurableAction> durableActions = new PriorityQueue<>();
+
+	private final CRC32 crc = new CRC32();
+
+	private final ThreadLocal<ByteBuffer> scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(256));
+
+	private final LongAdder flushes = new LongAdder();
+
+	private MappedByteBuffer segment;
+
+	private long lastSequence;
+
+	private int pendingBytes;
+
+	private long firstPendingNanos;
+
+	private volatile long durableSequence;
+
+	private volatile boolean running;
+
+	private Thread flusher;
+
+	public AccountJournal(Path directory, int segmentSize, long maxDelayMicros, int maxBatchBytes) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+		this.maxBatchBytes = maxBatchBytes;
+	}
+
+	public boolean isOpen() {
+		return running;
+	}
+
+	public long getLastSequence() {
+		appendLock.lock();
+		try {
+			return lastSequence;
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	public long getDurableSequence() {
+		return durableSequence;
+	}
+
+	public long getFlushes() {
+		return flushes.sum();
+	}
+
+	public void open(JournalReplayHandler handler) throws IOException {
+		open(handler, 0L);
+	}
+
+	/**
+	 * Replays every intact record after {@code afterSequence} into
+	 * {@code handler}, truncates a torn tail and opens the journal for appending
+	 * after the last intact record. Records up to {@code afterSequence} are
+	 * already covered by a snapshot; of those only the transaction phases are
+	 * replayed, so that transactions still open can be recovered, and the
+	 * handler must not apply their balances again.
+	 */
+	public void open(JournalReplayHandler handler, long afterSequence) throws IOException {
+		Files.createDirectories(directory);
+		List<Path> segments = listSegments();
+		for (int i = 0; i < segments.size(); i++) {
+			boolean last = i == segments.size() - 1;
+			MappedByteBuffer mapped = map(segments.get(i));
+			int end = replaySegment(mapped, handler, segments.get(i), last, afterSequence);
+			if (last) {
+				segment = mapped;
+				segment.position(end);
+				lastSequence = Math.max(lastSequence, firstSequenceOf(segments.get(i)) - 1);
+			}
+		}
+		lastSequence = Math.max(lastSequence, afterSequence);
+		if (segment == null) {
+			segment = map(segmentPath(lastSequence + 1));
+		}
+		durableSequence = lastSequence;
+		running = true;
+		flusher = new Thread(this::flushLoop, "account-journal-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+		log.info("Account journal opened at {} with last sequence {}", directory, lastSequence);
+	}
+
+	public long appendCreate(String accountId, BigDecimal balance) {
+		ByteBuffer body = begin(CREATE);
+		body = putString(body, accountId);
+		body = putDecimal(body, balance);
+		return append(body);
+	}
+
+	public long appendTransaction(Account[] accounts, BigDecimal[] deltas, int count) {
+		ByteBuffer body = begin(TRANSACTION);
+		body = ensure(body, 4);
+		body.putInt(count);
+		for (int i = 0; i < count; i++) {
+			body = putString(body, accounts[i].getAccountId());
+			body = putDecimal(body, deltas[i]);
+		}
+		return append(body);
+	}
+
+	/**
+	 * Records {@code phase} of the two-phase commit transaction {@code txId}
+	 * with its legs; {@code participant} is the node a coordinator commits the
+	 * transaction on, null on the participant.
+	 */
+	public long appendPhase(TransactionPhase phase, String txId, String participant, Account[] accounts,
+			BigDecimal[] amounts, int count) {
+		ByteBuffer body = begin(PHASE);
+		body.put((byte) phase.ordinal());
+		body = putString(body, txId);
+		body = putString(body, participant == null ? "" : participant);
+		body = ensure(body, 4);
+		body.putInt(count);
+		for (int i = 0; i < count; i++) {
+			body = putString(body, accounts[i].getAccountId());
+			body = putDecimal(body, amounts[i]);
+		}
+		return append(body);
+	}
+
+	public long appendClear() {
+		return append(begin(CLEAR));
+	}
+
+	public void awaitDurable(long sequence) {
+		if (sequence <= durableSequence) {
+			return;
+		}
+		synchronized (durableMonitor) {
+			while (durableSequence < sequence) {
+				if (!running) {
+					throw new IllegalStateException("Account journal closed before sequence " + sequence + " was flushed");
+				}
+				try {
+					durableMonitor.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while waiting for the account journal", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs {@code action} once the record {@code sequence} is durable: right away
+	 * if it already is, otherwise on the flusher thread after the flush that
+	 * covers it, so actions must be short and must not block.
+	 */
+	public void whenDurable(long sequence, Runnable action) {
+		if (sequence > durableSequence) {
+			synchronized (durableMonitor) {
+				if (durableSequence < sequence) {
+					if (!running) {
+						throw new IllegalStateException("Account journal closed before sequence " + sequence + " was flushed");
+					}
+					durableActions.add(new DurableAction(sequence, action));
+					return;
+				}
+			}
+		}
+		action.run();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!running) {
+			return;
+		}
+		appendLock.lock();
+		try {
+			running = false;
+			flushWanted.signalAll();
+		} finally {
+			appendLock.unlock();
+		}
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (durableMonitor) {
+			durableMonitor.notifyAll();
+		}
+	}
+
+	private ByteBuffer begin(byte type) {
+		ByteBuffer body = scratch.get();
+		body.clear();
+		body.putLong(0L);
+		body.put(type);
+		return body;
+	}
+
+	private long append(ByteBuffer body) {
+		body.flip();
+		int length = body.remaining();
+		appendLock.lock();
+		try {
+			if (!running) {
+				throw new IllegalStateException("Account journal is not open");
+			}
+			long sequence = lastSequence + 1;
+			body.putLong(0, sequence);
+			if (segment.remaining() < HEADER_BYTES + length + 4) {
+				roll(sequence, length);
+			}
+			crc.reset();
+			crc.update(body.array(), body.arrayOffset(), length);
+			segment.putInt(length);
+			segment.putInt((int) crc.getValue());
+			segment.put(body);
+			lastSequence = sequence;
+			if (pendingBytes == 0) {
+				firstPendingNanos = System.nanoTime();
+				flushWanted.signal();
+			}
+			pendingBytes += HEADER_BYTES + length;
+			if (pendingBytes >= maxBatchBytes) {
+				flushWanted.signal();
+			}
+			return sequence;
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	private void roll(long nextSequence, int length) {
+		if (HEADER_BYTES + length + 4 > segmentSize) {
+			throw new IllegalArgumentException("Journal record of " + length + " bytes exceeds the segment size");
+		}
+		segment.force();
+		try {
+			segment = map(segmentPath(nextSequence));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not create journal segment", e);
+		}
+	}
+
+	private void flushLoop() {
+		while (true) {
+			long target;
+			MappedByteBuffer toForce;
+			appendLock.lock();
+			try {
+				while (running && pendingBytes == 0) {
+					flushWanted.awaitUninterruptibly();
+				}
+				long remaining;
+				while (running && pendingBytes < maxBatchBytes
+						&& (remaining = firstPendingNanos + maxDelayNanos - System.nanoTime()) > 0) {
+					flushWanted.awaitNanos(remaining);
+				}
+				if (pendingBytes == 0) {
+					return;
+				}
+				target = lastSequence;
+				toForce = segment;
+				pendingBytes = 0;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				appendLock.unlock();
+			}
+			toForce.force();
+			flushes.increment();
+			List<DurableAction> due = new ArrayList<>();
+			synchronized (durableMonitor) {
+				durableSequence = target;
+				durableMonitor.notifyAll();
+				while (!durableActions.isEmpty() && durableActions.peek().sequence <= target) {
+					due.add(durableActions.poll());
+				}
+			}
+			for (DurableAction action : due) {
+				try {
+					action.action.run();
+				} catch (RuntimeException e) {
+					log.error("Action after journal sequence {} became durable failed", action.sequence, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes the segments whose records all have a sequence of at most
+	 * {@code sequence}. The segment being appended to is always kept.
+	 */
+	public int deleteSegmentsThrough(long sequence) throws IOException {
+		appendLock.lock();
+		try {
+			List<Path> segments = listSegments();
+			int deleted = 0;
+			for (int i = 0; i < segments.size() - 1; i++) {
+				if (firstSequenceOf(segments.get(i + 1)) - 1 > sequence) {
+					break;
+				}
+				Files.delete(segments.get(i));
+				deleted++;
+			}
+			return deleted;
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	private int replaySegment(MappedByteBuffer mapped, JournalReplayHandler handler, Path path, boolean last,
+			long afterSequence) {
+		int position = 0;
+		CRC32 check = new CRC32();
+		while (position + HEADER_BYTES <= mapped.capacity()) {
+			int length = mapped.getInt(position);
+			if (length == 0) {
+				return position;
+			}
+			int storedCrc = mapped.getInt(position + 4);
+			boolean intact = length >= MIN_BODY_BYTES && position + HEADER_BYTES + length <= mapped.capacity();
+			if (intact) {
+				byte[] body = new byte[length];
+				mapped.position(position + HEADER_BYTES);
+				mapped.get(body);
+				check.reset();
+				check.update(body, 0, length);
+				intact = (int) check.getValue() == storedCrc;
+				if (intact) {
+					ByteBuffer record = ByteBuffer.wrap(body);
+					long sequence = record.getLong();
+					if (lastSequence != 0 && sequence != lastSequence + 1) {
+						intact = false;
+					} else {
+						dispatch(record, sequence, handler, sequence <= afterSequence);
+						lastSequence = sequence;
+						position += HEADER_BYTES + length;
+						continue;
+					}
+				}
+			}
+			if (!last) {
+				throw new IllegalStateException("Account journal segment " + path + " is corrupt at offset " + position);
+			}
+			log.warn("Truncating torn account journal tail in {} at offset {}", path, position);
+			for (int i = position; i < mapped.capacity(); i++) {
+				mapped.put(i, (byte) 0);
+			}
+			mapped.force();
+			return position;
+		}
+		return position;
+	}
+
+	private void dispatch(ByteBuffer record, long sequence, JournalReplayHandler handler, boolean covered) {
+		byte type = record.get();
+		if (covered && type != PHASE) {
+			return;
+		}
+		switch (type) {
+		case CREATE:
+			handler.onCreate(sequence, getString(record), getDecimal(record));
+			break;
+		case TRANSACTION:
+			int count = record.getInt();
+			String[] accountIds = new String[count];
+			BigDecimal[] deltas = new BigDecimal[count];
+			for (int i = 0; i < count; i++) {
+				accountIds[i] = getString(record);
+				deltas[i] = getDecimal(record);
+			}
+			handler.onTransaction(sequence, accountIds, deltas);
+			break;
+		case CLEAR:
+			handler.onClear(sequence);
+			break;
+		case PHASE:
+			TransactionPhase phase = TransactionPhase.values()[record.get()];
+			String txId = getString(record);
+			String participant = getString(record);
+			int legs = record.getInt();
+			String[] legAccountIds = new String[legs];
+			BigDecimal[] amounts = new BigDecimal[legs];
+			for (int i = 0; i < legs; i++) {
+				legAccountIds[i] = getString(record);
+				amounts[i] = getDecimal(record);
+			}
+			handler.onPhase(sequence, phase, txId, participant.isEmpty() ? null : participant, legAccountIds, amounts);
+			break;
+		default:
+			throw new IllegalStateException("Unknown account journal record type " + type);
+		}
+	}
+
+	private List<Path> listSegments() throws IOException {
+		List<Path> segments = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path path : stream) {
+				segments.add(path);
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+	private static long firstSequenceOf(Path segment) {
+		String name = segment.getFileName().toString();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	private Path segmentPath(long firstSequence) {
+		return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+	}
+
+	private MappedByteBuffer map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+	}
+
+	private ByteBuffer ensure(ByteBuffer buffer, int bytes) {
+		if (buffer.remaining() >= bytes) {
+			return buffer;
+		}
+		ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+		buffer.flip();
+		larger.put(buffer);
+		scratch.set(larger);
+		return larger;
+	}
+
+	private ByteBuffer putString(ByteBuffer buffer, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		buffer = ensure(buffer, 4 + bytes.length);
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+		return buffer;
+	}
+
+	private ByteBuffer putDecimal(ByteBuffer buffer, BigDecimal value) {
+		byte[] unscaled = value.unscaledValue().toByteArray();
+		buffer = ensure(buffer, 8 + unscaled.length);
+		buffer.putInt(value.scale());
+		buffer.putInt(unscaled.length);
+		buffer.put(unscaled);
+		return buffer;
+	}
+
+	static String getString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static BigDecimal getDecimal(ByteBuffer buffer) {
+		int scale = buffer.getInt();
+		byte[] unscaled = new byte[buffer.getInt()];
+		buffer.get(unscaled);
+		return new BigDecimal(new BigInteger(unscaled), scale);
+	}
+
+	private static final class DurableAction implements Comparable<DurableAction> {
+
+		private final long sequence;
+
+		private final Runnable action;
+
+		private DurableAction(long sequence, Runnable action) {
+			this.sequence = sequence;
+			this.action = action;
+		}
+
+		@Override
+		public int compareTo(DurableAction other) {
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+}
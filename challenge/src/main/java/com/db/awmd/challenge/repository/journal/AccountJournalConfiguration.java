@@ -0,0 +1,38 @@
+package com.db.awmd.challenge.repository.journal;
+
+import java.nio.file.Paths;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+
+@Configuration
+@ConditionalOnProperty(name = "accounts.journal.enabled", havingValue = "true")
+public class AccountJournalConfiguration {
+
+	@Bean(destroyMethod = "close")
+	public AccountJournal accountJournal(@Value("${accounts.journal.directory:./data/journal}") String directory,
+			@Value("${accounts.journal.segment-size-bytes:67108864}") int segmentSize,
+			@Value("${accounts.journal.group-commit.max-delay-micros:2000}") long maxDelayMicros,
+			@Value("${accounts.journal.group-commit.max-batch-bytes:262144}") int maxBatchBytes) {
+		return new AccountJournal(Paths.get(directory), segmentSize, maxDelayMicros, maxBatchBytes);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "accounts.snapshot.enabled", havingValue = "true", matchIfMissing = true)
+	public AccountSnapshotStore accountSnapshotStore(
+			@Value("${accounts.snapshot.directory:./data/snapshots}") String directory,
+			@Value("${accounts.snapshot.chunk-accounts:65536}") int chunkAccounts) {
+		return new AccountSnapshotStore(Paths.get(directory), chunkAccounts);
+	}
+
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	@ConditionalOnProperty(name = "accounts.snapshot.enabled", havingValue = "true", matchIfMissing = true)
+	public AccountSnapshotScheduler accountSnapshotScheduler(AccountsRepositoryInMemory repository,
+			@Value("${accounts.snapshot.interval-seconds:300}") long intervalSeconds) {
+		return new AccountSnapshotScheduler(repository, intervalSeconds);
+	}
+}
@@ -0,0 +1,55 @@
+package com.db.awmd.challenge.repository.journal;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Takes a snapshot of the repository at a fixed interval on a background
+ * thread. Transfers are only held up for the instant of the cut itself.
+ */
+@Slf4j
+public class AccountSnapshotScheduler {
+
+	private final AccountsRepositoryInMemory repository;
+
+	private final long intervalSeconds;
+
+	private ScheduledExecutorService executor;
+
+	public AccountSnapshotScheduler(AccountsRepositoryInMemory repository, long intervalSeconds) {
+		this.repository = repository;
+		this.intervalSeconds = intervalSeconds;
+	}
+
+	public void start() {
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "account-snapshot");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(this::snapshot, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	public void stop() throws InterruptedException {
+		if (executor != null) {
+			executor.shutdown();
+			executor.awaitTermination(30, TimeUnit.SECONDS);
+		}
+	}
+
+	private void snapshot() {
+		try {
+			long started = System.nanoTime();
+			long sequence = repository.snapshot();
+			log.info("Account snapshot at journal sequence {} took {} ms", sequence,
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+		} catch (Exception e) {
+			log.error("Account snapshot failed", e);
+		}
+	}
+}
@@ -0,0 +1,324 @@
+package com.db.awmd.challenge.repository.journal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Binary point-in-time snapshots of all account balances.
+ *
+ * <p>A snapshot file is named after the journal sequence it is cut at and laid
+ * out as a header {@code [int magic][int format][long sequence]}, a run of
+ * independently CRC-checked chunks {@code [int count][int length][int crc][body]}
+ * of up to {@code chunkSize} accounts, and a trailer with the chunk offsets
+ * {@code [int chunks][long offset]*[long accounts][long trailerOffset][int magic]}
+ * so that chunks can be decoded in parallel on load. The two newest snapshots
+ * are kept, so a damaged latest snapshot can fall back to the one before.
+ */
+@Slf4j
+public class AccountSnapshotStore {
+
+	private static final int MAGIC = 0x534e4150;
+
+	private static final int FORMAT = 1;
+
+	private static final int HEADER_BYTES = 16;
+
+	private static final int TRAILER_TAIL_BYTES = 12;
+
+	private static final int CHUNK_HEADER_BYTES = 12;
+
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+	private static final String SNAPSHOT_SUFFIX = ".snap";
+
+	private static final int RETAINED = 2;
+
+	private final Path directory;
+
+	private final int chunkSize;
+
+	public AccountSnapshotStore(Path directory, int chunkSize) {
+		this.directory = directory;
+		this.chunkSize = chunkSize;
+	}
+
+	public interface SnapshotSource {
+
+		/** Feeds every account visible at the cut to {@code sink}. */
+		void forEach(BiConsumer<String, BigDecimal> sink);
+	}
+
+	/**
+	 * Writes a snapshot cut at journal {@code sequence} and returns the sequence
+	 * up to which the journal is no longer needed, i.e. that of the oldest
+	 * retained snapshot.
+	 */
+	public long write(long sequence, SnapshotSource source) throws IOException {
+		Files.createDirectories(directory);
+		Path target = snapshotPath(sequence);
+		Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+				ChunkWriter writer = new ChunkWriter(channel)) {
+			writer.header(sequence);
+			source.forEach(writer::add);
+			writer.finish();
+			channel.force(true);
+		}
+		Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+		List<Path> snapshots = listSnapshots();
+		for (int i = 0; i < snapshots.size() - RETAINED; i++) {
+			Files.delete(snapshots.get(i));
+		}
+		snapshots = listSnapshots();
+		return sequenceOf(snapshots.get(0));
+	}
+
+	/**
+	 * Loads the newest readable snapshot into {@code sink}, decoding its chunks
+	 * in parallel, and returns the journal sequence it was cut at, or 0 when
+	 * there is none. {@code sink} must accept concurrent calls. A snapshot
+	 * that fails any check hands nothing to {@code sink}, so the one before it
+	 * loads into a clean repository.
+	 */
+	public long load(BiConsumer<String, BigDecimal> sink) throws IOException {
+		if (!Files.isDirectory(directory)) {
+			return 0L;
+		}
+		List<Path> snapshots = listSnapshots();
+		for (int i = snapshots.size() - 1; i >= 0; i--) {
+			Path snapshot = snapshots.get(i);
+			try {
+				long accounts = load(snapshot, sink);
+				log.info("Loaded {} accounts from snapshot {}", accounts, snapshot);
+				return sequenceOf(snapshot);
+			} catch (IOException | RuntimeException e) {
+				if (i == 0) {
+					throw new IOException("No readable account snapshot in " + directory, e);
+				}
+				log.error("Account snapshot {} is unreadable, falling back to the previous one", snapshot, e);
+			}
+		}
+		return 0L;
+	}
+
+	private long load(Path snapshot, BiConsumer<String, BigDecimal> sink) throws IOException {
+		try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+			ByteBuffer header = read(channel, 0, HEADER_BYTES);
+			if (header.getInt() != MAGIC || header.getInt() != FORMAT || header.getLong() != sequenceOf(snapshot)) {
+				throw new IOException("Bad snapshot header in " + snapshot);
+			}
+			ByteBuffer tail = read(channel, channel.size() - TRAILER_TAIL_BYTES, TRAILER_TAIL_BYTES);
+			long trailerOffset = tail.getLong();
+			if (tail.getInt() != MAGIC) {
+				throw new IOException("Incomplete snapshot " + snapshot);
+			}
+			ByteBuffer trailer = read(channel, trailerOffset, (int) (channel.size() - TRAILER_TAIL_BYTES - trailerOffset));
+			int chunks = trailer.getInt();
+			long[] offsets = new long[chunks + 1];
+			for (int i = 0; i < chunks; i++) {
+				offsets[i] = trailer.getLong();
+			}
+			offsets[chunks] = trailerOffset;
+			long accounts = trailer.getLong();
+
+			// Every chunk is checked before any account is handed over, so a bad
+			// snapshot leaves nothing behind for the fallback to trip over.
+			Chunk[] decoded = new Chunk[chunks];
+			IntStream.range(0, chunks).parallel().forEach(chunk -> {
+				try {
+					decoded[chunk] = decodeChunk(read(channel, offsets[chunk], (int) (offsets[chunk + 1] - offsets[chunk])));
+				} catch (IOException e) {
+					throw new IllegalStateException("Could not read snapshot chunk " + chunk + " of " + snapshot, e);
+				}
+			});
+			long decodedAccounts = 0L;
+			for (Chunk chunk : decoded) {
+				decodedAccounts += chunk.accountIds.length;
+			}
+			if (decodedAccounts != accounts) {
+				throw new IOException("Snapshot " + snapshot + " holds " + decodedAccounts + " accounts, not " + accounts);
+			}
+			Arrays.stream(decoded).parallel().forEach(chunk -> {
+				for (int i = 0; i < chunk.accountIds.length; i++) {
+					sink.accept(chunk.accountIds[i], chunk.balances[i]);
+				}
+			});
+			return accounts;
+		}
+	}
+
+	private static Chunk decodeChunk(ByteBuffer chunk) {
+		int count = chunk.getInt();
+		int length = chunk.getInt();
+		int storedCrc = chunk.getInt();
+		if (count < 0 || length != chunk.remaining()) {
+			throw new IllegalStateException("Snapshot chunk has a bad header");
+		}
+		CRC32 crc = new CRC32();
+		crc.update(chunk.array(), chunk.arrayOffset() + chunk.position(), length);
+		if ((int) crc.getValue() != storedCrc) {
+			throw new IllegalStateException("Snapshot chunk failed its CRC check");
+		}
+		Chunk decoded = new Chunk(count);
+		for (int i = 0; i < count; i++) {
+			decoded.accountIds[i] = AccountJournal.getString(chunk);
+			decoded.balances[i] = AccountJournal.getDecimal(chunk);
+		}
+		return decoded;
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of snapshot");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private List<Path> listSnapshots() throws IOException {
+		List<Path> snapshots = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+			for (Path path : stream) {
+				snapshots.add(path);
+			}
+		}
+		Collections.sort(snapshots);
+		return snapshots;
+	}
+
+	private Path snapshotPath(long sequence) {
+		return directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+	}
+
+	private static long sequenceOf(Path snapshot) {
+		String name = snapshot.getFileName().toString();
+		return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+	}
+
+	private static final class Chunk {
+
+		private final String[] accountIds;
+
+		private final BigDecimal[] balances;
+
+		private Chunk(int count) {
+			this.accountIds = new String[count];
+			this.balances = new BigDecimal[count];
+		}
+	}
+
+	private final class ChunkWriter implements AutoCloseable {
+
+		private final OutputStream out;
+
+		private final ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream(1 << 16);
+
+		private final DataOutputStream chunk = new DataOutputStream(chunkBytes);
+
+		private final List<Long> offsets = new ArrayList<>();
+
+		private final CRC32 crc = new CRC32();
+
+		private long position;
+
+		private int inChunk;
+
+		private long accounts;
+
+		private ChunkWriter(FileChannel channel) {
+			this.out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+		}
+
+		private void header(long sequence) throws IOException {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).putInt(FORMAT).putLong(sequence);
+			write(header.array());
+		}
+
+		private void add(String accountId, BigDecimal balance) {
+			try {
+				byte[] id = accountId.getBytes(StandardCharsets.UTF_8);
+				byte[] unscaled = balance.unscaledValue().toByteArray();
+				chunk.writeInt(id.length);
+				chunk.write(id);
+				chunk.writeInt(balance.scale());
+				chunk.writeInt(unscaled.length);
+				chunk.write(unscaled);
+				accounts++;
+				if (++inChunk == chunkSize) {
+					flushChunk();
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private void flushChunk() throws IOException {
+			if (inChunk == 0) {
+				return;
+			}
+			chunk.flush();
+			byte[] body = chunkBytes.toByteArray();
+			crc.reset();
+			crc.update(body, 0, body.length);
+			ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_BYTES);
+			chunkHeader.putInt(inChunk).putInt(body.length).putInt((int) crc.getValue());
+			offsets.add(position);
+			write(chunkHeader.array());
+			write(body);
+			chunkBytes.reset();
+			inChunk = 0;
+		}
+
+		private void finish() throws IOException {
+			flushChunk();
+			long trailerOffset = position;
+			ByteBuffer trailer = ByteBuffer.allocate(4 + offsets.size() * 8 + 8 + TRAILER_TAIL_BYTES);
+			trailer.putInt(offsets.size());
+			for (long offset : offsets) {
+				trailer.putLong(offset);
+			}
+			trailer.putLong(accounts).putLong(trailerOffset).putInt(MAGIC);
+			write(trailer.array());
+			out.flush();
+		}
+
+		private void write(byte[] bytes) throws IOException {
+			out.write(bytes);
+			position += bytes.length;
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package com.db.awmd.challenge.repository.journal;
+
+import java.math.BigDecimal;
+
+import com.db.awmd.challenge.domain.TransactionPhase;
+
+public interface JournalReplayHandler {
+
+	void onCreate(long sequence, String accountId, BigDecimal balance);
+
+	void onTransaction(long sequence, String[] accountIds, BigDecimal[] deltas);
+
+	void onClear(long sequence);
+
+	/**
+	 * A phase of a two-phase commit transaction, see
+	 * {@link AccountJournal#appendPhase}. Also called for records a snapshot
+	 * covers already.
+	 */
+	void onPhase(long sequence, TransactionPhase phase, String txId, String participant, String[] accountIds,
+			BigDecimal[] amounts);
+}
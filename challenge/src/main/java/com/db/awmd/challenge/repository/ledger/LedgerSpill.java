@@ -0,0 +1,212 @@
+package com.db.awmd.challenge.repository.ledger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Memory-mapped segments holding the ledger entries that no longer fit in the
+ * in-memory window of their account. A record is
+ * {@code [int length][int handle][long previous][long sequence][long timestamp][int counterparty][byte debit][int scale][unscaled bytes]},
+ * where {@code previous} is the offset of the account's next older spilled
+ * record, so each account's spilled history is a chain walked newest first.
+ * Offsets are global: segment number times segment size plus position.
+ *
+ * <p>Only the newest {@code maxSegments} segments are kept; a chain simply ends
+ * where it reaches a deleted segment. The spill is a cache of history, not a
+ * journal, and starts empty on every start.
+ */
+@Slf4j
+final class LedgerSpill implements Closeable {
+
+	static final long NO_OFFSET = -1L;
+
+	private static final int FIXED_BYTES = 4 + 4 + 8 + 8 + 8 + 4 + 1 + 4;
+
+	private static final String SEGMENT_PREFIX = "ledger-";
+
+	private static final String SEGMENT_SUFFIX = ".spill";
+
+	private final Path directory;
+
+	private final int segmentSize;
+
+	private final int maxSegments;
+
+	private final ConcurrentSkipListMap<Long, MappedByteBuffer> segments = new ConcurrentSkipListMap<>();
+
+	private long segmentNumber;
+
+	private MappedByteBuffer segment;
+
+	/* The offset just past the newest record; nothing at or beyond it has been written. */
+	private volatile long end;
+
+	LedgerSpill(Path directory, int segmentSize, int maxSegments) throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSegments = Math.max(1, maxSegments);
+		Files.createDirectories(directory);
+		try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path path : stale) {
+				Files.delete(path);
+			}
+		}
+		this.segment = map(0L);
+		segments.put(0L, segment);
+	}
+
+	/** Appends an entry of the account {@code handle} and returns its offset. */
+	synchronized long append(int handle, long previous, long sequence, long timestamp, int counterparty, boolean debit,
+			BigDecimal amount) {
+		byte[] unscaled = amount.unscaledValue().toByteArray();
+		int length = FIXED_BYTES + unscaled.length;
+		if (length + 4 > segmentSize) {
+			throw new IllegalArgumentException("Ledger record of " + length + " bytes exceeds the segment size");
+		}
+		if (segment.remaining() < length + 4) {
+			roll();
+		}
+		long offset = segmentNumber * segmentSize + segment.position();
+		segment.putInt(length);
+		segment.putInt(handle);
+		segment.putLong(previous);
+		segment.putLong(sequence);
+		segment.putLong(timestamp);
+		segment.putInt(counterparty);
+		segment.put(debit ? (byte) 1 : (byte) 0);
+		segment.putInt(amount.scale());
+		segment.put(unscaled);
+		end = offset + length;
+		return offset;
+	}
+
+	/**
+	 * Whether {@code offset} could have been handed out for {@code handle}: it
+	 * either names a record of that account or lies in a segment that is no
+	 * longer retained.
+	 */
+	boolean isValid(long offset, int handle) {
+		if (offset < 0 || offset >= end) {
+			return false;
+		}
+		MappedByteBuffer mapped = segments.get(offset / segmentSize);
+		if (mapped == null) {
+			Long oldest = segments.isEmpty() ? null : segments.firstKey();
+			return oldest != null && offset < oldest * segmentSize;
+		}
+		return lengthAt(mapped, (int) (offset % segmentSize), handle) > 0;
+	}
+
+	/**
+	 * Reads the record at {@code offset} if it is still retained and belongs to
+	 * {@code handle}; otherwise returns null.
+	 */
+	Record read(long offset, int handle) {
+		if (offset < 0 || offset >= end) {
+			return null;
+		}
+		MappedByteBuffer mapped = segments.get(offset / segmentSize);
+		if (mapped == null) {
+			return null;
+		}
+		int position = (int) (offset % segmentSize);
+		int length = lengthAt(mapped, position, handle);
+		if (length < 0) {
+			return null;
+		}
+		Record record = new Record();
+		record.previous = mapped.getLong(position + 8);
+		record.sequence = mapped.getLong(position + 16);
+		record.timestamp = mapped.getLong(position + 24);
+		record.counterparty = mapped.getInt(position + 32);
+		record.debit = mapped.get(position + 36) != 0;
+		int scale = mapped.getInt(position + 37);
+		byte[] unscaled = new byte[length - FIXED_BYTES];
+		for (int i = 0; i < unscaled.length; i++) {
+			unscaled[i] = mapped.get(position + FIXED_BYTES + i);
+		}
+		record.amount = new BigDecimal(new BigInteger(unscaled), scale);
+		return record;
+	}
+
+	/* The length of a record of handle at position, checked against the segment before anything is allocated, or -1. */
+	private int lengthAt(MappedByteBuffer mapped, int position, int handle) {
+		if (position > segmentSize - FIXED_BYTES) {
+			return -1;
+		}
+		int length = mapped.getInt(position);
+		if (length <= FIXED_BYTES || length > segmentSize - position || mapped.getInt(position + 4) != handle) {
+			return -1;
+		}
+		return length;
+	}
+
+	int getSegmentCount() {
+		return segments.size();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		for (Long number : segments.keySet()) {
+			Files.deleteIfExists(segmentPath(number));
+		}
+		segments.clear();
+	}
+
+	private void roll() {
+		// The tail of a segment stays zero, so its unused space reads as no record.
+		try {
+			segment = map(++segmentNumber);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not create ledger spill segment", e);
+		}
+		segments.put(segmentNumber, segment);
+		while (segments.size() > maxSegments) {
+			Map.Entry<Long, MappedByteBuffer> oldest = segments.pollFirstEntry();
+			try {
+				Files.deleteIfExists(segmentPath(oldest.getKey()));
+			} catch (IOException e) {
+				log.warn("Could not delete ledger spill segment {}", oldest.getKey(), e);
+			}
+		}
+	}
+
+	private Path segmentPath(long number) {
+		return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+	}
+
+	private MappedByteBuffer map(long number) throws IOException {
+		try (FileChannel channel = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+	}
+
+	static final class Record {
+
+		long previous;
+
+		long sequence;
+
+		long timestamp;
+
+		int counterparty;
+
+		boolean debit;
+
+		BigDecimal amount;
+	}
+}
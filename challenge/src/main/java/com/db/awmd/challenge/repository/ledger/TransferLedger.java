@@ -0,0 +1,317 @@
+package com.db.awmd.challenge.repository.ledger;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.util.regex.Pattern;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.LedgerEntry;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.ledger.LedgerSpill.Record;
+
+/**
+ * Append-only transfer history per account. Each account keeps its newest
+ * entries in a ring of parallel arrays, grown on demand up to
+ * {@code accounts.ledger.recent-entries}; an entry is a shared amount
+ * reference, the counterparty handle, a timestamp and a direction flag. Older
+ * entries are moved to a {@link LedgerSpill} when spilling is enabled and
+ * dropped otherwise.
+ *
+ * <p>History is read newest first in pages. A cursor names the sequence of the
+ * next entry to return and, once that entry has been spilled, its spill
+ * offset, so a page never walks the history it skips.
+ */
+@Component
+@ConditionalOnProperty(name = "accounts.ledger.enabled", havingValue = "true", matchIfMissing = true)
+public class TransferLedger {
+
+	private static final int CHUNK_SHIFT = 12;
+
+	private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+	private static final int INITIAL_CAPACITY = 4;
+
+	private static final Pattern CURSOR = Pattern.compile("\\d{1,18}(\\.\\d{1,18})?");
+
+	private final AccountsRepository accountsRepository;
+
+	private final int recentEntries;
+
+	private final LedgerSpill spill;
+
+	private volatile History[][] chunks = new History[16][];
+
+	@Autowired
+	public TransferLedger(AccountsRepository accountsRepository,
+			@Value("${accounts.ledger.recent-entries:256}") int recentEntries,
+			@Value("${accounts.ledger.spill.enabled:false}") boolean spillEnabled,
+			@Value("${accounts.ledger.spill.directory:./data/ledger}") String spillDirectory,
+			@Value("${accounts.ledger.spill.segment-size-bytes:67108864}") int segmentSize,
+			@Value("${accounts.ledger.spill.max-segments:16}") int maxSegments) throws IOException {
+		this.accountsRepository = accountsRepository;
+		this.recentEntries = Math.max(1, recentEntries);
+		this.spill = spillEnabled ? new LedgerSpill(Paths.get(spillDirectory), segmentSize, maxSegments) : null;
+	}
+
+	/** Records a committed transfer in the history of both accounts. */
+	public void record(Account from, Account to, BigDecimal amount) {
+		long timestamp = System.currentTimeMillis();
+		historyOf(from.getHandle(), true).append(from.getHandle(), to.getHandle(), true, amount, timestamp);
+		historyOf(to.getHandle(), true).append(to.getHandle(), from.getHandle(), false, amount, timestamp);
+	}
+
+	/**
+	 * Hands up to {@code limit} entries of {@code account}, newest first and
+	 * starting at {@code cursor} (null for the newest), to {@code visitor} and
+	 * returns the cursor of the next page, or null if there is none. Only the
+	 * entries of one page are ever held in memory.
+	 *
+	 * @throws IllegalArgumentException if the cursor is malformed
+	 */
+	public String read(Account account, String cursor, int limit, LedgerEntryVisitor visitor) throws IOException {
+		long next = Long.MAX_VALUE;
+		long offset = LedgerSpill.NO_OFFSET;
+		if (cursor != null) {
+			if (!isWellFormed(cursor)) {
+				throw new IllegalArgumentException("Malformed cursor " + cursor);
+			}
+			int dot = cursor.indexOf('.');
+			next = Long.parseLong(dot < 0 ? cursor : cursor.substring(0, dot));
+			offset = dot < 0 ? LedgerSpill.NO_OFFSET : Long.parseLong(cursor.substring(dot + 1));
+		}
+		History history = historyOf(account.getHandle(), false);
+		if (history == null) {
+			return null;
+		}
+
+		Page page = history.recent(next, limit);
+		for (int i = 0; i < page.size; i++) {
+			visitor.visit(new LedgerEntry(page.firstSequence - i, accountIdOf(page.counterparties[i]),
+					page.debits[i] ? page.amounts[i].negate() : page.amounts[i], page.timestamps[i]));
+		}
+		next = page.firstSequence - page.size;
+		if (next < 0) {
+			return null;
+		}
+		if (page.spilled && (spill == null || page.spillHead == LedgerSpill.NO_OFFSET)) {
+			return null;
+		}
+		if (page.size == limit) {
+			return page.spilled ? next + "." + page.spillHead : Long.toString(next);
+		}
+
+		// Everything from here on is spilled: start at the cursor's offset if it
+		// names the right record, else walk back from the newest spilled entry.
+		int handle = account.getHandle();
+		Record record = spill.read(offset, handle);
+		if (record == null || record.sequence != next) {
+			record = spill.read(page.spillHead, handle);
+			while (record != null && record.sequence > next) {
+				record = spill.read(record.previous, handle);
+			}
+		}
+		int emitted = page.size;
+		while (record != null && emitted < limit) {
+			visitor.visit(new LedgerEntry(record.sequence, accountIdOf(record.counterparty),
+					record.debit ? record.amount.negate() : record.amount, record.timestamp));
+			emitted++;
+			if (record.sequence == 0) {
+				return null;
+			}
+			offset = record.previous;
+			next = record.sequence - 1;
+			record = emitted < limit ? spill.read(offset, handle) : null;
+		}
+		return emitted == limit && spill.read(offset, handle) != null ? next + "." + offset : null;
+	}
+
+	/** Whether {@code cursor} is null or has the form of the cursors {@link #read} returns. */
+	public static boolean isWellFormed(String cursor) {
+		return cursor == null || CURSOR.matcher(cursor).matches();
+	}
+
+	/**
+	 * Whether {@code cursor} is well formed and, if it names a spill offset,
+	 * one that may have been handed out for {@code account}. Checked before a
+	 * page is read, as a page is streamed and cannot be refused midway.
+	 */
+	public boolean isValidCursor(Account account, String cursor) {
+		if (!isWellFormed(cursor)) {
+			return false;
+		}
+		int dot = cursor == null ? -1 : cursor.indexOf('.');
+		return dot < 0 || spill == null || spill.isValid(Long.parseLong(cursor.substring(dot + 1)), account.getHandle());
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		if (spill != null) {
+			spill.close();
+		}
+	}
+
+	private String accountIdOf(int handle) {
+		Account account = accountsRepository.getAccount(handle);
+		return account == null ? null : account.getAccountId();
+	}
+
+	private History historyOf(int handle, boolean create) {
+		History[][] current = chunks;
+		int chunk = handle >>> CHUNK_SHIFT;
+		if (chunk < current.length && current[chunk] != null) {
+			History history = current[chunk][handle & CHUNK_MASK];
+			if (history != null || !create) {
+				return history;
+			}
+		} else if (!create) {
+			return null;
+		}
+		synchronized (this) {
+			current = chunks;
+			if (chunk >= current.length) {
+				History[][] grown = new History[Math.max(chunk + 1, current.length * 2)][];
+				System.arraycopy(current, 0, grown, 0, current.length);
+				current = grown;
+			}
+			if (current[chunk] == null) {
+				current[chunk] = new History[1 << CHUNK_SHIFT];
+			}
+			History history = current[chunk][handle & CHUNK_MASK];
+			if (history == null) {
+				history = new History();
+				current[chunk][handle & CHUNK_MASK] = history;
+			}
+			chunks = current;
+			return history;
+		}
+	}
+
+	/** Receives the entries of one history page. */
+	@FunctionalInterface
+	public interface LedgerEntryVisitor {
+
+		void visit(LedgerEntry entry) throws IOException;
+	}
+
+	/** Entries copied out of a ring, newest first, so they can be visited without its lock. */
+	private static final class Page {
+
+		private long firstSequence;
+
+		private int size;
+
+		private BigDecimal[] amounts;
+
+		private int[] counterparties;
+
+		private boolean[] debits;
+
+		private long[] timestamps;
+
+		private boolean spilled;
+
+		private long spillHead;
+	}
+
+	private final class History {
+
+		private BigDecimal[] amounts = new BigDecimal[INITIAL_CAPACITY];
+
+		private int[] counterparties = new int[INITIAL_CAPACITY];
+
+		private boolean[] debits = new boolean[INITIAL_CAPACITY];
+
+		private long[] timestamps = new long[INITIAL_CAPACITY];
+
+		/** Ring index of the oldest entry held. */
+		private int head;
+
+		private int size;
+
+		/** Entries ever recorded, which is the sequence of the next one. */
+		private long count;
+
+		private long spillHead = LedgerSpill.NO_OFFSET;
+
+		private synchronized void append(int handle, int counterparty, boolean debit, BigDecimal amount,
+				long timestamp) {
+			if (size == amounts.length) {
+				if (size < recentEntries) {
+					grow(Math.min(recentEntries, size * 2));
+				} else {
+					evictOldest(handle);
+				}
+			}
+			int index = (head + size) % amounts.length;
+			amounts[index] = amount;
+			counterparties[index] = counterparty;
+			debits[index] = debit;
+			timestamps[index] = timestamp;
+			size++;
+			count++;
+		}
+
+		private synchronized Page recent(long next, int limit) {
+			Page page = new Page();
+			page.firstSequence = Math.min(next, count - 1);
+			page.spillHead = spillHead;
+			long oldest = count - size;
+			if (page.firstSequence < oldest) {
+				page.spilled = true;
+				return page;
+			}
+			int available = (int) Math.min(limit, page.firstSequence - oldest + 1);
+			page.amounts = new BigDecimal[available];
+			page.counterparties = new int[available];
+			page.debits = new boolean[available];
+			page.timestamps = new long[available];
+			for (int i = 0; i < available; i++) {
+				int index = (int) ((head + (page.firstSequence - oldest) - i) % amounts.length);
+				page.amounts[i] = amounts[index];
+				page.counterparties[i] = counterparties[index];
+				page.debits[i] = debits[index];
+				page.timestamps[i] = timestamps[index];
+			}
+			page.size = available;
+			page.spilled = page.firstSequence - available < oldest;
+			return page;
+		}
+
+		private void grow(int capacity) {
+			BigDecimal[] grownAmounts = new BigDecimal[capacity];
+			int[] grownCounterparties = new int[capacity];
+			boolean[] grownDebits = new boolean[capacity];
+			long[] grownTimestamps = new long[capacity];
+			for (int i = 0; i < size; i++) {
+				int index = (head + i) % amounts.length;
+				grownAmounts[i] = amounts[index];
+				grownCounterparties[i] = counterparties[index];
+				grownDebits[i] = debits[index];
+				grownTimestamps[i] = timestamps[index];
+			}
+			amounts = grownAmounts;
+			counterparties = grownCounterparties;
+			debits = grownDebits;
+			timestamps = grownTimestamps;
+			head = 0;
+		}
+
+		private void evictOldest(int handle) {
+			if (spill != null) {
+				spillHead = spill.append(handle, spillHead, count - size, timestamps[head], counterparties[head],
+						debits[head], amounts[head]);
+			}
+			amounts[head] = null;
+			head = (head + 1) % amounts.length;
+			size--;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package com.db.awmd.challenge.repository.offheap;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountState;
+import com.db.awmd.challenge.domain.EpochClock;
+
+/**
+ * View over one off-heap account record. It holds on to the record's chunk so
+ * the memory stays valid for as long as the view is reachable, and reads the
+ * chunk after every access so that it stays reachable until the access is
+ * over; Java 8 has no {@code Reference.reachabilityFence}.
+ */
+final class OffHeapAccount extends Account {
+
+	/** Volatile only so that reading it cannot be optimized away, see the class comment. */
+	private volatile ByteBuffer chunk;
+
+	private final long address;
+
+	OffHeapAccount(String accountId, int handle, EpochClock epochClock, ByteBuffer chunk, long address) {
+		super(accountId, handle, epochClock);
+		this.chunk = chunk;
+		this.address = address;
+	}
+
+	@Override
+	public AccountState getState() {
+		AccountState state = OffHeapAccountStore.readState(address);
+		reachable();
+		return state;
+	}
+
+	@Override
+	public boolean compareAndSetState(AccountState expected, AccountState update) {
+		boolean set = OffHeapAccountStore.compareAndSetState(address, expected, update);
+		reachable();
+		return set;
+	}
+
+	@Override
+	public boolean canHold(BigDecimal balance) {
+		return OffHeapAccountStore.fits(balance);
+	}
+
+	private void reachable() {
+		if (chunk == null) {
+			throw new IllegalStateException("The record of account " + getAccountId() + " is gone");
+		}
+	}
+
+	@Override
+	public void bindEpochClock(EpochClock epochClock) {
+		throw new UnsupportedOperationException("Off-heap accounts use the clock of their store");
+	}
+
+	@Override
+	public void assignHandle(int handle) {
+		throw new UnsupportedOperationException("Off-heap accounts are numbered by their store");
+	}
+
+	@Override
+	public boolean markHot(int stripes) {
+		throw new UnsupportedOperationException("Off-heap accounts are views and cannot hold striped credits");
+	}
+}
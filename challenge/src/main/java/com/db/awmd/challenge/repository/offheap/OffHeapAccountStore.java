@@ -0,0 +1,476 @@
+package com.db.awmd.challenge.repository.offheap;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountState;
+import com.db.awmd.challenge.domain.EpochClock;
+import com.db.awmd.challenge.exception.BalanceOutOfRangeException;
+import com.db.awmd.challenge.repository.AccountStore;
+
+/**
+ * Keeps accounts in direct memory: fixed-size records in chunks that never
+ * move, the UTF-8 ids in an append-only arena, and an open-addressing index of
+ * {@code hash << 32 | record + 1} entries. {@link #get(String)} hands out a
+ * short-lived {@link Account} view over the record. A handle is the record
+ * number plus the number of accounts stored before the last {@link #clear()}.
+ *
+ * <p>A record's first word is a sequence lock holding twice the state version,
+ * odd while a writer is updating it. A compare-and-set of the state takes the
+ * lock only if the version is the expected one, so views follow the same
+ * optimistic protocol as heap accounts; readers retry until they see the same
+ * even sequence on both sides of their read. Balances are stored as a long
+ * unscaled value and a scale, so only those that fit, see {@link #fits},
+ * can be stored; others are refused with a
+ * {@link BalanceOutOfRangeException} before anything is written.
+ *
+ * <p>Inserts, index growth and {@link #clear()} are serialized by one lock;
+ * lookups and balance updates never take it. The memory is freed by the
+ * collector once its buffers become unreachable, so nothing a lookup may
+ * still be reading is let go of: a table counts the lookups inside it and
+ * stays reachable after {@link #clear()} until the last has left, and it
+ * keeps every index it outgrew.
+ */
+public final class OffHeapAccountStore implements AccountStore {
+
+	private static final int SEQUENCE = 0;
+
+	private static final int UNSCALED = 8;
+
+	private static final int EPOCH = 16;
+
+	private static final int PREVIOUS_UNSCALED = 24;
+
+	private static final int PREVIOUS_VERSION = 32;
+
+	private static final int PREVIOUS_EPOCH = 40;
+
+	private static final int SCALE = 48;
+
+	private static final int PREVIOUS_SCALE = 52;
+
+	private static final int KEY = 56;
+
+	private static final int KEY_LENGTH = 64;
+
+	static final int RECORD_BYTES = 72;
+
+	private static final int NO_PREVIOUS = Integer.MIN_VALUE;
+
+	private static final int RECORD_CHUNK_SHIFT = 16;
+
+	private static final int RECORD_CHUNK_MASK = (1 << RECORD_CHUNK_SHIFT) - 1;
+
+	private static final int KEY_CHUNK_BYTES = 1 << 22;
+
+	private static final int MAX_INDEX_CAPACITY = 1 << 27;
+
+	private final EpochClock epochClock;
+
+	private final int initialCapacity;
+
+	private final ReentrantLock writeLock = new ReentrantLock();
+
+	private volatile Table table;
+
+	/** Tables replaced by {@link #clear()} that lookups may still be inside. */
+	private final ConcurrentLinkedQueue<Table> retired = new ConcurrentLinkedQueue<>();
+
+	public OffHeapAccountStore(EpochClock epochClock, int initialCapacity) {
+		this.epochClock = epochClock;
+		this.initialCapacity = initialCapacity;
+		this.table = new Table(indexCapacityFor(initialCapacity), 0);
+	}
+
+	@Override
+	public Account get(String accountId) {
+		Table current = enter();
+		try {
+			int record = current.find(accountId.getBytes(StandardCharsets.UTF_8), hash(accountId));
+			return record < 0 ? null : current.view(record, accountId);
+		} finally {
+			leave(current);
+		}
+	}
+
+	@Override
+	public Account get(int handle) {
+		Table current = enter();
+		try {
+			int record = handle - current.firstHandle;
+			if (handle < 0 || record < 0 || record >= current.size) {
+				return null;
+			}
+			return current.view(record, current.keyOf(record));
+		} finally {
+			leave(current);
+		}
+	}
+
+	@Override
+	public boolean insertIfAbsent(Account account, Runnable beforePublish) {
+		String accountId = account.getAccountId();
+		byte[] key = accountId.getBytes(StandardCharsets.UTF_8);
+		int hash = hash(accountId);
+		AccountState state = account.getState();
+		BigDecimal balance = storable(state.getBalance());
+
+		writeLock.lock();
+		try {
+			Table current = table;
+			if (current.find(key, hash) >= 0) {
+				return false;
+			}
+			beforePublish.run();
+			current.insert(key, hash, balance.unscaledValue().longValue(), balance.scale(), state.getVersion(),
+					epochClock.current());
+			return true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public void forEach(Consumer<Account> action) {
+		Table current = enter();
+		try {
+			int size = current.size;
+			for (int record = 0; record < size; record++) {
+				action.accept(current.view(record, current.keyOf(record)));
+			}
+		} finally {
+			leave(current);
+		}
+	}
+
+	@Override
+	public void clear() {
+		writeLock.lock();
+		try {
+			Table cleared = table;
+			table = new Table(indexCapacityFor(initialCapacity), cleared.firstHandle + cleared.size);
+			cleared.retired = true;
+			retired.add(cleared);
+			retired.removeIf(Table::isDrained);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	public int size() {
+		return table.size;
+	}
+
+	/** Whether {@code balance} can be stored, at its own scale or a smaller one that keeps its value. */
+	public static boolean fits(BigDecimal balance) {
+		return balance.unscaledValue().bitLength() <= 63 || reduced(balance).unscaledValue().bitLength() <= 63;
+	}
+
+	/* Counts the caller in the current table, which a concurrent clear() may have replaced meanwhile. */
+	private Table enter() {
+		while (true) {
+			Table current = table;
+			current.readers.increment();
+			if (table == current) {
+				return current;
+			}
+			leave(current);
+		}
+	}
+
+	private void leave(Table current) {
+		current.readers.decrement();
+		if (current.retired && current.isDrained()) {
+			retired.remove(current);
+		}
+	}
+
+	static AccountState readState(long address) {
+		while (true) {
+			long sequence = UnsafeAccess.getLongVolatile(address + SEQUENCE);
+			if ((sequence & 1L) != 0L) {
+				continue;
+			}
+			long unscaled = UnsafeAccess.getLong(address + UNSCALED);
+			int scale = UnsafeAccess.getInt(address + SCALE);
+			long epoch = UnsafeAccess.getLong(address + EPOCH);
+			int previousScale = UnsafeAccess.getInt(address + PREVIOUS_SCALE);
+			long previousUnscaled = UnsafeAccess.getLong(address + PREVIOUS_UNSCALED);
+			long previousVersion = UnsafeAccess.getLong(address + PREVIOUS_VERSION);
+			long previousEpoch = UnsafeAccess.getLong(address + PREVIOUS_EPOCH);
+			UnsafeAccess.loadFence();
+			if (UnsafeAccess.getLongVolatile(address + SEQUENCE) != sequence) {
+				continue;
+			}
+			AccountState previous = previousScale == NO_PREVIOUS ? null
+					: new AccountState(BigDecimal.valueOf(previousUnscaled, previousScale), previousVersion,
+							previousEpoch, null);
+			return new AccountState(BigDecimal.valueOf(unscaled, scale), sequence >>> 1, epoch, previous);
+		}
+	}
+
+	static boolean compareAndSetState(long address, AccountState expected, AccountState update) {
+		BigDecimal balance = storable(update.getBalance());
+		AccountState previous = update.getPrevious();
+		BigDecimal previousBalance = previous == null ? null : storable(previous.getBalance());
+
+		long sequence = expected.getVersion() << 1;
+		if (!UnsafeAccess.compareAndSwapLong(address + SEQUENCE, sequence, sequence | 1L)) {
+			return false;
+		}
+		UnsafeAccess.putLong(address + UNSCALED, balance.unscaledValue().longValue());
+		UnsafeAccess.putInt(address + SCALE, balance.scale());
+		UnsafeAccess.putLong(address + EPOCH, update.getEpoch());
+		if (previous == null) {
+			UnsafeAccess.putInt(address + PREVIOUS_SCALE, NO_PREVIOUS);
+		} else {
+			UnsafeAccess.putLong(address + PREVIOUS_UNSCALED, previousBalance.unscaledValue().longValue());
+			UnsafeAccess.putInt(address + PREVIOUS_SCALE, previousBalance.scale());
+			UnsafeAccess.putLong(address + PREVIOUS_VERSION, previous.getVersion());
+			UnsafeAccess.putLong(address + PREVIOUS_EPOCH, previous.getEpoch());
+		}
+		UnsafeAccess.putLongVolatile(address + SEQUENCE, update.getVersion() << 1);
+		return true;
+	}
+
+	/* The balance itself if it fits, else at the smallest scale that keeps its value; checked before any write. */
+	private static BigDecimal storable(BigDecimal balance) {
+		if (balance.unscaledValue().bitLength() <= 63) {
+			return balance;
+		}
+		BigDecimal reduced = reduced(balance);
+		if (reduced.unscaledValue().bitLength() > 63) {
+			throw new BalanceOutOfRangeException("Balance " + balance.toPlainString() + " is too large to be stored");
+		}
+		return reduced;
+	}
+
+	private static BigDecimal reduced(BigDecimal balance) {
+		BigDecimal stripped = balance.stripTrailingZeros();
+		return stripped.scale() < 0 ? stripped.setScale(0) : stripped;
+	}
+
+	private static int hash(String accountId) {
+		int h = accountId.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static int indexCapacityFor(int accounts) {
+		long wanted = Math.max(16L, (long) accounts * 10 / 7 + 1);
+		if (wanted > MAX_INDEX_CAPACITY) {
+			throw new IllegalArgumentException("At most " + maxAccounts() + " accounts can be stored off-heap");
+		}
+		return Integer.highestOneBit((int) wanted - 1) << 1;
+	}
+
+	private static int maxAccounts() {
+		return MAX_INDEX_CAPACITY / 10 * 7;
+	}
+
+	/*
+	 * One generation of the store; clear() starts a new one, so views handed out
+	 * before it keep their own records alive and simply stop being reachable.
+	 * Fields other than index and size are only written under the write lock and
+	 * published to lookups by the volatile index entry that follows.
+	 */
+	private final class Table {
+
+		private final int firstHandle;
+
+		/** Lookups inside this table, see enter() and leave(). */
+		private final LongAdder readers = new LongAdder();
+
+		/** Set once clear() replaced the table; it is then dropped when drained. */
+		private volatile boolean retired;
+
+		private volatile Index index;
+
+		/** Indexes this table grew out of, each half the next, kept for the lookups still probing them. */
+		private final List<Index> outgrown = new ArrayList<>();
+
+		private volatile int size;
+
+		private ByteBuffer[] recordChunks = new ByteBuffer[4];
+
+		private long[] recordAddresses = new long[4];
+
+		private ByteBuffer[] keyChunks = new ByteBuffer[4];
+
+		private long[] keyAddresses = new long[4];
+
+		private int keyChunk = -1;
+
+		private int keyChunkPosition = KEY_CHUNK_BYTES;
+
+		private Table(int indexCapacity, int firstHandle) {
+			this.index = new Index(indexCapacity);
+			this.firstHandle = firstHandle;
+		}
+
+		private boolean isDrained() {
+			return readers.sum() == 0L;
+		}
+
+		private int find(byte[] key, int hash) {
+			Index current = index;
+			int slot = hash & current.mask;
+			while (true) {
+				long entry = current.entry(slot);
+				if (entry == 0L) {
+					return -1;
+				}
+				if ((int) (entry >>> 32) == hash) {
+					int record = (int) entry - 1;
+					if (keyEquals(recordAddress(record), key)) {
+						return record;
+					}
+				}
+				slot = (slot + 1) & current.mask;
+			}
+		}
+
+		private void insert(byte[] key, int hash, long unscaled, int scale, long version, long epoch) {
+			int record = size;
+			if (record >= maxAccounts() || firstHandle + record == Integer.MAX_VALUE) {
+				throw new IllegalStateException("At most " + maxAccounts() + " accounts can be stored off-heap");
+			}
+			int chunk = record >>> RECORD_CHUNK_SHIFT;
+			if (chunk == recordChunks.length) {
+				recordChunks = Arrays.copyOf(recordChunks, chunk << 1);
+				recordAddresses = Arrays.copyOf(recordAddresses, chunk << 1);
+			}
+			if (recordChunks[chunk] == null) {
+				recordChunks[chunk] = ByteBuffer.allocateDirect(RECORD_BYTES << RECORD_CHUNK_SHIFT);
+				recordAddresses[chunk] = UnsafeAccess.address(recordChunks[chunk]);
+			}
+			long address = recordAddress(record);
+			UnsafeAccess.putLong(address + SEQUENCE, version << 1);
+			UnsafeAccess.putLong(address + UNSCALED, unscaled);
+			UnsafeAccess.putInt(address + SCALE, scale);
+			UnsafeAccess.putLong(address + EPOCH, epoch);
+			UnsafeAccess.putInt(address + PREVIOUS_SCALE, NO_PREVIOUS);
+			UnsafeAccess.putLong(address + KEY, appendKey(key));
+			UnsafeAccess.putInt(address + KEY_LENGTH, key.length);
+
+			if ((long) (record + 1) * 10 > (long) index.capacity() * 7) {
+				outgrown.add(index);
+				index = index.grow();
+			}
+			index.publish(hash, record);
+			size = record + 1;
+		}
+
+		private long appendKey(byte[] key) {
+			if (key.length > KEY_CHUNK_BYTES) {
+				throw new IllegalArgumentException("Account id is too long to be stored off-heap");
+			}
+			if (keyChunkPosition + key.length > KEY_CHUNK_BYTES) {
+				if (++keyChunk == keyChunks.length) {
+					keyChunks = Arrays.copyOf(keyChunks, keyChunk << 1);
+					keyAddresses = Arrays.copyOf(keyAddresses, keyChunk << 1);
+				}
+				keyChunks[keyChunk] = ByteBuffer.allocateDirect(KEY_CHUNK_BYTES);
+				keyAddresses[keyChunk] = UnsafeAccess.address(keyChunks[keyChunk]);
+				keyChunkPosition = 0;
+			}
+			long reference = (long) keyChunk << 32 | keyChunkPosition;
+			long address = keyAddresses[keyChunk] + keyChunkPosition;
+			for (int i = 0; i < key.length; i++) {
+				UnsafeAccess.putByte(address + i, key[i]);
+			}
+			keyChunkPosition += key.length;
+			return reference;
+		}
+
+		private boolean keyEquals(long recordAddress, byte[] key) {
+			if (UnsafeAccess.getInt(recordAddress + KEY_LENGTH) != key.length) {
+				return false;
+			}
+			long address = keyAddress(UnsafeAccess.getLong(recordAddress + KEY));
+			for (int i = 0; i < key.length; i++) {
+				if (UnsafeAccess.getByte(address + i) != key[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private String keyOf(int record) {
+			long recordAddress = recordAddress(record);
+			byte[] key = new byte[UnsafeAccess.getInt(recordAddress + KEY_LENGTH)];
+			long address = keyAddress(UnsafeAccess.getLong(recordAddress + KEY));
+			for (int i = 0; i < key.length; i++) {
+				key[i] = UnsafeAccess.getByte(address + i);
+			}
+			return new String(key, StandardCharsets.UTF_8);
+		}
+
+		private long keyAddress(long reference) {
+			return keyAddresses[(int) (reference >>> 32)] + (int) reference;
+		}
+
+		private long recordAddress(int record) {
+			return recordAddresses[record >>> RECORD_CHUNK_SHIFT] + (long) (record & RECORD_CHUNK_MASK) * RECORD_BYTES;
+		}
+
+		private Account view(int record, String accountId) {
+			return new OffHeapAccount(accountId, firstHandle + record, epochClock,
+					recordChunks[record >>> RECORD_CHUNK_SHIFT], recordAddress(record));
+		}
+	}
+
+	private static final class Index {
+
+		private final ByteBuffer buffer;
+
+		private final long address;
+
+		private final int mask;
+
+		private Index(int capacity) {
+			this.buffer = ByteBuffer.allocateDirect(capacity << 3);
+			this.address = UnsafeAccess.address(buffer);
+			this.mask = capacity - 1;
+		}
+
+		private int capacity() {
+			return mask + 1;
+		}
+
+		private long entry(int slot) {
+			return UnsafeAccess.getLongVolatile(address + ((long) slot << 3));
+		}
+
+		private void publish(int hash, int record) {
+			int slot = hash & mask;
+			while (entry(slot) != 0L) {
+				slot = (slot + 1) & mask;
+			}
+			UnsafeAccess.putLongVolatile(address + ((long) slot << 3), (long) hash << 32 | (record + 1));
+		}
+
+		/* Entries are copied into a new index that is published as a whole, so lookups never see a partial rehash. */
+		private Index grow() {
+			if (capacity() == MAX_INDEX_CAPACITY) {
+				throw new IllegalStateException("At most " + maxAccounts() + " accounts can be stored off-heap");
+			}
+			Index grown = new Index(capacity() << 1);
+			for (int slot = 0; slot <= mask; slot++) {
+				long entry = entry(slot);
+				if (entry != 0L) {
+					grown.publish((int) (entry >>> 32), (int) entry - 1);
+				}
+			}
+			return grown;
+		}
+	}
+}
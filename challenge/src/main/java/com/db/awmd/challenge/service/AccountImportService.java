@@ -0,0 +1,279 @@
+package com.db.awmd.challenge.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.db.awmd.challenge.cluster.ClusterTopology;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.ImportRejection;
+import com.db.awmd.challenge.domain.ImportSummary;
+import com.db.awmd.challenge.exception.BalanceOutOfRangeException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.csv.CsvFactory;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Creates accounts from an upload of any size. The upload is read record by
+ * record with a Jackson streaming parser, either NDJSON objects or CSV rows
+ * under an {@code accountId,balance} header, and the records are handed to a
+ * small pool in chunks. Each import keeps at most two chunks per pool thread
+ * in flight, so memory stays flat however large the upload is. Creations
+ * are awaited for durability once, at the end.
+ *
+ * <p>Rows are validated like {@code POST /v1/accounts} and each row whose id
+ * exists already is rejected with the {@link DuplicateAccountIdException}
+ * message; for duplicates within one upload, chunks run in parallel, so which
+ * row wins is not defined. The import is not atomic: rows accepted before a
+ * malformed record stay created. In a cluster, rows of accounts another node
+ * owns are rejected; they are imported by uploading them to that node.
+ */
+@Slf4j
+@Service
+public class AccountImportService {
+
+	public enum Format {
+		NDJSON, CSV
+	}
+
+	private final AccountsService accountsService;
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	private final CsvFactory csvFactory = new CsvFactory();
+
+	private final ThreadPoolExecutor executor;
+
+	private final int chunkSize;
+
+	private final int maxChunksInFlight;
+
+	private final int maxReportedRejections;
+
+	@Autowired(required = false)
+	private ClusterTopology cluster;
+
+	@Autowired
+	public AccountImportService(AccountsService accountsService,
+			@Value("${accounts.import.threads:4}") int threads,
+			@Value("${accounts.import.chunk-size:4096}") int chunkSize,
+			@Value("${accounts.import.max-reported-rejections:1000}") int maxReportedRejections) {
+		this.accountsService = accountsService;
+		this.chunkSize = chunkSize;
+		this.maxChunksInFlight = threads * 2;
+		this.maxReportedRejections = maxReportedRejections;
+		AtomicInteger created = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(), r -> {
+					Thread thread = new Thread(r, "account-import-" + created.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/** Imports every record of {@code upload} on the calling thread and the import pool. */
+	public ImportSummary importAccounts(final InputStream upload, final Format format) throws IOException {
+		Run run = new Run();
+		String error = null;
+		List<Row> chunk = new ArrayList<>(chunkSize);
+		try (JsonParser parser = open(upload, format)) {
+			long row = 0;
+			JsonToken token;
+			while ((token = parser.nextToken()) != null) {
+				row++;
+				Row parsed = parse(parser, token, row, run);
+				if (parsed != null) {
+					chunk.add(parsed);
+					if (chunk.size() == chunkSize) {
+						run.submit(chunk);
+						chunk = new ArrayList<>(chunkSize);
+					}
+				}
+			}
+		} catch (JsonProcessingException e) {
+			error = e.getOriginalMessage();
+		} finally {
+			// Rows read before a malformed record are imported all the same.
+			run.submit(chunk);
+			run.awaitChunks();
+		}
+		accountsService.getAccountsRepository().awaitDurable(run.lastTicket.get());
+
+		List<ImportRejection> reported;
+		synchronized (run.rejections) {
+			reported = new ArrayList<>(run.rejections);
+		}
+		reported.sort(Comparator.comparingLong(ImportRejection::getRow));
+		log.info("Imported {} accounts, rejected {}", run.accepted.get(), run.rejected.get());
+		return new ImportSummary(run.accepted.get(), run.rejected.get(), reported, error);
+	}
+
+	private JsonParser open(final InputStream upload, final Format format) throws IOException {
+		if (format == Format.NDJSON) {
+			return jsonFactory.createParser(upload);
+		}
+		CsvParser parser = csvFactory.createParser(upload);
+		parser.setSchema(CsvSchema.emptySchema().withHeader());
+		return parser;
+	}
+
+	/** Reads one record, leaving the parser on its last token; returns null if the record is rejected. */
+	private Row parse(final JsonParser parser, final JsonToken start, final long row, final Run run)
+			throws IOException {
+		if (start != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			run.reject(row, null, "Expected an object with accountId and balance");
+			return null;
+		}
+		String accountId = null;
+		String balanceText = null;
+		BigDecimal balance = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+			if ("accountId".equals(field) && value == JsonToken.VALUE_STRING) {
+				accountId = parser.getText();
+			} else if ("balance".equals(field) && value.isNumeric()) {
+				balance = parser.getDecimalValue();
+			} else if ("balance".equals(field) && value == JsonToken.VALUE_STRING) {
+				balanceText = parser.getText().trim();
+			} else {
+				parser.skipChildren();
+			}
+		}
+		if (accountId == null || accountId.isEmpty()) {
+			run.reject(row, accountId, "Account id must not be empty.");
+			return null;
+		}
+		if (cluster != null && !cluster.isLocal(accountId)) {
+			run.reject(row, accountId, "Account " + accountId + " is owned by node " + cluster.ownerOf(accountId) + ".");
+			return null;
+		}
+		if (balance == null && balanceText != null && !balanceText.isEmpty()) {
+			try {
+				balance = new BigDecimal(balanceText);
+			} catch (NumberFormatException e) {
+				run.reject(row, accountId, "Balance " + balanceText + " is not a number.");
+				return null;
+			}
+		}
+		if (balance == null) {
+			run.reject(row, accountId, "Balance must not be empty.");
+			return null;
+		}
+		if (balance.signum() < 0) {
+			run.reject(row, accountId, "Initial balance must be positive.");
+			return null;
+		}
+		return new Row(row, new Account(accountId, balance));
+	}
+
+	private static final class Row {
+
+		private final long row;
+
+		private final Account account;
+
+		private Row(long row, Account account) {
+			this.row = row;
+			this.account = account;
+		}
+	}
+
+	/** State of one import, shared by the parsing thread and the chunk tasks. */
+	private final class Run {
+
+		private final Semaphore chunksInFlight = new Semaphore(maxChunksInFlight);
+
+		private final AtomicLong accepted = new AtomicLong();
+
+		private final AtomicLong rejected = new AtomicLong();
+
+		private final LongAccumulator lastTicket = new LongAccumulator(Math::max, 0L);
+
+		/* The lowest rows rejected so far, highest first so it is the one to give way to a lower one. */
+		private final PriorityQueue<ImportRejection> rejections = new PriorityQueue<>(
+				Comparator.comparingLong(ImportRejection::getRow).reversed());
+
+		private void submit(final List<Row> chunk) {
+			if (chunk.isEmpty()) {
+				return;
+			}
+			chunksInFlight.acquireUninterruptibly();
+			try {
+				executor.execute(() -> {
+					try {
+						insert(chunk);
+					} finally {
+						chunksInFlight.release();
+					}
+				});
+			} catch (RuntimeException e) {
+				chunksInFlight.release();
+				throw e;
+			}
+		}
+
+		private void insert(final List<Row> chunk) {
+			long ticket = 0L;
+			for (Row row : chunk) {
+				try {
+					ticket = Math.max(ticket, accountsService.createAccountAndLog(row.account));
+					accepted.incrementAndGet();
+				} catch (DuplicateAccountIdException | BalanceOutOfRangeException e) {
+					reject(row.row, row.account.getAccountId(), e.getMessage());
+				} catch (RuntimeException e) {
+					log.warn("Import of account {} failed", row.account.getAccountId(), e);
+					reject(row.row, row.account.getAccountId(), "Account could not be created.");
+				}
+			}
+			lastTicket.accumulate(ticket);
+		}
+
+		private void reject(final long row, final String accountId, final String reason) {
+			rejected.incrementAndGet();
+			synchronized (rejections) {
+				if (rejections.size() < maxReportedRejections) {
+					rejections.add(new ImportRejection(row, accountId, reason));
+				} else if (!rejections.isEmpty() && row < rejections.peek().getRow()) {
+					rejections.poll();
+					rejections.add(new ImportRejection(row, accountId, reason));
+				}
+			}
+		}
+
+		private void awaitChunks() {
+			chunksInFlight.acquireUninterruptibly(maxChunksInFlight);
+			chunksInFlight.release(maxChunksInFlight);
+		}
+	}
+}
@@ -1,100 +1,675 @@
 package com.db.awmd.challenge.service;
 
+import java.io.IOException;
 import java.math.BigDecimal;
-import java.util.concurrent.locks.ReentrantLock;
-
-import javax.sql.rowset.spi.SyncResolver;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountState;
+import com.db.awmd.challenge.domain.AccountVersion;
+import com.db.awmd.challenge.domain.TransferLeg;
+import com.db.awmd.challenge.domain.TransferOutcome;
 import com.db.awmd.challenge.exception.TransferAccountNotFoundException;
 import com.db.awmd.challenge.exception.FundTransferException;
 import com.db.awmd.challenge.exception.InsufficientBalanceException;
 import com.db.awmd.challenge.exception.SameAccountTransferException;
+import com.db.awmd.challenge.exception.TransferLockTimeoutException;
 import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepository.AccountVisitor;
+import com.db.awmd.challenge.repository.AccountsRepository.CutVisitor;
+import com.db.awmd.challenge.repository.ledger.TransferLedger;
+import com.db.awmd.challenge.repository.ledger.TransferLedger.LedgerEntryVisitor;
+import com.db.awmd.challenge.transfer.lock.AccountLockManager;
+import com.db.awmd.challenge.transfer.lock.AccountLockManager.AccountLocks;
+import com.db.awmd.challenge.transfer.metrics.TransferMetrics;
+import com.db.awmd.challenge.transfer.metrics.TransferPhase;
+import com.db.awmd.challenge.transfer.shard.TransferSequencer;
 import com.db.awmd.challenge.transfer.transaction.AccountTransferTnxManager;
+import com.db.awmd.challenge.transfer.transaction.AccountTransferTransaction;
 
 import lombok.Getter;
 
 @Service
 public class AccountsService {
 
+	/** Returned by a shard commit in place of a ticket; tickets are never negative. */
+	private static final long INSUFFICIENT_BALANCE = -1L;
+
 	@Getter
 	private final AccountsRepository accountsRepository;
 
 	private AccountTransferTnxManager transactionManager;
 
+	private final TransferMetrics metrics;
+
 	@Autowired
-	private NotificationService notificationService;
+	private NotificationDispatcher notificationDispatcher;
 
 	@Autowired
 	private FundTransferValidator transferValidator;
 
 	@Autowired
-	public AccountsService(AccountsRepository accountsRepository) {
+	private AccountLockManager lockManager;
+
+	@Autowired
+	private OptimisticTransferStats optimisticStats;
+
+	@Autowired
+	private HotAccountDetector hotAccounts;
+
+	@Autowired(required = false)
+	private TransferSequencer sequencer;
+
+	@Autowired(required = false)
+	private TransferLedger ledger;
+
+	@Autowired(required = false)
+	@Qualifier("requestExecutor")
+	private Executor requestExecutor;
+
+	@Value("${transfer.concurrency.mode:PESSIMISTIC}")
+	private TransferConcurrencyMode concurrencyMode;
+
+	@Value("${transfer.optimistic.max-retries:8}")
+	private int optimisticMaxRetries;
+
+	@Value("${transfer.optimistic.retry-timeout-ms:1000}")
+	private long retryTimeoutMillis;
+
+	@Autowired
+	public AccountsService(AccountsRepository accountsRepository, TransferMetrics metrics) {
 		this.accountsRepository = accountsRepository;
-		this.transactionManager = new AccountTransferTnxManager(accountsRepository);
+		this.metrics = metrics;
+		this.transactionManager = new AccountTransferTnxManager(accountsRepository, metrics);
 	}
 
 	public void createAccount(Account account) {
 		this.accountsRepository.createAccount(account);
+		hotAccounts.created(account);
 	}
 
 	public Account getAccount(String accountId) {
 		return this.accountsRepository.getAccount(accountId);
 	}
 
-	
+	/** Completes once the account exists and its creation is durable, without blocking the caller on the journal. */
+	public CompletableFuture<Void> createAccountAsync(Account account) {
+		CompletableFuture<Void> created = new CompletableFuture<>();
+		try {
+			this.accountsRepository.whenDurable(createAccountAndLog(account), () -> created.complete(null));
+		} catch (RuntimeException e) {
+			created.completeExceptionally(e);
+		}
+		return created;
+	}
+
+	/**
+	 * Creates the account without waiting for its creation to become durable
+	 * and returns the ticket to wait on, see {@link AccountsRepository#createAccountAndLog}.
+	 */
+	public long createAccountAndLog(Account account) {
+		long ticket = this.accountsRepository.createAccountAndLog(account);
+		hotAccounts.created(account);
+		return ticket;
+	}
+
+	public CompletableFuture<Account> getAccountAsync(String accountId) {
+		return CompletableFuture.completedFuture(getAccount(accountId));
+	}
+
+	/** See {@link AccountsRepository#exportAccounts}. */
+	public void exportAccounts(AccountVisitor visitor) throws IOException {
+		this.accountsRepository.exportAccounts(visitor);
+	}
+
+	/** See {@link AccountsRepository#exportAccounts(CutVisitor, AccountVisitor)}. */
+	public void exportAccounts(CutVisitor cutVisitor, AccountVisitor visitor) throws IOException {
+		this.accountsRepository.exportAccounts(cutVisitor, visitor);
+	}
+
+	public boolean isLedgerEnabled() {
+		return ledger != null;
+	}
+
+	/** See {@link TransferLedger#isValidCursor}; any well-formed cursor passes while the ledger is disabled. */
+	public boolean isValidTransfersCursor(Account account, String cursor) {
+		return ledger == null ? TransferLedger.isWellFormed(cursor) : ledger.isValidCursor(account, cursor);
+	}
+
+	/** See {@link TransferLedger#read}. */
+	public String readTransfers(Account account, String cursor, int limit, LedgerEntryVisitor visitor)
+			throws IOException {
+		if (ledger == null) {
+			throw new IllegalStateException("The transfer ledger is disabled");
+		}
+		return ledger.read(account, cursor, limit, visitor);
+	}
+
+	/**
+	 * Runs {@code work} on the request executor when asynchronous request
+	 * handling is enabled, otherwise on the caller. A full executor fails the
+	 * future with a {@link RejectedExecutionException}.
+	 */
+	<T> CompletableFuture<T> supplyAsync(final Supplier<T> work) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		Runnable task = () -> {
+			try {
+				result.complete(work.get());
+			} catch (RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+		};
+		if (requestExecutor == null) {
+			task.run();
+			return result;
+		}
+		try {
+			requestExecutor.execute(task);
+		} catch (RejectedExecutionException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Transfers like {@link #tryFundTransfer} but throws the exception of a
+	 * rejection, see {@link TransferOutcome#toException()}.
+	 */
 	public void fundTransfer(final String fromAccount, final String toAccount, final BigDecimal transferAmount)
 			throws FundTransferException, TransferAccountNotFoundException, SameAccountTransferException,
 			InsufficientBalanceException {
-		synchronized (fromAccount) {
-		transferValidator.validate(getAccount(fromAccount), getAccount(toAccount), transferAmount);
-		transactionManager.doInTransaction(() -> {
-           
-			this.debit(fromAccount, transferAmount);
-			this.credit(toAccount, transferAmount);
+		TransferOutcome outcome = tryFundTransfer(fromAccount, toAccount, transferAmount);
+		if (outcome != TransferOutcome.ACCEPTED) {
+			throw outcome.toException();
+		}
+	}
+
+	/**
+	 * The ids are resolved here, once; locking, validation, the transaction and
+	 * the notifications all work on the resolved accounts and their handles.
+	 * Business rejections are returned, not thrown. Every phase is timed and
+	 * every outcome counted in {@link TransferMetrics}.
+	 */
+	public TransferOutcome tryFundTransfer(final String fromAccount, final String toAccount,
+			final BigDecimal transferAmount) {
+		return tryFundTransfer(fromAccount, toAccount, transferAmount, null);
+	}
+
+	/**
+	 * Transfers only if the source account is still at {@code expected}, see
+	 * {@link AccountVersion#matches}, and answers
+	 * {@link TransferOutcome#VERSION_MISMATCH} otherwise; null transfers
+	 * unconditionally.
+	 */
+	public TransferOutcome tryFundTransfer(final String fromAccount, final String toAccount,
+			final BigDecimal transferAmount, final AccountVersion expected) {
+		if (concurrencyMode == TransferConcurrencyMode.SHARDED) {
+			try {
+				return tryFundTransferAsync(fromAccount, toAccount, transferAmount, expected).join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw e;
+			}
+		}
+		long start = metrics.start();
+		try {
+			final Account from = resolve(fromAccount);
+			final Account to = resolve(toAccount);
+			TransferOutcome outcome = concurrencyMode == TransferConcurrencyMode.OPTIMISTIC
+					? optimisticTransfer(from, to, transferAmount, expected)
+					: pessimisticTransfer(from, to, transferAmount, expected);
+			if (outcome != TransferOutcome.ACCEPTED) {
+				metrics.rejected(outcome);
+				return outcome;
+			}
+			recordTransfer(from, to, transferAmount);
+			long notifyStart = metrics.start();
+			notifyTransfer(from, to, transferAmount);
+			metrics.record(TransferPhase.NOTIFY, notifyStart);
+			metrics.succeeded();
+			return outcome;
+		} catch (RuntimeException e) {
+			// A balance that drops between the check and the commit still surfaces as an exception.
+			TransferOutcome outcome = TransferOutcome.of(e);
+			if (outcome == null) {
+				metrics.failed(e);
+				throw e;
+			}
+			metrics.rejected(outcome);
+			return outcome;
+		} finally {
+			metrics.record(TransferPhase.TOTAL, start);
+		}
+	}
+
+	/** Transfers like {@link #tryFundTransferAsync} but fails the future with the exception of a rejection. */
+	public CompletableFuture<Void> fundTransferAsync(final String fromAccount, final String toAccount,
+			final BigDecimal transferAmount) {
+		return tryFundTransferAsync(fromAccount, toAccount, transferAmount).thenApply(outcome -> {
+			if (outcome != TransferOutcome.ACCEPTED) {
+				throw outcome.toException();
+			}
+			return null;
 		});
+	}
+
+	/**
+	 * Transfers without blocking the caller. In sharded mode the request is
+	 * validated here, the debit and credit run on the shard owning the accounts
+	 * and the returned future completes once the transfer is durable and the
+	 * notifications are queued. In the other modes the transfer runs on the
+	 * request executor, see {@link #supplyAsync(Supplier)}.
+	 */
+	public CompletableFuture<TransferOutcome> tryFundTransferAsync(final String fromAccount, final String toAccount,
+			final BigDecimal transferAmount) {
+		return tryFundTransferAsync(fromAccount, toAccount, transferAmount, null);
+	}
+
+	/** See {@link #tryFundTransferAsync(String, String, BigDecimal)} and {@link #tryFundTransfer(String, String, BigDecimal, AccountVersion)}. */
+	public CompletableFuture<TransferOutcome> tryFundTransferAsync(final String fromAccount, final String toAccount,
+			final BigDecimal transferAmount, final AccountVersion expected) {
+		if (concurrencyMode != TransferConcurrencyMode.SHARDED) {
+			return supplyAsync(() -> tryFundTransfer(fromAccount, toAccount, transferAmount, expected));
+		}
+
+		CompletableFuture<TransferOutcome> done = new CompletableFuture<>();
+		final long start = metrics.start();
+		try {
+			final Account from = resolve(fromAccount);
+			final Account to = resolve(toAccount);
+			TransferOutcome outcome = transferValidator.checkRequest(from, to, transferAmount);
+			if (outcome != TransferOutcome.ACCEPTED) {
+				shardedTransferRejected(done, outcome, start);
+				return done;
+			}
+			sequencer.execute(from.getHandle(), to.getHandle(), () -> {
+				metrics.record(TransferPhase.SHARD_QUEUE, start);
+				return shardedCommit(from, to, transferAmount, expected);
+			}).whenComplete((ticket, failure) -> {
+				if (failure != null) {
+					shardedTransferFailed(done, failure, start);
+					return;
+				}
+				if (ticket == INSUFFICIENT_BALANCE) {
+					shardedTransferRejected(done, TransferOutcome.INSUFFICIENT_BALANCE, start);
+					return;
+				}
+				long durableStart = metrics.start();
+				try {
+					accountsRepository.whenDurable(ticket, () -> {
+						if (ticket != 0L) {
+							metrics.record(TransferPhase.DURABILITY, durableStart);
+						}
+						shardedTransferDurable(done, from, to, transferAmount, start);
+					});
+				} catch (RuntimeException e) {
+					shardedTransferFailed(done, e, start);
+				}
+			});
+		} catch (RuntimeException e) {
+			shardedTransferFailed(done, e, start);
+		}
+		return done;
+	}
+
+	/**
+	 * Commits the legs, see {@link TransferLeg}, as one atomic transaction
+	 * under a single acquisition of the locks of all their accounts, taken in
+	 * stripe order. The request is validated before any lock is taken and
+	 * every balance against its net movement before anything is applied.
+	 * Rejections are returned like those of {@link #tryFundTransfer}. The
+	 * ledger and the notifications see the transaction as the transfers that
+	 * settle it, debits matched to credits in leg order.
+	 */
+	public TransferOutcome tryTransferLegs(final List<TransferLeg> legs) {
+		long start = metrics.start();
+		try {
+			final Account[] accounts = new Account[legs.size()];
+			final BigDecimal[] amounts = new BigDecimal[accounts.length];
+			final int[] handles = new int[accounts.length];
+			for (int i = 0; i < accounts.length; i++) {
+				TransferLeg leg = legs.get(i);
+				accounts[i] = leg == null ? null : resolve(leg.getAccountId());
+				amounts[i] = leg == null ? null : leg.getAmount();
+				handles[i] = accounts[i] == null ? 0 : accounts[i].getHandle();
+			}
+			TransferOutcome outcome = transferValidator.checkLegs(accounts, amounts);
+			if (outcome != TransferOutcome.ACCEPTED) {
+				metrics.rejected(outcome);
+				return outcome;
+			}
+			long ticket;
+			long lockStart = metrics.start();
+			AccountLocks locks = lockManager.lockAll(handles);
+			try {
+				metrics.record(TransferPhase.LOCK_WAIT, lockStart);
+				ticket = transactionManager.transferLegs(accounts, amounts, accounts.length);
+			} finally {
+				locks.close();
+			}
+			awaitDurable(ticket);
+			long notifyStart = metrics.start();
+			settleLegs(accounts, amounts);
+			metrics.record(TransferPhase.NOTIFY, notifyStart);
+			metrics.succeeded();
+			return outcome;
+		} catch (RuntimeException e) {
+			TransferOutcome outcome = TransferOutcome.of(e);
+			if (outcome == null) {
+				metrics.failed(e);
+				throw e;
+			}
+			metrics.rejected(outcome);
+			return outcome;
+		} finally {
+			metrics.record(TransferPhase.TOTAL, start);
+		}
+	}
+
+	/** Runs {@link #tryTransferLegs} on the request executor, see {@link #supplyAsync(Supplier)}. */
+	public CompletableFuture<TransferOutcome> tryTransferLegsAsync(final List<TransferLeg> legs) {
+		return supplyAsync(() -> tryTransferLegs(legs));
+	}
+
+	/* Pairs each debit off against the credits in order and records and notifies each pair as a transfer. */
+	private void settleLegs(final Account[] accounts, final BigDecimal[] amounts) {
+		int credit = 0;
+		BigDecimal credited = BigDecimal.ZERO;
+		for (int debit = 0; debit < accounts.length; debit++) {
+			if (amounts[debit].signum() > 0) {
+				continue;
+			}
+			BigDecimal owed = amounts[debit].negate();
+			while (owed.signum() > 0) {
+				while (amounts[credit].signum() < 0) {
+					credit++;
+				}
+				BigDecimal paid = owed.min(amounts[credit].subtract(credited));
+				if (!accounts[debit].isSameAccount(accounts[credit])) {
+					recordTransfer(accounts[debit], accounts[credit], paid);
+					notifyTransfer(accounts[debit], accounts[credit], paid);
+				}
+				owed = owed.subtract(paid);
+				credited = credited.add(paid);
+				if (credited.compareTo(amounts[credit]) == 0) {
+					credit++;
+					credited = BigDecimal.ZERO;
+				}
+			}
+		}
+	}
+
+	Account resolve(final String accountId) {
+		return accountId == null ? null : getAccount(accountId);
+	}
+
+	void recordTransfer(final Account from, final Account to, final BigDecimal transferAmount) {
+		if (ledger != null) {
+			ledger.record(from, to, transferAmount);
+		}
+	}
+
+	void notifyTransfer(final Account from, final Account to, final BigDecimal transferAmount) {
+		notificationDispatcher.enqueue(from, "The transfer to the account with ID "+ to.getAccountId() + " is now complete for the amount of " + transferAmount + ".");
+		notificationDispatcher.enqueue(to,"The account with ID + " + from.getAccountId() + " has transferred " + transferAmount + " into your account.");
+	}
+
+	/*
+	 * A credit to a hot account lands in its striped cells and needs no lock,
+	 * so only the source account is locked then.
+	 */
+	private TransferOutcome pessimisticTransfer(final Account from, final Account to,
+			final BigDecimal transferAmount, final AccountVersion expected) {
+		TransferOutcome outcome = transferValidator.checkRequest(from, to, transferAmount);
+		if (outcome != TransferOutcome.ACCEPTED) {
+			return outcome;
+		}
+		long ticket;
+		long lockStart = metrics.start();
+		AccountLocks locks = lockTransfer(from, to);
+		try {
+			metrics.record(TransferPhase.LOCK_WAIT, lockStart);
+			if (expected != null && !expected.matches(accountsRepository.getIncarnation(), from, from.getState())) {
+				return TransferOutcome.VERSION_MISMATCH;
+			}
+			outcome = transferValidator.checkBalance(from, transferAmount);
+			if (outcome != TransferOutcome.ACCEPTED) {
+				return outcome;
+			}
+			ticket = transactionManager.doInTransaction(transaction -> {
+
+				this.debit(transaction, from, transferAmount);
+				this.credit(transaction, to, transferAmount);
+			});
+		} finally {
+			locks.close();
+		}
+		awaitDurable(ticket);
+		return outcome;
+	}
+
+	/*
+	 * The debit is a single compare-and-set on the source account state, retried a
+	 * bounded number of times; once it succeeds the credit cannot fail, so it is
+	 * simply retried until it lands. Under sustained contention the debit is
+	 * finished under the account locks instead, backing off between attempts.
+	 */
+	private TransferOutcome optimisticTransfer(final Account from, final Account to,
+			final BigDecimal transferAmount, final AccountVersion expected) {
+		TransferOutcome outcome = transferValidator.check(from, to, transferAmount);
+		if (outcome != TransferOutcome.ACCEPTED) {
+			return outcome;
+		}
+
+		optimisticStats.attempted();
+		long ticket = 0L;
+		boolean debited = false;
+		long commitStart = metrics.start();
+		long stamp = accountsRepository.beginCommit();
+		try {
+			for (int attempt = 0; attempt < optimisticMaxRetries && !debited; attempt++) {
+				debited = tryDebit(from, transferAmount, expected);
+				if (!debited) {
+					optimisticStats.retried();
+				}
+			}
+			if (debited) {
+				ticket = creditAndLog(from, to, transferAmount);
+				optimisticStats.succeeded();
+			}
+		} finally {
+			accountsRepository.endCommit(stamp);
+		}
 
-		transactionManager.commitTransaction();
+		if (debited) {
+			metrics.record(TransferPhase.TRANSACTION, commitStart);
+		} else {
+			optimisticStats.fellBack();
+			long lockStart = metrics.start();
+			AccountLocks locks = lockTransfer(from, to);
+			try {
+				metrics.record(TransferPhase.LOCK_WAIT, lockStart);
+				commitStart = metrics.start();
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryTimeoutMillis);
+				for (int attempt = 1; !debited; attempt++) {
+					stamp = accountsRepository.beginCommit();
+					try {
+						debited = tryDebit(from, transferAmount, expected);
+						if (debited) {
+							ticket = creditAndLog(from, to, transferAmount);
+						}
+					} finally {
+						accountsRepository.endCommit(stamp);
+					}
+					if (!debited) {
+						optimisticStats.retried();
+						backOff(attempt, deadline);
+					}
+				}
+				metrics.record(TransferPhase.TRANSACTION, commitStart);
+			} finally {
+				locks.close();
+			}
 		}
-		    			notificationService.notifyAboutTransfer(getAccount(fromAccount), "The transfer to the account with ID "+ toAccount + " is now complete for the amount of " + transferAmount + ".");
-		notificationService.notifyAboutTransfer(getAccount(toAccount),"The account with ID + " + fromAccount + " has transferred " + transferAmount + " into your account.");
-		    	
+		awaitDurable(ticket);
+		return outcome;
+	}
+
+	private AccountLocks lockTransfer(final Account from, final Account to) {
+		if (to.isHot()) {
+			return lockManager.lock(from.getHandle());
+		}
+		if (lockManager.isLocked(to.getHandle())) {
+			hotAccounts.contended(to);
+		}
+		return lockManager.lock(from.getHandle(), to.getHandle());
+	}
+
+	private void awaitDurable(final long ticket) {
+		if (ticket != 0L) {
+			long start = metrics.start();
+			accountsRepository.awaitDurable(ticket);
+			metrics.record(TransferPhase.DURABILITY, start);
+		}
+	}
+
+	/*
+	 * Runs on the shard owning both accounts, which is their only transfer
+	 * writer; the debit can only lose its compare-and-set to a batch transfer
+	 * and is then retried with a back-off. Returns the journal ticket, or
+	 * INSUFFICIENT_BALANCE if the balance does not cover the amount.
+	 */
+	private long shardedCommit(final Account from, final Account to, final BigDecimal transferAmount,
+			final AccountVersion expected) {
+		if (transferValidator.checkBalance(from, transferAmount) != TransferOutcome.ACCEPTED) {
+			return INSUFFICIENT_BALANCE;
+		}
+		long start = metrics.start();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryTimeoutMillis);
+		try {
+			for (int attempt = 1;; attempt++) {
+				long stamp = accountsRepository.beginCommit();
+				try {
+					if (tryDebit(from, transferAmount, expected)) {
+						return creditAndLog(from, to, transferAmount);
+					}
+				} finally {
+					accountsRepository.endCommit(stamp);
+				}
+				backOff(attempt, deadline);
+			}
+		} finally {
+			metrics.record(TransferPhase.TRANSACTION, start);
+		}
+	}
+
+	/*
+	 * Waits before the next attempt at a debit that lost its compare-and-set,
+	 * outside the commit window so a cut is not held up: yields at first, then
+	 * parks for longer each time. Gives up once the deadline has passed.
+	 */
+	private void backOff(final int attempt, final long deadline) {
+		if (System.nanoTime() - deadline >= 0) {
+			throw new TransferLockTimeoutException(
+					"Could not debit the account within " + retryTimeoutMillis + " ms, please retry");
+		}
+		if (attempt <= 8) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10L << Math.min(attempt - 9, 6)));
+		}
+	}
 
-		    
+	private void shardedTransferDurable(final CompletableFuture<TransferOutcome> done, final Account from, final Account to,
+			final BigDecimal transferAmount, final long start) {
+		try {
+			recordTransfer(from, to, transferAmount);
+			long notifyStart = metrics.start();
+			notifyTransfer(from, to, transferAmount);
+			metrics.record(TransferPhase.NOTIFY, notifyStart);
+		} catch (RuntimeException e) {
+			shardedTransferFailed(done, e, start);
+			return;
+		}
+		metrics.succeeded();
+		metrics.record(TransferPhase.TOTAL, start);
+		done.complete(TransferOutcome.ACCEPTED);
+	}
 
+	private void shardedTransferRejected(final CompletableFuture<TransferOutcome> done, final TransferOutcome outcome,
+			final long start) {
+		metrics.rejected(outcome);
+		metrics.record(TransferPhase.TOTAL, start);
+		done.complete(outcome);
 	}
 
-	private Account debit(String accountId, final BigDecimal amount) throws FundTransferException {
-		
-		 final Account account = transactionManager.getAccountsRepo().getAccount(accountId);
-		
-		 if (account == null) {
-			throw new FundTransferException("Account does not exist");
+	private void shardedTransferFailed(final CompletableFuture<TransferOutcome> done, final Throwable failure,
+			final long start) {
+		Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+				? failure.getCause() : failure;
+		TransferOutcome outcome = TransferOutcome.of(cause);
+		if (outcome != null) {
+			shardedTransferRejected(done, outcome, start);
+			return;
 		}
-		if (account.getBalance().compareTo(amount) == -1) {
-			throw new FundTransferException("Insufficient balance in account");
+		metrics.failed(cause);
+		metrics.record(TransferPhase.TOTAL, start);
+		done.completeExceptionally(cause);
+	}
+
+	/* Logged before the credit lands, so a failed append only has the debit to give back. */
+	private long creditAndLog(final Account from, final Account to, final BigDecimal amount) {
+		long ticket;
+		try {
+			ticket = accountsRepository.logTransaction(new Account[] { from, to },
+					new BigDecimal[] { amount.negate(), amount }, 2);
+		} catch (RuntimeException e) {
+			from.adjustBalance(amount);
+			throw e;
 		}
-		
-		BigDecimal bal = account.getBalance().subtract(amount);
-		account.setBalance(bal);
-		
-		return account;
+		to.adjustBalance(amount);
+		return ticket;
 	}
 
-	private Account credit(String accountId, BigDecimal amount) throws FundTransferException {
-		
-		final Account account = transactionManager.getAccountsRepo().getAccount(accountId);
-		
-		if (account == null) {
-			throw new FundTransferException("Account does not exist");
+	/* The version is checked against the state the compare-and-set replaces. */
+	private boolean tryDebit(final Account account, final BigDecimal amount, final AccountVersion expected) {
+		AccountState current = account.getState();
+		if (expected != null && !expected.matches(accountsRepository.getIncarnation(), account, current)) {
+			throw TransferOutcome.VERSION_MISMATCH.toException();
 		}
-		BigDecimal bal = account.getBalance().add(amount);
-		account.setBalance(bal);
-		 
-		return account;
+		if (current.getBalance().compareTo(amount) < 0) {
+			// A hot account may hold the rest in its credit cells.
+			if (account.foldCredits()) {
+				return false;
+			}
+			throw new InsufficientBalanceException("Insufficient balance in fromAccount");
+		}
+		return account.compareAndSetState(current, account.nextState(current, current.getBalance().subtract(amount)));
+	}
+
+	private void debit(final AccountTransferTransaction transaction, final Account account, final BigDecimal amount)
+			throws InsufficientBalanceException {
+		if (transaction.balance(account).compareTo(amount) < 0) {
+			throw new InsufficientBalanceException("Insufficient balance in fromAccount");
+		}
+		transaction.debit(account, amount);
+	}
+
+	private void credit(final AccountTransferTransaction transaction, final Account account, final BigDecimal amount) {
+		transaction.credit(account, amount);
 	}
 }
@@ -0,0 +1,240 @@
+package com.db.awmd.challenge.service;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchTransferMode;
+import com.db.awmd.challenge.domain.FundTransfer;
+import com.db.awmd.challenge.domain.TransferOutcome;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.transfer.lock.AccountLockManager;
+import com.db.awmd.challenge.transfer.lock.AccountLockManager.AccountLocks;
+
+/**
+ * Applies a batch of transfers under a single acquisition of the locks of every
+ * account involved. The transfers are replayed in order against running
+ * balances and only the net movement per account is written back.
+ */
+@Service
+public class BatchTransferService {
+
+	private static final long NOT_APPLIED = -1L;
+
+	private final AccountsService accountsService;
+
+	private final AccountLockManager lockManager;
+
+	private final FundTransferValidator transferValidator;
+
+	@Autowired
+	public BatchTransferService(AccountsService accountsService, AccountLockManager lockManager,
+			FundTransferValidator transferValidator) {
+		this.accountsService = accountsService;
+		this.lockManager = lockManager;
+		this.transferValidator = transferValidator;
+	}
+
+	/** Applies the batch on the request executor, see {@link AccountsService#supplyAsync}. */
+	public CompletableFuture<List<TransferResult>> fundTransferBatchAsync(final List<FundTransfer> transfers,
+			final BatchTransferMode mode) {
+		return accountsService.supplyAsync(() -> fundTransferBatch(transfers, mode));
+	}
+
+	public List<TransferResult> fundTransferBatch(final List<FundTransfer> transfers, final BatchTransferMode mode) {
+		final TransferResult[] results = new TransferResult[transfers.size()];
+		final Position[] fromPositions = new Position[results.length];
+		final Position[] toPositions = new Position[results.length];
+		final Map<Integer, Position> positions = new LinkedHashMap<>();
+
+		boolean rejected = false;
+		for (int i = 0; i < results.length; i++) {
+			FundTransfer transfer = transfers.get(i);
+			if (transfer == null) {
+				results[i] = TransferResult.rejected(i, TransferOutcome.INVALID_AMOUNT.getMessage());
+				rejected = true;
+				continue;
+			}
+			Account from = accountsService.resolve(transfer.getAccountFrom());
+			Account to = accountsService.resolve(transfer.getAccountTo());
+			TransferOutcome outcome = transferValidator.checkRequest(from, to, transfer.getTransferAmount());
+			if (outcome != TransferOutcome.ACCEPTED) {
+				results[i] = TransferResult.rejected(i, outcome.getMessage());
+				rejected = true;
+				continue;
+			}
+			fromPositions[i] = position(positions, from);
+			toPositions[i] = position(positions, to);
+		}
+		if (rejected && mode == BatchTransferMode.ALL_OR_NOTHING) {
+			return abort(results);
+		}
+
+		long ticket;
+		int[] handles = new int[positions.size()];
+		int next = 0;
+		for (int handle : positions.keySet()) {
+			handles[next++] = handle;
+		}
+		AccountLocks locks = lockManager.lockAll(handles);
+		try {
+			do {
+				for (Position position : positions.values()) {
+					position.open();
+				}
+				rejected = false;
+				for (int i = 0; i < results.length; i++) {
+					Position from = fromPositions[i];
+					Position to = toPositions[i];
+					if (from == null) {
+						continue;
+					}
+					FundTransfer transfer = transfers.get(i);
+					if (from.running.compareTo(transfer.getTransferAmount()) < 0) {
+						results[i] = TransferResult.rejected(i, TransferOutcome.INSUFFICIENT_BALANCE.getMessage());
+						rejected = true;
+						continue;
+					}
+					from.running = from.running.subtract(transfer.getTransferAmount());
+					to.running = to.running.add(transfer.getTransferAmount());
+					results[i] = TransferResult.completed(i);
+				}
+				if (rejected && mode == BatchTransferMode.ALL_OR_NOTHING) {
+					return abort(results);
+				}
+			} while ((ticket = applyAndLogNetMovements(positions)) == NOT_APPLIED);
+		} finally {
+			locks.close();
+		}
+		accountsService.getAccountsRepository().awaitDurable(ticket);
+
+		for (int i = 0; i < results.length; i++) {
+			if (results[i].isCompleted()) {
+				accountsService.recordTransfer(fromPositions[i].account, toPositions[i].account,
+						transfers.get(i).getTransferAmount());
+				accountsService.notifyTransfer(fromPositions[i].account, toPositions[i].account,
+						transfers.get(i).getTransferAmount());
+			}
+		}
+		return Arrays.asList(results);
+	}
+
+	/*
+	 * Debits go first so that a net debit which no longer fits (a lock-free
+	 * transfer got in between in optimistic mode) can be undone before any credit
+	 * is visible; the batch is then replayed against the fresh balances. Credits
+	 * follow only once the movements are logged, so a failed append just gives
+	 * the debits back.
+	 */
+	private long applyAndLogNetMovements(final Map<Integer, Position> positions) {
+		AccountsRepository accountsRepository = accountsService.getAccountsRepository();
+		long stamp = accountsRepository.beginCommit();
+		try {
+			if (!applyNetDebits(positions)) {
+				return NOT_APPLIED;
+			}
+			long ticket;
+			try {
+				ticket = logNetMovements(positions);
+			} catch (RuntimeException e) {
+				undoNetDebits(positions, null);
+				throw e;
+			}
+			for (Position position : positions.values()) {
+				BigDecimal net = position.net();
+				if (net.signum() > 0) {
+					position.account.adjustBalance(net);
+				}
+			}
+			return ticket;
+		} finally {
+			accountsRepository.endCommit(stamp);
+		}
+	}
+
+	private boolean applyNetDebits(final Map<Integer, Position> positions) {
+		for (Position position : positions.values()) {
+			BigDecimal net = position.net();
+			if (net.signum() < 0 && !position.account.adjustBalance(net)) {
+				undoNetDebits(positions, position);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* Gives back the net debits of the positions before {@code until}, or of all of them if it is null. */
+	private static void undoNetDebits(final Map<Integer, Position> positions, final Position until) {
+		for (Position applied : positions.values()) {
+			if (applied == until) {
+				break;
+			}
+			BigDecimal appliedNet = applied.net();
+			if (appliedNet.signum() < 0) {
+				applied.account.adjustBalance(appliedNet.negate());
+			}
+		}
+	}
+
+	private long logNetMovements(final Map<Integer, Position> positions) {
+		Account[] accounts = new Account[positions.size()];
+		BigDecimal[] deltas = new BigDecimal[positions.size()];
+		int count = 0;
+		for (Position position : positions.values()) {
+			BigDecimal net = position.net();
+			if (net.signum() != 0) {
+				accounts[count] = position.account;
+				deltas[count++] = net;
+			}
+		}
+		return count == 0 ? 0L : accountsService.getAccountsRepository().logTransaction(accounts, deltas, count);
+	}
+
+	private static Position position(final Map<Integer, Position> positions, final Account account) {
+		Position position = positions.get(account.getHandle());
+		if (position == null) {
+			position = new Position(account);
+			positions.put(account.getHandle(), position);
+		}
+		return position;
+	}
+
+	private static List<TransferResult> abort(final TransferResult[] results) {
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] == null || results[i].isCompleted()) {
+				results[i] = TransferResult.aborted(i);
+			}
+		}
+		return Arrays.asList(results);
+	}
+
+	private static final class Position {
+
+		private final Account account;
+
+		private BigDecimal opening;
+
+		private BigDecimal running;
+
+		private Position(Account account) {
+			this.account = account;
+		}
+
+		private void open() {
+			opening = account.getBalance();
+			running = opening;
+		}
+
+		private BigDecimal net() {
+			return running.subtract(opening);
+		}
+	}
+}
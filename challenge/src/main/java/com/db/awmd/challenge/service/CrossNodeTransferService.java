@@ -0,0 +1,670 @@
+package com.db.awmd.challenge.service;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
+
+import com.db.awmd.challenge.cluster.ClusterClient;
+import com.db.awmd.challenge.cluster.ClusterTopology;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountVersion;
+import com.db.awmd.challenge.domain.TransactionPhase;
+import com.db.awmd.challenge.domain.TransferLeg;
+import com.db.awmd.challenge.domain.TransferOutcome;
+import com.db.awmd.challenge.repository.RecoveredTransaction;
+import com.db.awmd.challenge.transfer.lock.AccountLockManager;
+import com.db.awmd.challenge.transfer.lock.AccountLockManager.AccountLocks;
+import com.db.awmd.challenge.transfer.metrics.TransferMetrics;
+import com.db.awmd.challenge.transfer.metrics.TransferPhase;
+import com.db.awmd.challenge.transfer.transaction.AccountTransferTnxManager;
+import com.db.awmd.challenge.transfer.transaction.AccountTransferTransaction;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Transfers between accounts owned by different nodes, by two-phase commit.
+ * The node owning the source account coordinates: it prepares the debit
+ * locally, asks the owner of the destination to prepare the credit, and
+ * commits both once both are prepared, or aborts both otherwise. Each node
+ * also takes part for the legs it owns, see {@link #prepare}, {@link #commit},
+ * {@link #abort} and {@link #forget}.
+ *
+ * <p>Every phase is journaled, see {@link TransactionPhase}: a prepared debit
+ * is a reservation that has left the account in the journal too, and a
+ * participant answers its prepare only once that is durable. The coordinator
+ * journals its decision, commit or abort, and tells the participant until it
+ * acknowledges, then tells it to forget the outcome, and only then journals
+ * the transaction complete; both are retried every
+ * {@code accounts.cluster.redrive-interval-ms}, also after a restart. So a
+ * participant keeps the outcome of every transaction it prepared, and answers
+ * a repeated commit or abort from it, until its coordinator no longer asks.
+ * After a restart a participant takes its prepared transactions back and
+ * waits for their outcome; a coordinator aborts those it had not decided. As
+ * in any two-phase commit, a participant whose coordinator fails between the
+ * phases holds its legs prepared until it is told the outcome.
+ * Cross-node transfers are not recorded in the ledger and send no
+ * notifications.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "accounts.cluster.enabled", havingValue = "true")
+public class CrossNodeTransferService {
+
+	private final AccountsService accountsService;
+
+	private final AccountLockManager lockManager;
+
+	private final FundTransferValidator transferValidator;
+
+	private final TransferMetrics metrics;
+
+	private final ClusterTopology topology;
+
+	private final ClusterClient clusterClient;
+
+	private final AccountTransferTnxManager transactionManager;
+
+	private final ConcurrentHashMap<String, Prepared> prepared = new ConcurrentHashMap<>();
+
+	/** Aborts that came before their prepare, oldest first, so their placeholders can be expired. */
+	private final ConcurrentLinkedQueue<Prepared> placeholders = new ConcurrentLinkedQueue<>();
+
+	private final AtomicInteger preparedCount = new AtomicInteger();
+
+	/** Decisions of this node as coordinator that its participant has not acknowledged and forgotten yet. */
+	private final ConcurrentHashMap<String, Decision> unfinished = new ConcurrentHashMap<>();
+
+	private final LongAdder escalated = new LongAdder();
+
+	private ScheduledExecutorService redrive;
+
+	@Value("${accounts.cluster.early-abort-retention-ms:60000}")
+	private long earlyAbortRetentionMs;
+
+	@Value("${accounts.cluster.redrive-interval-ms:5000}")
+	private long redriveIntervalMs;
+
+	@Value("${accounts.cluster.commit-retries:5}")
+	private int commitRetries;
+
+	@Value("${accounts.cluster.commit-retry-backoff-ms:100}")
+	private long commitRetryBackoffMs;
+
+	@Autowired
+	public CrossNodeTransferService(AccountsService accountsService, AccountLockManager lockManager,
+			FundTransferValidator transferValidator, TransferMetrics metrics, ClusterTopology topology,
+			ClusterClient clusterClient) {
+		this.accountsService = accountsService;
+		this.lockManager = lockManager;
+		this.transferValidator = transferValidator;
+		this.metrics = metrics;
+		this.topology = topology;
+		this.clusterClient = clusterClient;
+		this.transactionManager = new AccountTransferTnxManager(accountsService.getAccountsRepository(), metrics);
+	}
+
+	/**
+	 * Takes over the transactions the repository recovered, see the class
+	 * comment, and starts the redrive of unfinished decisions.
+	 */
+	@PostConstruct
+	public void recover() {
+		for (RecoveredTransaction transaction : accountsService.getAccountsRepository().getRecoveredTransactions()) {
+			String txId = transaction.getTxId();
+			String participant = transaction.getParticipant();
+			switch (transaction.getPhase()) {
+			case PREPARE:
+				if (!restore(transaction)) {
+					log.error("Transaction {} was prepared on accounts that no longer exist", txId);
+				} else if (participant == null) {
+					log.info("Transaction {} is prepared, waiting for its coordinator", txId);
+				} else {
+					// Nothing was decided before the restart, so nobody has been told the transfer happened.
+					log.info("Aborting transaction {}, prepared but not decided before the restart", txId);
+					abortLocal(txId);
+					unfinished.put(txId, new Decision(participant, false));
+				}
+				break;
+			case COMMIT:
+			case ABORT:
+				boolean commit = transaction.getPhase() == TransactionPhase.COMMIT;
+				if (participant == null) {
+					remember(txId, commit);
+				} else {
+					unfinished.put(txId, new Decision(participant, commit));
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		redrive = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "cluster-redrive");
+			thread.setDaemon(true);
+			return thread;
+		});
+		redrive.scheduleWithFixedDelay(this::redrive, redriveIntervalMs, redriveIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		if (redrive != null) {
+			redrive.shutdownNow();
+			redrive.awaitTermination(5, TimeUnit.SECONDS);
+		}
+	}
+
+	/** Runs {@link #transfer} on the request executor, see {@link AccountsService#supplyAsync}. */
+	public CompletableFuture<TransferOutcome> transferAsync(final String fromAccount, final String toAccount,
+			final BigDecimal transferAmount, final AccountVersion expected) {
+		return accountsService.supplyAsync(() -> transfer(fromAccount, toAccount, transferAmount, expected));
+	}
+
+	/**
+	 * Transfers from a local account to one owned by another node. Rejections
+	 * by either node are returned; a participant that cannot be reached while
+	 * preparing aborts the transfer and is thrown as a {@link RestClientException}.
+	 */
+	public TransferOutcome transfer(final String fromAccount, final String toAccount, final BigDecimal transferAmount,
+			final AccountVersion expected) {
+		long start = metrics.start();
+		try {
+			String participant = toAccount == null ? null : topology.ownerOf(toAccount);
+			if (participant == null || participant.equals(topology.getLocalNodeId())) {
+				return rejected(TransferOutcome.ACCOUNT_NOT_FOUND);
+			}
+			TransferOutcome outcome = transferValidator.checkAmount(transferAmount);
+			if (outcome != TransferOutcome.ACCEPTED) {
+				return rejected(outcome);
+			}
+			String txId = topology.getLocalNodeId() + "-" + UUID.randomUUID();
+			outcome = prepare(txId, participant,
+					Collections.singletonList(new TransferLeg(fromAccount, transferAmount.negate())), expected);
+			if (outcome != TransferOutcome.ACCEPTED) {
+				return rejected(outcome);
+			}
+			try {
+				outcome = clusterClient.prepare(participant, txId,
+						Collections.singletonList(new TransferLeg(toAccount, transferAmount)));
+			} catch (RuntimeException e) {
+				// The participant may have prepared all the same, so it is told to abort until it acknowledges.
+				abortLocal(txId);
+				settle(txId, new Decision(participant, false), 0);
+				metrics.failed(e);
+				throw e;
+			}
+			if (outcome != TransferOutcome.ACCEPTED) {
+				// The participant refused, so it holds nothing to abort.
+				abortLocal(txId);
+				accountsService.getAccountsRepository().logPhase(TransactionPhase.COMPLETE, txId, participant, null,
+						null, 0);
+				return rejected(outcome);
+			}
+
+			// Both legs are prepared, so once the commit is durable the transfer has happened; only the
+			// participant's commit is left, and it is retried until acknowledged.
+			awaitDurable(commit(txId));
+			settle(txId, new Decision(participant, true), commitRetries);
+			metrics.succeeded();
+			return TransferOutcome.ACCEPTED;
+		} finally {
+			metrics.record(TransferPhase.TOTAL, start);
+		}
+	}
+
+	/**
+	 * Prepares the legs of {@code txId} for its coordinator, see
+	 * {@link #prepare(String, String, List, AccountVersion)}, and returns once
+	 * the prepare is durable.
+	 */
+	public TransferOutcome prepare(final String txId, final List<TransferLeg> legs, final AccountVersion expected) {
+		return prepare(txId, null, legs, expected);
+	}
+
+	/**
+	 * Prepares the legs of {@code txId}, which must all be owned by this node,
+	 * under the locks of their accounts; {@code expected}, if not null, applies
+	 * to the account of the first leg. {@code participant} is the node this one
+	 * coordinates the transaction with, null if this node is the participant.
+	 * A repeated prepare of a transaction that is prepared already is answered
+	 * {@link TransferOutcome#ACCEPTED}.
+	 */
+	private TransferOutcome prepare(final String txId, final String participant, final List<TransferLeg> legs,
+			final AccountVersion expected) {
+		Account[] accounts = new Account[legs.size()];
+		int[] handles = new int[accounts.length];
+		for (int i = 0; i < accounts.length; i++) {
+			TransferLeg leg = legs.get(i);
+			accounts[i] = leg == null || !topology.isLocal(leg.getAccountId()) ? null
+					: accountsService.resolve(leg.getAccountId());
+			if (accounts[i] == null) {
+				return TransferOutcome.ACCOUNT_NOT_FOUND;
+			}
+			if (leg.getAmount() == null || leg.getAmount().signum() == 0) {
+				return TransferOutcome.INVALID_AMOUNT;
+			}
+			handles[i] = accounts[i].getHandle();
+		}
+		if (accounts.length == 0) {
+			return TransferOutcome.INVALID_AMOUNT;
+		}
+
+		expirePlaceholders();
+		Prepared entry = new Prepared(txId);
+		entry.participant = participant;
+		Prepared existing = prepared.putIfAbsent(txId, entry);
+		long ticket;
+		if (existing != null) {
+			synchronized (existing) {
+				if (existing.aborted || existing.transaction == null) {
+					throw new IllegalStateException("Transaction " + txId + " is not prepared");
+				}
+				ticket = existing.ticket;
+			}
+		} else {
+			TransferOutcome outcome = prepareEntry(entry, participant, accounts, handles, legs, expected);
+			if (outcome != TransferOutcome.ACCEPTED) {
+				return outcome;
+			}
+			ticket = entry.ticket;
+		}
+		// The coordinator's own prepare becomes durable with its commit.
+		if (participant == null) {
+			awaitDurable(ticket);
+		}
+		return TransferOutcome.ACCEPTED;
+	}
+
+	private TransferOutcome prepareEntry(final Prepared entry, final String participant, final Account[] accounts,
+			final int[] handles, final List<TransferLeg> legs, final AccountVersion expected) {
+		String txId = entry.txId;
+		synchronized (entry) {
+			// An abort may have taken the entry between its publication and here.
+			if (entry.aborted) {
+				throw new IllegalStateException("Transaction " + txId + " was aborted");
+			}
+			TransferOutcome outcome = TransferOutcome.ACCEPTED;
+			long lockStart = metrics.start();
+			try {
+				AccountLocks locks = lockManager.lockAll(handles);
+				try {
+					metrics.record(TransferPhase.LOCK_WAIT, lockStart);
+					if (expected != null && !expected.matches(accountsService.getAccountsRepository().getIncarnation(),
+							accounts[0], accounts[0].getState())) {
+						outcome = TransferOutcome.VERSION_MISMATCH;
+					} else {
+						entry.transaction = transactionManager.prepare(txId, participant, transaction -> {
+							for (int i = 0; i < accounts.length; i++) {
+								BigDecimal amount = legs.get(i).getAmount();
+								if (amount.signum() < 0) {
+									if (transaction.balance(accounts[i]).compareTo(amount.negate()) < 0) {
+										throw TransferOutcome.INSUFFICIENT_BALANCE.toException();
+									}
+									transaction.debit(accounts[i], amount.negate());
+								} else {
+									transaction.credit(accounts[i], amount);
+								}
+							}
+						});
+						entry.ticket = entry.transaction.getPrepareTicket();
+					}
+				} finally {
+					locks.close();
+				}
+			} catch (RuntimeException e) {
+				outcome = TransferOutcome.of(e);
+				if (outcome == null) {
+					prepared.remove(txId, entry);
+					throw e;
+				}
+			}
+			if (outcome == TransferOutcome.ACCEPTED) {
+				entry.journaled = true;
+				preparedCount.incrementAndGet();
+			} else {
+				prepared.remove(txId, entry);
+			}
+			return outcome;
+		}
+	}
+
+	/**
+	 * Commits the prepared transaction {@code txId} and returns its journal
+	 * ticket, or -1 if this node does not know the transaction. A transaction
+	 * committed already is answered with the ticket of its commit until its
+	 * coordinator has this node {@link #forget} it.
+	 */
+	public long commit(final String txId) {
+		Prepared entry = prepared.get(txId);
+		if (entry == null) {
+			return -1L;
+		}
+		synchronized (entry) {
+			if (entry.committed) {
+				return entry.ticket;
+			}
+			if (entry.aborted || entry.transaction == null) {
+				throw new IllegalStateException("Transaction " + txId + " was aborted");
+			}
+			entry.ticket = entry.transaction.commitPrepared();
+			entry.transaction = null;
+			entry.committed = true;
+			preparedCount.decrementAndGet();
+			if (entry.participant != null) {
+				// The coordinator keeps its decision in unfinished instead.
+				prepared.remove(txId, entry);
+			}
+			return entry.ticket;
+		}
+	}
+
+	/**
+	 * Aborts {@code txId}, prepared or not. A prepared transaction is
+	 * remembered as aborted until its coordinator has this node
+	 * {@link #forget} it; one not prepared yet for
+	 * {@code accounts.cluster.early-abort-retention-ms}, so that its prepare
+	 * arriving late is refused. A transaction committed already stays
+	 * committed.
+	 */
+	public void abort(final String txId) {
+		expirePlaceholders();
+		Prepared placeholder = new Prepared(txId);
+		placeholder.aborted = true;
+		Prepared entry = prepared.putIfAbsent(txId, placeholder);
+		if (entry == null) {
+			retain(placeholder);
+			log.warn("Aborted transaction {} before it was prepared", txId);
+			return;
+		}
+		synchronized (entry) {
+			if (entry.aborted || entry.committed) {
+				return;
+			}
+			if (entry.transaction != null) {
+				entry.transaction.abortPrepared();
+				entry.transaction = null;
+				preparedCount.decrementAndGet();
+			}
+			entry.aborted = true;
+			// A prepare under way sees the entry aborted and gives up; one arriving later finds it still here.
+			Prepared current = prepared.putIfAbsent(txId, entry);
+			if ((current == null || current == entry) && !entry.journaled) {
+				retain(entry);
+			}
+		}
+	}
+
+	/**
+	 * Forgets the outcome of {@code txId}, once its coordinator has it
+	 * acknowledged and will not ask again, and journals the transaction
+	 * complete. Returns false, forgetting nothing, while the transaction is
+	 * still prepared; a transaction this node does not know is forgotten
+	 * already.
+	 */
+	public boolean forget(final String txId) {
+		Prepared entry = prepared.get(txId);
+		if (entry == null) {
+			return true;
+		}
+		synchronized (entry) {
+			if (!entry.committed && !entry.aborted) {
+				return false;
+			}
+			// An abort that came before its prepare expires instead, as the prepare may still be on its way.
+			if (entry.journaled && prepared.remove(txId, entry)) {
+				accountsService.getAccountsRepository().logPhase(TransactionPhase.COMPLETE, txId, null, null, null, 0);
+			}
+			return true;
+		}
+	}
+
+	public void awaitDurable(final long ticket) {
+		if (ticket != 0L) {
+			long start = metrics.start();
+			accountsService.getAccountsRepository().awaitDurable(ticket);
+			metrics.record(TransferPhase.DURABILITY, start);
+		}
+	}
+
+	/** Transactions prepared on this node and waiting for their outcome. */
+	public int getPreparedCount() {
+		return preparedCount.get();
+	}
+
+	/** Decisions of this node as coordinator whose participant has not acknowledged and forgotten them yet. */
+	public int getUnfinishedCount() {
+		return unfinished.size();
+	}
+
+	/** Committed transactions whose participant turned out not to know them, see {@link #redrive()}. */
+	public long getEscalatedCount() {
+		return escalated.sum();
+	}
+
+	/**
+	 * Tells the participant of every unfinished decision once more, see
+	 * {@link #getUnfinishedCount()}. Runs every
+	 * {@code accounts.cluster.redrive-interval-ms}.
+	 */
+	public void redrive() {
+		for (Map.Entry<String, Decision> decision : unfinished.entrySet()) {
+			try {
+				if (!drive(decision.getKey(), decision.getValue())) {
+					log.warn("Node {} has not acknowledged the outcome of transaction {}, will retry",
+							decision.getValue().participant, decision.getKey());
+				}
+			} catch (RestClientException e) {
+				log.warn("Could not reach node {} for transaction {}, will retry", decision.getValue().participant,
+						decision.getKey(), e);
+			}
+		}
+	}
+
+	/* Keeps an abort that came before its prepare until it expires. */
+	private void retain(final Prepared entry) {
+		entry.expiresAt = System.currentTimeMillis() + earlyAbortRetentionMs;
+		placeholders.add(entry);
+	}
+
+	private void remember(final String txId, final boolean committed) {
+		Prepared entry = new Prepared(txId);
+		entry.committed = committed;
+		entry.aborted = !committed;
+		entry.journaled = true;
+		prepared.put(txId, entry);
+	}
+
+	private boolean restore(final RecoveredTransaction recovered) {
+		List<TransferLeg> legs = recovered.getLegs();
+		Account[] accounts = new Account[legs.size()];
+		BigDecimal[] amounts = new BigDecimal[accounts.length];
+		for (int i = 0; i < accounts.length; i++) {
+			accounts[i] = accountsService.resolve(legs.get(i).getAccountId());
+			amounts[i] = legs.get(i).getAmount();
+			if (accounts[i] == null) {
+				return false;
+			}
+		}
+		Prepared entry = new Prepared(recovered.getTxId());
+		entry.participant = recovered.getParticipant();
+		entry.journaled = true;
+		entry.transaction = transactionManager.restore(entry.txId, entry.participant, accounts, amounts);
+		prepared.put(entry.txId, entry);
+		preparedCount.incrementAndGet();
+		return true;
+	}
+
+	/* Gives back this coordinator's own reservation; the participant is told separately. */
+	private void abortLocal(final String txId) {
+		Prepared entry = prepared.remove(txId);
+		if (entry == null) {
+			return;
+		}
+		synchronized (entry) {
+			if (entry.transaction != null) {
+				entry.transaction.abortPrepared();
+				entry.transaction = null;
+				preparedCount.decrementAndGet();
+			}
+			entry.aborted = true;
+		}
+	}
+
+	/*
+	 * Tells the participant the decision, then to forget it, and journals the
+	 * transaction complete once both are acknowledged; returns whether it is.
+	 * Only a participant that never prepared the transaction, or lost it, does
+	 * not know a commit, as it forgets only when told to; no retry mends that,
+	 * so it is escalated and the transaction completed here.
+	 */
+	private boolean drive(final String txId, final Decision decision) {
+		synchronized (decision) {
+			if (unfinished.get(txId) != decision) {
+				return true;
+			}
+			if (!decision.applied) {
+				if (decision.commit) {
+					HttpStatus status = clusterClient.commit(decision.participant, txId);
+					if (status == HttpStatus.NOT_FOUND) {
+						escalated.increment();
+						log.error("Node {} does not know transaction {}, committed here; its legs need reconciling",
+								decision.participant, txId);
+						finish(txId, decision);
+						return true;
+					}
+					decision.applied = status.is2xxSuccessful();
+				} else {
+					decision.applied = clusterClient.abort(decision.participant, txId);
+				}
+				if (!decision.applied) {
+					return false;
+				}
+			}
+			if (!clusterClient.forget(decision.participant, txId)) {
+				return false;
+			}
+			finish(txId, decision);
+			return true;
+		}
+	}
+
+	/* The participant is done with the transaction, so it needs nothing more after a restart. */
+	private void finish(final String txId, final Decision decision) {
+		if (unfinished.remove(txId, decision)) {
+			accountsService.getAccountsRepository().logPhase(TransactionPhase.COMPLETE, txId, decision.participant,
+					null, null, 0);
+		}
+	}
+
+	private void expirePlaceholders() {
+		long now = System.currentTimeMillis();
+		for (Prepared head; (head = placeholders.peek()) != null && head.expiresAt <= now;) {
+			if (placeholders.remove(head)) {
+				prepared.remove(head.txId, head);
+			}
+		}
+	}
+
+	private TransferOutcome rejected(final TransferOutcome outcome) {
+		metrics.rejected(outcome);
+		return outcome;
+	}
+
+	/*
+	 * The transaction is decided, so telling the participant is retried, up to
+	 * retries times here and then by redrive, rather than undone.
+	 */
+	private void settle(final String txId, final Decision decision, final int retries) {
+		unfinished.put(txId, decision);
+		for (int attempt = 0;; attempt++) {
+			try {
+				if (drive(txId, decision)) {
+					return;
+				}
+			} catch (RestClientException e) {
+				log.debug("Could not reach node {} for transaction {}", decision.participant, txId, e);
+			}
+			if (attempt >= retries) {
+				log.warn("Node {} has not acknowledged the outcome of transaction {}, retrying every {} ms",
+						decision.participant, txId, redriveIntervalMs);
+				return;
+			}
+			try {
+				TimeUnit.MILLISECONDS.sleep(commitRetryBackoffMs << Math.min(attempt, 6));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				log.warn("Interrupted settling transaction {} on node {}, retrying every {} ms", txId,
+						decision.participant, redriveIntervalMs);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * A transaction of this node between prepare and its outcome, or its
+	 * outcome once decided, kept for late and repeated calls; guarded by its
+	 * own monitor.
+	 */
+	private static final class Prepared {
+
+		private final String txId;
+
+		/** The node this one coordinates the transaction with, null where it is the participant. */
+		private String participant;
+
+		private AccountTransferTransaction transaction;
+
+		private boolean aborted;
+
+		private boolean committed;
+
+		/** Whether the prepare was journaled, so that the outcome is kept until forgotten. */
+		private boolean journaled;
+
+		/** Journal ticket of the prepare, then of the commit. */
+		private long ticket;
+
+		/** When an abort that came before its prepare may be forgotten. */
+		private long expiresAt;
+
+		private Prepared(String txId) {
+			this.txId = txId;
+		}
+	}
+
+	/** The outcome a coordinator decided, until its participant has acknowledged and forgotten it. */
+	private static final class Decision {
+
+		private final String participant;
+
+		private final boolean commit;
+
+		/** The participant acknowledged the outcome; only telling it to forget is left. Guarded by the monitor. */
+		private boolean applied;
+
+		private Decision(String participant, boolean commit) {
+			this.participant = participant;
+			this.commit = commit;
+		}
+	}
+}
@@ -2,48 +2,98 @@ package com.db.awmd.challenge.service;
 
 import java.math.BigDecimal;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.db.awmd.challenge.domain.Account;
-import com.db.awmd.challenge.exception.FundTransferException;
-import com.db.awmd.challenge.exception.InsufficientBalanceException;
-import com.db.awmd.challenge.exception.SameAccountTransferException;
-import com.db.awmd.challenge.exception.TransferAccountNotFoundException;
+import com.db.awmd.challenge.domain.TransferOutcome;
+import com.db.awmd.challenge.transfer.metrics.TransferMetrics;
+import com.db.awmd.challenge.transfer.metrics.TransferPhase;
 
+/**
+ * Reports a rejected transfer as a {@link TransferOutcome}, and
+ * {@link TransferOutcome#ACCEPTED} otherwise, without throwing.
+ */
 @Service
 public class FundTransferValidator {
-	void validate(final Account fromAccount, final Account toAccount, final BigDecimal transferAmount)
-			throws TransferAccountNotFoundException, InsufficientBalanceException {
-		
-		 if (null == fromAccount  || null == toAccount ) {
-			String exceptionMsg=fromAccount == null ?"Account " + fromAccount + "not found": "Account " + toAccount + "not found";
-			throw new TransferAccountNotFoundException(exceptionMsg);
-		  }
-
-		
-		if (sameAccount(fromAccount, toAccount)) {
-			throw new SameAccountTransferException("Same Account Transfer not allowed");
+
+	@Autowired
+	private TransferMetrics metrics;
+
+	TransferOutcome check(final Account fromAccount, final Account toAccount, final BigDecimal transferAmount) {
+		TransferOutcome outcome = checkRequest(fromAccount, toAccount, transferAmount);
+		return outcome == TransferOutcome.ACCEPTED ? checkBalance(fromAccount, transferAmount) : outcome;
+	}
+
+	TransferOutcome checkBalance(final Account fromAccount, final BigDecimal transferAmount) {
+		long start = metrics.start();
+		try {
+			return fromAccount.getBalance().compareTo(transferAmount) >= 0
+					? TransferOutcome.ACCEPTED : TransferOutcome.INSUFFICIENT_BALANCE;
+		} finally {
+			metrics.record(TransferPhase.VALIDATE_BALANCE, start);
 		}
-		if(transferAmount.compareTo(BigDecimal.ZERO)<=0) {
-			throw new FundTransferException("Please try with valid amount");
+	}
+
+	TransferOutcome checkRequest(final Account fromAccount, final Account toAccount, final BigDecimal transferAmount) {
+		long start = metrics.start();
+		try {
+			if (null == fromAccount || null == toAccount) {
+				return TransferOutcome.ACCOUNT_NOT_FOUND;
+			}
+			if (sameAccount(fromAccount, toAccount)) {
+				return TransferOutcome.SAME_ACCOUNT;
+			}
+			TransferOutcome outcome = checkAmount(transferAmount);
+			if (outcome == TransferOutcome.ACCEPTED
+					&& (!fromAccount.canHold(fromAccount.getBalance().subtract(transferAmount))
+							|| !toAccount.canHold(toAccount.getBalance().add(transferAmount)))) {
+				// Checked again under the locks where there are any; see Account#canHold.
+				return TransferOutcome.INVALID_AMOUNT;
+			}
+			return outcome;
+		} finally {
+			metrics.record(TransferPhase.VALIDATE_REQUEST, start);
 		}
+	}
 
-		if (!checkBalance(fromAccount, transferAmount)) {
-			throw new InsufficientBalanceException("Insufficient balance in fromAccount");
+	/**
+	 * Checks the legs of a multi-leg transaction, resolved to {@code accounts}
+	 * with signed {@code amounts}: every account must exist, no amount may be
+	 * zero, at least two accounts must take part and the amounts must add up
+	 * to zero. Balances are checked under the locks.
+	 */
+	TransferOutcome checkLegs(final Account[] accounts, final BigDecimal[] amounts) {
+		long start = metrics.start();
+		try {
+			BigDecimal sum = BigDecimal.ZERO;
+			boolean distinct = false;
+			for (int i = 0; i < accounts.length; i++) {
+				if (accounts[i] == null) {
+					return TransferOutcome.ACCOUNT_NOT_FOUND;
+				}
+				if (amounts[i] == null || amounts[i].signum() == 0) {
+					return TransferOutcome.INVALID_AMOUNT;
+				}
+				sum = sum.add(amounts[i]);
+				distinct |= !sameAccount(accounts[0], accounts[i]);
+			}
+			if (!distinct) {
+				return accounts.length == 0 ? TransferOutcome.INVALID_AMOUNT : TransferOutcome.SAME_ACCOUNT;
+			}
+			return sum.signum() == 0 ? TransferOutcome.ACCEPTED : TransferOutcome.UNBALANCED_LEGS;
+		} finally {
+			metrics.record(TransferPhase.VALIDATE_REQUEST, start);
 		}
 	}
 
-	private boolean sameAccount(final Account accountFrom, final Account accountTo) {
-		return accountFrom.getAccountId().equals(accountTo.getAccountId());
+	TransferOutcome checkAmount(final BigDecimal transferAmount) {
+		return transferAmount == null || transferAmount.compareTo(BigDecimal.ZERO) <= 0
+				? TransferOutcome.INVALID_AMOUNT : TransferOutcome.ACCEPTED;
 	}
 
-	private boolean checkBalance(final Account account, final BigDecimal amount) {
-		boolean balanceCheck;
-		
-		synchronized (amount) {
-			balanceCheck=account.getBalance().subtract(amount).compareTo(BigDecimal.ZERO) >= 0;
-		}
-		return balanceCheck;
+	private boolean sameAccount(final Account accountFrom, final Account accountTo) {
+		return accountFrom.isSameAccount(accountTo);
 	}
 
 }
@@ -0,0 +1,135 @@
+package com.db.awmd.challenge.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Decides which accounts take striped credits, see {@link Account#markHot(int)}.
+ * Accounts listed in {@code accounts.hot.ids} are marked as they are created or
+ * recovered. With {@code accounts.hot.auto.threshold} above zero, an account
+ * whose credits ran into a held lock that many times within one window is
+ * marked as well. Contention is counted in a small fixed table indexed by
+ * handle, so a collision can at worst mark an extra account hot.
+ */
+@Slf4j
+@Component
+public class HotAccountDetector implements PublicMetrics {
+
+	private final AccountsRepository accountsRepository;
+
+	private final Set<String> configuredIds = new HashSet<>();
+
+	private final int stripes;
+
+	private final int threshold;
+
+	private final long windowNanos;
+
+	private final AtomicIntegerArray contention;
+
+	private final int mask;
+
+	private volatile long windowStart = System.nanoTime();
+
+	private final LongAdder marked = new LongAdder();
+
+	@Autowired
+	public HotAccountDetector(AccountsRepository accountsRepository,
+			@Value("${accounts.hot.ids:}") String[] ids,
+			@Value("${accounts.hot.stripes:16}") int stripes,
+			@Value("${accounts.hot.auto.threshold:0}") int threshold,
+			@Value("${accounts.hot.auto.window-ms:1000}") long windowMillis,
+			@Value("${accounts.hot.auto.table-size:4096}") int tableSize) {
+		this.accountsRepository = accountsRepository;
+		for (String id : ids) {
+			if (!id.trim().isEmpty()) {
+				configuredIds.add(id.trim());
+			}
+		}
+		this.stripes = stripes;
+		this.threshold = threshold;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		int size = tableSize <= 1 ? 1 : Integer.highestOneBit(tableSize - 1) << 1;
+		this.contention = new AtomicIntegerArray(size);
+		this.mask = size - 1;
+	}
+
+	/** Marks the configured accounts the repository recovered before this bean existed. */
+	@PostConstruct
+	public void markConfigured() {
+		for (String id : configuredIds) {
+			Account account = accountsRepository.getAccount(id);
+			if (account != null) {
+				mark(account);
+			}
+		}
+	}
+
+	void created(final Account account) {
+		if (configuredIds.contains(account.getAccountId())) {
+			mark(account);
+		}
+	}
+
+	/** Called when a transfer crediting {@code account} found its lock held. */
+	void contended(final Account account) {
+		if (threshold <= 0 || account.isHot()) {
+			return;
+		}
+		long now = System.nanoTime();
+		if (now - windowStart > windowNanos) {
+			startWindow(now);
+		}
+		int slot = account.getHandle() & mask;
+		if (contention.incrementAndGet(slot) >= threshold) {
+			contention.set(slot, 0);
+			mark(account);
+		}
+	}
+
+	public long getMarked() {
+		return marked.sum();
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>("accounts.hot.marked", getMarked()));
+		return metrics;
+	}
+
+	private synchronized void startWindow(long now) {
+		if (now - windowStart > windowNanos) {
+			for (int i = 0; i <= mask; i++) {
+				contention.set(i, 0);
+			}
+			windowStart = now;
+		}
+	}
+
+	private void mark(final Account account) {
+		if (accountsRepository.markHot(account, stripes)) {
+			marked.increment();
+			log.info("Account {} is hot, its credits now go to {} stripes", account.getAccountId(), stripes);
+		}
+	}
+}
@@ -0,0 +1,337 @@
+package com.db.awmd.challenge.service;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Moves transfer notifications off the request thread. Producers enqueue into a
+ * bounded queue drained by a single thread, which groups each drained batch by
+ * account, coalesces the descriptions of one account into a single message and
+ * hands it to the dispatcher lane owning that account. Lanes are single
+ * threaded so notifications of one account are delivered in order.
+ * {@link NotificationService} stays the delivery SPI.
+ */
+@Slf4j
+@Component
+public class NotificationDispatcher {
+
+	private final NotificationService notificationService;
+
+	private final AccountsRepository accountsRepository;
+
+	private final boolean async;
+
+	private final int maxBatch;
+
+	private final NotificationOverflowPolicy overflowPolicy;
+
+	private final String spillDirectory;
+
+	private final BlockingQueue<PendingNotification> queue;
+
+	private final ThreadPoolExecutor[] lanes;
+
+	private final LongAdder enqueued = new LongAdder();
+
+	private final LongAdder delivered = new LongAdder();
+
+	private final LongAdder coalesced = new LongAdder();
+
+	private final LongAdder dropped = new LongAdder();
+
+	private final LongAdder spilled = new LongAdder();
+
+	private final LongAdder failed = new LongAdder();
+
+	private final AtomicLong lastLagNanos = new AtomicLong();
+
+	private final AtomicLong maxLagNanos = new AtomicLong();
+
+	private NotificationSpillFile spillFile;
+
+	private Thread drainer;
+
+	private volatile boolean running;
+
+	@Autowired
+	public NotificationDispatcher(NotificationService notificationService, AccountsRepository accountsRepository,
+			@Value("${notification.async.enabled:true}") boolean async,
+			@Value("${notification.async.queue-capacity:65536}") int queueCapacity,
+			@Value("${notification.async.dispatcher-threads:4}") int dispatcherThreads,
+			@Value("${notification.async.max-batch:256}") int maxBatch,
+			@Value("${notification.async.overflow-policy:BLOCK}") NotificationOverflowPolicy overflowPolicy,
+			@Value("${notification.async.spill-directory:${java.io.tmpdir}/notification-spill}") String spillDirectory) {
+		this.notificationService = notificationService;
+		this.accountsRepository = accountsRepository;
+		this.async = async;
+		this.maxBatch = maxBatch;
+		this.overflowPolicy = overflowPolicy;
+		this.spillDirectory = spillDirectory;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.lanes = new ThreadPoolExecutor[dispatcherThreads];
+		for (int i = 0; i < dispatcherThreads; i++) {
+			final int lane = i;
+			this.lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<>(maxBatch), r -> {
+						Thread thread = new Thread(r, "notification-dispatcher-" + lane);
+						thread.setDaemon(true);
+						return thread;
+					}, NotificationDispatcher::handOff);
+		}
+	}
+
+	/* Waits for room in a busy lane, but never queues behind a lane that is shutting down and would not run it. */
+	private static void handOff(final Runnable task, final ThreadPoolExecutor lane) {
+		if (lane.isShutdown()) {
+			throw new RejectedExecutionException("Notification lane is shut down");
+		}
+		try {
+			lane.getQueue().put(task);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("Interrupted while handing off notifications", e);
+		}
+		if (lane.isShutdown() && lane.remove(task)) {
+			throw new RejectedExecutionException("Notification lane is shut down");
+		}
+	}
+
+	@PostConstruct
+	public void start() throws IOException {
+		if (!async) {
+			return;
+		}
+		if (overflowPolicy == NotificationOverflowPolicy.SPILL) {
+			spillFile = new NotificationSpillFile(Paths.get(spillDirectory));
+		}
+		running = true;
+		drainer = new Thread(this::drain, "notification-drainer");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	@PreDestroy
+	public void stop() throws IOException, InterruptedException {
+		running = false;
+		if (drainer != null) {
+			drainer.join(TimeUnit.SECONDS.toMillis(5));
+		}
+		for (ThreadPoolExecutor lane : lanes) {
+			lane.shutdown();
+			lane.awaitTermination(5, TimeUnit.SECONDS);
+		}
+		if (spillFile != null) {
+			spillFile.close();
+		}
+	}
+
+	public void enqueue(final Account account, final String description) {
+		enqueued.increment();
+		PendingNotification notification = new PendingNotification(account, description, System.nanoTime());
+		if (!async) {
+			deliver(notification.getAccount(), description, notification.getEnqueuedNanos());
+			return;
+		}
+		if (spillFile != null) {
+			// Decided under the lock the drainer refills under, so nothing overtakes what is already spilled.
+			synchronized (spillFile) {
+				if (spillFile.pending() > 0 || !queue.offer(notification)) {
+					spill(notification);
+				}
+			}
+			return;
+		}
+		if (queue.offer(notification)) {
+			return;
+		}
+		switch (overflowPolicy) {
+		case DROP_OLDEST:
+			while (!queue.offer(notification)) {
+				if (queue.poll() != null) {
+					dropped.increment();
+				}
+			}
+			break;
+		default:
+			try {
+				queue.put(notification);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				dropped.increment();
+			}
+		}
+	}
+
+	private void spill(final PendingNotification notification) {
+		try {
+			spillFile.append(notification.getAccount().getAccountId(), notification.getDescription());
+			spilled.increment();
+		} catch (IOException e) {
+			log.error("Could not spill notification for {}", notification.getAccount().getAccountId(), e);
+			dropped.increment();
+		}
+	}
+
+	private void drain() {
+		List<PendingNotification> batch = new ArrayList<>(maxBatch);
+		while (running || !queue.isEmpty()) {
+			try {
+				PendingNotification first = queue.poll(50, TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+					queue.drainTo(batch, maxBatch - 1);
+					dispatch(batch);
+					batch.clear();
+				}
+				refillFromSpill();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (RuntimeException | IOException e) {
+				log.error("Notification drainer failed to dispatch a batch", e);
+				batch.clear();
+			}
+		}
+	}
+
+	private void refillFromSpill() throws IOException {
+		if (spillFile == null) {
+			return;
+		}
+		synchronized (spillFile) {
+			while (queue.remainingCapacity() > 0) {
+				String[] entry = spillFile.poll();
+				if (entry == null) {
+					return;
+				}
+				Account account = accountsRepository.getAccount(entry[0]);
+				if (account == null) {
+					dropped.increment();
+					continue;
+				}
+				queue.offer(new PendingNotification(account, entry[1], System.nanoTime()));
+			}
+		}
+	}
+
+	private void dispatch(final List<PendingNotification> batch) {
+		Map<String, Coalesced> byAccount = new LinkedHashMap<>();
+		for (PendingNotification notification : batch) {
+			String accountId = notification.getAccount().getAccountId();
+			Coalesced group = byAccount.get(accountId);
+			if (group == null) {
+				byAccount.put(accountId, new Coalesced(notification));
+			} else {
+				group.add(notification);
+				coalesced.increment();
+			}
+		}
+		for (Coalesced group : byAccount.values()) {
+			lanes[laneOf(group.account)].execute(
+					() -> deliver(group.account, group.description.toString(), group.oldestEnqueuedNanos));
+		}
+	}
+
+	private int laneOf(final Account account) {
+		if (account.getHandle() != Account.NO_HANDLE) {
+			return account.getHandle() % lanes.length;
+		}
+		int h = account.getAccountId().hashCode();
+		return ((h ^ (h >>> 16)) & 0x7fffffff) % lanes.length;
+	}
+
+	private void deliver(final Account account, final String description, final long enqueuedNanos) {
+		try {
+			notificationService.notifyAboutTransfer(account, description);
+			delivered.increment();
+		} catch (RuntimeException e) {
+			failed.increment();
+			log.error("Notification to owner of {} failed", account.getAccountId(), e);
+		}
+		long lag = System.nanoTime() - enqueuedNanos;
+		lastLagNanos.set(lag);
+		maxLagNanos.accumulateAndGet(lag, Math::max);
+	}
+
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	public int getSpillDepth() {
+		return spillFile == null ? 0 : spillFile.pending();
+	}
+
+	public long getEnqueued() {
+		return enqueued.sum();
+	}
+
+	public long getDelivered() {
+		return delivered.sum();
+	}
+
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	public long getSpilled() {
+		return spilled.sum();
+	}
+
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	public long getLastLagMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(lastLagNanos.get());
+	}
+
+	public long getMaxLagMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxLagNanos.get());
+	}
+
+	private static final class Coalesced {
+
+		private final Account account;
+
+		private final StringBuilder description;
+
+		private final long oldestEnqueuedNanos;
+
+		private Coalesced(PendingNotification first) {
+			this.account = first.getAccount();
+			this.description = new StringBuilder(first.getDescription());
+			this.oldestEnqueuedNanos = first.getEnqueuedNanos();
+		}
+
+		private void add(PendingNotification next) {
+			description.append('\n').append(next.getDescription());
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package com.db.awmd.challenge.service;
+
+public enum NotificationOverflowPolicy {
+
+	/** The producing request thread waits until the queue has room. */
+	BLOCK,
+
+	/** The oldest queued notification is discarded to make room. */
+	DROP_OLDEST,
+
+	/** Notifications are appended to a spill file and re-queued once the queue drains. */
+	SPILL
+}
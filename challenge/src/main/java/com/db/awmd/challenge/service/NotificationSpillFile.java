@@ -0,0 +1,62 @@
+package com.db.awmd.challenge.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Append-only overflow file for notifications. Entries are read back in the
+ * order they were written; once the reader catches up the file is truncated.
+ */
+class NotificationSpillFile implements Closeable {
+
+	private final RandomAccessFile file;
+
+	private long readPosition;
+
+	private long writePosition;
+
+	private volatile int pending;
+
+	NotificationSpillFile(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		Path path = Files.createTempFile(directory, "notifications-", ".spill");
+		path.toFile().deleteOnExit();
+		this.file = new RandomAccessFile(path.toFile(), "rw");
+	}
+
+	int pending() {
+		return pending;
+	}
+
+	synchronized void append(String accountId, String description) throws IOException {
+		file.seek(writePosition);
+		file.writeUTF(accountId);
+		file.writeUTF(description);
+		writePosition = file.getFilePointer();
+		pending++;
+	}
+
+	/** Returns the next spilled entry as {accountId, description}, or null when empty. */
+	synchronized String[] poll() throws IOException {
+		if (pending == 0) {
+			return null;
+		}
+		file.seek(readPosition);
+		String[] entry = new String[] { file.readUTF(), file.readUTF() };
+		readPosition = file.getFilePointer();
+		if (--pending == 0) {
+			readPosition = 0;
+			writePosition = 0;
+			file.setLength(0);
+		}
+		return entry;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		file.close();
+	}
+}
@@ -0,0 +1,49 @@
+package com.db.awmd.challenge.service;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.stereotype.Component;
+
+@Component
+public class OptimisticTransferStats {
+
+	private final LongAdder attempts = new LongAdder();
+
+	private final LongAdder successes = new LongAdder();
+
+	private final LongAdder retries = new LongAdder();
+
+	private final LongAdder fallbacks = new LongAdder();
+
+	void attempted() {
+		attempts.increment();
+	}
+
+	void succeeded() {
+		successes.increment();
+	}
+
+	void retried() {
+		retries.increment();
+	}
+
+	void fellBack() {
+		fallbacks.increment();
+	}
+
+	public long getAttempts() {
+		return attempts.sum();
+	}
+
+	public long getSuccesses() {
+		return successes.sum();
+	}
+
+	public long getRetries() {
+		return retries.sum();
+	}
+
+	public long getFallbacks() {
+		return fallbacks.sum();
+	}
+}
@@ -0,0 +1,17 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+class PendingNotification {
+
+	private final Account account;
+
+	private final String description;
+
+	private final long enqueuedNanos;
+}
@@ -0,0 +1,13 @@
+package com.db.awmd.challenge.service;
+
+public enum TransferConcurrencyMode {
+
+	/** Every transfer runs under the ordered account locks. */
+	PESSIMISTIC,
+
+	/** Lock-free compare-and-set on the account state, falling back to the locks under contention. */
+	OPTIMISTIC,
+
+	/** Accounts are partitioned over single-writer shards, see {@code TransferSequencer}. */
+	SHARDED
+}
@@ -0,0 +1,79 @@
+package com.db.awmd.challenge.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.repository.journal.AccountJournal;
+import com.db.awmd.challenge.transfer.metrics.LatencyHistogram;
+import com.db.awmd.challenge.transfer.metrics.TransferMetrics;
+import com.db.awmd.challenge.transfer.metrics.TransferPhase;
+
+/**
+ * Publishes the transfer phase latencies (in nanoseconds), outcome counters,
+ * optimistic retry figures, notification queue and journal flushes on the
+ * actuator {@code /metrics} endpoint.
+ */
+@Component
+public class TransferPublicMetrics implements PublicMetrics {
+
+	private static final double[] PERCENTILES = { 50.0, 90.0, 99.0, 99.9 };
+
+	private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+	@Autowired
+	private TransferMetrics transferMetrics;
+
+	@Autowired
+	private OptimisticTransferStats optimisticStats;
+
+	@Autowired
+	private NotificationDispatcher notificationDispatcher;
+
+	@Autowired(required = false)
+	private AccountJournal journal;
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		for (TransferPhase phase : TransferPhase.values()) {
+			LatencyHistogram histogram = transferMetrics.getHistogram(phase);
+			String prefix = "transfer.latency." + phase.name().toLowerCase(Locale.ROOT).replace('_', '-') + ".";
+			metrics.add(new Metric<>(prefix + "count", histogram.getCount()));
+			metrics.add(new Metric<>(prefix + "mean", histogram.getMean()));
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				metrics.add(new Metric<>(prefix + PERCENTILE_NAMES[i], histogram.getValueAtPercentile(PERCENTILES[i])));
+			}
+			metrics.add(new Metric<>(prefix + "max", histogram.getMax()));
+		}
+
+		metrics.add(new Metric<>("transfer.succeeded", transferMetrics.getSucceeded()));
+		metrics.add(new Metric<>("transfer.failed", transferMetrics.getFailed()));
+		transferMetrics.getFailures().forEach((type, count) -> metrics.add(new Metric<>("transfer.failed." + type, count)));
+
+		metrics.add(new Metric<>("transfer.optimistic.attempts", optimisticStats.getAttempts()));
+		metrics.add(new Metric<>("transfer.optimistic.successes", optimisticStats.getSuccesses()));
+		metrics.add(new Metric<>("transfer.optimistic.retries", optimisticStats.getRetries()));
+		metrics.add(new Metric<>("transfer.optimistic.fallbacks", optimisticStats.getFallbacks()));
+
+		metrics.add(new Metric<>("notification.queue-depth", notificationDispatcher.getQueueDepth()));
+		metrics.add(new Metric<>("notification.spill-depth", notificationDispatcher.getSpillDepth()));
+		metrics.add(new Metric<>("notification.enqueued", notificationDispatcher.getEnqueued()));
+		metrics.add(new Metric<>("notification.delivered", notificationDispatcher.getDelivered()));
+		metrics.add(new Metric<>("notification.dropped", notificationDispatcher.getDropped()));
+		metrics.add(new Metric<>("notification.failed", notificationDispatcher.getFailed()));
+		metrics.add(new Metric<>("notification.max-lag-millis", notificationDispatcher.getMaxLagMillis()));
+
+		if (journal != null) {
+			metrics.add(new Metric<>("journal.flushes", journal.getFlushes()));
+			metrics.add(new Metric<>("journal.durable-sequence", journal.getDurableSequence()));
+		}
+		return metrics;
+	}
+}
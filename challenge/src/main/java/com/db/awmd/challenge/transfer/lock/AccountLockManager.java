@@ -0,0 +1,136 @@
+package com.db.awmd.challenge.transfer.lock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.exception.TransferLockTimeoutException;
+
+import lombok.Getter;
+
+/**
+ * Striped per-account locks. All locks of a transfer are taken in ascending
+ * stripe order, so transfers sharing an account serialize without deadlocking
+ * while unrelated transfers proceed in parallel. Accounts are addressed by
+ * their dense repository handle, which maps onto the stripes without hashing.
+ */
+@Component
+public class AccountLockManager {
+
+	private final ReentrantLock[] stripes;
+
+	private final int mask;
+
+	@Getter
+	private final long timeoutMillis;
+
+	@Autowired
+	public AccountLockManager(@Value("${transfer.lock.stripes:1024}") int stripeCount,
+			@Value("${transfer.lock.fair:false}") boolean fair,
+			@Value("${transfer.lock.timeout-ms:0}") long timeoutMillis) {
+		if (stripeCount <= 0) {
+			throw new IllegalArgumentException("Lock stripe count must be positive");
+		}
+		int size = Integer.highestOneBit(stripeCount - 1) << 1;
+		if (size <= 0) {
+			size = 1;
+		}
+		this.stripes = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			this.stripes[i] = new ReentrantLock(fair);
+		}
+		this.mask = size - 1;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public int stripeCount() {
+		return stripes.length;
+	}
+
+	public int stripeOf(int handle) {
+		return handle & mask;
+	}
+
+	/** Whether some thread holds the stripe of {@code handle} right now; a contention hint only. */
+	public boolean isLocked(int handle) {
+		return stripes[stripeOf(handle)].isLocked();
+	}
+
+	public AccountLocks lock(int handle) {
+		return acquire(new int[] { stripeOf(handle) });
+	}
+
+	public AccountLocks lock(int firstHandle, int secondHandle) {
+		int first = stripeOf(firstHandle);
+		int second = stripeOf(secondHandle);
+		if (first == second) {
+			return acquire(new int[] { first });
+		}
+		return acquire(first < second ? new int[] { first, second } : new int[] { second, first });
+	}
+
+	public AccountLocks lockAll(int[] handles) {
+		boolean[] wanted = new boolean[stripes.length];
+		int count = 0;
+		for (int handle : handles) {
+			int stripe = stripeOf(handle);
+			if (!wanted[stripe]) {
+				wanted[stripe] = true;
+				count++;
+			}
+		}
+		int[] ordered = new int[count];
+		for (int stripe = 0, i = 0; i < count; stripe++) {
+			if (wanted[stripe]) {
+				ordered[i++] = stripe;
+			}
+		}
+		return acquire(ordered);
+	}
+
+	private AccountLocks acquire(int[] ordered) {
+		int held = 0;
+		try {
+			for (; held < ordered.length; held++) {
+				ReentrantLock lock = stripes[ordered[held]];
+				if (timeoutMillis <= 0) {
+					lock.lock();
+				} else if (!lock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS)) {
+					throw new TransferLockTimeoutException(
+							"Could not lock accounts within " + timeoutMillis + " ms, please retry");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			release(ordered, held);
+			throw new TransferLockTimeoutException("Interrupted while waiting for account locks");
+		} catch (RuntimeException e) {
+			release(ordered, held);
+			throw e;
+		}
+		return new AccountLocks(ordered);
+	}
+
+	private void release(int[] ordered, int held) {
+		for (int i = held - 1; i >= 0; i--) {
+			stripes[ordered[i]].unlock();
+		}
+	}
+
+	public final class AccountLocks implements AutoCloseable {
+
+		private final int[] ordered;
+
+		private AccountLocks(int[] ordered) {
+			this.ordered = ordered;
+		}
+
+		@Override
+		public void close() {
+			release(ordered, ordered.length);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package com.db.awmd.challenge.transfer.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.TransferOutcome;
+
+/**
+ * Per-phase latency histograms, in nanoseconds, and outcome counters of fund
+ * transfers. Callers take {@link #start()} before a phase and pass it to
+ * {@link #record(TransferPhase, long)} after; when recording is disabled both
+ * are free of clock reads.
+ */
+@Component
+public class TransferMetrics {
+
+	private final boolean enabled;
+
+	private final LatencyHistogram[] histograms = new LatencyHistogram[TransferPhase.values().length];
+
+	private final LongAdder succeeded = new LongAdder();
+
+	private final Map<Class<? extends Throwable>, LongAdder> failures = new ConcurrentHashMap<>();
+
+	public TransferMetrics() {
+		this(true);
+	}
+
+	@Autowired
+	public TransferMetrics(@Value("${transfer.metrics.enabled:true}") boolean enabled) {
+		this.enabled = enabled;
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public long start() {
+		return enabled ? System.nanoTime() : 0L;
+	}
+
+	public void record(TransferPhase phase, long start) {
+		if (enabled) {
+			histograms[phase.ordinal()].record(System.nanoTime() - start);
+		}
+	}
+
+	public void succeeded() {
+		succeeded.increment();
+	}
+
+	public void failed(Throwable cause) {
+		failures.computeIfAbsent(cause.getClass(), type -> new LongAdder()).increment();
+	}
+
+	/** Counts a rejection under the exception the throwing API would raise for it. */
+	public void rejected(TransferOutcome outcome) {
+		failures.computeIfAbsent(outcome.getExceptionType(), type -> new LongAdder()).increment();
+	}
+
+	public LatencyHistogram getHistogram(TransferPhase phase) {
+		return histograms[phase.ordinal()];
+	}
+
+	public long getSucceeded() {
+		return succeeded.sum();
+	}
+
+	public long getFailed() {
+		long total = 0L;
+		for (LongAdder failure : failures.values()) {
+			total += failure.sum();
+		}
+		return total;
+	}
+
+	public long getFailed(Class<? extends Throwable> type) {
+		LongAdder failure = failures.get(type);
+		return failure == null ? 0L : failure.sum();
+	}
+
+	/** Failure counts by exception simple name. */
+	public Map<String, Long> getFailures() {
+		Map<String, Long> counts = new TreeMap<>();
+		failures.forEach((type, failure) -> counts.merge(type.getSimpleName(), failure.sum(), Long::sum));
+		return counts;
+	}
+}
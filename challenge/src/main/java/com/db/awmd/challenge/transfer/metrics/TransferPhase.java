@@ -0,0 +1,28 @@
+package com.db.awmd.challenge.transfer.metrics;
+
+public enum TransferPhase {
+
+	/** Account lookup, null, same-account and amount checks. */
+	VALIDATE_REQUEST,
+
+	/** The balance check of the source account. */
+	VALIDATE_BALANCE,
+
+	/** Waiting in a shard queue and for the peer shard of a cross-shard transfer, in sharded mode. */
+	SHARD_QUEUE,
+
+	/** Waiting for the account locks. */
+	LOCK_WAIT,
+
+	/** Applying, logging and committing the debit and credit. */
+	TRANSACTION,
+
+	/** Waiting for the journal to make the transfer durable. */
+	DURABILITY,
+
+	/** Handing both notifications to the dispatcher. */
+	NOTIFY,
+
+	/** The whole transfer, end to end. */
+	TOTAL
+}
@@ -0,0 +1,232 @@
+package com.db.awmd.challenge.transfer.shard;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Partitions accounts by handle over single-threaded shards, each fed by a
+ * bounded ring buffer. Work on accounts of one shard runs on that shard's
+ * thread and needs no locks, because nothing else in sharded mode writes
+ * them.
+ *
+ * <p>Work spanning two shards follows a two-step claim protocol: it is queued
+ * on the lower-numbered shard, which posts a claim to the higher one and waits
+ * until that shard's thread has reached the claim and parked on it. With both
+ * shards held, the work runs once on the lower shard's thread and the claim is
+ * released. A shard only ever waits for a higher-numbered one, so claims
+ * cannot deadlock.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "transfer.concurrency.mode", havingValue = "SHARDED")
+public class TransferSequencer {
+
+	private final Shard[] shards;
+
+	private final int maxBatch;
+
+	private volatile boolean running;
+
+	@Autowired
+	public TransferSequencer(@Value("${transfer.sharded.shards:4}") int shardCount,
+			@Value("${transfer.sharded.queue-capacity:65536}") int queueCapacity,
+			@Value("${transfer.sharded.max-batch:256}") int maxBatch) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("At least one shard is needed");
+		}
+		this.maxBatch = maxBatch;
+		this.shards = new Shard[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new Shard(i, queueCapacity);
+		}
+	}
+
+	@PostConstruct
+	public void start() {
+		running = true;
+		for (Shard shard : shards) {
+			shard.thread.start();
+		}
+	}
+
+	@PreDestroy
+	public void stop() {
+		running = false;
+		for (Shard shard : shards) {
+			shard.thread.interrupt();
+		}
+		for (Shard shard : shards) {
+			try {
+				shard.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	public int shardOf(int handle) {
+		return (handle & Integer.MAX_VALUE) % shards.length;
+	}
+
+	public int getQueueDepth(int shard) {
+		return shards[shard].queue.size();
+	}
+
+	/**
+	 * Runs {@code work} with exclusive ownership of the shards of both handles
+	 * and completes the returned future with its result or failure on the
+	 * shard's thread. Blocks the caller only while the shard's queue is full.
+	 */
+	public <T> CompletableFuture<T> execute(int firstHandle, int secondHandle, Supplier<T> work) {
+		int first = shardOf(firstHandle);
+		int second = shardOf(secondHandle);
+		Shard peer = first == second ? null : shards[Math.max(first, second)];
+		Sequenced<T> task = new Sequenced<>(work, peer);
+		shards[Math.min(first, second)].put(task);
+		return task.result;
+	}
+
+	private abstract static class Task {
+
+		abstract void run();
+
+		abstract void fail(Throwable cause);
+	}
+
+	private static final class Sequenced<T> extends Task {
+
+		private final Supplier<T> work;
+
+		private final Shard peer;
+
+		private final CompletableFuture<T> result = new CompletableFuture<>();
+
+		private Sequenced(Supplier<T> work, Shard peer) {
+			this.work = work;
+			this.peer = peer;
+		}
+
+		@Override
+		void run() {
+			Claim claim = null;
+			try {
+				if (peer != null) {
+					claim = new Claim();
+					peer.put(claim);
+					claim.parked.await();
+					if (!claim.granted) {
+						throw new RejectedExecutionException("Transfer sequencer stopped");
+					}
+				}
+				result.complete(work.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				result.completeExceptionally(new RejectedExecutionException("Transfer sequencer stopped"));
+			} catch (Throwable e) {
+				result.completeExceptionally(e);
+			} finally {
+				if (claim != null) {
+					claim.released.countDown();
+				}
+			}
+		}
+
+		@Override
+		void fail(Throwable cause) {
+			result.completeExceptionally(cause);
+		}
+	}
+
+	private static final class Claim extends Task {
+
+		private final CountDownLatch parked = new CountDownLatch(1);
+
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		private volatile boolean granted;
+
+		@Override
+		void run() {
+			granted = true;
+			parked.countDown();
+			try {
+				released.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		void fail(Throwable cause) {
+			parked.countDown();
+		}
+	}
+
+	private final class Shard {
+
+		private final BlockingQueue<Task> queue;
+
+		private final Thread thread;
+
+		private Shard(int index, int queueCapacity) {
+			this.queue = new ArrayBlockingQueue<>(queueCapacity);
+			this.thread = new Thread(this::drainLoop, "transfer-shard-" + index);
+			this.thread.setDaemon(true);
+		}
+
+		private void put(Task task) {
+			if (!running) {
+				throw new RejectedExecutionException("Transfer sequencer is not running");
+			}
+			try {
+				queue.put(task);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("Interrupted while queueing a transfer", e);
+			}
+		}
+
+		private void drainLoop() {
+			List<Task> batch = new ArrayList<>(maxBatch);
+			try {
+				while (running) {
+					batch.add(queue.take());
+					queue.drainTo(batch, maxBatch - 1);
+					for (Task task : batch) {
+						task.run();
+					}
+					batch.clear();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			RejectedExecutionException stopped = new RejectedExecutionException("Transfer sequencer stopped");
+			batch.addAll(queue);
+			for (Task task : batch) {
+				task.fail(stopped);
+			}
+			log.debug("Transfer shard {} stopped", thread.getName());
+		}
+	}
+}
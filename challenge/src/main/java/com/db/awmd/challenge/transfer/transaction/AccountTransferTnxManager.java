@@ -1,71 +1,126 @@
 package com.db.awmd.challenge.transfer.transaction;
 
-import java.lang.reflect.Proxy;
-import java.util.Map;
+import java.math.BigDecimal;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
 import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.transfer.metrics.TransferMetrics;
+import com.db.awmd.challenge.transfer.metrics.TransferPhase;
 
-import lombok.Getter;
-
+/**
+ * Runs transfer transactions on a per-thread {@link AccountTransferTransaction}
+ * that is reset, never removed, after every transaction so it can be reused.
+ */
 public class AccountTransferTnxManager {
 
 	private final AccountsRepository accountsRepository;
-	
-	private AccountTransferTransacrionHandler<Account> accountTransferhandler;
-	
-	@Getter
-	private boolean autoCommit = false;
-	
-	@Getter
-	private AccountsRepository accountsRepo;
-	
-	public AccountTransferTnxManager(AccountsRepository accountsRepository){
+
+	private final ThreadLocal<AccountTransferTransaction> transactions;
+
+	private final TransferMetrics metrics;
+
+	public AccountTransferTnxManager(AccountsRepository accountsRepository) {
+		this(accountsRepository, new TransferMetrics(false));
+	}
+
+	public AccountTransferTnxManager(AccountsRepository accountsRepository, TransferMetrics metrics) {
 		this.accountsRepository = accountsRepository;
-		
-		accountTransferhandler = new AccountTransferTransacrionHandler<Account>(accountsRepository);
-		accountsRepo = (AccountsRepository)Proxy.newProxyInstance(AccountsRepository.class.getClassLoader()
-				, new Class[] { AccountsRepository.class }, accountTransferhandler);
-		
+		this.transactions = ThreadLocal.withInitial(() -> new AccountTransferTransaction(accountsRepository));
+		this.metrics = metrics;
+	}
+
+	public AccountTransferTransaction begin() {
+		AccountTransferTransaction transaction = transactions.get();
+		transaction.begin();
+		return transaction;
 	}
-	
-	public void doInTransaction(AccountTransferTransactionCallback callback) {
-		AccountTransferTransactionContext<Account, Account> accountTransferContext = new AccountTransferTransactionContext<>();
-		ThreadLocal<AccountTransferTransactionContext<Account, Account>> localContext = accountTransferhandler.getLocalContext();
-		localContext.set(accountTransferContext);
+
+	/**
+	 * Runs {@code callback} and commits, or rolls back if it throws. Returns the
+	 * journal ticket of the commit for {@link AccountsRepository#awaitDurable(long)}.
+	 * The whole of it is recorded as the {@link TransferPhase#TRANSACTION} phase.
+	 */
+	public long doInTransaction(AccountTransferTransactionCallback callback) {
+		long start = metrics.start();
+		AccountTransferTransaction transaction = begin();
+		boolean processed = false;
 		try {
-			callback.process();
-			if(autoCommit) {
-				commitTransaction();
+			callback.process(transaction);
+			processed = true;
+		} finally {
+			if (!processed) {
+				transaction.rollback();
+				metrics.record(TransferPhase.TRANSACTION, start);
 			}
-		}catch(Exception e) {
-			rollBackTransaction();
-			throw e;
-		}finally {
-			
 		}
-		
+		long ticket = transaction.commit();
+		metrics.record(TransferPhase.TRANSACTION, start);
+		return ticket;
 	}
-	
-	
-	public void commitTransaction() {
-		AccountTransferTransactionContext<Account, Account> localContext = accountTransferhandler.getLocalContext().get();
-		Map<Account, Account> savePoints = localContext.getTransactionSaveState();
-	 
-		savePoints.entrySet().forEach(entry -> {
-			Account key = entry.getKey();
-			Account value = entry.getValue();
-			value.setBalance(key.getBalance());
+
+	/**
+	 * Commits the first {@code count} legs as one transaction: a negative
+	 * amount debits its account, a positive one credits it, and legs on the
+	 * same account are netted. Every account is checked against its net
+	 * movement before anything is applied, and the transaction fails with
+	 * {@link InsufficientBalanceException}, applying nothing, if one would go
+	 * negative. The caller holds the locks of all the accounts. Returns the
+	 * journal ticket of the commit.
+	 */
+	public long transferLegs(Account[] accounts, BigDecimal[] amounts, int count) {
+		return doInTransaction(transaction -> {
+			for (int i = 0; i < count; i++) {
+				if (amounts[i].signum() < 0) {
+					transaction.debit(accounts[i], amounts[i].negate());
+				} else {
+					transaction.credit(accounts[i], amounts[i]);
+				}
+			}
+			for (int i = 0; i < transaction.size(); i++) {
+				if (transaction.balance(transaction.account(i)).signum() < 0) {
+					throw new InsufficientBalanceException(
+							"Insufficient balance in account " + transaction.account(i).getAccountId());
+				}
+			}
 		});
 	}
-	
-	public void rollBackTransaction() {
-	
-		AccountTransferTransactionContext<Account, Account> localContext = accountTransferhandler.getLocalContext().get();
-		localContext.getTransactionSaveState().clear();
+
+	/**
+	 * Stages {@code callback} on a transaction of its own, not the per-thread
+	 * one, and {@link AccountTransferTransaction#prepare prepares} it as
+	 * {@code txId}, for a two-phase commit whose outcome is decided later,
+	 * possibly on another thread. Throws, with nothing applied, if the callback
+	 * or the debits fail.
+	 */
+	public AccountTransferTransaction prepare(String txId, String participant,
+			AccountTransferTransactionCallback callback) {
+		long start = metrics.start();
+		AccountTransferTransaction transaction = new AccountTransferTransaction(accountsRepository);
+		transaction.begin();
+		try {
+			callback.process(transaction);
+			transaction.prepare(txId, participant);
+		} catch (RuntimeException e) {
+			if (transaction.isActive()) {
+				transaction.rollback();
+			}
+			throw e;
+		} finally {
+			metrics.record(TransferPhase.TRANSACTION, start);
+		}
+		return transaction;
+	}
+
+	/**
+	 * Gives back the prepared transaction {@code txId} as the journal recovered
+	 * it, see {@link AccountsRepository#getRecoveredTransactions()}; its debits
+	 * are in the balances already.
+	 */
+	public AccountTransferTransaction restore(String txId, String participant, Account[] accounts,
+			BigDecimal[] amounts) {
+		AccountTransferTransaction transaction = new AccountTransferTransaction(accountsRepository);
+		transaction.restore(txId, participant, accounts, amounts);
+		return transaction;
 	}
-	
-	
-	
-	
 }
@@ -0,0 +1,310 @@
+package com.db.awmd.challenge.transfer.transaction;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransactionPhase;
+import com.db.awmd.challenge.exception.FundTransferException;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+
+/**
+ * Write set of one transfer transaction. Accounts are tracked by handle in
+ * parallel arrays sized for the usual two accounts and grown on demand, so a
+ * transaction allocates nothing once the per-thread instance has warmed up.
+ * Nothing is visible to other threads until {@link #commit()}. A transaction
+ * that is {@link #prepare prepared} instead is detached from its thread and
+ * finished by a later call, see {@link AccountTransferTnxManager#prepare}.
+ */
+public final class AccountTransferTransaction {
+
+	private static final int INITIAL_CAPACITY = 2;
+
+	private final AccountsRepository accountsRepository;
+
+	private Account[] accounts = new Account[INITIAL_CAPACITY];
+
+	private BigDecimal[] readBalances = new BigDecimal[INITIAL_CAPACITY];
+
+	private BigDecimal[] balances = new BigDecimal[INITIAL_CAPACITY];
+
+	private BigDecimal[] deltas = new BigDecimal[INITIAL_CAPACITY];
+
+	private int size;
+
+	private boolean active;
+
+	private boolean prepared;
+
+	/** Of a prepared transaction: its id, the node its coordinator commits it on and the ticket of the prepare. */
+	private String txId;
+
+	private String participant;
+
+	private long prepareTicket;
+
+	AccountTransferTransaction(AccountsRepository accountsRepository) {
+		this.accountsRepository = accountsRepository;
+	}
+
+	void begin() {
+		if (active) {
+			throw new IllegalStateException("A transfer transaction is already active on this thread");
+		}
+		active = true;
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Account account(int index) {
+		return accounts[index];
+	}
+
+	public BigDecimal readBalance(int index) {
+		return readBalances[index];
+	}
+
+	public BigDecimal balance(final Account account) {
+		return balances[enlist(account)];
+	}
+
+	public void debit(final Account account, final BigDecimal amount) {
+		int index = enlist(account);
+		balances[index] = balances[index].subtract(amount);
+	}
+
+	public void credit(final Account account, final BigDecimal amount) {
+		int index = enlist(account);
+		balances[index] = balances[index].add(amount);
+	}
+
+	private int enlist(final Account account) {
+		if (!active) {
+			throw new IllegalStateException("No transfer transaction is active on this thread");
+		}
+		for (int i = 0; i < size; i++) {
+			if (accounts[i].isSameAccount(account)) {
+				return i;
+			}
+		}
+		if (size == accounts.length) {
+			int capacity = size << 1;
+			accounts = Arrays.copyOf(accounts, capacity);
+			readBalances = Arrays.copyOf(readBalances, capacity);
+			balances = Arrays.copyOf(balances, capacity);
+			deltas = Arrays.copyOf(deltas, capacity);
+		}
+		BigDecimal balance = account.getBalance();
+		accounts[size] = account;
+		readBalances[size] = balance;
+		balances[size] = balance;
+		return size++;
+	}
+
+	/*
+	 * Each account receives the difference between its staged and its read
+	 * balance, debits first, once every staged balance is known to fit its
+	 * account, see Account#canHold. Under the account locks nothing else writes
+	 * these accounts, but lock-free writers may, so a debit that no longer fits undoes
+	 * the debits already applied and the transaction fails as a whole. The change
+	 * is then handed to the repository journal and only once it is logged are the
+	 * credits applied, so a failed append gives the debits back and leaves memory
+	 * as the journal has it. All of it happens inside the repository commit
+	 * window; the returned ticket is meant to be awaited once the account locks
+	 * are released.
+	 */
+	public long commit() {
+		checkActive();
+		long stamp = accountsRepository.beginCommit();
+		try {
+			applyDebits();
+			long ticket = logOrUndoDebits();
+			applyCredits();
+			return ticket;
+		} finally {
+			accountsRepository.endCommit(stamp);
+			reset();
+		}
+	}
+
+	/**
+	 * First phase of a two-phase commit {@code txId}: applies the debits as
+	 * {@link #commit()} does and logs them as the
+	 * {@link TransactionPhase#PREPARE} of the whole transaction, holding back
+	 * the credits, so the money is reserved but not yet visible anywhere else.
+	 * Throws like {@link #commit()} if a debit no longer fits or the append
+	 * fails, leaving nothing applied. Must be followed by
+	 * {@link #commitPrepared()} or {@link #abortPrepared()}, from any thread.
+	 * {@code participant} is the node a coordinator commits the transaction on,
+	 * null on the participant.
+	 */
+	public void prepare(final String txId, final String participant) {
+		checkActive();
+		long stamp = accountsRepository.beginCommit();
+		try {
+			applyDebits();
+			try {
+				prepareTicket = accountsRepository.logPhase(TransactionPhase.PREPARE, txId, participant, accounts,
+						deltas, size);
+			} catch (RuntimeException e) {
+				undoDebits(size);
+				throw e;
+			}
+			this.txId = txId;
+			this.participant = participant;
+			prepared = true;
+		} catch (RuntimeException e) {
+			reset();
+			throw e;
+		} finally {
+			accountsRepository.endCommit(stamp);
+		}
+	}
+
+	/**
+	 * Takes back a transaction the journal recovered as prepared, whose debits
+	 * the replay has applied already.
+	 */
+	void restore(final String txId, final String participant, final Account[] legAccounts,
+			final BigDecimal[] amounts) {
+		begin();
+		for (int i = 0; i < legAccounts.length; i++) {
+			int index = enlist(legAccounts[i]);
+			deltas[index] = deltas[index] == null ? amounts[i] : deltas[index].add(amounts[i]);
+		}
+		this.txId = txId;
+		this.participant = participant;
+		prepared = true;
+	}
+
+	/**
+	 * Logs the {@link TransactionPhase#COMMIT} and applies the held credits;
+	 * returns its journal ticket. If the append fails the transaction stays
+	 * prepared.
+	 */
+	public long commitPrepared() {
+		checkPrepared();
+		long stamp = accountsRepository.beginCommit();
+		try {
+			long ticket = accountsRepository.logPhase(TransactionPhase.COMMIT, txId, participant, accounts, deltas,
+					size);
+			applyCredits();
+			reset();
+			return ticket;
+		} finally {
+			accountsRepository.endCommit(stamp);
+		}
+	}
+
+	/**
+	 * Logs the {@link TransactionPhase#ABORT} and gives the reserved debits
+	 * back; returns its journal ticket. If the append fails the transaction
+	 * stays prepared.
+	 */
+	public long abortPrepared() {
+		checkPrepared();
+		long stamp = accountsRepository.beginCommit();
+		try {
+			long ticket = accountsRepository.logPhase(TransactionPhase.ABORT, txId, participant, accounts, deltas,
+					size);
+			undoDebits(size);
+			reset();
+			return ticket;
+		} finally {
+			accountsRepository.endCommit(stamp);
+		}
+	}
+
+	public boolean isPrepared() {
+		return prepared;
+	}
+
+	/** Journal ticket of the prepare, for {@link AccountsRepository#awaitDurable(long)}. */
+	public long getPrepareTicket() {
+		return prepareTicket;
+	}
+
+	private void applyDebits() {
+		for (int i = 0; i < size; i++) {
+			if (!accounts[i].canHold(balances[i])) {
+				throw new FundTransferException("The balance of account " + accounts[i].getAccountId()
+						+ " would be too large to store");
+			}
+			deltas[i] = balances[i].subtract(readBalances[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			if (deltas[i].signum() < 0 && !accounts[i].adjustBalance(deltas[i])) {
+				undoDebits(i);
+				throw new InsufficientBalanceException("Insufficient balance in fromAccount");
+			}
+		}
+	}
+
+	private long logOrUndoDebits() {
+		try {
+			return accountsRepository.logTransaction(accounts, deltas, size);
+		} catch (RuntimeException e) {
+			undoDebits(size);
+			throw e;
+		}
+	}
+
+	/* Gives back the debits of the first count accounts; adding to a balance cannot fail. */
+	private void undoDebits(int count) {
+		for (int i = 0; i < count; i++) {
+			if (deltas[i].signum() < 0) {
+				accounts[i].adjustBalance(deltas[i].negate());
+			}
+		}
+	}
+
+	private void applyCredits() {
+		for (int i = 0; i < size; i++) {
+			if (deltas[i].signum() > 0) {
+				accounts[i].adjustBalance(deltas[i]);
+			}
+		}
+	}
+
+	private void checkActive() {
+		if (!active || prepared) {
+			throw new IllegalStateException("No transfer transaction is active on this thread");
+		}
+	}
+
+	private void checkPrepared() {
+		if (!prepared) {
+			throw new IllegalStateException("The transfer transaction is not prepared");
+		}
+	}
+
+	public void rollback() {
+		if (prepared) {
+			abortPrepared();
+		} else {
+			reset();
+		}
+	}
+
+	private void reset() {
+		for (int i = 0; i < size; i++) {
+			accounts[i] = null;
+			readBalances[i] = null;
+			balances[i] = null;
+			deltas[i] = null;
+		}
+		size = 0;
+		active = false;
+		prepared = false;
+		txId = null;
+		participant = null;
+		prepareTicket = 0L;
+	}
+}
@@ -3,5 +3,5 @@ package com.db.awmd.challenge.transfer.transaction;
 @FunctionalInterface
 public interface AccountTransferTransactionCallback {
 	
-	public void process();
+	public void process(AccountTransferTransaction transaction);
 }
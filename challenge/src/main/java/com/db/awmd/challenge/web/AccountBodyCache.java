@@ -0,0 +1,91 @@
+package com.db.awmd.challenge.web;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountState;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Serialized {@code GET /v1/accounts/{accountId}} bodies by account version,
+ * so polling an unchanged account costs no serialization. The cache is a fixed
+ * table indexed by handle; an account whose slot another account took is
+ * simply serialized again.
+ */
+@Component
+public class AccountBodyCache implements PublicMetrics {
+
+	private final ObjectMapper objectMapper;
+
+	private final AtomicReferenceArray<Body> bodies;
+
+	private final int mask;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	@Autowired
+	public AccountBodyCache(ObjectMapper objectMapper, @Value("${web.account-cache.size:65536}") int size) {
+		this.objectMapper = objectMapper;
+		int slots = size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+		this.bodies = new AtomicReferenceArray<>(slots);
+		this.mask = slots - 1;
+	}
+
+	/** The JSON of {@code account} with the balance of {@code state}, which must be its current state. */
+	public byte[] bodyOf(Account account, AccountState state) throws JsonProcessingException {
+		int slot = account.getHandle() & mask;
+		Body cached = bodies.get(slot);
+		if (cached != null && cached.handle == account.getHandle() && cached.version == state.getVersion()) {
+			hits.increment();
+			return cached.json;
+		}
+		misses.increment();
+		byte[] json = objectMapper.writeValueAsBytes(new Account(account.getAccountId(), state.getBalance()));
+		bodies.set(slot, new Body(account.getHandle(), state.getVersion(), json));
+		return json;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>("web.account-cache.hits", getHits()));
+		metrics.add(new Metric<>("web.account-cache.misses", getMisses()));
+		return metrics;
+	}
+
+	private static final class Body {
+
+		private final int handle;
+
+		private final long version;
+
+		private final byte[] json;
+
+		private Body(int handle, long version, byte[] json) {
+			this.handle = handle;
+			this.version = version;
+			this.json = json;
+		}
+	}
+}
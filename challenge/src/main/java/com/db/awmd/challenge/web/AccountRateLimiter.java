@@ -0,0 +1,112 @@
+package com.db.awmd.challenge.web;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caps the transfers each account takes part in at
+ * {@code web.admission.account-rate} a second, with bursts of
+ * {@code web.admission.account-burst}, so one hot account cannot take all the
+ * capacity. Off when the rate is 0.
+ *
+ * <p>Each account is a slot in a fixed table holding the time its next
+ * transfer is due, as in the generic cell rate algorithm, so memory does not
+ * grow with the accounts and a check is one compare-and-set. Accounts that
+ * hash to the same slot share a limit, which only ever limits them sooner.
+ */
+@Component
+public class AccountRateLimiter implements PublicMetrics {
+
+	private final long intervalNanos;
+
+	private final long toleranceNanos;
+
+	private final AtomicLongArray due;
+
+	private final int mask;
+
+	private final long origin = System.nanoTime();
+
+	private final LongAdder limited = new LongAdder();
+
+	@Autowired
+	public AccountRateLimiter(@Value("${web.admission.account-rate:0}") double ratePerSecond,
+			@Value("${web.admission.account-burst:10}") int burst,
+			@Value("${web.admission.account-slots:65536}") int slots) {
+		this.intervalNanos = ratePerSecond > 0 ? Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond)) : 0L;
+		this.toleranceNanos = intervalNanos * Math.max(0, burst - 1);
+		int size = ratePerSecond > 0 ? Integer.highestOneBit(Math.max(1, slots - 1)) << 1 : 1;
+		this.due = new AtomicLongArray(size);
+		this.mask = size - 1;
+	}
+
+	public boolean isEnabled() {
+		return intervalNanos > 0L;
+	}
+
+	/**
+	 * Counts a transfer between two accounts against both, or neither if
+	 * either is over its rate. Returns 0 if the transfer may go ahead, else
+	 * how many nanoseconds until it could.
+	 */
+	public long tryAcquire(String accountFrom, String accountTo) {
+		if (!isEnabled()) {
+			return 0L;
+		}
+		long now = System.nanoTime() - origin;
+		int from = slotOf(accountFrom);
+		long wait = tryAcquire(from, now);
+		if (wait == 0L && accountTo != null) {
+			int to = slotOf(accountTo);
+			if (to != from) {
+				wait = tryAcquire(to, now);
+				if (wait > 0L) {
+					due.addAndGet(from, -intervalNanos);
+				}
+			}
+		}
+		if (wait > 0L) {
+			limited.increment();
+		}
+		return wait;
+	}
+
+	private long tryAcquire(int slot, long now) {
+		for (;;) {
+			long current = due.get(slot);
+			long next = Math.max(current, now);
+			if (next - now > toleranceNanos) {
+				return next - now - toleranceNanos;
+			}
+			if (due.compareAndSet(slot, current, next + intervalNanos)) {
+				return 0L;
+			}
+		}
+	}
+
+	private int slotOf(String accountId) {
+		int hash = accountId == null ? 0 : accountId.hashCode();
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	public long getLimited() {
+		return limited.sum();
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>("web.transfer.rate-limited", getLimited()));
+		return metrics;
+	}
+}
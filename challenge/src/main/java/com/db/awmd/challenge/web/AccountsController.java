@@ -1,10 +1,28 @@
 package com.db.awmd.challenge.web;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import javax.validation.Valid;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -12,17 +30,38 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.db.awmd.challenge.cluster.ClusterClient;
+import com.db.awmd.challenge.cluster.ClusterTopology;
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountState;
+import com.db.awmd.challenge.domain.AccountVersion;
+import com.db.awmd.challenge.domain.BatchTransferMode;
 import com.db.awmd.challenge.domain.FundTransfer;
-import com.db.awmd.challenge.exception.TransferAccountNotFoundException;
-import com.db.awmd.challenge.exception.FundTransferException;
+import com.db.awmd.challenge.domain.ImportSummary;
+import com.db.awmd.challenge.domain.TransferLeg;
+import com.db.awmd.challenge.domain.TransferOutcome;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.BalanceOutOfRangeException;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
-import com.db.awmd.challenge.exception.InsufficientBalanceException;
-import com.db.awmd.challenge.exception.SameAccountTransferException;
+import com.db.awmd.challenge.exception.TransferLockTimeoutException;
+import com.db.awmd.challenge.replication.ReplicationFollower;
+import com.db.awmd.challenge.replication.ReplicationLog;
+import com.db.awmd.challenge.repository.ledger.TransferLedger;
+import com.db.awmd.challenge.service.AccountImportService;
 import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.BatchTransferService;
+import com.db.awmd.challenge.service.CrossNodeTransferService;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -31,49 +70,575 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class AccountsController {
 
+  static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+  private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+
+  static final String NDJSON = "application/x-ndjson";
+
+  static final String CSV = "text/csv";
+
+  /**
+   * Names the node a request was forwarded by; a forwarded request is never
+   * forwarded again. Only honoured together with the cluster secret, see
+   * {@link ClusterClient#isClusterSecret}, so clients cannot skip the routing.
+   */
+  static final String FORWARDED_BY = "X-Forwarded-By-Node";
+
+  /** The replication sequence a write is included in, for a read-your-writes read from a follower. */
+  static final String COMMIT_SEQUENCE = "X-Commit-Sequence";
+
+  static final String MIN_COMMIT_SEQUENCE = "X-Min-Commit-Sequence";
+
+  static final String REPLICATION_SEQUENCE = "X-Replication-Sequence";
+
+  static final String REPLICATION_STALENESS = "X-Replication-Staleness-Ms";
+
+  /** Transfer answers are immutable, so each outcome shares one. */
+  private static final Map<TransferOutcome, ResponseEntity<String>> TRANSFER_RESPONSES = transferResponses();
+
   private final AccountsService accountsService;
 
+  private final BatchTransferService batchTransferService;
+
+  private final InFlightLimiter inFlightLimiter;
+
+  private final IdempotencyCache idempotencyCache;
+
+  private final ObjectMapper objectMapper;
+
+  private final AccountImportService accountImportService;
+
+  private final AccountBodyCache accountBodyCache;
+
+  private final AdaptiveConcurrencyLimit transferLimit;
+
+  private final AccountRateLimiter accountRateLimiter;
+
+  @Value("${accounts.ledger.max-page:1000}")
+  private int maxTransfersPage;
+
+  @Value("${web.admission.retry-after-seconds:1}")
+  private long retryAfterSeconds;
+
+  @Value("${transfer.max-legs:64}")
+  private int maxLegs;
+
+  @Autowired(required = false)
+  private ClusterTopology cluster;
+
+  @Autowired(required = false)
+  private ClusterClient clusterClient;
+
+  @Autowired(required = false)
+  private CrossNodeTransferService crossNodeTransfers;
+
+  @Autowired(required = false)
+  private ReplicationLog replicationLog;
+
+  @Autowired(required = false)
+  private ReplicationFollower replicationFollower;
+
   @Autowired
-  public AccountsController(AccountsService accountsService) {
+  public AccountsController(AccountsService accountsService, BatchTransferService batchTransferService,
+    InFlightLimiter inFlightLimiter, IdempotencyCache idempotencyCache, ObjectMapper objectMapper,
+    AccountImportService accountImportService, AccountBodyCache accountBodyCache,
+    AdaptiveConcurrencyLimit transferLimit, AccountRateLimiter accountRateLimiter) {
     this.accountsService = accountsService;
+    this.batchTransferService = batchTransferService;
+    this.inFlightLimiter = inFlightLimiter;
+    this.idempotencyCache = idempotencyCache;
+    this.objectMapper = objectMapper;
+    this.accountImportService = accountImportService;
+    this.accountBodyCache = accountBodyCache;
+    this.transferLimit = transferLimit;
+    this.accountRateLimiter = accountRateLimiter;
   }
 
+  /**
+   * In a cluster, an account owned by another node is created, read and
+   * transferred from by that node, and the request is forwarded to it.
+   * Batches and multi-leg transactions are forwarded to the node owning all
+   * their accounts, and refused if the accounts are spread over several;
+   * imports reject rows of accounts other nodes own. Exports and history only
+   * cover the accounts of the node asked.
+   */
   @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<Object> createAccount(@RequestBody @Valid Account account) {
+  public CompletableFuture<ResponseEntity<Object>> createAccount(@RequestBody @Valid Account account,
+    @RequestHeader(name = FORWARDED_BY, required = false) String forwardedBy,
+    @RequestHeader(name = ClusterClient.SECRET_HEADER, required = false) String clusterSecret) {
+    if (isRemote(account.getAccountId(), forwardedBy, clusterSecret)) {
+      return forward(account.getAccountId(), HttpMethod.POST, "/v1/accounts", forwardHeaders(), account, body -> body);
+    }
     log.info("Creating account {}", account);
 
-    try {
-    this.accountsService.createAccount(account);
-    } catch (DuplicateAccountIdException daie) {
-      return new ResponseEntity<>(daie.getMessage(), HttpStatus.BAD_REQUEST);
-    }
+    return admit(() -> this.accountsService.createAccountAsync(account).handle((created, failure) -> {
+      Throwable ex = unwrap(failure);
+      if (ex == null) {
+        return committed(new ResponseEntity<>(HttpStatus.CREATED));
+      } else if (ex instanceof DuplicateAccountIdException || ex instanceof BalanceOutOfRangeException) {
+        return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+      }
+      return unavailableOrRethrow(ex);
+    }));
+  }
+
+  /**
+   * Creates accounts from an NDJSON or CSV upload, see
+   * {@link AccountImportService}. The body is parsed as it arrives, on the
+   * container thread that a blocking read holds anyway.
+   */
+  @PostMapping(path = "/bulk", consumes = { NDJSON, CSV })
+  public CompletableFuture<ResponseEntity<ImportSummary>> importAccounts(
+    @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType, InputStream upload) {
+    AccountImportService.Format format = MediaType.valueOf(CSV).includes(contentType)
+      ? AccountImportService.Format.CSV : AccountImportService.Format.NDJSON;
+    log.info("Importing accounts from {} upload", format);
+
+    return admit(() -> {
+      ImportSummary summary;
+      try {
+        summary = this.accountImportService.importAccounts(upload, format);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return CompletableFuture.completedFuture(
+        new ResponseEntity<>(summary, summary.getError() == null ? HttpStatus.OK : HttpStatus.BAD_REQUEST));
+    });
+  }
 
-    return new ResponseEntity<>(HttpStatus.CREATED);
+  /**
+   * Every account with its balance as of one point in time, one JSON object
+   * per line. Rows are written as the accounts are read, so the export never
+   * holds more than a buffer of them.
+   */
+  @GetMapping(path = "/export", produces = NDJSON)
+  public CompletableFuture<ResponseEntity<StreamingResponseBody>> exportAccounts() {
+    log.info("Exporting accounts");
+    return admit(() -> {
+      StreamingResponseBody body = out -> {
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+          json.setRootValueSeparator(null);
+          this.accountsService.exportAccounts((accountId, balance) -> {
+            json.writeStartObject();
+            json.writeStringField("accountId", accountId);
+            json.writeNumberField("balance", balance);
+            json.writeEndObject();
+            json.writeRaw('\n');
+          });
+        }
+      };
+      return CompletableFuture.completedFuture(
+        ResponseEntity.ok().contentType(MediaType.valueOf(NDJSON)).body(body));
+    });
   }
 
+  /**
+   * The account with its version as {@code ETag}. A poll naming the current
+   * version in {@code If-None-Match} is answered 304 with no body; otherwise
+   * the body comes from {@link AccountBodyCache}. Hot accounts have no
+   * version that follows their credits, so they carry no tag, and nor do
+   * accounts read from a follower, whose versions are its own and not the
+   * primary's that an {@code If-Match} is checked against.
+   */
   @GetMapping(path = "/{accountId}")
-  public Account getAccount(@PathVariable String accountId) {
+  public CompletableFuture<ResponseEntity<Object>> getAccount(@PathVariable String accountId,
+    @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+    @RequestHeader(name = FORWARDED_BY, required = false) String forwardedBy,
+    @RequestHeader(name = ClusterClient.SECRET_HEADER, required = false) String clusterSecret) {
+    if (isRemote(accountId, forwardedBy, clusterSecret)) {
+      HttpHeaders headers = forwardHeaders();
+      if (ifNoneMatch != null) {
+        headers.set(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+      }
+      return forward(accountId, HttpMethod.GET, "/v1/accounts/" + accountId, headers, null, body -> body);
+    }
     log.info("Retrieving account for id {}", accountId);
-    return this.accountsService.getAccount(accountId);
+    return admit(() -> this.accountsService.getAccountAsync(accountId).thenApply(account -> {
+      if (account == null || account.isHot() || replicationFollower != null) {
+        return ResponseEntity.ok(account);
+      }
+      AccountState state = account.getState();
+      String etag = AccountVersion.of(this.accountsService.getAccountsRepository().getIncarnation(), account, state)
+        .toETag();
+      if (ifNoneMatch != null && anyTagMatches(ifNoneMatch, etag)) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+      }
+      byte[] body;
+      try {
+        body = accountBodyCache.bodyOf(account, state);
+      } catch (JsonProcessingException e) {
+        throw new UncheckedIOException(e);
+      }
+      return ResponseEntity.ok().eTag(etag).contentType(MediaType.APPLICATION_JSON_UTF8).body(body);
+    }));
+  }
+
+  private static boolean anyTagMatches(String header, String etag) {
+    for (String tag : header.split(",")) {
+      String trimmed = tag.trim();
+      if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag)) {
+        return true;
+      }
+    }
+    return false;
   }
   
+  /**
+   * One page of the account's transfer history, newest first. The response
+   * carries the cursor of the next page in {@code next}, null on the last
+   * page, and is written entry by entry as the ledger is read.
+   */
+  @GetMapping(path = "/{accountId}/transfers")
+  public CompletableFuture<ResponseEntity<StreamingResponseBody>> getTransfers(@PathVariable String accountId,
+    @RequestParam(required = false) String cursor, @RequestParam(defaultValue = "100") int limit) {
+    if (limit < 1 || limit > maxTransfersPage || !TransferLedger.isWellFormed(cursor)) {
+      return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.BAD_REQUEST));
+    }
+    return admit(() -> this.accountsService.getAccountAsync(accountId).thenApply(account -> {
+      if (account == null || !this.accountsService.isLedgerEnabled()) {
+        return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+      }
+      if (!this.accountsService.isValidTransfersCursor(account, cursor)) {
+        return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+      }
+      StreamingResponseBody body = out -> {
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+          json.writeStartObject();
+          json.writeStringField("accountId", accountId);
+          json.writeArrayFieldStart("transfers");
+          String next = this.accountsService.readTransfers(account, cursor, limit, json::writeObject);
+          json.writeEndArray();
+          json.writeStringField("next", next);
+          json.writeEndObject();
+        }
+      };
+      return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(body);
+    }));
+  }
+
+	/**
+	 * With {@code If-Match}, the transfer only goes ahead if the source account
+	 * is still at the version of that {@code ETag}, and is answered 412
+	 * otherwise.
+	 */
   @PostMapping(path = "/transfer", consumes = MediaType.APPLICATION_JSON_VALUE)
-	public ResponseEntity<String> fundTransfer(@RequestBody @Valid FundTransfer fundTransfer) {
+	public CompletableFuture<ResponseEntity<String>> fundTransfer(@RequestBody @Valid FundTransfer fundTransfer,
+			@RequestHeader(name = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+			@RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+			@RequestHeader(name = FORWARDED_BY, required = false) String forwardedBy,
+			@RequestHeader(name = ClusterClient.SECRET_HEADER, required = false) String clusterSecret) {
+		if (isRemote(fundTransfer.getAccountFrom(), forwardedBy, clusterSecret)) {
+			HttpHeaders headers = forwardHeaders();
+			if (idempotencyKey != null) {
+				headers.set(IDEMPOTENCY_KEY, idempotencyKey);
+			}
+			if (ifMatch != null) {
+				headers.set(HttpHeaders.IF_MATCH, ifMatch);
+			}
+			return forward(fundTransfer.getAccountFrom(), HttpMethod.POST, "/v1/accounts/transfer", headers, fundTransfer,
+					body -> new String(body, StandardCharsets.UTF_8));
+		}
+		AccountVersion expected = null;
+		if (ifMatch != null && !ifMatch.trim().equals("*")) {
+			expected = AccountVersion.parseETag(ifMatch);
+			if (expected == null) {
+				return CompletableFuture.completedFuture(TRANSFER_RESPONSES.get(TransferOutcome.VERSION_MISMATCH));
+			}
+		}
+		if (idempotencyKey == null) {
+			return transfer(fundTransfer, expected);
+		}
+		if (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+			return CompletableFuture.completedFuture(new ResponseEntity<>(
+					IDEMPOTENCY_KEY + " must have 1 to " + MAX_IDEMPOTENCY_KEY_LENGTH + " characters", HttpStatus.BAD_REQUEST));
+		}
+		AccountVersion version = expected;
+		return idempotencyCache.execute(idempotencyKey, fingerprint(fundTransfer, ifMatch),
+				() -> transfer(fundTransfer, version));
+	}
+
+	/*
+	 * What makes two requests under one Idempotency-Key the same: amounts are
+	 * compared by value, so 10 and 10.00 match, and a different If-Match makes
+	 * a different request.
+	 */
+	private static Object fingerprint(FundTransfer fundTransfer, String ifMatch) {
+		return Arrays.asList(fundTransfer.getAccountFrom(), fundTransfer.getAccountTo(),
+				byValue(fundTransfer.getTransferAmount()), ifMatch == null ? null : ifMatch.trim());
+	}
+
+	private static Object fingerprint(List<TransferLeg> legs) {
+		List<Object> fingerprint = new ArrayList<>(legs.size() * 2);
+		for (TransferLeg leg : legs) {
+			fingerprint.add(leg.getAccountId());
+			fingerprint.add(byValue(leg.getAmount()));
+		}
+		return fingerprint;
+	}
+
+	private static BigDecimal byValue(BigDecimal amount) {
+		return amount == null ? null : amount.stripTrailingZeros();
+	}
+
+	/*
+	 * A transfer to an account of another node is committed on both by
+	 * CrossNodeTransferService. Transfers over the adaptive limit, or over the
+	 * rate of one of their accounts, are answered 503 before any work is done;
+	 * the latency of the others feeds the limit.
+	 */
+	private CompletableFuture<ResponseEntity<String>> transfer(FundTransfer fundTransfer, AccountVersion expected) {
+		String to = fundTransfer.getAccountTo();
+		boolean crossNode = cluster != null && to != null && !cluster.isLocal(to);
+		if (!transferLimit.tryAcquire()) {
+			return CompletableFuture.completedFuture(overloaded(retryAfterSeconds));
+		}
+		long wait = accountRateLimiter.tryAcquire(fundTransfer.getAccountFrom(), to);
+		if (wait > 0L) {
+			transferLimit.cancel();
+			return CompletableFuture.completedFuture(overloaded(TimeUnit.NANOSECONDS.toSeconds(wait - 1) + 1));
+		}
+		return admitLimited(() -> (crossNode
+				? this.crossNodeTransfers.transferAsync(fundTransfer.getAccountFrom(), to,
+						fundTransfer.getTransferAmount(), expected)
+				: this.accountsService.tryFundTransferAsync(fundTransfer.getAccountFrom(), to,
+						fundTransfer.getTransferAmount(), expected)).handle((outcome, failure) -> failure == null
+								? transferResponse(outcome)
+								: transferFailed(failure)));
+	}
+
+	/**
+	 * Moves money between any number of accounts in one atomic transaction,
+	 * see {@link AccountsService#tryTransferLegs}: each leg debits its account
+	 * by a negative amount or credits it by a positive one, and the amounts
+	 * add up to zero. Answered like a single transfer, including
+	 * {@code Idempotency-Key} and the adaptive limit.
+	 */
+	@PostMapping(path = "/transactions", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public CompletableFuture<ResponseEntity<String>> transferLegs(@RequestBody List<TransferLeg> legs,
+			@RequestHeader(name = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+			@RequestHeader(name = FORWARDED_BY, required = false) String forwardedBy,
+			@RequestHeader(name = ClusterClient.SECRET_HEADER, required = false) String clusterSecret) {
+		log.info("Processing transaction of {} legs", legs.size());
+		if (legs.size() > maxLegs) {
+			return CompletableFuture.completedFuture(
+					new ResponseEntity<>("A transaction may have at most " + maxLegs + " legs", HttpStatus.BAD_REQUEST));
+		}
+		if (cluster != null) {
+			List<String> accountIds = new ArrayList<>(legs.size());
+			for (TransferLeg leg : legs) {
+				addAccountId(accountIds, leg.getAccountId());
+			}
+			if (!ownedByOneNode(accountIds)) {
+				return CompletableFuture.completedFuture(
+						new ResponseEntity<>("A transaction may only have legs on one node", HttpStatus.BAD_REQUEST));
+			}
+			if (!accountIds.isEmpty() && isRemote(accountIds.get(0), forwardedBy, clusterSecret)) {
+				HttpHeaders headers = forwardHeaders();
+				if (idempotencyKey != null) {
+					headers.set(IDEMPOTENCY_KEY, idempotencyKey);
+				}
+				return forward(accountIds.get(0), HttpMethod.POST, "/v1/accounts/transactions", headers, legs,
+						body -> new String(body, StandardCharsets.UTF_8));
+			}
+		}
+		Supplier<CompletableFuture<ResponseEntity<String>>> transaction = () -> {
+			if (!transferLimit.tryAcquire()) {
+				return CompletableFuture.completedFuture(overloaded(retryAfterSeconds));
+			}
+			return admitLimited(() -> this.accountsService.tryTransferLegsAsync(legs).handle((outcome, failure) ->
+					failure == null ? transferResponse(outcome) : transferFailed(failure)));
+		};
+		if (idempotencyKey == null) {
+			return transaction.get();
+		}
+		if (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+			return CompletableFuture.completedFuture(new ResponseEntity<>(
+					IDEMPOTENCY_KEY + " must have 1 to " + MAX_IDEMPOTENCY_KEY_LENGTH + " characters", HttpStatus.BAD_REQUEST));
+		}
+		return idempotencyCache.execute(idempotencyKey, fingerprint(legs), transaction);
+	}
+
+	/*
+	 * Runs a transfer holding a slot of the adaptive limit, taken by the
+	 * caller, and feeds its latency back when it completes.
+	 */
+	private CompletableFuture<ResponseEntity<String>> admitLimited(
+			Supplier<CompletableFuture<ResponseEntity<String>>> request) {
+		long start = System.nanoTime();
+		CompletableFuture<ResponseEntity<String>> response;
 		try {
+			response = admit(request);
+		} catch (RuntimeException e) {
+			transferLimit.release(start, false);
+			throw e;
+		}
+		response.whenComplete((result, failure) -> transferLimit.release(start,
+				result != null && result.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE));
+		return response;
+	}
 
-			this.accountsService.fundTransfer(fundTransfer.getAccountFrom(), fundTransfer.getAccountTo(),
-	 				fundTransfer.getTransferAmount());
-			
+	private static <T> ResponseEntity<T> overloaded(long retryAfterSeconds) {
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds)).build();
+	}
+
+	private ResponseEntity<String> transferResponse(TransferOutcome outcome) {
+		ResponseEntity<String> response = TRANSFER_RESPONSES.get(outcome);
+		return outcome == TransferOutcome.ACCEPTED ? committed(response) : response;
+	}
+
+	/**
+	 * On a primary, adds the replication sequence the write is included in;
+	 * read after the write, the last sequence is at least that.
+	 */
+	private <T> ResponseEntity<T> committed(ResponseEntity<T> response) {
+		if (replicationLog == null) {
+			return response;
+		}
+		HttpHeaders headers = new HttpHeaders();
+		headers.putAll(response.getHeaders());
+		headers.set(COMMIT_SEQUENCE, Long.toString(replicationLog.getLastSequence()));
+		return new ResponseEntity<>(response.getBody(), headers, response.getStatusCode());
+	}
+
+	/* A forwarded request without the cluster secret is routed like any other. */
+	private boolean isRemote(String accountId, String forwardedBy, String clusterSecret) {
+		return cluster != null && accountId != null && !cluster.isLocal(accountId)
+				&& (forwardedBy == null || !clusterClient.isClusterSecret(clusterSecret));
+	}
+
+	/* Missing ids are left to validation. */
+	private static void addAccountId(List<String> accountIds, String accountId) {
+		if (accountId != null) {
+			accountIds.add(accountId);
+		}
+	}
+
+	/* Whether one node owns every one of accountIds, which a request naming them is then routed to. */
+	private boolean ownedByOneNode(List<String> accountIds) {
+		String owner = accountIds.isEmpty() ? null : cluster.ownerOf(accountIds.get(0));
+		for (int i = 1; i < accountIds.size(); i++) {
+			if (!cluster.ownerOf(accountIds.get(i)).equals(owner)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private HttpHeaders forwardHeaders() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON_UTF8);
+		headers.set(FORWARDED_BY, cluster.getLocalNodeId());
+		return headers;
+	}
+
+	/** Answers with the owner's answer, or 503 if the owner cannot be reached. */
+	private <T> CompletableFuture<ResponseEntity<T>> forward(String accountId, HttpMethod method, String path,
+			HttpHeaders headers, Object body, Function<byte[], T> bodyOf) {
+		byte[] json;
+		try {
+			json = body == null ? null : objectMapper.writeValueAsBytes(body);
+		} catch (JsonProcessingException e) {
+			throw new UncheckedIOException(e);
+		}
+		return admit(() -> this.clusterClient.forwardAsync(accountId, method, path, headers, json)
+				.handle((answer, failure) -> {
+					if (failure != null) {
+						Throwable ex = unwrap(failure);
+						if (isUnavailable(ex)) {
+							return new ResponseEntity<T>(HttpStatus.SERVICE_UNAVAILABLE);
+						}
+						throw new CompletionException(ex);
+					}
+					T forwarded = answer.getBody() == null ? null : bodyOf.apply(answer.getBody());
+					return new ResponseEntity<>(forwarded, answer.getHeaders(), answer.getStatusCode());
+				}));
+	}
+
+	private static Map<TransferOutcome, ResponseEntity<String>> transferResponses() {
+		Map<TransferOutcome, ResponseEntity<String>> responses = new EnumMap<>(TransferOutcome.class);
+		for (TransferOutcome outcome : TransferOutcome.values()) {
+			responses.put(outcome, new ResponseEntity<>(outcome.getMessage(), HttpStatus.valueOf(outcome.getHttpStatus())));
+		}
+		return responses;
+	}
+
+	/** Rejections come back as outcomes; this maps exceptions the service still throws. */
+	private ResponseEntity<String> transferFailed(Throwable failure) {
+		Throwable ex = unwrap(failure);
+		TransferOutcome outcome = TransferOutcome.of(ex);
+		if (outcome != null) {
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.valueOf(outcome.getHttpStatus()));
+		} else if (isUnavailable(ex)) {
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		throw new CompletionException(ex);
+	}
+
+	/**
+	 * Starts the request if the in-flight limit allows, answering 503 straight
+	 * away otherwise, and gives its permit back when the response is ready.
+	 */
+	private <T> CompletableFuture<ResponseEntity<T>> admit(Supplier<CompletableFuture<ResponseEntity<T>>> request) {
+		if (!inFlightLimiter.tryAcquire()) {
+			return CompletableFuture.completedFuture(overloaded(retryAfterSeconds));
+		}
+		CompletableFuture<ResponseEntity<T>> response;
+		try {
+			response = request.get();
+		} catch (RuntimeException e) {
+			inFlightLimiter.release();
+			throw e;
+		}
+		response.whenComplete((result, failure) -> inFlightLimiter.release());
+		return response;
+	}
+
+	private static Throwable unwrap(Throwable failure) {
+		return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+	}
+
+	private static boolean isUnavailable(Throwable ex) {
+		return ex instanceof TransferLockTimeoutException || ex instanceof RejectedExecutionException
+				|| ex instanceof RestClientException;
+	}
+
+	private static ResponseEntity<Object> unavailableOrRethrow(Throwable ex) {
+		if (isUnavailable(ex)) {
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		throw new CompletionException(ex);
+	}
 
-			
-		} catch (FundTransferException | SameAccountTransferException ex) {
-			return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
-		} catch (TransferAccountNotFoundException ex) {
-			return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
-		} catch (InsufficientBalanceException ex) {
-			return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNPROCESSABLE_ENTITY);
+	@PostMapping(path = "/transfers/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public CompletableFuture<ResponseEntity<Object>> fundTransferBatch(@RequestBody List<FundTransfer> transfers,
+			@RequestParam(defaultValue = "ALL_OR_NOTHING") BatchTransferMode mode,
+			@RequestHeader(name = FORWARDED_BY, required = false) String forwardedBy,
+			@RequestHeader(name = ClusterClient.SECRET_HEADER, required = false) String clusterSecret) {
+		log.info("Processing batch of {} transfers in {} mode", transfers.size(), mode);
+		if (cluster != null) {
+			List<String> accountIds = new ArrayList<>(transfers.size() * 2);
+			for (FundTransfer transfer : transfers) {
+				addAccountId(accountIds, transfer.getAccountFrom());
+				addAccountId(accountIds, transfer.getAccountTo());
+			}
+			if (!ownedByOneNode(accountIds)) {
+				return CompletableFuture.completedFuture(
+						new ResponseEntity<>("A batch may only transfer between accounts of one node", HttpStatus.BAD_REQUEST));
+			}
+			if (!accountIds.isEmpty() && isRemote(accountIds.get(0), forwardedBy, clusterSecret)) {
+				return forward(accountIds.get(0), HttpMethod.POST, "/v1/accounts/transfers/batch?mode=" + mode,
+						forwardHeaders(), transfers, body -> body);
+			}
 		}
-		return new ResponseEntity<>("Transfer Completed", HttpStatus.ACCEPTED);
+		return admit(() -> this.batchTransferService.fundTransferBatchAsync(transfers, mode).handle((results, failure) -> {
+			if (failure != null) {
+				return unavailableOrRethrow(unwrap(failure));
+			}
+			boolean aborted = mode == BatchTransferMode.ALL_OR_NOTHING && results.stream().anyMatch(r -> !r.isCompleted());
+			return committed(new ResponseEntity<>(results, aborted ? HttpStatus.UNPROCESSABLE_ENTITY : HttpStatus.ACCEPTED));
+		}));
 	}
 
 
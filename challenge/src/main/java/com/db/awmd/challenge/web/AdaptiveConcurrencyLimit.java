@@ -0,0 +1,187 @@
+package com.db.awmd.challenge.web;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits transfers in progress to a number that follows their latency, in
+ * the manner of the gradient limiters of TCP Vegas and Netflix's
+ * concurrency-limits. Every window the average latency is compared with a
+ * long-term average: while it stays within {@value #TOLERANCE} times that,
+ * the limit grows by a share of its square root, and as latency rises it
+ * shrinks in proportion, by at most a tenth a window. A window in which a
+ * transfer timed out on its locks or was turned away further on cuts the
+ * limit by {@value #BACKOFF}. Windows in which less than half the limit was
+ * used say nothing about capacity and leave it as it is.
+ *
+ * <p>Admission is a compare-and-set on the in-flight count; only the thread
+ * that closes a window takes a lock, and others never wait for it.
+ */
+@Component
+public class AdaptiveConcurrencyLimit implements PublicMetrics {
+
+	private static final double TOLERANCE = 1.5;
+
+	private static final double BACKOFF = 0.9;
+
+	private static final double SMOOTHING = 0.2;
+
+	/** Windows the long-term latency averages over. */
+	private static final int LONG_WINDOWS = 100;
+
+	private final boolean enabled;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final long windowNanos;
+
+	private final int minWindowSamples;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final LongAdder rejected = new LongAdder();
+
+	private final LongAdder windowLatency = new LongAdder();
+
+	private final LongAdder windowSamples = new LongAdder();
+
+	private final LongAdder windowDrops = new LongAdder();
+
+	private final AtomicInteger windowPeak = new AtomicInteger();
+
+	private final ReentrantLock updating = new ReentrantLock();
+
+	private volatile long windowStart = System.nanoTime();
+
+	private volatile int limit;
+
+	/* Guarded by updating. */
+	private double estimate;
+
+	private double longLatency;
+
+	@Autowired
+	public AdaptiveConcurrencyLimit(@Value("${web.admission.enabled:true}") boolean enabled,
+			@Value("${web.admission.initial-limit:64}") int initialLimit,
+			@Value("${web.admission.min-limit:8}") int minLimit,
+			@Value("${web.admission.max-limit:1024}") int maxLimit,
+			@Value("${web.admission.window-ms:100}") long windowMs,
+			@Value("${web.admission.min-window-samples:10}") int minWindowSamples) {
+		if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+			throw new IllegalArgumentException("Admission limits must satisfy 1 <= min <= initial <= max");
+		}
+		this.enabled = enabled;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+		this.minWindowSamples = Math.max(1, minWindowSamples);
+		this.estimate = initialLimit;
+		this.limit = initialLimit;
+	}
+
+	/** Takes a slot, or returns false straight away if the limit is reached. */
+	public boolean tryAcquire() {
+		for (;;) {
+			int current = inFlight.get();
+			if (enabled && current >= limit) {
+				rejected.increment();
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				windowPeak.accumulateAndGet(current + 1, Math::max);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Gives back the slot of a transfer started at {@code startNanos}, on the
+	 * {@link System#nanoTime()} clock, and samples its latency;
+	 * {@code dropped} if it could not be carried out for load.
+	 */
+	public void release(long startNanos, boolean dropped) {
+		inFlight.decrementAndGet();
+		long now = System.nanoTime();
+		windowLatency.add(now - startNanos);
+		windowSamples.increment();
+		if (dropped) {
+			windowDrops.increment();
+		}
+		if (enabled && now - windowStart >= windowNanos && windowSamples.sum() >= minWindowSamples
+				&& updating.tryLock()) {
+			try {
+				closeWindow(now);
+			} finally {
+				updating.unlock();
+			}
+		}
+	}
+
+	/** Gives back a slot without a sample, for a transfer that never started. */
+	public void cancel() {
+		inFlight.decrementAndGet();
+	}
+
+	private void closeWindow(long now) {
+		long samples = windowSamples.sum();
+		if (now - windowStart < windowNanos || samples < minWindowSamples) {
+			return;
+		}
+		windowStart = now;
+		samples = windowSamples.sumThenReset();
+		double latency = (double) windowLatency.sumThenReset() / Math.max(1L, samples);
+		boolean dropped = windowDrops.sumThenReset() > 0L;
+		int peak = windowPeak.getAndSet(inFlight.get());
+
+		longLatency = longLatency == 0.0 ? latency : longLatency + (latency - longLatency) / LONG_WINDOWS;
+		if (longLatency > 2 * latency) {
+			// Load fell away; let the baseline come down faster than the average would.
+			longLatency *= 0.95;
+		}
+		double next;
+		if (dropped) {
+			next = estimate * BACKOFF;
+		} else if (peak < estimate / 2) {
+			return;
+		} else {
+			double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longLatency / Math.max(1.0, latency)));
+			next = estimate * (1 - SMOOTHING) + (estimate * gradient + Math.sqrt(estimate)) * SMOOTHING;
+		}
+		estimate = Math.max(minLimit, Math.min(maxLimit, next));
+		limit = (int) estimate;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>("web.transfer.limit", getLimit()));
+		metrics.add(new Metric<>("web.transfer.in-flight", getInFlight()));
+		metrics.add(new Metric<>("web.transfer.rejected", getRejected()));
+		return metrics;
+	}
+}
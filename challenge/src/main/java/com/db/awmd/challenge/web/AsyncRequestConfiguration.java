@@ -0,0 +1,56 @@
+package com.db.awmd.challenge.web;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Asynchronous request handling: controllers return futures, so a container
+ * thread is only held while a request is parsed and its response written.
+ * Work that may block on locks or the journal runs on {@code requestExecutor},
+ * a fixed pool with a bounded queue that rejects, rather than queues without
+ * limit, once full. Streamed response bodies are written on the same pool.
+ */
+@Configuration
+@ConditionalOnProperty(name = "web.async.enabled", havingValue = "true", matchIfMissing = true)
+public class AsyncRequestConfiguration extends WebMvcConfigurerAdapter {
+
+	@Value("${web.async.timeout-ms:30000}")
+	private long timeoutMs;
+
+	@Autowired
+	@Lazy
+	@Qualifier("requestExecutor")
+	private Executor requestExecutor;
+
+	@Bean(destroyMethod = "shutdown")
+	public ThreadPoolExecutor requestExecutor(@Value("${web.async.executor-threads:32}") int threads,
+			@Value("${web.async.queue-capacity:1024}") int queueCapacity) {
+		AtomicInteger created = new AtomicInteger();
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), r -> {
+					Thread thread = new Thread(r, "request-executor-" + created.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	@Override
+	public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+		configurer.setDefaultTimeout(timeoutMs);
+		configurer.setTaskExecutor(new ConcurrentTaskExecutor(requestExecutor));
+	}
+}
@@ -0,0 +1,91 @@
+package com.db.awmd.challenge.web;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.db.awmd.challenge.domain.TransferLeg;
+import com.db.awmd.challenge.domain.TransferOutcome;
+import com.db.awmd.challenge.service.CrossNodeTransferService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The participant side of cross-node transfers, called by the coordinating
+ * node only, see {@link ClusterWebConfiguration}. A prepare is answered 200
+ * once it is durable, or with the status of the rejection and the outcome
+ * name as body. These calls are handled on the container thread, not the
+ * request executor, so two nodes coordinating transfers to each other can
+ * never wait on each other's executor.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/internal/v1/transactions")
+@ConditionalOnProperty(name = "accounts.cluster.enabled", havingValue = "true")
+public class ClusterController {
+
+	private final CrossNodeTransferService crossNodeTransfers;
+
+	@Autowired
+	public ClusterController(CrossNodeTransferService crossNodeTransfers) {
+		this.crossNodeTransfers = crossNodeTransfers;
+	}
+
+	@PostMapping(path = "/{txId}/prepare", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<String> prepare(@PathVariable String txId, @RequestBody List<TransferLeg> legs) {
+		TransferOutcome outcome;
+		try {
+			outcome = crossNodeTransfers.prepare(txId, legs, null);
+		} catch (IllegalStateException e) {
+			return new ResponseEntity<>(e.getMessage(), HttpStatus.CONFLICT);
+		}
+		return outcome == TransferOutcome.ACCEPTED ? new ResponseEntity<>(HttpStatus.OK)
+				: new ResponseEntity<>(outcome.name(), HttpStatus.valueOf(outcome.getHttpStatus()));
+	}
+
+	/**
+	 * Answered once the committed legs are durable, also for a transaction
+	 * committed already and not forgotten yet; 404 if the transaction is
+	 * unknown here.
+	 */
+	@PostMapping(path = "/{txId}/commit")
+	public ResponseEntity<String> commit(@PathVariable String txId) {
+		long ticket;
+		try {
+			ticket = crossNodeTransfers.commit(txId);
+		} catch (IllegalStateException e) {
+			return new ResponseEntity<>(e.getMessage(), HttpStatus.CONFLICT);
+		}
+		if (ticket < 0) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		crossNodeTransfers.awaitDurable(ticket);
+		return new ResponseEntity<>(HttpStatus.OK);
+	}
+
+	@PostMapping(path = "/{txId}/abort")
+	public ResponseEntity<String> abort(@PathVariable String txId) {
+		log.info("Aborting transaction {}", txId);
+		crossNodeTransfers.abort(txId);
+		return new ResponseEntity<>(HttpStatus.OK);
+	}
+
+	/**
+	 * Answered once the outcome is forgotten, also for a transaction unknown
+	 * here; 409 while it is still prepared.
+	 */
+	@PostMapping(path = "/{txId}/forget")
+	public ResponseEntity<String> forget(@PathVariable String txId) {
+		return crossNodeTransfers.forget(txId) ? new ResponseEntity<>(HttpStatus.OK)
+				: new ResponseEntity<>("Transaction " + txId + " is not decided", HttpStatus.CONFLICT);
+	}
+}
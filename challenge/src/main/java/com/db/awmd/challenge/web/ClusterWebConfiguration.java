@@ -0,0 +1,56 @@
+package com.db.awmd.challenge.web;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import com.db.awmd.challenge.cluster.ClusterClient;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the {@link ClusterController} calls to the nodes of the cluster. They
+ * share the public port, so every call must carry the cluster secret in
+ * {@value ClusterClient#SECRET_HEADER}; anything else is answered 403 before
+ * it reaches a transaction. A cluster without a secret does not start.
+ * Replication calls carry a secret of their own, see
+ * {@link PrimaryWebConfiguration}.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "accounts.cluster.enabled", havingValue = "true")
+public class ClusterWebConfiguration extends WebMvcConfigurerAdapter {
+
+	private final ClusterClient clusterClient;
+
+	@Autowired
+	public ClusterWebConfiguration(ClusterClient clusterClient) {
+		this.clusterClient = clusterClient;
+	}
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(new SecretInterceptor()).addPathPatterns("/internal/v1/transactions/**");
+	}
+
+	private final class SecretInterceptor extends HandlerInterceptorAdapter {
+
+		@Override
+		public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+			if (clusterClient.isClusterSecret(request.getHeader(ClusterClient.SECRET_HEADER))) {
+				return true;
+			}
+			log.warn("Refused cluster call {} {} from {}", request.getMethod(), request.getRequestURI(),
+					request.getRemoteAddr());
+			response.setStatus(HttpStatus.FORBIDDEN.value());
+			return false;
+		}
+	}
+}
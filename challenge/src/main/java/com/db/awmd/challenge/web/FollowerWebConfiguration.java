@@ -0,0 +1,75 @@
+package com.db.awmd.challenge.web;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import com.db.awmd.challenge.replication.ReplicationFollower;
+
+/**
+ * Account requests on a follower. Reads are served from the replicated
+ * accounts and report how current they are in
+ * {@value AccountsController#REPLICATION_SEQUENCE} and
+ * {@value AccountsController#REPLICATION_STALENESS}; a read naming a
+ * {@value AccountsController#MIN_COMMIT_SEQUENCE} waits up to
+ * {@code accounts.replication.read-wait-ms} for that change and is answered
+ * 503 if it does not arrive. Writes are redirected to the primary with 307,
+ * which keeps their method and body.
+ */
+@Configuration
+@ConditionalOnProperty(name = "accounts.replication.role", havingValue = "FOLLOWER")
+public class FollowerWebConfiguration extends WebMvcConfigurerAdapter {
+
+	@Autowired
+	private ReplicationFollower follower;
+
+	@Value("${accounts.replication.read-wait-ms:1000}")
+	private long readWaitMs;
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(new FollowerInterceptor()).addPathPatterns("/v1/accounts", "/v1/accounts/**");
+	}
+
+	private final class FollowerInterceptor extends HandlerInterceptorAdapter {
+
+		@Override
+		public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+				throws Exception {
+			if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) {
+				String query = request.getQueryString();
+				response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+				response.setHeader(HttpHeaders.LOCATION,
+						follower.getPrimaryUrl() + request.getRequestURI() + (query == null ? "" : "?" + query));
+				return false;
+			}
+			String minSequence = request.getHeader(AccountsController.MIN_COMMIT_SEQUENCE);
+			boolean current;
+			try {
+				current = follower.isReady() && (minSequence == null
+						|| follower.awaitApplied(Long.parseLong(minSequence.trim()), readWaitMs));
+			} catch (NumberFormatException e) {
+				response.sendError(HttpStatus.BAD_REQUEST.value(),
+						AccountsController.MIN_COMMIT_SEQUENCE + " must be a number");
+				return false;
+			}
+			if (!current) {
+				response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+				response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+				return false;
+			}
+			response.setHeader(AccountsController.REPLICATION_SEQUENCE, Long.toString(follower.getAppliedSequence()));
+			response.setHeader(AccountsController.REPLICATION_STALENESS, Long.toString(follower.getStalenessMillis()));
+			return true;
+		}
+	}
+}
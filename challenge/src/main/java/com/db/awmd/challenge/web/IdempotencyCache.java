@@ -0,0 +1,247 @@
+package com.db.awmd.challenge.web;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers the response to each {@code Idempotency-Key} for a while, so a
+ * retried request gets the original answer instead of running again. A
+ * duplicate that arrives while the original is still in progress waits on the
+ * same future.
+ *
+ * <p>Keys are spread over independently locked stripes. Each stripe is a
+ * segmented LRU: new keys enter a probationary segment and move to a protected
+ * one when they are hit again, so a burst of one-off keys evicts other one-off
+ * keys before the keys clients are actually retrying. Entries also expire after
+ * a fixed time to live. Server errors and 503s say nothing about the request
+ * itself, so they are dropped once complete and a retry runs again.
+ */
+@Component
+public class IdempotencyCache implements PublicMetrics {
+
+	private static final int PROTECTED_PERCENT = 80;
+
+	private final Stripe[] stripes;
+
+	private final long ttlNanos;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	private final LongAdder expirations = new LongAdder();
+
+	private final LongAdder conflicts = new LongAdder();
+
+	@Autowired
+	public IdempotencyCache(@Value("${web.idempotency.max-entries:100000}") int maxEntries,
+			@Value("${web.idempotency.ttl-seconds:600}") long ttlSeconds,
+			@Value("${web.idempotency.stripes:16}") int stripeCount) {
+		this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+		this.stripes = new Stripe[stripeCount];
+		int perStripe = Math.max(1, (maxEntries + stripeCount - 1) / stripeCount);
+		for (int i = 0; i < stripeCount; i++) {
+			stripes[i] = new Stripe(perStripe);
+		}
+	}
+
+	/**
+	 * Returns the remembered response for {@code key}, or starts
+	 * {@code request} and remembers its response. A key reused for a different
+	 * {@code fingerprint} is answered with 422 and does not run.
+	 */
+	public <T> CompletableFuture<ResponseEntity<T>> execute(String key, Object fingerprint,
+			Supplier<CompletableFuture<ResponseEntity<T>>> request) {
+		Stripe stripe = stripes[(key.hashCode() & Integer.MAX_VALUE) % stripes.length];
+		Entry entry;
+		Entry existing;
+		synchronized (stripe) {
+			existing = stripe.get(key, System.nanoTime());
+			if (existing == null) {
+				entry = new Entry(fingerprint, new CompletableFuture<>(), System.nanoTime() + ttlNanos);
+				stripe.put(key, entry);
+			} else {
+				entry = existing;
+			}
+		}
+		if (existing != null) {
+			if (!existing.fingerprint.equals(fingerprint)) {
+				conflicts.increment();
+				return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.UNPROCESSABLE_ENTITY));
+			}
+			hits.increment();
+			return cast(existing.response);
+		}
+
+		misses.increment();
+		CompletableFuture<ResponseEntity<T>> response = cast(entry.response);
+		CompletableFuture<ResponseEntity<T>> started;
+		try {
+			started = request.get();
+		} catch (RuntimeException e) {
+			forget(stripe, key, entry);
+			response.completeExceptionally(e);
+			return response;
+		}
+		started.whenComplete((result, failure) -> {
+			if (failure != null || result.getStatusCode().is5xxServerError()) {
+				forget(stripe, key, entry);
+			}
+			if (failure != null) {
+				response.completeExceptionally(failure);
+			} else {
+				response.complete(result);
+			}
+		});
+		return response;
+	}
+
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.probation.size() + stripe.protect.size();
+			}
+		}
+		return size;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public long getExpirations() {
+		return expirations.sum();
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>("idempotency.size", size()));
+		metrics.add(new Metric<>("idempotency.hits", getHits()));
+		metrics.add(new Metric<>("idempotency.misses", getMisses()));
+		metrics.add(new Metric<>("idempotency.evictions", getEvictions()));
+		metrics.add(new Metric<>("idempotency.expirations", getExpirations()));
+		metrics.add(new Metric<>("idempotency.conflicts", conflicts.sum()));
+		return metrics;
+	}
+
+	private void forget(Stripe stripe, String key, Entry entry) {
+		synchronized (stripe) {
+			stripe.remove(key, entry);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> CompletableFuture<ResponseEntity<T>> cast(CompletableFuture<?> response) {
+		return (CompletableFuture<ResponseEntity<T>>) response;
+	}
+
+	private static final class Entry {
+
+		private final Object fingerprint;
+
+		private final CompletableFuture<?> response;
+
+		private final long expiresAt;
+
+		private Entry(Object fingerprint, CompletableFuture<?> response, long expiresAt) {
+			this.fingerprint = fingerprint;
+			this.response = response;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/** One segmented LRU, guarded by its own monitor. */
+	private final class Stripe {
+
+		private final int capacity;
+
+		private final int protectedCapacity;
+
+		private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+
+		private final LinkedHashMap<String, Entry> protect = new LinkedHashMap<>(16, 0.75f, true);
+
+		private Stripe(int capacity) {
+			this.capacity = capacity;
+			this.protectedCapacity = Math.max(1, capacity * PROTECTED_PERCENT / 100);
+		}
+
+		private Entry get(String key, long now) {
+			Map<String, Entry> segment = protect;
+			Entry entry = protect.get(key);
+			if (entry == null) {
+				segment = probation;
+				entry = probation.get(key);
+				if (entry == null) {
+					return null;
+				}
+			}
+			if (now - entry.expiresAt >= 0) {
+				segment.remove(key);
+				expirations.increment();
+				return null;
+			}
+			if (segment == probation) {
+				probation.remove(key);
+				promote(key, entry);
+			}
+			return entry;
+		}
+
+		private void put(String key, Entry entry) {
+			probation.put(key, entry);
+			while (probation.size() + protect.size() > capacity) {
+				// The key just added is never its own victim.
+				Map<String, Entry> victims = probation.size() > 1 || protect.isEmpty() ? probation : protect;
+				Iterator<Map.Entry<String, Entry>> eldest = victims.entrySet().iterator();
+				eldest.next();
+				eldest.remove();
+				evictions.increment();
+			}
+		}
+
+		private void remove(String key, Entry entry) {
+			if (!probation.remove(key, entry)) {
+				protect.remove(key, entry);
+			}
+		}
+
+		private void promote(String key, Entry entry) {
+			protect.put(key, entry);
+			if (protect.size() > protectedCapacity) {
+				Iterator<Map.Entry<String, Entry>> eldest = protect.entrySet().iterator();
+				Map.Entry<String, Entry> demoted = eldest.next();
+				eldest.remove();
+				probation.put(demoted.getKey(), demoted.getValue());
+			}
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.db.awmd.challenge.web;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caps the number of account requests in progress at once. Requests beyond the
+ * cap are turned away straight away instead of queueing, so latency of the
+ * admitted ones stays bounded under overload.
+ */
+@Component
+public class InFlightLimiter implements PublicMetrics {
+
+	private final int maxInFlight;
+
+	private final Semaphore permits;
+
+	private final LongAdder rejected = new LongAdder();
+
+	@Autowired
+	public InFlightLimiter(@Value("${web.async.max-in-flight:2048}") int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+		this.permits = new Semaphore(maxInFlight);
+	}
+
+	public boolean tryAcquire() {
+		if (permits.tryAcquire()) {
+			return true;
+		}
+		rejected.increment();
+		return false;
+	}
+
+	public void release() {
+		permits.release();
+	}
+
+	public int getInFlight() {
+		return maxInFlight - permits.availablePermits();
+	}
+
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>("web.in-flight", getInFlight()));
+		metrics.add(new Metric<>("web.rejected", getRejected()));
+		return metrics;
+	}
+}
@@ -0,0 +1,64 @@
+package com.db.awmd.challenge.web;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import com.db.awmd.challenge.replication.ReplicationFollower;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the {@link ReplicationController} calls to followers. They share the
+ * public port and hand out every account, so every call must carry
+ * {@code accounts.replication.secret} in
+ * {@value ReplicationFollower#SECRET_HEADER}; anything else is answered 403.
+ * A primary without a secret does not start.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "accounts.replication.role", havingValue = "PRIMARY")
+public class PrimaryWebConfiguration extends WebMvcConfigurerAdapter {
+
+	private final byte[] secret;
+
+	@Autowired
+	public PrimaryWebConfiguration(@Value("${accounts.replication.secret:}") String secret) {
+		if (secret.trim().isEmpty()) {
+			throw new IllegalArgumentException("accounts.replication.secret must be set on a primary");
+		}
+		this.secret = secret.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(new SecretInterceptor()).addPathPatterns("/internal/v1/replication/**");
+	}
+
+	private final class SecretInterceptor extends HandlerInterceptorAdapter {
+
+		@Override
+		public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+			String presented = request.getHeader(ReplicationFollower.SECRET_HEADER);
+			// Compared in constant time, so the secret cannot be guessed byte by byte.
+			if (presented != null && MessageDigest.isEqual(secret, presented.getBytes(StandardCharsets.UTF_8))) {
+				return true;
+			}
+			log.warn("Refused replication call {} {} from {}", request.getMethod(), request.getRequestURI(),
+					request.getRemoteAddr());
+			response.setStatus(HttpStatus.FORBIDDEN.value());
+			return false;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.db.awmd.challenge.web;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.db.awmd.challenge.domain.ReplicatedChange;
+import com.db.awmd.challenge.domain.ReplicationBatch;
+import com.db.awmd.challenge.replication.ReplicationLog;
+import com.db.awmd.challenge.service.AccountsService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The primary side of replication, read by followers only. A follower starts
+ * from {@code /snapshot} and then polls {@code /changes} after the last
+ * change it applied; a poll with nothing to return waits for the next commit
+ * on the container thread, so polls never queue behind client requests.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/internal/v1/replication")
+@ConditionalOnProperty(name = "accounts.replication.role", havingValue = "PRIMARY")
+public class ReplicationController {
+
+	private final ReplicationLog replicationLog;
+
+	private final AccountsService accountsService;
+
+	private final ObjectMapper objectMapper;
+
+	@Value("${accounts.replication.batch-size:1024}")
+	private int maxBatch;
+
+	@Value("${accounts.replication.poll-wait-ms:1000}")
+	private long maxWaitMs;
+
+	@Autowired
+	public ReplicationController(ReplicationLog replicationLog, AccountsService accountsService,
+			ObjectMapper objectMapper) {
+		this.replicationLog = replicationLog;
+		this.accountsService = accountsService;
+		this.objectMapper = objectMapper;
+	}
+
+	/** Changes after {@code after} of log {@code log}; 410 if the follower has to start over from a snapshot. */
+	@GetMapping(path = "/changes")
+	public ResponseEntity<ReplicationBatch> changes(@RequestParam String log, @RequestParam long after,
+			@RequestParam(defaultValue = "1024") int max, @RequestParam(defaultValue = "0") long waitMs)
+			throws InterruptedException {
+		long last = replicationLog.getLastSequence();
+		List<ReplicatedChange> changes = log.equals(replicationLog.getLogId())
+				? replicationLog.read(after, Math.max(1, Math.min(max, maxBatch)), Math.min(waitMs, maxWaitMs))
+				: null;
+		if (changes == null) {
+			return new ResponseEntity<>(HttpStatus.GONE);
+		}
+		if (!changes.isEmpty()) {
+			last = Math.max(last, changes.get(changes.size() - 1).getSequence());
+		}
+		return ResponseEntity.ok(new ReplicationBatch(replicationLog.getLogId(), last, changes));
+	}
+
+	/**
+	 * Every account as of one cut, as NDJSON: a first line with the log id and
+	 * the sequence of the cut, then one line per account.
+	 */
+	@GetMapping(path = "/snapshot", produces = AccountsController.NDJSON)
+	public ResponseEntity<StreamingResponseBody> snapshot() {
+		log.info("Streaming a snapshot to a follower");
+		StreamingResponseBody body = out -> {
+			try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+				json.setRootValueSeparator(null);
+				this.accountsService.exportAccounts(sequence -> {
+					json.writeStartObject();
+					json.writeStringField("log", replicationLog.getLogId());
+					json.writeNumberField("sequence", sequence);
+					json.writeEndObject();
+					json.writeRaw('\n');
+				}, (accountId, balance) -> {
+					json.writeStartObject();
+					json.writeStringField("accountId", accountId);
+					json.writeNumberField("balance", balance);
+					json.writeEndObject();
+					json.writeRaw('\n');
+				});
+			}
+		};
+		return ResponseEntity.ok().contentType(MediaType.valueOf(AccountsController.NDJSON)).body(body);
+	}
+}
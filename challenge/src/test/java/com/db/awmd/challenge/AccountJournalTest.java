@@ -0,0 +1,379 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransactionPhase;
+import com.db.awmd.challenge.domain.TransferLeg;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.RecoveredTransaction;
+import com.db.awmd.challenge.repository.journal.AccountJournal;
+import com.db.awmd.challenge.repository.journal.AccountSnapshotStore;
+import com.db.awmd.challenge.transfer.transaction.AccountTransferTnxManager;
+import com.db.awmd.challenge.transfer.transaction.AccountTransferTransaction;
+
+public class AccountJournalTest {
+
+  private Path directory;
+
+  private AccountJournal journal;
+
+  @Before
+  public void createDirectory() throws Exception {
+    directory = Files.createTempDirectory("account-journal");
+  }
+
+  @After
+  public void closeJournal() throws Exception {
+    if (journal != null) {
+      journal.close();
+    }
+  }
+
+  @Test
+  public void replaysCreationsAndCommittedTransfers() throws Exception {
+    AccountsRepositoryInMemory repository = open();
+    repository.createAccount(new Account("Id-1", new BigDecimal("100.50")));
+    repository.createAccount(new Account("Id-2", new BigDecimal("20")));
+    transfer(repository, "Id-1", "Id-2", new BigDecimal("40.25"));
+    transfer(repository, "Id-2", "Id-1", new BigDecimal("10"));
+    journal.close();
+
+    AccountsRepositoryInMemory recovered = open();
+
+    assertThat(recovered.getAccount("Id-1").getBalance()).isEqualByComparingTo("70.25");
+    assertThat(recovered.getAccount("Id-2").getBalance()).isEqualByComparingTo("50.25");
+    assertThat(journal.getLastSequence()).isEqualTo(4);
+  }
+
+  @Test
+  public void runsActionsOnceTheirRecordIsDurable() throws Exception {
+    AccountsRepositoryInMemory repository = open();
+    repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+    repository.createAccount(new Account("Id-2", new BigDecimal("0")));
+    CountDownLatch durable = new CountDownLatch(1);
+    long[] durableSequence = new long[1];
+
+    long ticket = journal.appendTransaction(new Account[] { repository.getAccount("Id-1"), repository.getAccount("Id-2") },
+      new BigDecimal[] { new BigDecimal("-1"), BigDecimal.ONE }, 2);
+    repository.whenDurable(ticket, () -> {
+      durableSequence[0] = journal.getDurableSequence();
+      durable.countDown();
+    });
+
+    assertThat(durable.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(durableSequence[0]).isGreaterThanOrEqualTo(ticket);
+  }
+
+  @Test
+  public void truncatesTornTailAndKeepsAppending() throws Exception {
+    AccountsRepositoryInMemory repository = open();
+    repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+    repository.createAccount(new Account("Id-2", new BigDecimal("0")));
+    transfer(repository, "Id-1", "Id-2", new BigDecimal("30"));
+    journal.close();
+
+    // Corrupt the body of the last record, as a crash in the middle of a write would.
+    Path segment = onlySegment();
+    try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+      long lastRecordEnd = endOfRecords(file);
+      file.seek(lastRecordEnd - 3);
+      file.write(new byte[] { 0x7f, 0x7f, 0x7f });
+    }
+
+    repository = open();
+    assertThat(journal.getLastSequence()).isEqualTo(2);
+    assertThat(repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("100");
+    transfer(repository, "Id-1", "Id-2", new BigDecimal("5"));
+    journal.close();
+
+    repository = open();
+    assertThat(repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("95");
+    assertThat(repository.getAccount("Id-2").getBalance()).isEqualByComparingTo("5");
+  }
+
+  @Test
+  public void transferWhoseAppendFailsChangesNoBalance() throws Exception {
+    AccountsRepositoryInMemory repository = open();
+    repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+    repository.createAccount(new Account("Id-2", new BigDecimal("0")));
+    journal.close();
+
+    try {
+      transfer(repository, "Id-1", "Id-2", new BigDecimal("30"));
+      fail("Should have failed because the journal is closed");
+    } catch (IllegalStateException expected) {
+      // not journaled, so not applied either
+    }
+    assertThat(repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("100");
+    assertThat(repository.getAccount("Id-2").getBalance()).isEqualByComparingTo("0");
+  }
+
+  @Test
+  public void groupCommitSharesFlushesAcrossWriters() throws Exception {
+    AccountsRepositoryInMemory repository = open();
+    repository.createAccount(new Account("Id-1", new BigDecimal("1000000")));
+    repository.createAccount(new Account("Id-2", new BigDecimal("0")));
+    long flushesBefore = journal.getFlushes();
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    for (int i = 0; i < 400; i++) {
+      executor.submit(() -> transfer(repository, "Id-1", "Id-2", BigDecimal.ONE));
+    }
+    executor.shutdown();
+    assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(journal.getDurableSequence()).isEqualTo(journal.getLastSequence());
+    assertThat(journal.getFlushes() - flushesBefore).isLessThan(400);
+    journal.close();
+
+    AccountsRepositoryInMemory recovered = open();
+    assertThat(recovered.getAccount("Id-2").getBalance()).isEqualByComparingTo("400");
+  }
+
+  @Test
+  public void restartsFromSnapshotAndJournalTail() throws Exception {
+    AccountsRepositoryInMemory repository = openWithSnapshots();
+    for (int i = 0; i < 100; i++) {
+      repository.createAccount(new Account("Id-" + i, new BigDecimal("1000")));
+    }
+    for (int i = 0; i < 600; i++) {
+      transfer(repository, "Id-" + (i % 100), "Id-" + ((i + 1) % 100), new BigDecimal("1.5"));
+    }
+    assertThat(segmentCount()).isGreaterThan(1);
+    repository.snapshot();
+    repository.snapshot();
+    assertThat(segmentCount()).isEqualTo(1);
+
+    transfer(repository, "Id-0", "Id-1", new BigDecimal("100"));
+    repository.createAccount(new Account("Id-new", new BigDecimal("7")));
+    journal.close();
+
+    AccountsRepositoryInMemory recovered = openWithSnapshots();
+    assertThat(recovered.getAccount("Id-0").getBalance()).isEqualByComparingTo("900");
+    assertThat(recovered.getAccount("Id-1").getBalance()).isEqualByComparingTo("1100");
+    assertThat(recovered.getAccount("Id-50").getBalance()).isEqualByComparingTo("1000");
+    assertThat(recovered.getAccount("Id-new").getBalance()).isEqualByComparingTo("7");
+  }
+
+  @Test
+  public void damagedNewestSnapshotFallsBackWithoutCountingTwice() throws Exception {
+    AccountsRepositoryInMemory repository = openWithSnapshots();
+    for (int i = 0; i < 64; i++) {
+      repository.createAccount(new Account("Id-" + i, new BigDecimal("100")));
+    }
+    repository.snapshot();
+    for (int i = 0; i < 64; i++) {
+      transfer(repository, "Id-" + i, "Id-" + ((i + 1) % 64), new BigDecimal("10"));
+    }
+    transfer(repository, "Id-0", "Id-1", new BigDecimal("5"));
+    long newest = repository.snapshot();
+    journal.close();
+
+    // Damage the last chunk only, so the others decode fine.
+    Path snapshot = directory.resolve("snapshots").resolve(String.format("snapshot-%020d.snap", newest));
+    try (RandomAccessFile file = new RandomAccessFile(snapshot.toFile(), "rw")) {
+      file.seek(file.length() - 12);
+      file.seek(file.readLong());
+      int chunks = file.readInt();
+      file.seek(file.getFilePointer() + 8L * (chunks - 1));
+      file.seek(file.readLong() + 12);
+      int body = file.read();
+      file.seek(file.getFilePointer() - 1);
+      file.write(body ^ 0xff);
+    }
+
+    AccountsRepositoryInMemory recovered = openWithSnapshots();
+    assertThat(recovered.getAccount("Id-0").getBalance()).isEqualByComparingTo("95");
+    assertThat(recovered.getAccount("Id-1").getBalance()).isEqualByComparingTo("105");
+    BigDecimal total = BigDecimal.ZERO;
+    for (int i = 0; i < 64; i++) {
+      total = total.add(recovered.getAccount("Id-" + i).getBalance());
+    }
+    assertThat(total).isEqualByComparingTo("6400");
+  }
+
+  @Test
+  public void snapshotIsConsistentWhileTransfersRun() throws Exception {
+    AccountsRepositoryInMemory repository = openWithSnapshots();
+    for (int i = 0; i < 10; i++) {
+      repository.createAccount(new Account("Id-" + i, new BigDecimal("1000")));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    for (int i = 0; i < 2000; i++) {
+      int from = i % 10;
+      executor.submit(() -> transfer(repository, "Id-" + from, "Id-" + ((from + 3) % 10), BigDecimal.ONE));
+    }
+    repository.snapshot();
+    executor.shutdown();
+    assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+    Map<String, BigDecimal> balances = new ConcurrentHashMap<>();
+    new AccountSnapshotStore(directory.resolve("snapshots"), 4).load(balances::put);
+    assertThat(balances).hasSize(10);
+    assertThat(balances.values().stream().reduce(BigDecimal.ZERO, BigDecimal::add))
+      .isEqualByComparingTo("10000");
+  }
+
+  @Test
+  public void snapshotIncludesCreditsHeldByHotAccounts() throws Exception {
+    AccountsRepositoryInMemory repository = openWithSnapshots();
+    repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+    repository.createAccount(new Account("Id-2", new BigDecimal("10")));
+    assertThat(repository.markHot(repository.getAccount("Id-2"), 4)).isTrue();
+    for (int i = 0; i < 20; i++) {
+      transfer(repository, "Id-1", "Id-2", new BigDecimal("2.5"));
+    }
+    transfer(repository, "Id-2", "Id-1", new BigDecimal("30"));
+    assertThat(repository.getAccount("Id-2").getBalance()).isEqualByComparingTo("30");
+    repository.snapshot();
+
+    Map<String, BigDecimal> balances = new ConcurrentHashMap<>();
+    new AccountSnapshotStore(directory.resolve("snapshots"), 4).load(balances::put);
+    assertThat(balances.get("Id-1")).isEqualByComparingTo("80");
+    assertThat(balances.get("Id-2")).isEqualByComparingTo("30");
+
+    transfer(repository, "Id-1", "Id-2", new BigDecimal("5"));
+    journal.close();
+    AccountsRepositoryInMemory recovered = openWithSnapshots();
+    assertThat(recovered.getAccount("Id-2").getBalance()).isEqualByComparingTo("35");
+  }
+
+  @Test
+  public void preparedTransactionsCountOnceAcrossSnapshotAndRestart() throws Exception {
+    AccountsRepositoryInMemory repository = openWithSnapshots();
+    repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+    repository.createAccount(new Account("Id-2", new BigDecimal("0")));
+    repository.createAccount(new Account("Id-3", new BigDecimal("50")));
+    AccountTransferTnxManager manager = new AccountTransferTnxManager(repository);
+    AccountTransferTransaction committed = manager.prepare("a-1", null, transaction -> {
+      transaction.debit(repository.getAccount("Id-1"), new BigDecimal("30"));
+      transaction.credit(repository.getAccount("Id-2"), new BigDecimal("30"));
+    });
+    AccountTransferTransaction aborted = manager.prepare("a-2", "b", transaction ->
+      transaction.debit(repository.getAccount("Id-3"), new BigDecimal("20")));
+
+    // The snapshot holds the reservations, which the journal holds as well.
+    repository.snapshot();
+    repository.awaitDurable(committed.commitPrepared());
+    repository.awaitDurable(aborted.abortPrepared());
+    journal.close();
+
+    AccountsRepositoryInMemory recovered = openWithSnapshots();
+    assertThat(recovered.getAccount("Id-1").getBalance()).isEqualByComparingTo("70");
+    assertThat(recovered.getAccount("Id-2").getBalance()).isEqualByComparingTo("30");
+    assertThat(recovered.getAccount("Id-3").getBalance()).isEqualByComparingTo("50");
+    assertThat(recovered.getRecoveredTransactions()).extracting(RecoveredTransaction::getPhase)
+      .containsExactly(TransactionPhase.COMMIT, TransactionPhase.ABORT);
+  }
+
+  @Test
+  public void undecidedTransactionIsRecoveredAfterItsSegmentIsSnapshotted() throws Exception {
+    AccountsRepositoryInMemory repository = openWithSnapshots();
+    for (int i = 1; i <= 4; i++) {
+      repository.createAccount(new Account("Id-" + i, new BigDecimal("100")));
+    }
+    AccountTransferTnxManager manager = new AccountTransferTnxManager(repository);
+    AccountTransferTransaction transaction = manager.prepare("a-1", null, prepared -> {
+      prepared.debit(repository.getAccount("Id-1"), new BigDecimal("10"));
+      prepared.credit(repository.getAccount("Id-2"), new BigDecimal("10"));
+    });
+    repository.awaitDurable(transaction.getPrepareTicket());
+    for (int i = 0; i < 300; i++) {
+      transfer(repository, "Id-" + (3 + i % 2), "Id-" + (4 - i % 2), BigDecimal.ONE);
+    }
+    assertThat(segmentCount()).isGreaterThan(2);
+    repository.snapshot();
+    repository.snapshot();
+    journal.close();
+
+    AccountsRepositoryInMemory recovered = openWithSnapshots();
+    assertThat(recovered.getAccount("Id-1").getBalance()).isEqualByComparingTo("90");
+    assertThat(recovered.getAccount("Id-2").getBalance()).isEqualByComparingTo("100");
+    assertThat(recovered.getRecoveredTransactions()).hasSize(1);
+    RecoveredTransaction undecided = recovered.getRecoveredTransactions().get(0);
+    assertThat(undecided.getPhase()).isEqualTo(TransactionPhase.PREPARE);
+    assertThat(undecided.getLegs()).extracting(TransferLeg::getAccountId).containsExactly("Id-1", "Id-2");
+
+    Account[] accounts = { recovered.getAccount("Id-1"), recovered.getAccount("Id-2") };
+    BigDecimal[] amounts = { undecided.getLegs().get(0).getAmount(), undecided.getLegs().get(1).getAmount() };
+    AccountTransferTransaction restored = new AccountTransferTnxManager(recovered).restore("a-1", null, accounts,
+      amounts);
+    recovered.awaitDurable(restored.commitPrepared());
+    recovered.snapshot();
+    journal.close();
+
+    AccountsRepositoryInMemory committed = openWithSnapshots();
+    assertThat(committed.getAccount("Id-1").getBalance()).isEqualByComparingTo("90");
+    assertThat(committed.getAccount("Id-2").getBalance()).isEqualByComparingTo("110");
+    assertThat(committed.getAccount("Id-4").getBalance()).isEqualByComparingTo("100");
+  }
+
+  private AccountsRepositoryInMemory open() throws Exception {
+    journal = new AccountJournal(directory, 1 << 16, 2000, 1 << 20);
+    return new AccountsRepositoryInMemory(journal);
+  }
+
+  private AccountsRepositoryInMemory openWithSnapshots() throws Exception {
+    journal = new AccountJournal(directory, 1 << 12, 2000, 1 << 20);
+    return new AccountsRepositoryInMemory(journal, new AccountSnapshotStore(directory.resolve("snapshots"), 16));
+  }
+
+  private static void transfer(AccountsRepositoryInMemory repository, String from, String to, BigDecimal amount) {
+    Account accountFrom = repository.getAccount(from);
+    Account accountTo = repository.getAccount(to);
+    long ticket;
+    synchronized (AccountJournalTest.class) {
+      ticket = new AccountTransferTnxManager(repository).doInTransaction(transaction -> {
+        transaction.debit(accountFrom, amount);
+        transaction.credit(accountTo, amount);
+      });
+    }
+    repository.awaitDurable(ticket);
+  }
+
+  private long segmentCount() throws Exception {
+    try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "*.journal")) {
+      long count = 0;
+      for (Path ignored : segments) {
+        count++;
+      }
+      return count;
+    }
+  }
+
+  private Path onlySegment() throws Exception {
+    try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "*.journal")) {
+      return segments.iterator().next();
+    }
+  }
+
+  private static long endOfRecords(RandomAccessFile file) throws Exception {
+    long position = 0;
+    while (true) {
+      file.seek(position);
+      int length = file.readInt();
+      if (length == 0) {
+        return position;
+      }
+      position += 8 + length;
+    }
+  }
+}
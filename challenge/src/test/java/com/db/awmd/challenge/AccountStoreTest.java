@@ -0,0 +1,120 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.EpochClock;
+import com.db.awmd.challenge.exception.BalanceOutOfRangeException;
+import com.db.awmd.challenge.repository.AccountStore;
+import com.db.awmd.challenge.repository.AccountsRepositoryOffHeap;
+import com.db.awmd.challenge.repository.HeapAccountStore;
+import com.db.awmd.challenge.repository.journal.AccountJournal;
+import com.db.awmd.challenge.repository.journal.AccountSnapshotStore;
+import com.db.awmd.challenge.repository.offheap.OffHeapAccountStore;
+
+public class AccountStoreTest {
+
+  @Test
+  public void growsPastItsInitialCapacityAndKeepsScale() {
+    OffHeapAccountStore store = new OffHeapAccountStore(new EpochClock(), 4);
+    for (int i = 0; i < 10000; i++) {
+      assertThat(store.insertIfAbsent(new Account("Id-" + i, new BigDecimal(i + ".50")), () -> { })).isTrue();
+    }
+    assertThat(store.insertIfAbsent(new Account("Id-42", BigDecimal.ONE), () -> { })).isFalse();
+
+    assertThat(store.size()).isEqualTo(10000);
+    assertThat(store.get("Id-42").getBalance()).isEqualTo(new BigDecimal("42.50"));
+    assertThat(store.get("Id-9999").getBalance()).isEqualTo(new BigDecimal("9999.50"));
+    assertThat(store.get("Id-10000")).isNull();
+
+    store.clear();
+    assertThat(store.get("Id-42")).isNull();
+    assertThat(store.size()).isZero();
+  }
+
+  @Test
+  public void refusesBalancesThatDoNotFitBeforeWriting() {
+    OffHeapAccountStore store = new OffHeapAccountStore(new EpochClock(), 16);
+    BigDecimal large = new BigDecimal("9223372036854775807.00");
+    assertThat(OffHeapAccountStore.fits(large)).isTrue();
+    assertThat(OffHeapAccountStore.fits(large.add(new BigDecimal("0.01")))).isFalse();
+
+    store.insertIfAbsent(new Account("Id-1", large), () -> { });
+    assertThat(store.get("Id-1").getBalance()).isEqualByComparingTo(large);
+    try {
+      store.insertIfAbsent(new Account("Id-2", large.add(new BigDecimal("0.01"))), () -> { });
+      fail("Balance should have been refused");
+    } catch (BalanceOutOfRangeException bore) {
+      assertThat(store.get("Id-2")).isNull();
+    }
+    assertThat(store.get("Id-1").canHold(large.add(BigDecimal.ONE))).isFalse();
+  }
+
+  @Test
+  public void handlesAreDenseAndNotReusedAfterClear() {
+    for (AccountStore store : new AccountStore[] {
+      new HeapAccountStore(new EpochClock()), new OffHeapAccountStore(new EpochClock(), 16) }) {
+      store.insertIfAbsent(new Account("Id-a"), () -> { });
+      store.insertIfAbsent(new Account("Id-b"), () -> { });
+      assertThat(store.get("Id-a").getHandle()).isEqualTo(0);
+      assertThat(store.get(1).getAccountId()).isEqualTo("Id-b");
+
+      store.clear();
+      store.insertIfAbsent(new Account("Id-c"), () -> { });
+      assertThat(store.get(0)).isNull();
+      assertThat(store.get(1)).isNull();
+      assertThat(store.get("Id-c").getHandle()).isEqualTo(2);
+      assertThat(store.get(2).getAccountId()).isEqualTo("Id-c");
+    }
+  }
+
+  @Test
+  public void viewsShareTheRecordUnderConcurrentUpdates() throws Exception {
+    OffHeapAccountStore store = new OffHeapAccountStore(new EpochClock(), 16);
+    store.insertIfAbsent(new Account("Id-1", new BigDecimal("0.00")), () -> { });
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    for (int i = 0; i < 4000; i++) {
+      executor.submit(() -> store.get("Id-1").adjustBalance(new BigDecimal("0.01")));
+    }
+    executor.shutdown();
+    assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+    Account account = store.get("Id-1");
+    assertThat(account.getBalance()).isEqualTo(new BigDecimal("40.00"));
+    assertThat(account.getVersion()).isEqualTo(4000);
+  }
+
+  @Test
+  public void recoversFromSnapshotAndJournal() throws Exception {
+    Path directory = Files.createTempDirectory("off-heap-journal");
+    AccountJournal journal = new AccountJournal(directory, 1 << 16, 2000, 1 << 20);
+    AccountsRepositoryOffHeap repository = new AccountsRepositoryOffHeap(16, journal,
+      new AccountSnapshotStore(directory.resolve("snapshots"), 16));
+    for (int i = 0; i < 100; i++) {
+      repository.createAccount(new Account("Id-" + i, new BigDecimal("100")));
+    }
+    repository.getAccount("Id-1").setBalance(new BigDecimal("55"));
+    repository.snapshot();
+    repository.createAccount(new Account("Id-after", new BigDecimal("3")));
+    journal.close();
+
+    journal = new AccountJournal(directory, 1 << 16, 2000, 1 << 20);
+    AccountsRepositoryOffHeap recovered = new AccountsRepositoryOffHeap(16, journal,
+      new AccountSnapshotStore(directory.resolve("snapshots"), 16));
+    assertThat(recovered.getAccount("Id-1").getBalance()).isEqualByComparingTo("55");
+    assertThat(recovered.getAccount("Id-99").getBalance()).isEqualByComparingTo("100");
+    assertThat(recovered.getAccount("Id-after").getBalance()).isEqualByComparingTo("3");
+    journal.close();
+  }
+}
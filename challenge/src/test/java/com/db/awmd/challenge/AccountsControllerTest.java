@@ -1,27 +1,44 @@
 package com.db.awmd.challenge;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
+import java.io.ByteArrayInputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.web.context.WebApplicationContext;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountVersion;
+import com.db.awmd.challenge.domain.ImportRejection;
+import com.db.awmd.challenge.domain.ImportSummary;
+import com.db.awmd.challenge.service.AccountImportService;
 import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.web.AdaptiveConcurrencyLimit;
+import com.db.awmd.challenge.web.InFlightLimiter;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest
@@ -36,6 +53,12 @@ public class AccountsControllerTest {
   @Autowired
   private WebApplicationContext webApplicationContext;
 
+  @Autowired
+  private InFlightLimiter inFlightLimiter;
+
+  @Autowired
+  private AdaptiveConcurrencyLimit transferLimit;
+
   @Before
   public void prepareMockMvc() {
     this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
@@ -46,7 +69,7 @@ public class AccountsControllerTest {
 
   @Test
   public void createAccount() throws Exception {
-    this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+    perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
       .content("{\"accountId\":\"Id-123\",\"balance\":1000}")).andExpect(status().isCreated());
 
     Account account = accountsService.getAccount("Id-123");
@@ -56,40 +79,40 @@ public class AccountsControllerTest {
 
   @Test
   public void createDuplicateAccount() throws Exception {
-    this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+    perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
       .content("{\"accountId\":\"Id-123\",\"balance\":1000}")).andExpect(status().isCreated());
 
-    this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+    perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
       .content("{\"accountId\":\"Id-123\",\"balance\":1000}")).andExpect(status().isBadRequest());
   }
 
   @Test
   public void createAccountNoAccountId() throws Exception {
-    this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+    perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
       .content("{\"balance\":1000}")).andExpect(status().isBadRequest());
   }
 
   @Test
   public void createAccountNoBalance() throws Exception {
-    this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+    perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
       .content("{\"accountId\":\"Id-123\"}")).andExpect(status().isBadRequest());
   }
 
   @Test
   public void createAccountNoBody() throws Exception {
-    this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON))
+    perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON))
       .andExpect(status().isBadRequest());
   }
 
   @Test
   public void createAccountNegativeBalance() throws Exception {
-    this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+    perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
       .content("{\"accountId\":\"Id-123\",\"balance\":-1000}")).andExpect(status().isBadRequest());
   }
 
   @Test
   public void createAccountEmptyAccountId() throws Exception {
-    this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+    perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
       .content("{\"accountId\":\"\",\"balance\":1000}")).andExpect(status().isBadRequest());
   }
 
@@ -98,12 +121,66 @@ public class AccountsControllerTest {
     String uniqueAccountId = "Id-" + System.currentTimeMillis();
     Account account = new Account(uniqueAccountId, new BigDecimal("123.45"));
     this.accountsService.createAccount(account);
-    this.mockMvc.perform(get("/v1/accounts/" + uniqueAccountId))
+    perform(get("/v1/accounts/" + uniqueAccountId))
       .andExpect(status().isOk())
       .andExpect(
         content().string("{\"accountId\":\"" + uniqueAccountId + "\",\"balance\":123.45}"));
   }
   
+  @Test
+  public void unchangedAccountIsAnsweredNotModified() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("100")));
+    this.accountsService.createAccount(new Account("Id-124", new BigDecimal("100")));
+    String etag = perform(get("/v1/accounts/Id-123"))
+      .andExpect(status().isOk())
+      .andExpect(content().string("{\"accountId\":\"Id-123\",\"balance\":100}"))
+      .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    assertThat(etag).isNotNull();
+
+    perform(get("/v1/accounts/Id-123").header(HttpHeaders.IF_NONE_MATCH, etag))
+      .andExpect(status().isNotModified())
+      .andExpect(content().string(""));
+
+    this.accountsService.fundTransfer("Id-123", "Id-124", BigDecimal.TEN);
+    perform(get("/v1/accounts/Id-123").header(HttpHeaders.IF_NONE_MATCH, etag))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$.balance").value(90));
+  }
+
+  @Test
+  public void transferWithStaleIfMatchIsRefused() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("100")));
+    this.accountsService.createAccount(new Account("Id-124", new BigDecimal("100")));
+    String etag = perform(get("/v1/accounts/Id-123")).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    String content = "{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-124\",\"transferAmount\":10}";
+
+    perform(post("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_MATCH, etag)
+      .content(content)).andExpect(status().isAccepted());
+    perform(post("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_MATCH, etag)
+      .content(content)).andExpect(status().isPreconditionFailed());
+    perform(post("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_MATCH, "junk")
+      .content(content)).andExpect(status().isPreconditionFailed());
+    assertThat(this.accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("90");
+  }
+
+  @Test
+  public void tagOfAnotherRepositoryIncarnationDoesNotMatch() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("100")));
+    this.accountsService.createAccount(new Account("Id-124", new BigDecimal("100")));
+    String etag = perform(get("/v1/accounts/Id-123")).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    AccountVersion current = AccountVersion.parseETag(etag);
+    // The same handle and version as handed out before a restart.
+    String restarted = new AccountVersion(current.getIncarnation() + 1, current.getHandle(), current.getVersion())
+      .toETag();
+    String content = "{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-124\",\"transferAmount\":10}";
+
+    perform(post("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_MATCH, restarted)
+      .content(content)).andExpect(status().isPreconditionFailed());
+    perform(post("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_MATCH, etag)
+      .content(content)).andExpect(status().isAccepted());
+    assertThat(this.accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("90");
+  }
+
   @Test
   public void fundTransfer() throws Exception {
 	  	String accountIdFrom = "Id-123";
@@ -113,8 +190,7 @@ public class AccountsControllerTest {
 	    Account accountTo = new Account(accountIdTo, new BigDecimal("123.45"));
 	    this.accountsService.createAccount(accountTo);
 	    
-	    this.mockMvc.perform(post("/v1/accounts/transfer/").contentType(MediaType.APPLICATION_JSON)
-	    	      .content("{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-124\",\"transferAmount\":100}")).andExpect(status().isAccepted());
+	    transfer("{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-124\",\"transferAmount\":100}").andExpect(status().isAccepted());
   }
   
   @Test
@@ -124,8 +200,7 @@ public class AccountsControllerTest {
 	    Account accountFrom = new Account(accountIdFrom, new BigDecimal("123.45"));
 	    this.accountsService.createAccount(accountFrom);
 	    
-	    this.mockMvc.perform(post("/v1/accounts/transfer/").contentType(MediaType.APPLICATION_JSON)
-	    	      .content("{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-123\",\"transferAmount\":100}")).andExpect(status().isBadRequest());
+	    transfer("{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-123\",\"transferAmount\":100}").andExpect(status().isBadRequest());
   }
   
   @Test
@@ -138,18 +213,292 @@ public class AccountsControllerTest {
 	    Account accountTo = new Account(accountIdTo, new BigDecimal("123.45"));
 	    this.accountsService.createAccount(accountTo);
 	    
-	    this.mockMvc.perform(post("/v1/accounts/transfer/").contentType(MediaType.APPLICATION_JSON)
-	    	      .content("{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-124\",\"transferAmount\":-1.00}")).andExpect(status().isBadRequest());
+	    transfer("{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-124\",\"transferAmount\":-1.00}").andExpect(status().isBadRequest());
   }
   
+  private ResultActions transfer(String content) throws Exception {
+    return perform(post("/v1/accounts/transfer/").contentType(MediaType.APPLICATION_JSON).content(content));
+  }
+
+  /** Requests that pass validation are answered asynchronously, so the result comes with the async dispatch. */
+  private ResultActions perform(RequestBuilder request) throws Exception {
+    ResultActions actions = this.mockMvc.perform(request);
+    MvcResult result = actions.andReturn();
+    return result.getRequest().isAsyncStarted() ? this.mockMvc.perform(asyncDispatch(result)) : actions;
+  }
+
+  /** A streamed response is written in a second async round, after the one answering the request. */
+  private ResultActions performStreamed(RequestBuilder request) throws Exception {
+    ResultActions streamed = perform(request);
+    // Completes once the body has been written.
+    streamed.andReturn().getAsyncResult();
+    return streamed;
+  }
+
   @Test
   public void transferEmptyReq() throws Exception {
 	  this.mockMvc.perform(post("/v1/accounts/transfer/").contentType(MediaType.APPLICATION_JSON)
     	      .content("{}")).andExpect(status().isBadRequest());
   }
   
+  @Test
+  public void batchTransferNetsOpposingMovements() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("100")));
+    this.accountsService.createAccount(new Account("Id-124", new BigDecimal("0")));
+
+    perform(post("/v1/accounts/transfers/batch").contentType(MediaType.APPLICATION_JSON)
+      .content("[{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-124\",\"transferAmount\":100},"
+        + "{\"accountFrom\":\"Id-124\",\"accountTo\":\"Id-123\",\"transferAmount\":60},"
+        + "{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-124\",\"transferAmount\":50}]"))
+      .andExpect(status().isAccepted())
+      .andExpect(jsonPath("$[*].status").value(contains("COMPLETED", "COMPLETED", "COMPLETED")));
+
+    verifyAccountBalance("Id-123", new BigDecimal("10"));
+    verifyAccountBalance("Id-124", new BigDecimal("90"));
+  }
+
+  @Test
+  public void batchTransferAllOrNothingRejectsWholeBatch() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("100")));
+    this.accountsService.createAccount(new Account("Id-124", new BigDecimal("0")));
+
+    perform(post("/v1/accounts/transfers/batch").contentType(MediaType.APPLICATION_JSON)
+      .content("[{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-124\",\"transferAmount\":100},"
+        + "{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-124\",\"transferAmount\":1}]"))
+      .andExpect(status().isUnprocessableEntity())
+      .andExpect(jsonPath("$[0].status").value("ABORTED"))
+      .andExpect(jsonPath("$[1].status").value("REJECTED"))
+      .andExpect(jsonPath("$[1].message").value("Insufficient balance in fromAccount"));
+
+    verifyAccountBalance("Id-123", new BigDecimal("100"));
+    verifyAccountBalance("Id-124", new BigDecimal("0"));
+  }
+
+  @Test
+  public void batchTransferBestEffortAppliesValidItems() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("100")));
+    this.accountsService.createAccount(new Account("Id-124", new BigDecimal("0")));
+
+    perform(post("/v1/accounts/transfers/batch?mode=BEST_EFFORT").contentType(MediaType.APPLICATION_JSON)
+      .content("[{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-999\",\"transferAmount\":10},"
+        + "{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-124\",\"transferAmount\":70},"
+        + "{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-124\",\"transferAmount\":70}]"))
+      .andExpect(status().isAccepted())
+      .andExpect(jsonPath("$[*].status").value(contains("REJECTED", "COMPLETED", "REJECTED")));
+
+    verifyAccountBalance("Id-123", new BigDecimal("30"));
+    verifyAccountBalance("Id-124", new BigDecimal("70"));
+  }
+
+  @Test
+  public void retriedTransferWithIdempotencyKeyRunsOnce() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("500")));
+    this.accountsService.createAccount(new Account("Id-124", new BigDecimal("0")));
+    String key = UUID.randomUUID().toString();
+    String body = "{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-124\",\"transferAmount\":100}";
+
+    for (int i = 0; i < 3; i++) {
+      perform(post("/v1/accounts/transfer/").header("Idempotency-Key", key).contentType(MediaType.APPLICATION_JSON)
+        .content(body)).andExpect(status().isAccepted());
+    }
+    perform(post("/v1/accounts/transfer/").header("Idempotency-Key", key).contentType(MediaType.APPLICATION_JSON)
+      .content("{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-124\",\"transferAmount\":200}"))
+      .andExpect(status().isUnprocessableEntity());
+    perform(post("/v1/accounts/transfer/").header("Idempotency-Key", key).contentType(MediaType.APPLICATION_JSON)
+      .content("{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-124\",\"transferAmount\":100.00}"))
+      .andExpect(status().isAccepted());
+    perform(post("/v1/accounts/transfer/").header("Idempotency-Key", key).header("If-Match", "*")
+      .contentType(MediaType.APPLICATION_JSON).content(body))
+      .andExpect(status().isUnprocessableEntity());
+
+    verifyAccountBalance("Id-123", new BigDecimal("400"));
+    verifyAccountBalance("Id-124", new BigDecimal("100"));
+  }
+
+  @Test
+  public void requestsOverTheInFlightLimitAreTurnedAway() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("123.45")));
+    int held = 0;
+    while (inFlightLimiter.tryAcquire()) {
+      held++;
+    }
+    try {
+      perform(get("/v1/accounts/Id-123")).andExpect(status().isServiceUnavailable());
+    } finally {
+      for (int i = 0; i < held; i++) {
+        inFlightLimiter.release();
+      }
+    }
+
+    perform(get("/v1/accounts/Id-123")).andExpect(status().isOk());
+  }
+
+  @Test
+  public void multiLegTransactionCommitsAllLegsOrNone() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("100")));
+    this.accountsService.createAccount(new Account("Id-124", new BigDecimal("0")));
+    this.accountsService.createAccount(new Account("Id-125", new BigDecimal("0")));
+
+    perform(post("/v1/accounts/transactions").contentType(MediaType.APPLICATION_JSON)
+      .content("[{\"accountId\":\"Id-123\",\"amount\":-60},{\"accountId\":\"Id-124\",\"amount\":58},"
+        + "{\"accountId\":\"Id-125\",\"amount\":2}]"))
+      .andExpect(status().isAccepted());
+    perform(post("/v1/accounts/transactions").contentType(MediaType.APPLICATION_JSON)
+      .content("[{\"accountId\":\"Id-123\",\"amount\":-60},{\"accountId\":\"Id-124\",\"amount\":60}]"))
+      .andExpect(status().isUnprocessableEntity());
+    perform(post("/v1/accounts/transactions").contentType(MediaType.APPLICATION_JSON)
+      .content("[{\"accountId\":\"Id-123\",\"amount\":-10},{\"accountId\":\"Id-124\",\"amount\":5}]"))
+      .andExpect(status().isBadRequest());
+
+    verifyAccountBalance("Id-123", new BigDecimal("40"));
+    verifyAccountBalance("Id-124", new BigDecimal("58"));
+    verifyAccountBalance("Id-125", new BigDecimal("2"));
+  }
+
+  @Test
+  public void transfersOverTheAdaptiveLimitAreTurnedAwayWithRetryAfter() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("500")));
+    this.accountsService.createAccount(new Account("Id-124", new BigDecimal("0")));
+    String body = "{\"accountFrom\":\"Id-123\",\"accountTo\":\"Id-124\",\"transferAmount\":100}";
+    int held = 0;
+    while (transferLimit.tryAcquire()) {
+      held++;
+    }
+    try {
+      perform(post("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON).content(body))
+        .andExpect(status().isServiceUnavailable())
+        .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+    } finally {
+      for (int i = 0; i < held; i++) {
+        transferLimit.cancel();
+      }
+    }
+
+    perform(post("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON).content(body))
+      .andExpect(status().isAccepted());
+    verifyAccountBalance("Id-124", new BigDecimal("100"));
+  }
+
+  @Test
+  public void transferHistoryIsPagedNewestFirst() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("100")));
+    this.accountsService.createAccount(new Account("Id-124", new BigDecimal("100")));
+    this.accountsService.fundTransfer("Id-123", "Id-124", new BigDecimal("10"));
+    this.accountsService.fundTransfer("Id-124", "Id-123", new BigDecimal("2.5"));
+    this.accountsService.fundTransfer("Id-123", "Id-124", new BigDecimal("1"));
+
+    String firstPage = performStreamed(get("/v1/accounts/Id-123/transfers?limit=2"))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$.accountId").value("Id-123"))
+      .andExpect(jsonPath("$.transfers[*].sequence", contains(2, 1)))
+      .andExpect(jsonPath("$.transfers[0].counterparty").value("Id-124"))
+      .andExpect(jsonPath("$.transfers[0].amount").value(-1))
+      .andExpect(jsonPath("$.transfers[1].amount").value(2.5))
+      .andExpect(jsonPath("$.next").value("0"))
+      .andReturn().getResponse().getContentAsString();
+    assertThat(firstPage).contains("\"next\":\"0\"");
+
+    performStreamed(get("/v1/accounts/Id-123/transfers?limit=2&cursor=0"))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$.transfers[*].sequence", contains(0)))
+      .andExpect(jsonPath("$.transfers[0].amount").value(-10))
+      .andExpect(jsonPath("$.next").doesNotExist());
+  }
+
+  @Test
+  public void transferHistoryRejectsBadPagesAndUnknownAccounts() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("100")));
+    perform(get("/v1/accounts/Id-123/transfers?limit=0")).andExpect(status().isBadRequest());
+    perform(get("/v1/accounts/Id-123/transfers?cursor=abc")).andExpect(status().isBadRequest());
+    perform(get("/v1/accounts/Id-999/transfers")).andExpect(status().isNotFound());
+    performStreamed(get("/v1/accounts/Id-123/transfers"))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$.transfers").isEmpty());
+  }
+
+  @Test
+  public void exportStreamsEveryAccountAsNdjson() throws Exception {
+    this.accountsService.createAccount(new Account("Id-123", new BigDecimal("100")));
+    this.accountsService.createAccount(new Account("Id-124", new BigDecimal("50.25")));
+    this.accountsService.fundTransfer("Id-123", "Id-124", new BigDecimal("10"));
+
+    String export = performStreamed(get("/v1/accounts/export"))
+      .andExpect(status().isOk())
+      .andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+      .andReturn().getResponse().getContentAsString();
+    assertThat(export.split("\n")).containsExactlyInAnyOrder(
+      "{\"accountId\":\"Id-123\",\"balance\":90}",
+      "{\"accountId\":\"Id-124\",\"balance\":60.25}");
+  }
+
+  @Test
+  public void bulkImportReportsRejectedRows() throws Exception {
+    this.accountsService.createAccount(new Account("Id-1", new BigDecimal("1")));
+    String upload = "{\"accountId\":\"Id-1\",\"balance\":5}\n"
+      + "{\"accountId\":\"Id-2\",\"balance\":10.50}\n"
+      + "{\"accountId\":\"Id-3\",\"balance\":-1}\n"
+      + "{\"balance\":3}\n"
+      + "{\"accountId\":\"Id-4\",\"balance\":\"7\",\"note\":{\"ignored\":true}}\n";
+
+    perform(post("/v1/accounts/bulk").contentType("application/x-ndjson").content(upload))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$.accepted").value(2))
+      .andExpect(jsonPath("$.rejected").value(3))
+      .andExpect(jsonPath("$.rejections[*].row", contains(1, 3, 4)))
+      .andExpect(jsonPath("$.rejections[0].reason").value("Account id Id-1 already exists!"))
+      .andExpect(jsonPath("$.rejections[1].reason").value("Initial balance must be positive."));
+
+    assertThat(accountsService.getAccount("Id-1").getBalance()).isEqualByComparingTo("1");
+    assertThat(accountsService.getAccount("Id-2").getBalance()).isEqualByComparingTo("10.50");
+    assertThat(accountsService.getAccount("Id-4").getBalance()).isEqualByComparingTo("7");
+  }
+
+  @Test
+  public void bulkImportReadsCsvInChunks() throws Exception {
+    StringBuilder upload = new StringBuilder("accountId,balance\n");
+    for (int i = 0; i < 10000; i++) {
+      upload.append("Id-").append(i).append(',').append(i).append(".25\n");
+    }
+    upload.append("Id-5,1\n");
+
+    perform(post("/v1/accounts/bulk").contentType("text/csv").content(upload.toString()))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$.accepted").value(10000))
+      .andExpect(jsonPath("$.rejections[0].row").value(10001));
+
+    assertThat(accountsService.getAccount("Id-9999").getBalance()).isEqualByComparingTo("9999.25");
+  }
+
+  @Test
+  public void bulkImportReportsTheLowestRejectedRows() throws Exception {
+    this.accountsService.createAccount(new Account("Id-1", new BigDecimal("1")));
+    StringBuilder upload = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      upload.append("{\"accountId\":\"Id-1\",\"balance\":5}\n");
+    }
+    AccountImportService importService = new AccountImportService(accountsService, 8, 1, 5);
+    try {
+      ImportSummary summary = importService.importAccounts(
+        new ByteArrayInputStream(upload.toString().getBytes(StandardCharsets.UTF_8)), AccountImportService.Format.NDJSON);
+
+      assertThat(summary.getRejected()).isEqualTo(200);
+      assertThat(summary.getRejections()).extracting(ImportRejection::getRow).containsExactly(1L, 2L, 3L, 4L, 5L);
+    } finally {
+      importService.shutdown();
+    }
+  }
+
+  @Test
+  public void bulkImportStopsAtMalformedInput() throws Exception {
+    perform(post("/v1/accounts/bulk").contentType("application/x-ndjson")
+      .content("{\"accountId\":\"Id-1\",\"balance\":5}\n{\"accountId\":"))
+      .andExpect(status().isBadRequest())
+      .andExpect(jsonPath("$.accepted").value(1))
+      .andExpect(jsonPath("$.error").isNotEmpty());
+  }
+
   private void verifyAccountBalance(final String accountId, final BigDecimal balance) throws Exception {
-	    this.mockMvc.perform(get("/v1/accounts/" + accountId))
+	    perform(get("/v1/accounts/" + accountId))
 	            .andExpect(status().isOk())
 	            .andExpect(
 	                    content().string("{\"accountId\":\"" + accountId + "\",\"balance\":"+balance+"}"));
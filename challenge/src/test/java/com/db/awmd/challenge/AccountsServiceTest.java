@@ -5,7 +5,12 @@ import static org.junit.Assert.fail;
 import static org.mockito.Mockito.verify;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -17,6 +22,8 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferLeg;
+import com.db.awmd.challenge.domain.TransferOutcome;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
 import com.db.awmd.challenge.exception.InsufficientBalanceException;
 import com.db.awmd.challenge.service.AccountsService;
@@ -102,7 +109,7 @@ public class AccountsServiceTest {
 	    try {
 	    	this.accountsService.fundTransfer("Id-125", "Id-126", new BigDecimal(50));
 	    }catch(Exception e) {
-	    	assertThat(e.getMessage()).isEqualTo("Account nullnot found");
+	    	assertThat(e.getMessage()).isEqualTo("Account not found");
 	    }
 
 	    assertThat(this.accountsService.getAccount("Id-125").getBalance()).isEqualTo(new BigDecimal(100));
@@ -123,6 +130,21 @@ public class AccountsServiceTest {
       }
   }
   
+  @Test
+  public void rejectedTransferReturnsOutcomeWithoutThrowing() {
+      this.accountsService.createAccount(new Account("Id-140", new BigDecimal("5")));
+      this.accountsService.createAccount(new Account("Id-141", new BigDecimal("5")));
+
+      assertThat(this.accountsService.tryFundTransfer("Id-140", "Id-141", new BigDecimal("10")))
+          .isEqualTo(TransferOutcome.INSUFFICIENT_BALANCE);
+      assertThat(this.accountsService.tryFundTransfer("Id-140", "Id-999", BigDecimal.ONE))
+          .isEqualTo(TransferOutcome.ACCOUNT_NOT_FOUND);
+      assertThat(this.accountsService.tryFundTransfer("Id-140", "Id-141", BigDecimal.ONE))
+          .isEqualTo(TransferOutcome.ACCEPTED);
+      assertThat(this.accountsService.getAccount("Id-140").getBalance()).isEqualByComparingTo("4");
+      assertThat(TransferOutcome.INSUFFICIENT_BALANCE.toException().getStackTrace()).isEmpty();
+  }
+
   @Test
   public void transferFunds() {
       final String accountFromId = UUID.randomUUID().toString();
@@ -162,9 +184,131 @@ public class AccountsServiceTest {
       verifyNotifications(accountFrom, accountTo, transferAmount);
   }
   
-  private void verifyNotifications(final Account accountFrom, final Account accountTo, final BigDecimal amount) {
-      verify(notificationService, Mockito.times(1)).notifyAboutTransfer(accountFrom, "The transfer to the account with ID " + accountTo.getAccountId() + " is now complete for the amount of " + amount + ".");
-      verify(notificationService, Mockito.times(1)).notifyAboutTransfer(accountTo, "The account with ID + " + accountFrom.getAccountId() + " has transferred " + amount + " into your account.");
+  @Test
+  public void multiLegTransactionSplitsOneDebitOverPayees() {
+      final String prefix = UUID.randomUUID() + "-";
+      this.accountsService.createAccount(new Account(prefix + "payer", new BigDecimal("100")));
+      this.accountsService.createAccount(new Account(prefix + "payee", new BigDecimal("0")));
+      this.accountsService.createAccount(new Account(prefix + "fees", new BigDecimal("0")));
+
+      TransferOutcome outcome = this.accountsService.tryTransferLegs(Arrays.asList(
+          new TransferLeg(prefix + "payer", new BigDecimal("-100")),
+          new TransferLeg(prefix + "payee", new BigDecimal("95")),
+          new TransferLeg(prefix + "fees", new BigDecimal("5"))));
+
+      assertThat(outcome).isEqualTo(TransferOutcome.ACCEPTED);
+      assertThat(this.accountsService.getAccount(prefix + "payer").getBalance()).isEqualByComparingTo("0");
+      assertThat(this.accountsService.getAccount(prefix + "payee").getBalance()).isEqualByComparingTo("95");
+      assertThat(this.accountsService.getAccount(prefix + "fees").getBalance()).isEqualByComparingTo("5");
+  }
+
+  @Test
+  public void everyRejectionMapsBackFromItsException() {
+      for (TransferOutcome outcome : TransferOutcome.values()) {
+        if (outcome != TransferOutcome.ACCEPTED) {
+          assertThat(TransferOutcome.of(outcome.toException())).isEqualTo(outcome);
+        }
+      }
+  }
+
+  @Test
+  public void multiLegTransactionAppliesNothingIfAnyLegIsRejected() {
+      final String prefix = UUID.randomUUID() + "-";
+      this.accountsService.createAccount(new Account(prefix + "a", new BigDecimal("50")));
+      this.accountsService.createAccount(new Account(prefix + "b", new BigDecimal("10")));
+      this.accountsService.createAccount(new Account(prefix + "c", new BigDecimal("0")));
+
+      assertThat(this.accountsService.tryTransferLegs(Arrays.asList(
+          new TransferLeg(prefix + "a", new BigDecimal("-30")),
+          new TransferLeg(prefix + "b", new BigDecimal("-20")),
+          new TransferLeg(prefix + "c", new BigDecimal("50"))))).isEqualTo(TransferOutcome.INSUFFICIENT_BALANCE);
+      assertThat(this.accountsService.tryTransferLegs(Arrays.asList(
+          new TransferLeg(prefix + "a", new BigDecimal("-30")),
+          new TransferLeg(prefix + "c", new BigDecimal("20"))))).isEqualTo(TransferOutcome.UNBALANCED_LEGS);
+      assertThat(this.accountsService.tryTransferLegs(Arrays.asList(
+          new TransferLeg(prefix + "a", new BigDecimal("-30")),
+          new TransferLeg(prefix + "missing", new BigDecimal("30"))))).isEqualTo(TransferOutcome.ACCOUNT_NOT_FOUND);
+
+      assertThat(this.accountsService.getAccount(prefix + "a").getBalance()).isEqualByComparingTo("50");
+      assertThat(this.accountsService.getAccount(prefix + "b").getBalance()).isEqualByComparingTo("10");
+      assertThat(this.accountsService.getAccount(prefix + "c").getBalance()).isEqualByComparingTo("0");
+  }
+
+  @Test
+  public void concurrentCrossTransfersConserveMoney() throws Exception {
+      final String[] accountIds = new String[4];
+      for (int i = 0; i < accountIds.length; i++) {
+          accountIds[i] = UUID.randomUUID().toString();
+          this.accountsService.createAccount(new Account(accountIds[i], new BigDecimal("1000")));
+      }
+
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+      for (int i = 0; i < 2000; i++) {
+          executor.submit(() -> {
+              ThreadLocalRandom random = ThreadLocalRandom.current();
+              int from = random.nextInt(accountIds.length);
+              int to = (from + 1 + random.nextInt(accountIds.length - 1)) % accountIds.length;
+              try {
+                  this.accountsService.fundTransfer(accountIds[from], accountIds[to], BigDecimal.ONE);
+              } catch (InsufficientBalanceException ignored) {
+              }
+          });
+      }
+      executor.shutdown();
+      assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+      BigDecimal total = BigDecimal.ZERO;
+      for (String accountId : accountIds) {
+          BigDecimal balance = this.accountsService.getAccount(accountId).getBalance();
+          assertThat(balance.signum()).isGreaterThanOrEqualTo(0);
+          total = total.add(balance);
+      }
+      assertThat(total).isEqualByComparingTo("4000");
+  }
+
+  @Test
+  public void exportSumsExactlyWhileTransfersRun() throws Exception {
+      final String prefix = UUID.randomUUID() + "-";
+      final String[] accountIds = new String[8];
+      for (int i = 0; i < accountIds.length; i++) {
+          accountIds[i] = prefix + i;
+          this.accountsService.createAccount(new Account(accountIds[i], new BigDecimal("1000")));
+      }
+
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      for (int i = 0; i < 4000; i++) {
+          executor.submit(() -> {
+              ThreadLocalRandom random = ThreadLocalRandom.current();
+              int from = random.nextInt(accountIds.length);
+              int to = (from + 1 + random.nextInt(accountIds.length - 1)) % accountIds.length;
+              try {
+                  this.accountsService.fundTransfer(accountIds[from], accountIds[to], new BigDecimal("0.01"));
+              } catch (InsufficientBalanceException ignored) {
+              }
+          });
+      }
+      executor.shutdown();
+
+      do {
+          final BigDecimal[] total = { BigDecimal.ZERO };
+          final int[] exported = { 0 };
+          this.accountsService.exportAccounts((accountId, balance) -> {
+              if (accountId.startsWith(prefix)) {
+                  total[0] = total[0].add(balance);
+                  exported[0]++;
+              }
+          });
+          assertThat(exported[0]).isEqualTo(accountIds.length);
+          assertThat(total[0]).isEqualByComparingTo("8000");
+      } while (!executor.awaitTermination(1, TimeUnit.MILLISECONDS));
+  }
+
+  private void verifyNotifications(final Account createdFrom, final Account createdTo, final BigDecimal amount) {
+      // Repositories may hand out views rather than the created objects, so compare with the stored accounts.
+      final Account accountFrom = this.accountsService.getAccount(createdFrom.getAccountId());
+      final Account accountTo = this.accountsService.getAccount(createdTo.getAccountId());
+      verify(notificationService, Mockito.timeout(5000).times(1)).notifyAboutTransfer(accountFrom, "The transfer to the account with ID " + accountTo.getAccountId() + " is now complete for the amount of " + amount + ".");
+      verify(notificationService, Mockito.timeout(5000).times(1)).notifyAboutTransfer(accountTo, "The account with ID + " + accountFrom.getAccountId() + " has transferred " + amount + " into your account.");
   }
  
 }
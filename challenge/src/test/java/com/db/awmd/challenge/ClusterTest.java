@@ -0,0 +1,319 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import com.db.awmd.challenge.cluster.ClusterClient;
+import com.db.awmd.challenge.cluster.ClusterTopology;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.FundTransfer;
+import com.db.awmd.challenge.domain.TransferLeg;
+import com.db.awmd.challenge.domain.TransferOutcome;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.CrossNodeTransferService;
+
+/** Two nodes of one cluster, each on its own localhost port. */
+public class ClusterTest {
+
+  private static final String[] NODE_IDS = { "a", "b" };
+
+  private static final long EARLY_ABORT_RETENTION_MS = 300L;
+
+  private static final String SECRET = "cluster-test-secret";
+
+  private static ConfigurableApplicationContext[] nodes;
+
+  private static String[] urls;
+
+  private final TestRestTemplate rest = new TestRestTemplate();
+
+  @BeforeClass
+  public static void startNodes() throws IOException {
+    urls = new String[NODE_IDS.length];
+    StringBuilder members = new StringBuilder();
+    for (int i = 0; i < NODE_IDS.length; i++) {
+      try (ServerSocket socket = new ServerSocket(0)) {
+        urls[i] = "http://localhost:" + socket.getLocalPort();
+      }
+      members.append(i == 0 ? "" : ",").append(NODE_IDS[i]).append('=').append(urls[i]);
+    }
+    nodes = new ConfigurableApplicationContext[NODE_IDS.length];
+    for (int i = 0; i < NODE_IDS.length; i++) {
+      // Arguments, unlike builder properties, override application.yml.
+      nodes[i] = new SpringApplicationBuilder(DevChallengeApplication.class)
+        .run("--server.port=" + urls[i].substring(urls[i].lastIndexOf(':') + 1),
+          "--accounts.cluster.enabled=true",
+          "--accounts.cluster.node-id=" + NODE_IDS[i],
+          "--accounts.cluster.nodes=" + members,
+          "--accounts.cluster.early-abort-retention-ms=" + EARLY_ABORT_RETENTION_MS,
+          "--accounts.cluster.secret=" + SECRET,
+          "--accounts.snapshot.enabled=false",
+          "--spring.jmx.enabled=false",
+          "--endpoints.jmx.enabled=false");
+    }
+  }
+
+  @AfterClass
+  public static void stopNodes() {
+    for (ConfigurableApplicationContext node : nodes) {
+      if (node != null) {
+        node.close();
+      }
+    }
+  }
+
+  @Before
+  public void clearAccounts() {
+    for (ConfigurableApplicationContext node : nodes) {
+      service(node).getAccountsRepository().clearAccounts();
+    }
+  }
+
+  @Test
+  public void accountsLiveOnTheirOwnerWhicheverNodeIsAsked() {
+    String onA = idOwnedBy("a", "Owned-");
+    String onB = idOwnedBy("b", "Owned-");
+
+    assertThat(create(0, onA, "100").getStatusCode()).isEqualTo(HttpStatus.CREATED);
+    assertThat(create(0, onB, "200").getStatusCode()).isEqualTo(HttpStatus.CREATED);
+    assertThat(create(1, onB, "200").getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+
+    assertThat(service(nodes[0]).getAccount(onA)).isNotNull();
+    assertThat(service(nodes[0]).getAccount(onB)).isNull();
+    assertThat(service(nodes[1]).getAccount(onB)).isNotNull();
+    assertThat(balanceVia(0, onB)).isEqualByComparingTo("200");
+    assertThat(balanceVia(1, onA)).isEqualByComparingTo("100");
+  }
+
+  @Test
+  public void crossNodeTransferCommitsOnBothNodesOrNeither() {
+    String from = idOwnedBy("a", "From-");
+    String to = idOwnedBy("b", "To-");
+    create(0, from, "100");
+    create(1, to, "0");
+
+    // Asked of the node owning neither side of the debit, so forwarded first.
+    assertThat(transfer(1, from, to, "30").getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+    assertThat(balanceVia(1, from)).isEqualByComparingTo("70");
+    assertThat(balanceVia(0, to)).isEqualByComparingTo("30");
+
+    ResponseEntity<String> refused = transfer(0, from, to, "500");
+    assertThat(refused.getStatusCode()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+    assertThat(transfer(0, from, idOwnedBy("b", "Missing-"), "10").getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    assertThat(balanceVia(0, from)).isEqualByComparingTo("70");
+    assertThat(balanceVia(1, to)).isEqualByComparingTo("30");
+    for (ConfigurableApplicationContext node : nodes) {
+      assertThat(node.getBean(CrossNodeTransferService.class).getPreparedCount()).isZero();
+      assertThat(node.getBean(CrossNodeTransferService.class).getUnfinishedCount()).isZero();
+      assertThat(node.getBean(CrossNodeTransferService.class).getEscalatedCount()).isZero();
+    }
+  }
+
+  @Test
+  public void concurrentTransfersBothWaysConserveMoney() throws Exception {
+    List<String> accounts = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      String id = idOwnedBy(NODE_IDS[i % 2], "Busy-" + i + "-");
+      create(i % 2, id, "1000");
+      accounts.add(id);
+    }
+    ExecutorService clients = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> done = new ArrayList<>();
+      for (int c = 0; c < 8; c++) {
+        int client = c;
+        done.add(clients.submit(() -> {
+          for (int i = 0; i < 25; i++) {
+            String from = accounts.get((client + i) % 4);
+            String to = accounts.get((client + i + 1) % 4);
+            transfer(i % 2, from, to, "7");
+          }
+        }));
+      }
+      for (Future<?> future : done) {
+        future.get();
+      }
+    } finally {
+      clients.shutdown();
+    }
+
+    BigDecimal total = BigDecimal.ZERO;
+    for (String id : accounts) {
+      BigDecimal balance = balanceVia(0, id);
+      assertThat(balance.signum()).isGreaterThanOrEqualTo(0);
+      total = total.add(balance);
+    }
+    assertThat(total).isEqualByComparingTo("4000");
+  }
+
+  @Test
+  public void forwardedHeaderWithoutTheClusterSecretIsRoutedAsUsual() {
+    String onB = idOwnedBy("b", "Spoofed-");
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    headers.set("X-Forwarded-By-Node", "b");
+
+    ResponseEntity<String> created = rest.postForEntity(urls[0] + "/v1/accounts",
+      new HttpEntity<>(new Account(onB, new BigDecimal("50")), headers), String.class);
+
+    assertThat(created.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+    assertThat(service(nodes[0]).getAccount(onB)).isNull();
+    assertThat(service(nodes[1]).getAccount(onB).getBalance()).isEqualByComparingTo("50");
+  }
+
+  @Test
+  public void transactionCallsWithoutTheClusterSecretAreRefused() {
+    String to = idOwnedBy("b", "Target-");
+    create(1, to, "0");
+    String legs = "[{\"accountId\":\"" + to + "\",\"amount\":1000000}]";
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+
+    assertThat(internalCall(1, "x-1/prepare", legs, headers).getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+    headers.set(ClusterClient.SECRET_HEADER, SECRET + "-guess");
+    assertThat(internalCall(1, "x-1/prepare", legs, headers).getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+    assertThat(internalCall(1, "x-1/commit", null, headers).getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+
+    assertThat(nodes[1].getBean(CrossNodeTransferService.class).getPreparedCount()).isZero();
+    assertThat(balanceVia(1, to)).isEqualByComparingTo("0");
+  }
+
+  @Test
+  public void prepareAfterItsAbortIsRefusedUntilTheAbortIsForgotten() throws Exception {
+    String to = idOwnedBy("b", "Late-");
+    create(1, to, "0");
+    CrossNodeTransferService participant = nodes[1].getBean(CrossNodeTransferService.class);
+    List<TransferLeg> legs = Collections.singletonList(new TransferLeg(to, BigDecimal.TEN));
+
+    participant.abort("a-late");
+    try {
+      participant.prepare("a-late", legs, null);
+      fail("Should have refused to prepare an aborted transaction");
+    } catch (IllegalStateException expected) {
+      // the coordinator gave up on it already
+    }
+    assertThat(participant.getPreparedCount()).isZero();
+
+    Thread.sleep(EARLY_ABORT_RETENTION_MS + 100L);
+    assertThat(participant.prepare("a-late", legs, null)).isEqualTo(TransferOutcome.ACCEPTED);
+    assertThat(participant.getPreparedCount()).isEqualTo(1);
+    participant.abort("a-late");
+    assertThat(participant.getPreparedCount()).isZero();
+    assertThat(balanceVia(1, to)).isEqualByComparingTo("0");
+  }
+
+  @Test
+  public void outcomeIsKeptUntilTheCoordinatorForgetsIt() throws Exception {
+    String to = idOwnedBy("b", "Twice-");
+    create(1, to, "0");
+    CrossNodeTransferService participant = nodes[1].getBean(CrossNodeTransferService.class);
+    ClusterClient coordinator = nodes[0].getBean(ClusterClient.class);
+    List<TransferLeg> legs = Collections.singletonList(new TransferLeg(to, BigDecimal.TEN));
+
+    assertThat(participant.prepare("a-twice", legs, null)).isEqualTo(TransferOutcome.ACCEPTED);
+    assertThat(participant.prepare("a-undecided", legs, null)).isEqualTo(TransferOutcome.ACCEPTED);
+    assertThat(coordinator.commit("b", "a-twice")).isEqualTo(HttpStatus.OK);
+    // As if the first answer had been lost, and well after any retention time.
+    Thread.sleep(EARLY_ABORT_RETENTION_MS + 100L);
+    assertThat(coordinator.commit("b", "a-twice")).isEqualTo(HttpStatus.OK);
+    assertThat(coordinator.forget("b", "a-undecided")).isFalse();
+
+    assertThat(coordinator.forget("b", "a-twice")).isTrue();
+    assertThat(coordinator.commit("b", "a-twice")).isEqualTo(HttpStatus.NOT_FOUND);
+    assertThat(coordinator.abort("b", "a-undecided")).isTrue();
+    assertThat(coordinator.abort("b", "a-undecided")).isTrue();
+    assertThat(coordinator.forget("b", "a-undecided")).isTrue();
+
+    assertThat(participant.getPreparedCount()).isZero();
+    assertThat(balanceVia(1, to)).isEqualByComparingTo("10");
+  }
+
+  @Test
+  public void importsBatchesAndTransactionsStayWithTheOwner() {
+    String onA = idOwnedBy("a", "Bulk-");
+    String onB = idOwnedBy("b", "Bulk-");
+    String otherOnB = idOwnedBy("b", "Other-");
+    HttpHeaders csv = new HttpHeaders();
+    csv.setContentType(MediaType.valueOf("text/csv"));
+
+    ResponseEntity<String> imported = rest.postForEntity(urls[0] + "/v1/accounts/bulk",
+      new HttpEntity<>("accountId,balance\n" + onA + ",100\n" + onB + ",100\n", csv), String.class);
+    assertThat(imported.getBody()).contains("\"accepted\":1", "\"rejected\":1", "owned by node b");
+    assertThat(service(nodes[1]).getAccount(onB)).isNull();
+    create(1, onB, "100");
+    create(1, otherOnB, "0");
+
+    HttpHeaders json = new HttpHeaders();
+    json.setContentType(MediaType.APPLICATION_JSON);
+    String mixed = "[{\"accountId\":\"" + onA + "\",\"amount\":-5},{\"accountId\":\"" + onB + "\",\"amount\":5}]";
+    assertThat(rest.postForEntity(urls[0] + "/v1/accounts/transactions", new HttpEntity<>(mixed, json), String.class)
+      .getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    String onBOnly = "[{\"accountId\":\"" + onB + "\",\"amount\":-5},{\"accountId\":\"" + otherOnB
+      + "\",\"amount\":5}]";
+    assertThat(rest.postForEntity(urls[0] + "/v1/accounts/transactions", new HttpEntity<>(onBOnly, json), String.class)
+      .getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+    String batch = "[{\"accountFrom\":\"" + onB + "\",\"accountTo\":\"" + otherOnB + "\",\"transferAmount\":10}]";
+    assertThat(rest.postForEntity(urls[0] + "/v1/accounts/transfers/batch", new HttpEntity<>(batch, json),
+      String.class).getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+
+    assertThat(balanceVia(1, onB)).isEqualByComparingTo("85");
+    assertThat(balanceVia(1, otherOnB)).isEqualByComparingTo("15");
+    assertThat(balanceVia(0, onA)).isEqualByComparingTo("100");
+  }
+
+  private static AccountsService service(ConfigurableApplicationContext node) {
+    return node.getBean(AccountsService.class);
+  }
+
+  private static String idOwnedBy(String nodeId, String prefix) {
+    ClusterTopology topology = nodes[0].getBean(ClusterTopology.class);
+    for (int i = 0;; i++) {
+      if (topology.ownerOf(prefix + i).equals(nodeId)) {
+        return prefix + i;
+      }
+    }
+  }
+
+  private ResponseEntity<String> create(int node, String accountId, String balance) {
+    return rest.postForEntity(urls[node] + "/v1/accounts", new Account(accountId, new BigDecimal(balance)),
+      String.class);
+  }
+
+  private ResponseEntity<String> transfer(int node, String from, String to, String amount) {
+    return rest.postForEntity(urls[node] + "/v1/accounts/transfer", new FundTransfer(from, to, new BigDecimal(amount)),
+      String.class);
+  }
+
+  private ResponseEntity<String> internalCall(int node, String path, String body, HttpHeaders headers) {
+    return rest.postForEntity(urls[node] + "/internal/v1/transactions/" + path, new HttpEntity<>(body, headers),
+      String.class);
+  }
+
+  private BigDecimal balanceVia(int node, String accountId) {
+    Account account = rest.getForObject(urls[node] + "/v1/accounts/" + accountId, Account.class);
+    return account.getBalance();
+  }
+}
@@ -0,0 +1,82 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.service.AccountsService;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "accounts.hot.ids=Hot-Sink,Hot-Empty", "accounts.hot.stripes=8" })
+public class HotAccountsServiceTest {
+
+  @Autowired
+  private AccountsService accountsService;
+
+  @Test
+  public void configuredAccountsAreHot() {
+    this.accountsService.createAccount(new Account("Hot-Empty"));
+    String otherId = UUID.randomUUID().toString();
+    this.accountsService.createAccount(new Account(otherId));
+
+    assertThat(this.accountsService.getAccount("Hot-Empty").isHot()).isTrue();
+    assertThat(this.accountsService.getAccount(otherId).isHot()).isFalse();
+  }
+
+  @Test
+  public void concurrentCreditsAndDebitsKeepTheExactTotal() throws Exception {
+    this.accountsService.createAccount(new Account("Hot-Sink", new BigDecimal("50")));
+    final String[] sourceIds = new String[8];
+    for (int i = 0; i < sourceIds.length; i++) {
+      sourceIds[i] = UUID.randomUUID().toString();
+      this.accountsService.createAccount(new Account(sourceIds[i], new BigDecimal("1000")));
+    }
+
+    final AtomicInteger credited = new AtomicInteger();
+    final AtomicInteger debited = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    for (int i = 0; i < 4000; i++) {
+      final String sourceId = sourceIds[i % sourceIds.length];
+      final boolean credit = i % 4 != 0;
+      executor.submit(() -> {
+        try {
+          if (credit) {
+            this.accountsService.fundTransfer(sourceId, "Hot-Sink", new BigDecimal("0.25"));
+            credited.incrementAndGet();
+          } else {
+            this.accountsService.fundTransfer("Hot-Sink", sourceId, BigDecimal.ONE);
+            debited.incrementAndGet();
+          }
+        } catch (InsufficientBalanceException ignored) {
+        }
+      });
+    }
+    executor.shutdown();
+    assertThat(executor.awaitTermination(60, TimeUnit.SECONDS)).isTrue();
+
+    BigDecimal expected = new BigDecimal("50")
+      .add(new BigDecimal("0.25").multiply(new BigDecimal(credited.get())))
+      .subtract(new BigDecimal(debited.get()));
+    assertThat(this.accountsService.getAccount("Hot-Sink").isHot()).isTrue();
+    assertThat(this.accountsService.getAccount("Hot-Sink").getBalance()).isEqualByComparingTo(expected);
+
+    BigDecimal total = this.accountsService.getAccount("Hot-Sink").getBalance();
+    for (String sourceId : sourceIds) {
+      total = total.add(this.accountsService.getAccount(sourceId).getBalance());
+    }
+    assertThat(total).isEqualByComparingTo("8050");
+  }
+}
@@ -0,0 +1,84 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.db.awmd.challenge.web.IdempotencyCache;
+
+public class IdempotencyCacheTest {
+
+  @Test
+  public void concurrentDuplicatesWaitForTheRequestInProgress() throws Exception {
+    IdempotencyCache cache = new IdempotencyCache(100, 600, 4);
+    CompletableFuture<ResponseEntity<String>> inProgress = new CompletableFuture<>();
+    AtomicInteger executions = new AtomicInteger();
+
+    CompletableFuture<ResponseEntity<String>> first = cache.execute("key", "body", () -> {
+      executions.incrementAndGet();
+      return inProgress;
+    });
+    CompletableFuture<ResponseEntity<String>> duplicate = cache.execute("key", "body", () -> {
+      executions.incrementAndGet();
+      return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.ACCEPTED));
+    });
+    assertThat(duplicate.isDone()).isFalse();
+
+    inProgress.complete(new ResponseEntity<>("done", HttpStatus.ACCEPTED));
+
+    assertThat(executions.get()).isEqualTo(1);
+    assertThat(first.get().getBody()).isEqualTo("done");
+    assertThat(duplicate.get().getBody()).isEqualTo("done");
+    assertThat(cache.getHits()).isEqualTo(1);
+    assertThat(cache.getMisses()).isEqualTo(1);
+  }
+
+  @Test
+  public void retriedKeysSurviveABurstOfNewOnes() {
+    IdempotencyCache cache = new IdempotencyCache(10, 600, 1);
+    AtomicInteger executions = new AtomicInteger();
+    execute(cache, "retried", executions);
+    execute(cache, "retried", executions);
+
+    for (int i = 0; i < 100; i++) {
+      execute(cache, "once-" + i, executions);
+    }
+    execute(cache, "retried", executions);
+    execute(cache, "once-0", executions);
+
+    assertThat(executions.get()).isEqualTo(102);
+    assertThat(cache.size()).isEqualTo(10);
+    assertThat(cache.getEvictions()).isEqualTo(92);
+  }
+
+  @Test
+  public void expiredAndUnavailableResponsesRunAgain() {
+    AtomicInteger executions = new AtomicInteger();
+    IdempotencyCache expiring = new IdempotencyCache(10, 0, 1);
+    execute(expiring, "key", executions);
+    execute(expiring, "key", executions);
+    assertThat(executions.get()).isEqualTo(2);
+    assertThat(expiring.getExpirations()).isEqualTo(1);
+
+    IdempotencyCache cache = new IdempotencyCache(10, 600, 1);
+    for (int i = 0; i < 2; i++) {
+      cache.execute("busy", "body", () -> {
+        executions.incrementAndGet();
+        return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE));
+      });
+    }
+    assertThat(executions.get()).isEqualTo(4);
+  }
+
+  private static void execute(IdempotencyCache cache, String key, AtomicInteger executions) {
+    cache.execute(key, "body", () -> {
+      executions.incrementAndGet();
+      return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.ACCEPTED));
+    });
+  }
+}
@@ -0,0 +1,122 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.NotificationDispatcher;
+import com.db.awmd.challenge.service.NotificationOverflowPolicy;
+
+public class NotificationDispatcherTest {
+
+  private final AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory();
+
+  private final List<String> delivered = new CopyOnWriteArrayList<>();
+
+  @Test
+  public void coalescesBurstForOneAccount() throws Exception {
+    Account account = new Account("Id-1", BigDecimal.TEN);
+    Account other = new Account("Id-2", BigDecimal.TEN);
+    NotificationDispatcher dispatcher = new NotificationDispatcher((a, description) -> delivered.add(description),
+      accountsRepository, true, 16, 1, 16, NotificationOverflowPolicy.BLOCK, "unused");
+
+    for (int i = 0; i < 3; i++) {
+      dispatcher.enqueue(account, "burst-" + i);
+    }
+    dispatcher.enqueue(other, "other");
+    dispatcher.start();
+    waitUntil(() -> dispatcher.getDelivered() == 2);
+    dispatcher.stop();
+
+    assertThat(delivered).containsExactly("burst-0\nburst-1\nburst-2", "other");
+    assertThat(dispatcher.getCoalesced()).isEqualTo(2);
+  }
+
+  @Test
+  public void dropOldestKeepsNewestNotifications() {
+    NotificationDispatcher dispatcher = new NotificationDispatcher((a, description) -> delivered.add(description),
+      accountsRepository, true, 2, 1, 16, NotificationOverflowPolicy.DROP_OLDEST, "unused");
+    Account account = new Account("Id-1", BigDecimal.TEN);
+
+    for (int i = 0; i < 5; i++) {
+      dispatcher.enqueue(account, "n-" + i);
+    }
+
+    assertThat(dispatcher.getQueueDepth()).isEqualTo(2);
+    assertThat(dispatcher.getDropped()).isEqualTo(3);
+  }
+
+  @Test
+  public void spillsOverflowToDiskAndReplaysInOrder() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      accountsRepository.createAccount(new Account("Id-" + i, BigDecimal.TEN));
+    }
+    CountDownLatch release = new CountDownLatch(1);
+    NotificationDispatcher dispatcher = new NotificationDispatcher((a, description) -> {
+      awaitQuietly(release);
+      delivered.add(description);
+    }, accountsRepository, true, 2, 1, 1, NotificationOverflowPolicy.SPILL,
+      Files.createTempDirectory("spill").toString());
+    dispatcher.start();
+
+    for (int i = 0; i < 20; i++) {
+      dispatcher.enqueue(accountsRepository.getAccount("Id-" + i), "n-" + i);
+    }
+    assertThat(dispatcher.getSpilled()).isGreaterThan(0);
+    release.countDown();
+    waitUntil(() -> delivered.size() == 20);
+    dispatcher.stop();
+
+    for (int i = 0; i < 20; i++) {
+      assertThat(delivered.get(i)).isEqualTo("n-" + i);
+    }
+    assertThat(dispatcher.getDropped()).isZero();
+  }
+
+  @Test
+  public void spilledNotificationsAreNotOvertakenByNewOnes() throws Exception {
+    accountsRepository.createAccount(new Account("Id-1", BigDecimal.TEN));
+    Account account = accountsRepository.getAccount("Id-1");
+    NotificationDispatcher dispatcher = new NotificationDispatcher((a, description) -> delivered.add(description),
+      accountsRepository, true, 2, 1, 2, NotificationOverflowPolicy.SPILL,
+      Files.createTempDirectory("spill").toString());
+    dispatcher.start();
+
+    for (int i = 0; i < 2000; i++) {
+      dispatcher.enqueue(account, "n-" + i);
+    }
+    waitUntil(() -> dispatcher.getDelivered() + dispatcher.getCoalesced() == 2000);
+    dispatcher.stop();
+
+    String[] received = String.join("\n", delivered).split("\n");
+    assertThat(received).hasSize(2000);
+    for (int i = 0; i < received.length; i++) {
+      assertThat(received[i]).isEqualTo("n-" + i);
+    }
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void waitUntil(java.util.function.BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertThat(condition.getAsBoolean()).isTrue();
+  }
+}
@@ -0,0 +1,10 @@
+package com.db.awmd.challenge;
+
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+/** Runs the service behaviour tests against the off-heap repository. */
+@ActiveProfiles("test")
+@SpringBootTest(properties = "accounts.repository.storage=OFF_HEAP")
+public class OffHeapAccountsServiceTest extends AccountsServiceTest {
+}
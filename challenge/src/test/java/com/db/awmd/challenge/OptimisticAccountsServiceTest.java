@@ -0,0 +1,98 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.OptimisticTransferStats;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "transfer.concurrency.mode=OPTIMISTIC")
+public class OptimisticAccountsServiceTest {
+
+  @Autowired
+  private AccountsService accountsService;
+
+  @Autowired
+  private OptimisticTransferStats optimisticStats;
+
+  @Test
+  public void transferFunds() {
+    final String accountFromId = UUID.randomUUID().toString();
+    final String accountToId = UUID.randomUUID().toString();
+    this.accountsService.createAccount(new Account(accountFromId, new BigDecimal("500.11")));
+    this.accountsService.createAccount(new Account(accountToId, new BigDecimal("20.00")));
+    long successes = optimisticStats.getSuccesses();
+
+    this.accountsService.fundTransfer(accountFromId, accountToId, new BigDecimal("200.11"));
+
+    assertThat(this.accountsService.getAccount(accountFromId).getBalance()).isEqualTo(new BigDecimal("300.00"));
+    assertThat(this.accountsService.getAccount(accountToId).getBalance()).isEqualTo(new BigDecimal("220.11"));
+    assertThat(this.accountsService.getAccount(accountFromId).getVersion()).isEqualTo(1L);
+    assertThat(optimisticStats.getSuccesses()).isEqualTo(successes + 1);
+  }
+
+  @Test
+  public void insufficientFundsLeavesBalancesUntouched() {
+    final String accountFromId = UUID.randomUUID().toString();
+    final String accountToId = UUID.randomUUID().toString();
+    this.accountsService.createAccount(new Account(accountFromId, new BigDecimal("10")));
+    this.accountsService.createAccount(new Account(accountToId, new BigDecimal("10")));
+
+    try {
+      this.accountsService.fundTransfer(accountFromId, accountToId, new BigDecimal("11"));
+      fail("Should have failed because account does not have enough balance for the transfer");
+    } catch (InsufficientBalanceException ibe) {
+      assertThat(ibe.getMessage()).isEqualTo("Insufficient balance in fromAccount");
+    }
+    assertThat(this.accountsService.getAccount(accountFromId).getBalance()).isEqualTo(new BigDecimal("10"));
+    assertThat(this.accountsService.getAccount(accountToId).getBalance()).isEqualTo(new BigDecimal("10"));
+  }
+
+  @Test
+  public void contendedTransfersConserveMoney() throws Exception {
+    final String[] accountIds = new String[3];
+    for (int i = 0; i < accountIds.length; i++) {
+      accountIds[i] = UUID.randomUUID().toString();
+      this.accountsService.createAccount(new Account(accountIds[i], new BigDecimal("100")));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    for (int i = 0; i < 5000; i++) {
+      executor.submit(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(accountIds.length);
+        int to = (from + 1 + random.nextInt(accountIds.length - 1)) % accountIds.length;
+        try {
+          this.accountsService.fundTransfer(accountIds[from], accountIds[to], BigDecimal.ONE);
+        } catch (InsufficientBalanceException ignored) {
+        }
+      });
+    }
+    executor.shutdown();
+    assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+    BigDecimal total = BigDecimal.ZERO;
+    for (String accountId : accountIds) {
+      BigDecimal balance = this.accountsService.getAccount(accountId).getBalance();
+      assertThat(balance.signum()).isGreaterThanOrEqualTo(0);
+      total = total.add(balance);
+    }
+    assertThat(total).isEqualByComparingTo("300");
+  }
+}
@@ -0,0 +1,76 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.db.awmd.challenge.domain.ReplicatedChange;
+import com.db.awmd.challenge.replication.ReplicationLog;
+
+public class ReplicationLogTest {
+
+  @Test
+  public void concurrentAppendsArePublishedInSequenceOrder() throws Exception {
+    ReplicationLog log = new ReplicationLog(1 << 14);
+    ExecutorService appenders = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> done = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        done.add(appenders.submit(() -> {
+          for (int i = 0; i < 1000; i++) {
+            log.appendCreate("Id-" + i, BigDecimal.ONE);
+          }
+        }));
+      }
+      for (Future<?> future : done) {
+        future.get();
+      }
+    } finally {
+      appenders.shutdown();
+    }
+
+    assertThat(log.getLastSequence()).isEqualTo(8000L);
+    List<ReplicatedChange> changes = log.read(0L, 8000, 0L);
+    assertThat(changes).hasSize(8000);
+    for (int i = 0; i < changes.size(); i++) {
+      assertThat(changes.get(i).getSequence()).isEqualTo(i + 1L);
+    }
+  }
+
+  @Test
+  public void waitingReaderIsWokenByAnAppend() throws Exception {
+    ReplicationLog log = new ReplicationLog(16);
+    CompletableFuture<List<ReplicatedChange>> read = CompletableFuture.supplyAsync(() -> {
+      try {
+        return log.read(0L, 10, 10000L);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    Thread.sleep(100L);
+    long start = System.nanoTime();
+    log.appendClear();
+
+    assertThat(read.get()).extracting(ReplicatedChange::getSequence).containsExactly(1L);
+    assertThat(System.nanoTime() - start).isLessThan(5_000_000_000L);
+  }
+
+  @Test
+  public void readerTooFarBehindStartsOver() throws Exception {
+    ReplicationLog log = new ReplicationLog(16);
+    for (int i = 0; i < 40; i++) {
+      log.appendClear();
+    }
+
+    assertThat(log.read(0L, 10, 0L)).isNull();
+    assertThat(log.read(30L, 10, 0L)).hasSize(10);
+  }
+}
@@ -0,0 +1,279 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.FundTransfer;
+import com.db.awmd.challenge.replication.ReplicationFollower;
+import com.db.awmd.challenge.replication.ReplicationLog;
+import com.db.awmd.challenge.service.AccountsService;
+
+/**
+ * A primary and a follower on localhost ports, the follower reaching the
+ * primary through a link that can be cut. The primary is also a one-node
+ * cluster, so that both kinds of internal calls are guarded at once.
+ */
+public class ReplicationTest {
+
+  private static final String SECRET = "replication-test-secret";
+
+  private static ConfigurableApplicationContext primary;
+
+  private static ConfigurableApplicationContext follower;
+
+  private static String primaryUrl;
+
+  private static String followerUrl;
+
+  private static Link link;
+
+  private final TestRestTemplate rest = new TestRestTemplate();
+
+  @BeforeClass
+  public static void start() throws IOException {
+    int primaryPort = freePort();
+    primaryUrl = "http://localhost:" + primaryPort;
+    primary = new SpringApplicationBuilder(DevChallengeApplication.class)
+      .run("--server.port=" + primaryPort,
+        "--accounts.replication.role=PRIMARY",
+        "--accounts.replication.log-capacity=16",
+        "--accounts.replication.secret=" + SECRET,
+        "--accounts.cluster.enabled=true",
+        "--accounts.cluster.node-id=primary",
+        "--accounts.cluster.nodes=primary=" + primaryUrl,
+        "--accounts.cluster.secret=cluster-" + SECRET,
+        "--accounts.snapshot.enabled=false",
+        "--spring.jmx.enabled=false",
+        "--endpoints.jmx.enabled=false");
+    link = new Link(primaryPort);
+    int followerPort = freePort();
+    followerUrl = "http://localhost:" + followerPort;
+    follower = new SpringApplicationBuilder(DevChallengeApplication.class)
+      .run("--server.port=" + followerPort,
+        "--accounts.replication.role=FOLLOWER",
+        "--accounts.replication.primary-url=http://localhost:" + link.port,
+        "--accounts.replication.poll-wait-ms=200",
+        "--accounts.replication.retry-backoff-ms=50",
+        "--accounts.replication.read-wait-ms=5000",
+        "--accounts.replication.secret=" + SECRET,
+        "--accounts.snapshot.enabled=false",
+        "--spring.jmx.enabled=false",
+        "--endpoints.jmx.enabled=false");
+  }
+
+  @AfterClass
+  public static void stop() throws IOException {
+    if (follower != null) {
+      follower.close();
+    }
+    if (link != null) {
+      link.close();
+    }
+    if (primary != null) {
+      primary.close();
+    }
+  }
+
+  @Before
+  public void clearAccounts() throws Exception {
+    link.restore();
+    primary.getBean(AccountsService.class).getAccountsRepository().clearAccounts();
+    awaitFollower();
+  }
+
+  @Test
+  public void followerReadsTheWritesOfTheirToken() {
+    rest.postForEntity(primaryUrl + "/v1/accounts", new Account("Id-1", new BigDecimal("100")), String.class);
+    rest.postForEntity(primaryUrl + "/v1/accounts", new Account("Id-2", new BigDecimal("0")), String.class);
+    ResponseEntity<String> transfer = rest.postForEntity(primaryUrl + "/v1/accounts/transfer",
+      new FundTransfer("Id-1", "Id-2", new BigDecimal("40")), String.class);
+    String token = transfer.getHeaders().getFirst("X-Commit-Sequence");
+    assertThat(token).isNotNull();
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.set("X-Min-Commit-Sequence", token);
+    ResponseEntity<Account> read = rest.exchange(followerUrl + "/v1/accounts/Id-2", HttpMethod.GET,
+      new HttpEntity<>(headers), Account.class);
+
+    assertThat(read.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(read.getBody().getBalance()).isEqualByComparingTo("40");
+    assertThat(read.getHeaders().getETag()).isNull();
+    assertThat(Long.parseLong(read.getHeaders().getFirst("X-Replication-Sequence")))
+      .isGreaterThanOrEqualTo(Long.parseLong(token));
+    assertThat(Long.parseLong(read.getHeaders().getFirst("X-Replication-Staleness-Ms"))).isGreaterThanOrEqualTo(0L);
+  }
+
+  @Test
+  public void writesToTheFollowerAreRedirectedToThePrimary() {
+    ResponseEntity<String> create = rest.postForEntity(followerUrl + "/v1/accounts",
+      new Account("Id-1", new BigDecimal("100")), String.class);
+
+    assertThat(create.getStatusCode()).isEqualTo(HttpStatus.TEMPORARY_REDIRECT);
+    assertThat(create.getHeaders().getLocation().toString())
+      .isEqualTo(follower.getBean(ReplicationFollower.class).getPrimaryUrl() + "/v1/accounts");
+    assertThat(follower.getBean(AccountsService.class).getAccount("Id-1")).isNull();
+  }
+
+  @Test
+  public void followerCatchesUpIncrementallyAfterADisconnect() throws Exception {
+    AccountsService primaryService = primary.getBean(AccountsService.class);
+    AccountsService followerService = follower.getBean(AccountsService.class);
+    long snapshots = follower.getBean(ReplicationFollower.class).getSnapshotsLoaded();
+    primaryService.createAccount(new Account("Id-1", new BigDecimal("100")));
+    primaryService.createAccount(new Account("Id-2", new BigDecimal("0")));
+    awaitFollower();
+
+    link.cut();
+    for (int i = 0; i < 5; i++) {
+      primaryService.fundTransfer("Id-1", "Id-2", new BigDecimal("10"));
+    }
+    Thread.sleep(300L);
+    assertThat(followerService.getAccount("Id-2").getBalance()).isEqualByComparingTo("0");
+
+    link.restore();
+    awaitFollower();
+    assertThat(followerService.getAccount("Id-1").getBalance()).isEqualByComparingTo("50");
+    assertThat(followerService.getAccount("Id-2").getBalance()).isEqualByComparingTo("50");
+    assertThat(follower.getBean(ReplicationFollower.class).getSnapshotsLoaded()).isEqualTo(snapshots);
+  }
+
+  @Test
+  public void followerTooFarBehindLoadsASnapshot() throws Exception {
+    AccountsService primaryService = primary.getBean(AccountsService.class);
+    long snapshots = follower.getBean(ReplicationFollower.class).getSnapshotsLoaded();
+
+    link.cut();
+    for (int i = 0; i < 40; i++) {
+      primaryService.createAccount(new Account("Id-" + i, new BigDecimal(i)));
+    }
+    link.restore();
+    awaitFollower();
+
+    assertThat(follower.getBean(ReplicationFollower.class).getSnapshotsLoaded()).isEqualTo(snapshots + 1);
+    assertThat(follower.getBean(AccountsService.class).getAccount("Id-39").getBalance()).isEqualByComparingTo("39");
+  }
+
+  @Test
+  public void replicationCallsNeedTheReplicationSecret() {
+    HttpHeaders headers = new HttpHeaders();
+    assertThat(rest.exchange(primaryUrl + "/internal/v1/replication/snapshot", HttpMethod.GET,
+      new HttpEntity<>(headers), String.class).getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+    headers.set(ReplicationFollower.SECRET_HEADER, "cluster-" + SECRET);
+    assertThat(rest.exchange(primaryUrl + "/internal/v1/replication/changes?log=x&after=0", HttpMethod.GET,
+      new HttpEntity<>(headers), String.class).getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+    headers.set(ReplicationFollower.SECRET_HEADER, SECRET);
+    assertThat(rest.exchange(primaryUrl + "/internal/v1/replication/changes?log=x&after=0", HttpMethod.GET,
+      new HttpEntity<>(headers), String.class).getStatusCode()).isEqualTo(HttpStatus.GONE);
+  }
+
+  private static void awaitFollower() throws InterruptedException {
+    long last = primary.getBean(ReplicationLog.class).getLastSequence();
+    assertThat(follower.getBean(ReplicationFollower.class).awaitApplied(last, 10000L)).isTrue();
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  /**
+   * A TCP relay to the primary; cutting it drops every connection and closes
+   * new ones at once. It stays bound throughout, as a released port may be
+   * handed out again as an ephemeral one.
+   */
+  private static final class Link {
+
+    private final int port;
+
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+
+    private final ServerSocket server;
+
+    private volatile boolean up = true;
+
+    private Link(int target) throws IOException {
+      this.server = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+      this.port = server.getLocalPort();
+      Thread acceptor = new Thread(() -> {
+        while (!server.isClosed()) {
+          try {
+            connect(server.accept(), target);
+          } catch (IOException e) {
+            // closed, or the primary went away
+          }
+        }
+      }, "replication-link");
+      acceptor.setDaemon(true);
+      acceptor.start();
+    }
+
+    private synchronized void connect(Socket client, int target) throws IOException {
+      if (!up) {
+        client.close();
+        return;
+      }
+      Socket upstream = new Socket("localhost", target);
+      sockets.add(client);
+      sockets.add(upstream);
+      relay(client, upstream);
+      relay(upstream, client);
+    }
+
+    private void restore() {
+      up = true;
+    }
+
+    private synchronized void cut() throws IOException {
+      up = false;
+      for (Socket socket : sockets) {
+        socket.close();
+      }
+      sockets.clear();
+    }
+
+    private void close() throws IOException {
+      cut();
+      server.close();
+    }
+
+    private void relay(Socket from, Socket to) {
+      Thread relay = new Thread(() -> {
+        byte[] buffer = new byte[8192];
+        try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+          for (int read; (read = in.read(buffer)) >= 0;) {
+            out.write(buffer, 0, read);
+            out.flush();
+          }
+        } catch (IOException e) {
+          // cut or closed
+        }
+      }, "replication-link-relay");
+      relay.setDaemon(true);
+      relay.start();
+    }
+  }
+}
@@ -0,0 +1,10 @@
+package com.db.awmd.challenge;
+
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+/** Runs the service behaviour tests with transfers sequenced on single-writer shards. */
+@ActiveProfiles("test")
+@SpringBootTest(properties = { "transfer.concurrency.mode=SHARDED", "transfer.sharded.shards=4" })
+public class ShardedAccountsServiceTest extends AccountsServiceTest {
+}
@@ -0,0 +1,79 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.db.awmd.challenge.web.AccountRateLimiter;
+import com.db.awmd.challenge.web.AdaptiveConcurrencyLimit;
+
+public class TransferAdmissionTest {
+
+  @Test
+  public void limitGrowsWhileLatencyHoldsAndShrinksWhenItRises() {
+    // Every sample closes a window.
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(true, 16, 4, 256, 0, 1);
+
+    for (int round = 0; round < 20; round++) {
+      saturate(limit, 1);
+    }
+    int grown = limit.getLimit();
+    assertThat(grown).isGreaterThan(16);
+
+    saturate(limit, 50);
+    assertThat(limit.getLimit()).isLessThan(grown);
+    assertThat(limit.getInFlight()).isZero();
+    assertThat(limit.getRejected()).isEqualTo(21);
+  }
+
+  @Test
+  public void droppedTransfersBackOffAndLightLoadLeavesTheLimit() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(true, 100, 4, 256, 0, 1);
+
+    assertThat(limit.tryAcquire()).isTrue();
+    limit.release(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(1), false);
+    assertThat(limit.getLimit()).isEqualTo(100);
+
+    assertThat(limit.tryAcquire()).isTrue();
+    limit.release(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(1), true);
+    assertThat(limit.getLimit()).isEqualTo(90);
+  }
+
+  @Test
+  public void accountOverItsRateIsTurnedAwayWithoutChargingTheOther() {
+    AccountRateLimiter limiter = new AccountRateLimiter(1, 2, 65536);
+
+    assertThat(limiter.tryAcquire("Id-1", "Id-2")).isZero();
+    assertThat(limiter.tryAcquire("Id-1", "Id-2")).isZero();
+    long wait = limiter.tryAcquire("Id-1", "Id-2");
+    assertThat(wait).isGreaterThan(0L).isLessThanOrEqualTo(TimeUnit.SECONDS.toNanos(1));
+
+    assertThat(limiter.tryAcquire("Id-3", "Id-2")).isGreaterThan(0L);
+    assertThat(limiter.tryAcquire("Id-3", "Id-4")).isZero();
+    assertThat(limiter.tryAcquire("Id-3", "Id-4")).isZero();
+    assertThat(limiter.getLimited()).isEqualTo(2);
+  }
+
+  @Test
+  public void rateLimitIsOffByDefault() {
+    AccountRateLimiter limiter = new AccountRateLimiter(0, 10, 65536);
+
+    for (int i = 0; i < 1000; i++) {
+      assertThat(limiter.tryAcquire("Id-1", "Id-2")).isZero();
+    }
+    assertThat(limiter.isEnabled()).isFalse();
+  }
+
+  /* Fills the limit, is turned away once, then releases everything with the given latency. */
+  private static void saturate(AdaptiveConcurrencyLimit limit, long latencyMillis) {
+    int held = 0;
+    while (limit.tryAcquire()) {
+      held++;
+    }
+    for (int i = 0; i < held; i++) {
+      limit.release(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(latencyMillis), false);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.LedgerEntry;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.ledger.TransferLedger;
+
+public class TransferLedgerTest {
+
+  private AccountsRepositoryInMemory repository;
+
+  private TransferLedger ledger;
+
+  private Account from;
+
+  private Account to;
+
+  @Before
+  public void createAccounts() {
+    repository = new AccountsRepositoryInMemory();
+    from = new Account("Id-1", new BigDecimal("1000"));
+    to = new Account("Id-2", new BigDecimal("1000"));
+    repository.createAccount(from);
+    repository.createAccount(to);
+  }
+
+  @After
+  public void closeLedger() throws Exception {
+    if (ledger != null) {
+      ledger.close();
+    }
+  }
+
+  @Test
+  public void pagesReachIntoSpilledHistory() throws Exception {
+    Path directory = Files.createTempDirectory("transfer-ledger");
+    ledger = new TransferLedger(repository, 8, true, directory.toString(), 4096, 16);
+    for (int i = 1; i <= 100; i++) {
+      ledger.record(from, to, new BigDecimal(i));
+    }
+
+    List<LedgerEntry> entries = new ArrayList<>();
+    String cursor = null;
+    int pages = 0;
+    do {
+      cursor = ledger.read(from, cursor, 7, entries::add);
+      pages++;
+    } while (cursor != null);
+
+    assertThat(pages).isEqualTo(15);
+    assertThat(entries).hasSize(100);
+    for (int i = 0; i < entries.size(); i++) {
+      LedgerEntry entry = entries.get(i);
+      assertThat(entry.getSequence()).isEqualTo(99 - i);
+      assertThat(entry.getAmount()).isEqualByComparingTo(new BigDecimal(-(100 - i)));
+      assertThat(entry.getCounterparty()).isEqualTo("Id-2");
+    }
+  }
+
+  @Test
+  public void forgedSpillOffsetsAreRefusedBeforeReading() throws Exception {
+    Path directory = Files.createTempDirectory("transfer-ledger");
+    ledger = new TransferLedger(repository, 8, true, directory.toString(), 4096, 16);
+    for (int i = 1; i <= 20; i++) {
+      ledger.record(from, to, new BigDecimal(i));
+    }
+    String cursor = ledger.read(from, null, 8, entry -> { });
+    assertThat(cursor).startsWith("11.");
+    String forged = "11." + (Long.parseLong(cursor.substring(3)) + 3);
+
+    assertThat(ledger.isValidCursor(from, cursor)).isTrue();
+    assertThat(ledger.isValidCursor(to, cursor)).isFalse();
+    assertThat(ledger.isValidCursor(from, forged)).isFalse();
+    assertThat(ledger.isValidCursor(from, "11.4095")).isFalse();
+    assertThat(ledger.isValidCursor(from, "11.999999999999999999")).isFalse();
+    assertThat(ledger.isValidCursor(from, "11")).isTrue();
+
+    List<LedgerEntry> entries = new ArrayList<>();
+    assertThat(ledger.read(from, forged, 3, entries::add)).isNotNull();
+    assertThat(entries).extracting(LedgerEntry::getSequence).containsExactly(11L, 10L, 9L);
+  }
+
+  @Test
+  public void historyBeyondTheWindowIsDroppedWithoutSpill() throws Exception {
+    ledger = new TransferLedger(repository, 8, false, null, 0, 0);
+    for (int i = 1; i <= 20; i++) {
+      ledger.record(from, to, BigDecimal.ONE);
+    }
+
+    List<LedgerEntry> entries = new ArrayList<>();
+    assertThat(ledger.read(to, null, 5, entries::add)).isEqualTo("14");
+    assertThat(ledger.read(to, "14", 5, entries::add)).isNull();
+    assertThat(entries).extracting(LedgerEntry::getSequence).containsExactly(19L, 18L, 17L, 16L, 15L, 14L, 13L, 12L);
+    assertThat(entries).extracting(LedgerEntry::getAmount).containsOnly(BigDecimal.ONE);
+  }
+}
@@ -0,0 +1,106 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.transfer.metrics.LatencyHistogram;
+import com.db.awmd.challenge.transfer.metrics.TransferMetrics;
+import com.db.awmd.challenge.transfer.metrics.TransferPhase;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@WebAppConfiguration
+public class TransferMetricsTest {
+
+  @Autowired
+  private AccountsService accountsService;
+
+  @Autowired
+  private TransferMetrics transferMetrics;
+
+  @Autowired
+  private WebApplicationContext webApplicationContext;
+
+  @Test
+  public void percentilesAreWithinBucketPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 1; value <= 100_000; value++) {
+      histogram.record(value);
+    }
+
+    assertThat(histogram.getCount()).isEqualTo(100_000);
+    assertThat(histogram.getMax()).isEqualTo(100_000);
+    assertThat(histogram.getMean()).isEqualTo(50_000.5);
+    assertThat(histogram.getValueAtPercentile(50.0)).isBetween(50_000L, 51_600L);
+    assertThat(histogram.getValueAtPercentile(99.0)).isBetween(99_000L, 100_000L);
+    assertThat(histogram.getValueAtPercentile(100.0)).isEqualTo(100_000);
+  }
+
+  @Test
+  public void recordingDoesNotAllocate() {
+    com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    TransferMetrics metrics = new TransferMetrics(true);
+    for (int i = 0; i < 20_000; i++) {
+      metrics.record(TransferPhase.TOTAL, metrics.start());
+    }
+
+    long thread = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < 100_000; i++) {
+      metrics.record(TransferPhase.TOTAL, metrics.start());
+    }
+    long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+    assertThat(allocated).isLessThan(1024);
+  }
+
+  @Test
+  public void transfersAreTimedAndCounted() throws Exception {
+    final String accountFromId = UUID.randomUUID().toString();
+    final String accountToId = UUID.randomUUID().toString();
+    this.accountsService.createAccount(new Account(accountFromId, new BigDecimal("100.00")));
+    this.accountsService.createAccount(new Account(accountToId, new BigDecimal("0.00")));
+    long succeeded = transferMetrics.getSucceeded();
+    long insufficient = transferMetrics.getFailed(InsufficientBalanceException.class);
+    long total = transferMetrics.getHistogram(TransferPhase.TOTAL).getCount();
+
+    this.accountsService.fundTransfer(accountFromId, accountToId, new BigDecimal("60.00"));
+    try {
+      this.accountsService.fundTransfer(accountFromId, accountToId, new BigDecimal("60.00"));
+      fail("Should have failed on the balance");
+    } catch (InsufficientBalanceException ibe) {
+      assertThat(transferMetrics.getFailed(InsufficientBalanceException.class)).isEqualTo(insufficient + 1);
+    }
+
+    assertThat(transferMetrics.getSucceeded()).isEqualTo(succeeded + 1);
+    assertThat(transferMetrics.getHistogram(TransferPhase.TOTAL).getCount()).isEqualTo(total + 2);
+    assertThat(transferMetrics.getHistogram(TransferPhase.LOCK_WAIT).getCount()).isPositive();
+    assertThat(transferMetrics.getHistogram(TransferPhase.TRANSACTION).getCount()).isPositive();
+
+    webAppContextSetup(this.webApplicationContext).build().perform(get("/metrics"))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$['transfer.latency.total.p99']").isNumber())
+      .andExpect(jsonPath("$['transfer.failed.InsufficientBalanceException']").isNumber())
+      .andExpect(jsonPath("$['transfer.optimistic.fallbacks']").isNumber());
+  }
+}